@@ -0,0 +1,166 @@
+package benchmarks;
+
+import benchmarks.harness.HarnessedBracha;
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.*;
+import protocols.broadcast.byzantine.ByzantineReliableBcastProtocol;
+import protocols.broadcast.byzantine.messages.EchoMessage;
+import protocols.broadcast.byzantine.messages.ReadyMessage;
+import protocols.broadcast.messages.SignedBroadcastMessage;
+import protocols.broadcast.request.BroadcastRequest;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.SignaturesHelper;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * Per-message cost of the echo and ready handlers of a correct replica, with the signatures of the other n-1 replicas
+ * generated beforehand. With the duplicates scenario the last f peers are Byzantine: they send every echo and ready
+ * twice and add a validly signed echo and ready for a conflicting payload.
+ * Each invocation handles BATCH messages of the stream; a replica only sees every instance once, so a fresh one, built
+ * with the others before the iteration, takes over whenever the stream wraps around.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BrachaHandlersBenchmark {
+
+    private static final int INSTANCES = 128;
+    private static final int PAYLOAD_SIZE = 256;
+    // Messages per invocation: every instance has the same number of messages, so the streams are multiples of it
+    private static final int BATCH = INSTANCES;
+    // Replicas built per iteration and phase, more than a 1 s iteration goes through
+    private static final int POOL = 256;
+
+    @Param({"4", "10"})
+    public int n;
+
+    @Param({"honest", "duplicates"})
+    public String scenario;
+
+    private int f;
+    private Host self;
+    private KeyPair selfKeys;
+    private Map<Host, PublicKey> peers;
+
+    // Broadcast and echo messages of every instance, in arrival order
+    private List<Consumer<HarnessedBracha>> echoPhase;
+    private List<Consumer<HarnessedBracha>> readyPhase;
+
+    private Deque<HarnessedBracha> echoReplicas, readyReplicas;
+    private HarnessedBracha echoReplica, readyReplica;
+    private int echoCursor, readyCursor;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        f = (n - 1) / 3;
+        self = Fixtures.host(6000);
+        selfKeys = Fixtures.keyPair();
+
+        List<Host> hosts = new ArrayList<>();
+        Map<Host, KeyPair> keys = new HashMap<>();
+        peers = new LinkedHashMap<>();
+        for (int i = 1; i < n; i++) {
+            Host h = Fixtures.host(6000 + i);
+            KeyPair kp = Fixtures.keyPair();
+            hosts.add(h);
+            keys.put(h, kp);
+            peers.put(h, kp.getPublic());
+        }
+        List<Host> byzantine = scenario.equals("duplicates") ? hosts.subList(hosts.size() - f, hosts.size()) : List.of();
+
+        Random random = new Random(42);
+        echoPhase = new ArrayList<>();
+        readyPhase = new ArrayList<>();
+        for (int i = 0; i < INSTANCES; i++) {
+            Host origin = hosts.get(i % hosts.size());
+            UUID mid = new UUID(random.nextLong(), random.nextLong());
+            ByteBuf envelope = new BroadcastRequest(origin, Fixtures.bytes(PAYLOAD_SIZE, random)).encode();
+            ByteBuf conflicting = new BroadcastRequest(origin, Fixtures.bytes(PAYLOAD_SIZE, random)).encode();
+            byte[] originalSignature = SignaturesHelper.generateSignature(envelope, keys.get(origin).getPrivate());
+
+            SignedBroadcastMessage bm = new SignedBroadcastMessage(origin, origin, mid, envelope, originalSignature, null);
+            SignaturesHelper.sign(bm, keys.get(origin).getPrivate(), mid);
+            echoPhase.add(p -> p.uponReceiveBroadcastMessage(bm, origin, ByzantineReliableBcastProtocol.PROTO_ID, 0));
+
+            // Byzantine peers go first, so their messages hit the handlers before the quorums are reached
+            List<Host> order = new ArrayList<>(byzantine);
+            for (Host h : hosts)
+                if (!byzantine.contains(h))
+                    order.add(h);
+
+            for (Host h : order) {
+                EchoMessage echo = new EchoMessage(origin, h, mid, envelope, originalSignature);
+                SignaturesHelper.sign(echo, keys.get(h).getPrivate(), mid);
+                ReadyMessage ready = new ReadyMessage(h, mid, envelope);
+                SignaturesHelper.sign(ready, keys.get(h).getPrivate(), mid);
+
+                echoPhase.add(p -> p.uponEchoMessage(echo, h, ByzantineReliableBcastProtocol.PROTO_ID, 0));
+                readyPhase.add(p -> p.uponReadyMessage(ready, h, ByzantineReliableBcastProtocol.PROTO_ID, 0));
+
+                if (byzantine.contains(h)) {
+                    EchoMessage fakeEcho = new EchoMessage(origin, h, mid, conflicting, originalSignature);
+                    SignaturesHelper.sign(fakeEcho, keys.get(h).getPrivate(), mid);
+                    ReadyMessage fakeReady = new ReadyMessage(h, mid, conflicting);
+                    SignaturesHelper.sign(fakeReady, keys.get(h).getPrivate(), mid);
+
+                    echoPhase.add(p -> p.uponEchoMessage(echo, h, ByzantineReliableBcastProtocol.PROTO_ID, 0));
+                    echoPhase.add(p -> p.uponEchoMessage(fakeEcho, h, ByzantineReliableBcastProtocol.PROTO_ID, 0));
+                    readyPhase.add(p -> p.uponReadyMessage(ready, h, ByzantineReliableBcastProtocol.PROTO_ID, 0));
+                    readyPhase.add(p -> p.uponReadyMessage(fakeReady, h, ByzantineReliableBcastProtocol.PROTO_ID, 0));
+                }
+            }
+        }
+        if (echoPhase.size() % BATCH != 0 || readyPhase.size() % BATCH != 0)
+            throw new IllegalStateException("The message streams are not multiples of " + BATCH);
+        echoCursor = echoPhase.size();
+        readyCursor = readyPhase.size();
+    }
+
+    @Setup(Level.Iteration)
+    public void replicas() {
+        echoReplicas = new ArrayDeque<>(POOL);
+        readyReplicas = new ArrayDeque<>(POOL);
+        for (int i = 0; i < POOL; i++) {
+            echoReplicas.add(new HarnessedBracha(f, self, selfKeys, peers));
+            readyReplicas.add(new HarnessedBracha(f, self, selfKeys, peers));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long echo() {
+        if (echoCursor == echoPhase.size()) {
+            echoReplica = fresh(echoReplicas);
+            echoCursor = 0;
+        }
+        for (int i = 0; i < BATCH; i++)
+            echoPhase.get(echoCursor++).accept(echoReplica);
+        return echoReplica.getSent();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long ready() {
+        if (readyCursor == readyPhase.size()) {
+            readyReplica = fresh(readyReplicas);
+            readyCursor = 0;
+        }
+        for (int i = 0; i < BATCH; i++)
+            readyPhase.get(readyCursor++).accept(readyReplica);
+        return readyReplica.getDelivered();
+    }
+
+    // Used replicas are dropped, and one is only built inside the measurement if the pool runs out
+    private HarnessedBracha fresh(Deque<HarnessedBracha> pool) {
+        HarnessedBracha replica = pool.poll();
+        return replica != null ? replica : new HarnessedBracha(f, self, selfKeys, peers);
+    }
+}
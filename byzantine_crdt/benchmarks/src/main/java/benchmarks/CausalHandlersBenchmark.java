@@ -0,0 +1,90 @@
+package benchmarks;
+
+import benchmarks.harness.HarnessedCausal;
+import org.openjdk.jmh.annotations.*;
+import protocols.broadcast.crash.CausalReliableBcastProtocol;
+import protocols.broadcast.messages.BroadcastMessage;
+import protocols.broadcast.request.BroadcastRequest;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Per-message cost of the causal broadcast handler. Every message depends on all the previous ones; with the shuffled
+ * order the messages are permuted within windows, so part of them wait in the pending set before being delivered.
+ * Each invocation handles the whole stream on a fresh replica, built with the others before the iteration.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CausalHandlersBenchmark {
+
+    private static final int MESSAGES = 4096;
+    private static final int PAYLOAD_SIZE = 256;
+    // Replicas built per iteration, more than a 1 s iteration goes through
+    private static final int POOL = 512;
+
+    @Param({"4", "10"})
+    public int n;
+
+    @Param({"inOrder", "shuffled"})
+    public String order;
+
+    @Param({"8"})
+    public int window;
+
+    private Host self;
+    private List<Host> peers;
+    private List<BroadcastMessage> stream;
+
+    private Deque<HarnessedCausal> replicas;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        self = Fixtures.host(6000);
+        peers = new ArrayList<>();
+        for (int i = 1; i < n; i++)
+            peers.add(Fixtures.host(6000 + i));
+
+        Random random = new Random(42);
+        Map<Host, Integer> vv = new HashMap<>();
+        vv.put(self, 0);
+        for (Host h : peers)
+            vv.put(h, 0);
+
+        stream = new ArrayList<>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            Host sender = peers.get(i % peers.size());
+            vv.merge(sender, 1, Integer::sum);
+            stream.add(new BroadcastMessage(sender, new UUID(random.nextLong(), random.nextLong()),
+                    new BroadcastRequest(sender, Fixtures.bytes(PAYLOAD_SIZE, random)).encode(), new HashMap<>(vv)));
+        }
+
+        if (order.equals("shuffled"))
+            for (int i = 0; i < MESSAGES; i += window)
+                Collections.shuffle(stream.subList(i, Math.min(i + window, MESSAGES)), random);
+    }
+
+    @Setup(Level.Iteration)
+    public void replicas() {
+        replicas = new ArrayDeque<>(POOL);
+        for (int i = 0; i < POOL; i++)
+            replicas.add(new HarnessedCausal(self, peers));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public long receive() {
+        // Used replicas are dropped, and one is only built inside the measurement if the pool runs out
+        HarnessedCausal replica = replicas.poll();
+        if (replica == null)
+            replica = new HarnessedCausal(self, peers);
+        for (BroadcastMessage msg : stream)
+            replica.uponReceiveBroadcastMessage(msg, msg.getSender(), CausalReliableBcastProtocol.PROTO_ID, 0);
+        return replica.getDelivered();
+    }
+}
@@ -0,0 +1,39 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import utils.HashProducer;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashSetBenchmark {
+
+    @Param({"100", "10000"})
+    public int elements;
+
+    @Param({"10", "100"})
+    public int elementSize;
+
+    private Set<String> set;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        set = new HashSet<>();
+        while (set.size() < elements)
+            set.add(Fixtures.letters(elementSize, random));
+    }
+
+    @Benchmark
+    public String hashSet() {
+        return HashProducer.hashSet(set);
+    }
+}
@@ -0,0 +1,62 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import protocols.crdt.ORSetCollection;
+import protocols.crdt.Operation;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ORSetBenchmark {
+
+    // Elements already in the set
+    @Param({"1000", "100000"})
+    public int stateSize;
+
+    @Param({"10", "1000"})
+    public int elementSize;
+
+    private ORSetCollection state;
+    private String[] elements;
+    private Random random;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        random = new Random(42);
+        state = new ORSetCollection();
+        elements = new String[stateSize];
+        for (int i = 0; i < stateSize; i++) {
+            elements[i] = Fixtures.letters(elementSize, random);
+            state.processAddOperation(add(elements[i], new UUID(random.nextLong(), random.nextLong())));
+        }
+    }
+
+    private static Operation add(String element, UUID tag) {
+        return new Operation(Operation.ADD_OP, "default", Set.of(tag), element);
+    }
+
+    // A concurrent add of an element that is already in the set: one more tag, the state keeps its number of elements
+    @Benchmark
+    public ORSetCollection addExisting() {
+        state.processAddOperation(add(elements[random.nextInt(stateSize)], new UUID(random.nextLong(), random.nextLong())));
+        return state;
+    }
+
+    // Adding a new element and removing it again keeps the state size steady across invocations
+    @Benchmark
+    public ORSetCollection addThenRemove() {
+        UUID tag = new UUID(random.nextLong(), random.nextLong());
+        String element = elements[random.nextInt(stateSize)] + "#";
+        state.processAddOperation(add(element, tag));
+        state.processRemoveOperation(new Operation(Operation.REMOVE_OP, "default", Set.of(tag), element));
+        return state;
+    }
+}
@@ -0,0 +1,65 @@
+package benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import protocols.crdt.Operation;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OperationCodecBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int elementSize;
+
+    @Param({"1", "16"})
+    public int tags;
+
+    private Operation op;
+    private ByteBuf out;
+    private ByteBuf encoded;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        Set<UUID> ids = new HashSet<>();
+        for (int i = 0; i < tags; i++)
+            ids.add(new UUID(random.nextLong(), random.nextLong()));
+
+        op = new Operation(Operation.REMOVE_OP, "default", ids, Fixtures.letters(elementSize, random));
+        out = Unpooled.buffer(op.encodedSize());
+        encoded = op.encode();
+    }
+
+    @Benchmark
+    public ByteBuf encodeInto() {
+        out.clear();
+        op.encode(out);
+        return out;
+    }
+
+    @Benchmark
+    public ByteBuf encode() {
+        return op.encode();
+    }
+
+    @Benchmark
+    public void decode(Blackhole bh) {
+        Operation decoded = Operation.decode(encoded.duplicate());
+        bh.consume(decoded.getSetName());
+        bh.consume(decoded.getElement());
+        for (int i = 0; i < decoded.getAddIdCount(); i++)
+            bh.consume(decoded.getAddId(i));
+    }
+}
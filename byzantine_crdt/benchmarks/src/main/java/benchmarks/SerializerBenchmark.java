@@ -0,0 +1,124 @@
+package benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import protocols.broadcast.byzantine.messages.EchoMessage;
+import protocols.broadcast.byzantine.messages.ReadyMessage;
+import protocols.broadcast.messages.BroadcastMessage;
+import protocols.broadcast.messages.SignedBroadcastMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.SignaturesHelper;
+
+import java.io.IOException;
+import java.security.KeyPair;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializerBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    // Number of entries in the version vector of the broadcast messages
+    @Param({"10"})
+    public int replicas;
+
+    private BroadcastMessage broadcast;
+    private SignedBroadcastMessage signedBroadcast;
+    private EchoMessage echo;
+    private ReadyMessage ready;
+
+    private ByteBuf out;
+    private ByteBuf broadcastBytes, signedBroadcastBytes, echoBytes, readyBytes;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(42);
+        KeyPair keys = Fixtures.keyPair();
+        Host self = Fixtures.host(8001);
+        UUID mid = UUID.randomUUID();
+        ByteBuf payload = Unpooled.wrappedBuffer(Fixtures.bytes(payloadSize, random));
+        byte[] originalSignature = SignaturesHelper.generateSignature(payload, keys.getPrivate());
+
+        Map<Host, Integer> vv = new HashMap<>();
+        for (int i = 0; i < replicas; i++)
+            vv.put(Fixtures.host(8001 + i), random.nextInt(1000));
+
+        broadcast = new BroadcastMessage(self, mid, payload, vv);
+        signedBroadcast = new SignedBroadcastMessage(self, self, mid, payload, originalSignature, vv);
+        echo = new EchoMessage(self, self, mid, payload, originalSignature);
+        ready = new ReadyMessage(self, mid, payload);
+        signedBroadcast.signMessage(keys.getPrivate());
+        echo.signMessage(keys.getPrivate());
+        ready.signMessage(keys.getPrivate());
+
+        out = Unpooled.buffer(2 * payloadSize + 4096);
+        broadcastBytes = serialized(BroadcastMessage.serializer, broadcast);
+        signedBroadcastBytes = serialized(SignedBroadcastMessage.serializer, signedBroadcast);
+        echoBytes = serialized(EchoMessage.serializer, echo);
+        readyBytes = serialized(ReadyMessage.serializer, ready);
+    }
+
+    private static <T> ByteBuf serialized(ISerializer<T> serializer, T msg) throws IOException {
+        ByteBuf buf = Unpooled.buffer();
+        serializer.serialize(msg, buf);
+        return buf;
+    }
+
+    private <T> ByteBuf serialize(ISerializer<T> serializer, T msg) throws IOException {
+        out.clear();
+        serializer.serialize(msg, out);
+        return out;
+    }
+
+    @Benchmark
+    public ByteBuf serializeBroadcast() throws IOException {
+        return serialize(BroadcastMessage.serializer, broadcast);
+    }
+
+    @Benchmark
+    public ByteBuf serializeSignedBroadcast() throws IOException {
+        return serialize(SignedBroadcastMessage.serializer, signedBroadcast);
+    }
+
+    @Benchmark
+    public ByteBuf serializeEcho() throws IOException {
+        return serialize(EchoMessage.serializer, echo);
+    }
+
+    @Benchmark
+    public ByteBuf serializeReady() throws IOException {
+        return serialize(ReadyMessage.serializer, ready);
+    }
+
+    @Benchmark
+    public BroadcastMessage deserializeBroadcast() throws IOException {
+        return BroadcastMessage.serializer.deserialize(broadcastBytes.duplicate());
+    }
+
+    @Benchmark
+    public SignedBroadcastMessage deserializeSignedBroadcast() throws IOException {
+        return SignedBroadcastMessage.serializer.deserialize(signedBroadcastBytes.duplicate());
+    }
+
+    @Benchmark
+    public EchoMessage deserializeEcho() throws IOException {
+        return EchoMessage.serializer.deserialize(echoBytes.duplicate());
+    }
+
+    @Benchmark
+    public ReadyMessage deserializeReady() throws IOException {
+        return ReadyMessage.serializer.deserialize(readyBytes.duplicate());
+    }
+}
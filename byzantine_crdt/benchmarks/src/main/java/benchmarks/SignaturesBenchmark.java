@@ -0,0 +1,57 @@
+package benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+import utils.SignaturesHelper;
+
+import java.security.KeyPair;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignaturesBenchmark {
+
+    @Param({"64", "1024", "16384"})
+    public int payloadSize;
+
+    private KeyPair keys;
+    private byte[] payload;
+    private ByteBuf payloadBuf;
+    private byte[] signature;
+
+    @Setup
+    public void setup() throws Exception {
+        keys = Fixtures.keyPair();
+        payload = Fixtures.bytes(payloadSize, new Random(42));
+        // A two-component buffer, like the envelope built by BroadcastRequest
+        payloadBuf = Unpooled.wrappedBuffer(Unpooled.wrappedBuffer(payload, 0, payloadSize / 2),
+                Unpooled.wrappedBuffer(payload, payloadSize / 2, payloadSize - payloadSize / 2));
+        signature = SignaturesHelper.generateSignature(payload, keys.getPrivate());
+    }
+
+    @Benchmark
+    public byte[] sign() throws Exception {
+        return SignaturesHelper.generateSignature(payload, keys.getPrivate());
+    }
+
+    @Benchmark
+    public byte[] signBuffer() throws Exception {
+        return SignaturesHelper.generateSignature(payloadBuf, keys.getPrivate());
+    }
+
+    @Benchmark
+    public boolean verify() throws Exception {
+        return SignaturesHelper.checkSignature(payload, signature, keys.getPublic());
+    }
+
+    @Benchmark
+    public boolean verifyBuffer() throws Exception {
+        return SignaturesHelper.checkSignature(payloadBuf, signature, keys.getPublic());
+    }
+}
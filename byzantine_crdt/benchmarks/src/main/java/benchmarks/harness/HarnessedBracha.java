@@ -0,0 +1,72 @@
+package benchmarks.harness;
+
+import protocols.broadcast.byzantine.ByzantineReliableBcastProtocol;
+import protocols.broadcast.notifications.DeliveryNotification;
+import protocols.events.SecureChannelAvailable;
+import protocols.events.SecureNeighborUp;
+import protocols.events.ViewChange;
+import protocols.membership.View;
+import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.KeyDirectory;
+
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/*
+ * Bracha's broadcast without a Babel runtime: no channel is opened, messages sent and notifications triggered are only
+ * counted, and the handlers are called directly by the benchmark on its own thread.
+ */
+public class HarnessedBracha extends ByzantineReliableBcastProtocol {
+
+    private long sent = 0;
+    private long delivered = 0;
+
+
+    public HarnessedBracha(int f, Host self, KeyPair keys, Map<Host, PublicKey> peers) {
+        Properties props = new Properties();
+        props.setProperty("f", String.valueOf(f));
+        //The benchmarks warm the paths up themselves
+        props.setProperty(KeyDirectory.WARMUP, "0");
+        try {
+            init(props);
+        } catch (HandlerRegistrationException e) {
+            throw new IllegalStateException(e);
+        }
+
+        handleChannelAvailableNotification(new SecureChannelAvailable(0, self, keys.getPrivate(), keys.getPublic()), PROTO_ID);
+        for (Map.Entry<Host, PublicKey> peer : peers.entrySet())
+            uponNeighborUpNotification(new SecureNeighborUp(peer.getKey(), peer.getValue()), PROTO_ID);
+
+        Set<Host> members = new HashSet<>(peers.keySet());
+        members.add(self);
+        uponViewChangeNotification(new ViewChange(new View(0, members)), PROTO_ID);
+    }
+
+    @Override
+    protected void registerChannel(int channelID) {
+    }
+
+    @Override
+    protected void send(ProtoMessage msg, Host h) {
+        sent++;
+    }
+
+    @Override
+    protected void deliver(DeliveryNotification notification) {
+        delivered++;
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+}
@@ -0,0 +1,56 @@
+package benchmarks.harness;
+
+import protocols.broadcast.crash.CausalReliableBcastProtocol;
+import protocols.broadcast.notifications.DeliveryNotification;
+import protocols.events.ChannelAvailable;
+import protocols.events.NeighborUp;
+import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+import java.util.Collection;
+import java.util.Properties;
+
+/*
+ * Causal broadcast without a Babel runtime, see HarnessedBracha.
+ */
+public class HarnessedCausal extends CausalReliableBcastProtocol {
+
+    private long sent = 0;
+    private long delivered = 0;
+
+
+    public HarnessedCausal(Host self, Collection<Host> peers) {
+        try {
+            init(new Properties());
+        } catch (HandlerRegistrationException e) {
+            throw new IllegalStateException(e);
+        }
+
+        handleChannelAvailableNotification(new ChannelAvailable(0, self), PROTO_ID);
+        for (Host peer : peers)
+            uponNeighborUpNotification(new NeighborUp(peer), PROTO_ID);
+    }
+
+    @Override
+    protected void registerChannel(int channelID) {
+    }
+
+    @Override
+    protected void send(ProtoMessage msg, Host h) {
+        sent++;
+    }
+
+    @Override
+    protected void deliver(DeliveryNotification notification) {
+        delivered++;
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getDelivered() {
+        return delivered;
+    }
+}
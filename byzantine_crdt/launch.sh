@@ -0,0 +1,76 @@
+#!/usr/bin/env bash
+# Starts n replicas on this machine with derived key material, waits for them to exit and gathers their logs
+# into runs/<fault model>-n<n>-<timestamp>/. Extra arguments are passed to every replica as configuration overrides.
+#
+#   ./launch.sh 32 fault_model=byzantine run_time=120
+#   for n in 4 16 32 64 100; do ./launch.sh $n fault_model=crash; done
+
+set -euo pipefail
+
+if [ $# -lt 1 ]; then
+    echo "usage: $0 <replicas> [key=value ...]" >&2
+    exit 1
+fi
+
+N=$1
+shift
+JAR=${JAR:-target/dare-0.0.1-SNAPSHOT.jar}
+JAVA_OPTS=${JAVA_OPTS:--Xmx256m}
+BASE_PORT=${BASE_PORT:-8001}
+F=$(( (N - 1) / 3 ))
+
+FAULT_MODEL=$(grep -E '^fault_model ' babel-conf.txt | awk '{print $2}')
+for arg in "$@"; do
+    case $arg in fault_model=*) FAULT_MODEL=${arg#fault_model=} ;; esac
+done
+
+RUN=runs/${FAULT_MODEL}-n${N}-$(date +%Y%m%d-%H%M%S)
+mkdir -p "$RUN/logs"
+
+NEIGHBORS=""
+for ((i = 0; i < N; i++)); do
+    NEIGHBORS+="${NEIGHBORS:+,}127.0.0.1:$((BASE_PORT + i))"
+done
+
+# The automated app appends to these at exit, so earlier runs would end up in the copies of this one
+APP_LOGS=src/main/java/app/simulation/logs/byzantine
+for ((i = 0; i < N; i++)); do
+    rm -f "$APP_LOGS/log$((BASE_PORT + i)).txt"
+done
+
+# Every replica would otherwise derive the key pair of every other one
+java $JAVA_OPTS -cp "$JAR" utils.KeyDirectory membership.neighbors=$NEIGHBORS crypto.keys=derived \
+    crypto.public_keys=$RUN/public-keys.txt "$@" > "$RUN/logs/keys.log" 2>&1
+
+PIDS=()
+trap 'kill "${PIDS[@]}" 2>/dev/null' INT TERM
+
+for ((i = 0; i < N; i++)); do
+    PORT=$((BASE_PORT + i))
+    java $JAVA_OPTS -jar "$JAR" \
+        membership.myhost=127.0.0.1:$PORT membership.neighbors=$NEIGHBORS \
+        crypto_name=node$((i + 1)) crypto.keys=derived crypto.public_keys=$RUN/public-keys.txt f=$F \
+        app_interaction=automated metrics.hlog_dir=$RUN/metrics "$@" \
+        > "$RUN/logs/node$((i + 1)).log" 2>&1 &
+    PIDS+=($!)
+done
+
+echo "Started $N replicas (f=$F), logs in $RUN"
+FAILED=0
+for pid in "${PIDS[@]}"; do
+    wait "$pid" || FAILED=$((FAILED + 1))
+done
+
+# Logs written by the automated app at exit
+for ((i = 0; i < N; i++)); do
+    LOG=$APP_LOGS/log$((BASE_PORT + i)).txt
+    [ -f "$LOG" ] && cp "$LOG" "$RUN/logs/"
+done
+
+echo "Done, $FAILED replicas exited with an error"
+
+# Time until each replica established a session with every other one (secure membership only)
+grep -ho "Time to ready: [0-9]* ms" "$RUN"/logs/node*.log 2>/dev/null | awk -v n="$N" \
+    '{ t = $4; sum += t; if (t > max) max = t; c++ }
+     END { if (c > 0) printf "Time to ready (n=%d): %d replicas, mean %.0f ms, max %d ms\n", n, c, sum / c, max }' \
+    | tee "$RUN/ready.txt" || true
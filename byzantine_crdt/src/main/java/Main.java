@@ -1,16 +1,26 @@
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 import app.AutomatedApp;
 import app.InteractiveApp;
 import protocols.broadcast.crash.CausalReliableBcastProtocol;
+import protocols.broadcast.CostLedger;
 import protocols.broadcast.byzantine.ByzantineReliableBcastProtocol;
 import protocols.broadcast.crash.SignedCausalReliableBcastProtocol;
 import protocols.crdt.ORSet;
 import protocols.crdt.ByzantineORSet;
+import protocols.crdt.Keyspace;
+import protocols.membership.HyParViewMembershipProtocol;
 import protocols.membership.SecureStaticMembershipProtocol;
 import protocols.membership.StaticMembershipProtocol;
 import pt.unl.fct.di.novasys.babel.core.Babel;
 import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
+import utils.LatencyHistograms;
+import utils.metrics.Metrics;
+import utils.network.EmulatedTCPChannel;
+import utils.network.ReliableDatagramChannel;
+import utils.tracing.Tracing;
 
 
 public class Main {
@@ -24,36 +34,52 @@ public class Main {
 	public final static String DEFAULT_CONFIG_FILE = "babel-conf.txt";
     public final static String FAULT_MODEL = "fault_model";
     public static final String APP_INTERACTION_MODE = "app_interaction";
+    // static (full mesh of membership.neighbors) or hyparview (partial views), for the crash fault model
+    public static final String MEMBERSHIP = "membership.protocol";
 	
 	public static void main(String[] args) {
 		
 		try {
 			Babel babel = Babel.getInstance();
 			Properties props = Babel.loadConfig(args, DEFAULT_CONFIG_FILE);
-            GenericProtocol application, crdt, bcast, membership;
+            GenericProtocol application, bcast, membership;
+            List<GenericProtocol> crdtShards = new ArrayList<>();
+            int shards = Keyspace.getShards(props);
+            LatencyHistograms.start(props, props.getProperty("membership.myhost"));
+            Metrics.start(props);
+            Tracing.start(props, props.getProperty("membership.myhost"));
+            CostLedger.start(props.getProperty(LatencyHistograms.LOG_DIR, "metrics"), props.getProperty("membership.myhost"));
+            EmulatedTCPChannel.register();
+            ReliableDatagramChannel.register();
 
             if(props.getProperty(APP_INTERACTION_MODE).equals("interactive"))
                 application = new InteractiveApp();
             else application = new AutomatedApp();
 
             if(props.getProperty(FAULT_MODEL).equals("crash")) {
-                crdt = new ORSet();
+                for (int i = 0; i < shards; i++)
+                    crdtShards.add(new ORSet(i));
                 bcast = new CausalReliableBcastProtocol();
-                membership = new StaticMembershipProtocol();
+                if(props.getProperty(MEMBERSHIP, "static").equals("hyparview"))
+                    membership = new HyParViewMembershipProtocol();
+                else membership = new StaticMembershipProtocol();
 
             } else { // BYZANTINE FAULT TOLERANCE
-                crdt = new ByzantineORSet();
+                for (int i = 0; i < shards; i++)
+                    crdtShards.add(new ByzantineORSet(i));
                 bcast = new ByzantineReliableBcastProtocol();
                 membership = new SecureStaticMembershipProtocol();
             }
 
             babel.registerProtocol(application);
-            babel.registerProtocol(crdt);
+            for (GenericProtocol crdt : crdtShards)
+                babel.registerProtocol(crdt);
             babel.registerProtocol(bcast);
             babel.registerProtocol(membership);
 
             application.init(props);
-            crdt.init(props);
+            for (GenericProtocol crdt : crdtShards)
+                crdt.init(props);
             bcast.init(props);
             membership.init(props);
 
@@ -7,25 +7,36 @@ import java.util.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import app.timers.ArrivalTimer;
 import app.timers.DisseminationTimer;
 import app.timers.ExitTimer;
+import app.timers.RampTimer;
 import app.timers.StartTimer;
 import app.timers.StopTimer;
+import app.workload.OpenLoop;
+import app.workload.Trace;
+import protocols.broadcast.notifications.DeliveryNotification;
+import protocols.crdt.Operation;
+import protocols.crdt.requests.FlushRequest;
 import protocols.crdt.requests.ReadRequest;
 import protocols.crdt.requests.RemoveRequest;
 import protocols.events.ChannelAvailable;
 import protocols.events.NeighborUp;
 import protocols.events.SecureChannelAvailable;
+import protocols.crdt.Keyspace;
 import protocols.crdt.ORSet;
-import protocols.crdt.ByzantineORSet;
 import protocols.crdt.replies.AddReply;
 import protocols.crdt.replies.ReadReply;
 import protocols.crdt.replies.RemoveReply;
 import protocols.crdt.requests.AddRequest;
 import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
 import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
 import pt.unl.fct.di.novasys.network.data.Host;
 import utils.HashProducer;
+import utils.LatencyHistograms;
+import utils.Randomness;
 
 public class AutomatedApp extends GenericProtocol {
     private static final Logger logger = LogManager.getLogger(AutomatedApp.class);
@@ -33,6 +44,7 @@ public class AutomatedApp extends GenericProtocol {
     public static final String PROTO_NAME = "AutomatedApp";
     public static final short PROTO_ID = 400;
     public final static String FAULT_MODEL = "fault_model";
+    public final static String SETS_KEY = "n_sets";
 
     //Size of the payload of each message (in bytes)
     private int payloadSize;
@@ -46,7 +58,7 @@ public class AutomatedApp extends GenericProtocol {
     private int disseminationInterval;
 
     private Host self;
-    private short crdtProtoId;
+    private Keyspace keyspace;
     private long broadCastTimer;
 
     private int nAdds;
@@ -56,7 +68,19 @@ public class AutomatedApp extends GenericProtocol {
     private int totalAdds;
     private int totalRemoves;
     private int idx;
-    private Set<String> state;
+    //Number of sets the workload is spread over
+    private int nSets;
+    private int removeIdx;
+    private Map<String, Set<String>> state;
+    //Open-loop workload, null in the closed-loop mode
+    private OpenLoop openLoop;
+    private boolean generating;
+    private long rampTimer;
+    //Directory of the trace of the issued operations, null when they are not recorded
+    private String traceDir;
+    private Trace.Writer trace;
+    //Trace replayed in replay mode
+    private String replayedTrace;
 
 
     public AutomatedApp() { super(PROTO_NAME, PROTO_ID); }
@@ -77,9 +101,16 @@ public class AutomatedApp extends GenericProtocol {
         this.totalAdds = 0;
         this.totalRemoves = 0;
         this.idx = 0;
-        this.state = new HashSet<>();
+        this.nSets = Integer.parseInt(props.getProperty(SETS_KEY, "1"));
+        this.removeIdx = 0;
+        this.state = new HashMap<>();
 
-        crdtProtoId = props.getProperty(FAULT_MODEL).equals("crash") ? ORSet.PROTO_ID : ByzantineORSet.PROTO_ID;
+        keyspace = Keyspace.fromConfig(props);
+        this.openLoop = OpenLoop.isEnabled(props) ? new OpenLoop(props) : null;
+        this.generating = false;
+        if(Boolean.parseBoolean(props.getProperty(Trace.RECORD, "false")))
+            this.traceDir = props.getProperty(LatencyHistograms.LOG_DIR, "metrics");
+        this.replayedTrace = props.getProperty(Trace.FILE);
 
 
         /* ------------------------------- Subscribe Notifications ----------------------------------- */
@@ -92,12 +123,18 @@ public class AutomatedApp extends GenericProtocol {
         registerTimerHandler(StartTimer.TIMER_ID, this::uponStartTimer);
         registerTimerHandler(StopTimer.TIMER_ID, this::uponStopTimer);
         registerTimerHandler(ExitTimer.TIMER_ID, this::uponExitTimer);
+        registerTimerHandler(ArrivalTimer.TIMER_ID, this::uponArrivalTimer);
+        registerTimerHandler(RampTimer.TIMER_ID, this::uponRampTimer);
 
         /* ------------------------------- Register Reply Handlers ----------------------------------- */
         registerReplyHandler(AddReply.REPLY_ID, this::handleAddReply);
         registerReplyHandler(RemoveReply.REPLY_ID, this::handleRemoveReply);
         registerReplyHandler(ReadReply.REPLY_ID, this::handleReadReply);
 
+        //Operations of the open-loop workload complete when delivered back to this replica
+        if(openLoop != null)
+            subscribeNotification(DeliveryNotification.NOTIFICATION_ID, this::uponDeliver);
+
 
         //Wait prepareTime seconds before starting
         logger.debug("Waiting...");
@@ -109,37 +146,81 @@ public class AutomatedApp extends GenericProtocol {
     public void uponChannelAvailable(ChannelAvailable notification, short protoSource) {
     	this.self = notification.getMyHost();
         logger.debug("Communication Channel is ready... starting wait time to start broadcasting ({}s)", prepareTime);
-    	setupTimer(new StartTimer(), prepareTime * 1000L);
+    	timer(new StartTimer(), prepareTime * 1000L);
     }
 
     public void uponSecureChannelAvailable(SecureChannelAvailable notification, short protoSource) {
         this.self = notification.getMyHost();
         logger.debug("Secure Communication Channel is ready... starting wait time to start broadcasting ({}s)", prepareTime);
-        setupTimer(new StartTimer(), prepareTime * 1000L);
+        timer(new StartTimer(), prepareTime * 1000L);
     }
     
     public void uponNeighborUp(NeighborUp notification, short protoSource) {
         logger.debug("Received NeighborUp notification for: {}", notification.getNeighbor());
     }
 
+    public void uponDeliver(DeliveryNotification notification, short protoSource) {
+        if(openLoop == null || !notification.getSender().equals(self))
+            return;
+
+        Operation op = Operation.decode(notification.getPayload().duplicate());
+        if(op.getType() == Operation.UPDATE_OP) {
+            openLoop.completed(operationKey("add", op.getSetName(), op.getElement()), now());
+            openLoop.completed(operationKey("remove", op.getSetName(), op.getElement()), now());
+        }
+        else openLoop.completed(operationKey(op.getTypeName(), op.getSetName(), op.getElement()), now());
+        issueBacklog();
+    }
+
 
     /* ------------------------------- Timer Handlers ----------------------------------- */
 
-    private void uponStartTimer(StartTimer startTimer, long timerId) {
-        logger.debug("Starting Broadcasting Messages... (every {}s)", disseminationInterval / 1000);
-        //Start broadcasting periodically
-        broadCastTimer = setupPeriodicTimer(new DisseminationTimer(), 0, disseminationInterval);
+    public void uponStartTimer(StartTimer startTimer, long timerId) {
+        if(traceDir != null) {
+            try {
+                trace = new Trace.Writer(traceDir, self.toString(), now());
+            } catch (IOException e) {
+                logger.error("Could not open the workload trace.");
+                e.printStackTrace();
+            }
+        }
+
+        if(openLoop != null && openLoop.isReplay()) {
+            try {
+                openLoop.replay(new Trace.Reader(replayedTrace, self.toString()));
+            } catch (IOException e) {
+                logger.error("Could not open the replayed trace {}", replayedTrace);
+                e.printStackTrace();
+            }
+        }
+
+        if(openLoop != null) {
+            logger.debug("Starting the open-loop workload...");
+            generating = true;
+            openLoop.start(now());
+            timer(new ArrivalTimer(), 0);
+            if(openLoop.isRamp())
+                rampTimer = periodicTimer(new RampTimer(), openLoop.getRampInterval() * 1000L, openLoop.getRampInterval() * 1000L);
+        }
+        else {
+            logger.debug("Starting Broadcasting Messages... (every {}s)", disseminationInterval / 1000);
+            //Start broadcasting periodically
+            broadCastTimer = periodicTimer(new DisseminationTimer(), 0, disseminationInterval);
+        }
         //And setup the stop timer
         logger.debug("Will stop in {}s...", runTime);
-        setupTimer(new StopTimer(), runTime * 1000L);
+        timer(new StopTimer(), runTime * 1000L);
     }
 
-    private void uponBroadcastTimer(DisseminationTimer broadcastTimer, long timerId) {
+    public void uponBroadcastTimer(DisseminationTimer broadcastTimer, long timerId) {
         if(currAdd == nAdds) {
-            if(!state.iterator().hasNext())
+            String setName = nextNonEmptySet();
+            if(setName == null)
                 return;
 
-            sendRequest(new RemoveRequest(self, state.iterator().next()), crdtProtoId);
+            String element = state.get(setName).iterator().next();
+            record(OpenLoop.Kind.REMOVE, setName, element, now());
+            request(new RemoveRequest(self, setName, element), keyspace.protoIdOf(setName));
             currRemove++;
 
             if(currRemove == nRemoves) {
@@ -148,34 +229,141 @@ public class AutomatedApp extends GenericProtocol {
             }
         }
         else {
+            String setName = setName(idx);
             String payload = this.self.toString() + " MSG" + idx + randomCapitalLetters(Math.max(0, payloadSize));
-            sendRequest(new AddRequest(self, payload), crdtProtoId);
+            record(OpenLoop.Kind.ADD, setName, payload, now());
+            request(new AddRequest(self, setName, payload), keyspace.protoIdOf(setName));
             currAdd++;
             idx++;
         }
 
     }
 
-    private void uponStopTimer(StopTimer stopTimer, long timerId) {
-        sendRequest(new ReadRequest(self), crdtProtoId);
+    public void uponArrivalTimer(ArrivalTimer arrivalTimer, long timerId) {
+        if(!generating)
+            return;
+
+        issueBacklog();
+        long nextArrival = openLoop.nextArrivalIn(now());
+        if(nextArrival >= 0)
+            timer(new ArrivalTimer(), nextArrival);
+    }
+
+    public void uponRampTimer(RampTimer rampTimer, long timerId) {
+        if(!openLoop.endStep(now())) {
+            logger.info("Latency objective broken, stopping the ramp");
+            generating = false;
+            cancel(this.rampTimer);
+        }
+    }
+
+    public void uponStopTimer(StopTimer stopTimer, long timerId) {
+        //Operations still waiting in a coalescing window are broadcast before the final reads
+        for (int i = 0; i < keyspace.getShards(); i++)
+            request(new FlushRequest(), keyspace.protoIdOfShard(i));
+        for (int i = 0; i < nSets; i++)
+            request(new ReadRequest(self, setName(i)), keyspace.protoIdOf(setName(i)));
         logger.debug("Stopping publications");
-        this.cancelTimer(broadCastTimer);
+        if(openLoop != null) {
+            generating = false;
+            if(openLoop.isRamp() && !openLoop.isSaturated())
+                cancel(rampTimer);
+        }
+        else cancel(broadCastTimer);
         logger.debug("Stopping sending messages...");
-        setupTimer(new ExitTimer(), cooldownTime * 1000L);
+        timer(new ExitTimer(), cooldownTime * 1000L);
         logger.debug("Will terminate in {}s", cooldownTime);
     }
     
-    private void uponExitTimer(ExitTimer exitTimer, long timerId) {
+    public void uponExitTimer(ExitTimer exitTimer, long timerId) {
         logger.info("Exiting...");
+        if(trace != null)
+            trace.close();
+        if(openLoop != null) {
+            logger.info(openLoop.report(self.toString(), now()));
+            try {
+                openLoop.writeReport(self.toString(), now());
+            } catch (IOException e) {
+                logger.error("Could not write the workload report.");
+            }
+        }
+        exit();
+    }
+
+
+    /* ------------------------------- Reply Handlers ----------------------------------- */
+
+    public void handleAddReply(AddReply reply, short sourceProto) {
+        logger.debug("Successfully added member: ({}) to {}", reply.getElement(), reply.getSetName());
+
+        state.computeIfAbsent(reply.getSetName(), s -> new HashSet<>()).add(reply.getElement());
+        totalAdds++;
+    }
+
+    public void handleRemoveReply(RemoveReply reply, short sourceProto) {
+        logger.debug("Successfully removed member: ({}) from {}", reply.getElement(), reply.getSetName());
+
+        Set<String> elements = state.get(reply.getSetName());
+        if(elements != null)
+            elements.remove(reply.getElement());
+        totalRemoves++;
+
+        //Operations that are never broadcast complete on the local reply, they would be outstanding forever otherwise
+        if(openLoop != null && (reply.isAddCancelled() || !reply.isBroadcast())) {
+            if(reply.isAddCancelled())
+                openLoop.completed(operationKey("add", reply.getSetName(), reply.getElement()), now());
+            if(!reply.isBroadcast())
+                openLoop.completed(operationKey("remove", reply.getSetName(), reply.getElement()), now());
+            issueBacklog();
+        }
+    }
+
+    public void handleReadReply(ReadReply reply, short sourceProto) {
+        logger.debug("Read State of {}: {}", reply.getSetName(), reply.getState());
+        logger.debug("State Hash: {}", HashProducer.hashSet(reply.getState()));
+
+        this.state.put(reply.getSetName(), reply.getState());
+        if(openLoop != null) {
+            openLoop.completedRead(reply.getSetName(), now());
+            issueBacklog();
+        }
+    }
+
+
+    /* ------------------------------- Runtime Hooks ----------------------------------- */
+
+    // Overridden by the simulator, which runs several replicas in one process without a Babel runtime
+    protected void request(ProtoRequest request, short destProto) {
+        sendRequest(request, destProto);
+    }
+
+    protected long timer(ProtoTimer timer, long timeout) {
+        return setupTimer(timer, timeout);
+    }
+
+    protected long periodicTimer(ProtoTimer timer, long first, long period) {
+        return setupPeriodicTimer(timer, first, period);
+    }
+
+    protected void cancel(long timerId) {
+        cancelTimer(timerId);
+    }
 
+    protected long now() {
+        return System.nanoTime();
+    }
+
+    protected void exit() {
         try (FileWriter writer = new FileWriter("src/main/java/app/simulation/logs/byzantine/log" + self.getPort() + ".txt", true)) {
             writer.write("Total adds: " + totalAdds + "\n");
             writer.write("Total removes: " + totalRemoves + "\n");
-            writer.write("State: " + HashProducer.hashSet(state) + "\n");
+            writer.write("State: " + HashProducer.hashSet(flattenState()) + "\n");
 
             writer.write("Latencies:\n");
-            for (String latency : ORSet.latency_records)
-                writer.write(latency + "\n");
+            synchronized (ORSet.latency_records) {
+                for (String latency : ORSet.latency_records)
+                    writer.write(latency + "\n");
+            }
 
             writer.flush();
         } catch (IOException e) {
@@ -186,36 +374,92 @@ public class AutomatedApp extends GenericProtocol {
     }
 
 
-    /* ------------------------------- Reply Handlers ----------------------------------- */
+    /* ------------------------------- Procedures ----------------------------------- */
 
-    public void handleAddReply(AddReply reply, short sourceProto) {
-        logger.debug("Successfully added member: ({})", reply.getElement());
+    //Issues the operations waiting in the backlog, as long as the bound of outstanding operations allows it
+    private void issueBacklog() {
+        openLoop.arrive(now());
+        Long intended;
+        while(generating && (intended = openLoop.poll()) != null) {
+            Trace.Record replayed = openLoop.replayed();
+            if(replayed != null) {
+                issue(replayed.kind, replayed.setName, replayed.element, intended);
+                continue;
+            }
 
-        state.add(reply.getElement());
-        totalAdds++;
+            OpenLoop.Kind kind = openLoop.nextKind();
+            String setName = kind == OpenLoop.Kind.REMOVE ? nextNonEmptySet() : setName(idx);
+            if(kind == OpenLoop.Kind.READ)
+                issue(kind, setName, null, intended);
+            else if(kind == OpenLoop.Kind.REMOVE && setName != null)
+                issue(kind, setName, state.get(setName).iterator().next(), intended);
+            else {
+                setName = setName(idx);
+                issue(OpenLoop.Kind.ADD, setName, this.self.toString() + " MSG" + idx + randomCapitalLetters(Math.max(0, payloadSize)), intended);
+                idx++;
+            }
+        }
     }
 
-    public void handleRemoveReply(RemoveReply reply, short sourceProto) {
-        logger.debug("Successfully removed member: ({})", reply.getElement());
+    private void issue(OpenLoop.Kind kind, String setName, String element, long intended) {
+        record(kind, setName, element, intended);
+        if(kind == OpenLoop.Kind.READ) {
+            openLoop.issuedRead(setName, intended);
+            request(new ReadRequest(self, setName), keyspace.protoIdOf(setName));
+        }
+        else if(kind == OpenLoop.Kind.REMOVE) {
+            //Not picked again while the remove is in progress. Removes of elements this replica does not know of
+            //are not waited for, the ones without observed adds complete on their reply
+            Set<String> elements = state.get(setName);
+            if(elements != null && elements.remove(element))
+                openLoop.issued(operationKey("remove", setName, element), intended);
+            request(new RemoveRequest(self, setName, element), keyspace.protoIdOf(setName));
+        }
+        else {
+            openLoop.issued(operationKey("add", setName, element), intended);
+            request(new AddRequest(self, setName, element), keyspace.protoIdOf(setName));
+        }
+    }
 
-        state.remove(reply.getElement());
-        totalRemoves++;
+    //The open-loop workload records the intended arrival of each operation, so a replay offers the same load
+    private void record(OpenLoop.Kind kind, String setName, String element, long time) {
+        if(trace != null)
+            trace.record(time, kind, setName, element);
     }
 
-    public void handleReadReply(ReadReply reply, short sourceProto) {
-        logger.debug("Read State: {}", reply.getState());
-        logger.debug("State Hash: {}", HashProducer.hashSet(reply.getState()));
+    private static String operationKey(String type, String setName, String element) {
+        return type + "/" + setName + "/" + element;
+    }
 
-        this.state = reply.getState();
+    private String setName(int i) {
+        return nSets == 1 ? Keyspace.DEFAULT_SET : "set" + (i % nSets);
     }
 
+    private String nextNonEmptySet() {
+        for (int i = 0; i < nSets; i++) {
+            String setName = setName(removeIdx++);
+            Set<String> elements = state.get(setName);
+            if(elements != null && !elements.isEmpty())
+                return setName;
+        }
+        return null;
+    }
 
-    /* ------------------------------- Procedures ----------------------------------- */
+    private Set<String> flattenState() {
+        if(nSets == 1)
+            return state.getOrDefault(Keyspace.DEFAULT_SET, new HashSet<>());
+
+        Set<String> flat = new HashSet<>();
+        for (Map.Entry<String, Set<String>> e : state.entrySet())
+            for (String element : e.getValue())
+                flat.add(e.getKey() + "/" + element);
+        return flat;
+    }
 
     public static String randomCapitalLetters(int length) {
         int leftLimit = 65; // letter 'A'
         int rightLimit = 90; // letter 'Z'
-        Random random = new Random();
+        Random random = Randomness.newRandom();
         return random.ints(leftLimit, rightLimit + 1).limit(length)
                 .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append).toString();
     }
@@ -1,23 +1,25 @@
 package app;
 
+import app.workload.OpenLoop;
+import app.workload.Trace;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import protocols.events.ChannelAvailable;
 import protocols.events.NeighborUp;
 import protocols.events.SecureChannelAvailable;
-import protocols.crdt.ORSet;
-import protocols.crdt.ByzantineORSet;
-import protocols.crdt.replies.AddReply;
-import protocols.crdt.replies.ReadReply;
-import protocols.crdt.replies.RemoveReply;
-import protocols.crdt.requests.AddRequest;
-import protocols.crdt.requests.ReadRequest;
-import protocols.crdt.requests.RemoveRequest;
+import protocols.crdt.Keyspace;
+import protocols.crdt.replies.*;
+import protocols.crdt.requests.*;
+import protocols.membership.SecureStaticMembershipProtocol;
+import protocols.membership.requests.LeaveRequest;
 import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
 import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
 import pt.unl.fct.di.novasys.network.data.Host;
 import utils.HashProducer;
+import utils.LatencyHistograms;
 
+import java.io.IOException;
 import java.util.*;
 
 public class InteractiveApp extends GenericProtocol {
@@ -30,17 +32,34 @@ public class InteractiveApp extends GenericProtocol {
 
     public static final String COMMANDS_HELPER = "Commands:";
     public final static String ADD_OP = "add";
-    public final static String ADD_OP_USAGE = "Usage: add <value>";
+    public final static String ADD_OP_USAGE = "Usage: add [set] <value>";
     public final static String REMOVE_OP = "remove";
-    public final static String REMOVE_OP_USAGE = "Usage: remove <value>";
+    public final static String REMOVE_OP_USAGE = "Usage: remove [set] <value>";
     public final static String READ_OP = "read";
-    public final static String READ_OP_USAGE = "Usage: read";
+    public final static String READ_OP_USAGE = "Usage: read [set]";
+    public final static String CONTAINS_OP = "contains";
+    public final static String CONTAINS_OP_USAGE = "Usage: contains [set] <value>";
+    public final static String SCAN_OP = "scan";
+    public final static String SCAN_OP_USAGE = "Usage: scan [set] <prefix> | scan <set> <prefix> <cursor>";
+    public final static String COUNT_OP = "count";
+    public final static String COUNT_OP_USAGE = "Usage: count [set] [prefix]";
+    public final static String LEAVE = "leave";
+    public final static String LEAVE_USAGE = "Usage: leave (asks the other replicas to remove this one from the view)";
     public final static String EXIT = "exit";
     public final static String EXIT_USAGE = "Usage: exit";
     public final static String HELP = "help";
 
+    public final static int SCAN_PAGE_SIZE = 50;
+    //Time (in milliseconds) given to the operations flushed from the coalescing windows to leave before exiting
+    public final static int EXIT_GRACE = 1000;
+
     private Host self;
-    private short crdtProtoId;
+    //Views are only agreed by the secure membership, of the byzantine fault model
+    private boolean secure;
+    private Keyspace keyspace;
+    //Directory of the trace of the issued operations, null when they are not recorded
+    private String traceDir;
+    private Trace.Writer trace;
 
 
     public InteractiveApp() {
@@ -50,7 +69,9 @@ public class InteractiveApp extends GenericProtocol {
     @Override
     public void init(Properties props) throws HandlerRegistrationException {
 
-        crdtProtoId = props.getProperty(FAULT_MODEL).equals("crash") ? ORSet.PROTO_ID : ByzantineORSet.PROTO_ID;
+        keyspace = Keyspace.fromConfig(props);
+        if(Boolean.parseBoolean(props.getProperty(Trace.RECORD, "false")))
+            traceDir = props.getProperty(LatencyHistograms.LOG_DIR, "metrics");
 
         /* ------------------------------- Subscribe Notifications ----------------------------------- */
         subscribeNotification(ChannelAvailable.NOTIFICATION_ID, this::uponChannelAvailable);
@@ -61,6 +82,9 @@ public class InteractiveApp extends GenericProtocol {
         registerReplyHandler(AddReply.REPLY_ID, this::handleAddReply);
         registerReplyHandler(RemoveReply.REPLY_ID, this::handleRemoveReply);
         registerReplyHandler(ReadReply.REPLY_ID, this::handleReadReply);
+        registerReplyHandler(ContainsReply.REPLY_ID, this::handleContainsReply);
+        registerReplyHandler(PrefixScanReply.REPLY_ID, this::handlePrefixScanReply);
+        registerReplyHandler(CountReply.REPLY_ID, this::handleCountReply);
 
         Thread interactiveThread = new Thread(() -> {
             String line;
@@ -74,31 +98,81 @@ public class InteractiveApp extends GenericProtocol {
 
                 switch(components[0]) {
                     case ADD_OP:
-                        if(components.length != 2)
-                            logger.error(ADD_OP_USAGE);
+                        if(components.length == 2)
+                            issue(OpenLoop.Kind.ADD, Keyspace.DEFAULT_SET, components[1], new AddRequest(self, components[1]));
+                        else if(components.length == 3)
+                            issue(OpenLoop.Kind.ADD, components[1], components[2], new AddRequest(self, components[1], components[2]));
                         else
-                            sendRequest(new AddRequest(self, components[1]), crdtProtoId);
+                            logger.error(ADD_OP_USAGE);
                         break;
 
                     case REMOVE_OP:
-                        if(components.length != 2)
-                            logger.error(REMOVE_OP_USAGE);
+                        if(components.length == 2)
+                            issue(OpenLoop.Kind.REMOVE, Keyspace.DEFAULT_SET, components[1], new RemoveRequest(self, components[1]));
+                        else if(components.length == 3)
+                            issue(OpenLoop.Kind.REMOVE, components[1], components[2], new RemoveRequest(self, components[1], components[2]));
                         else
-                            sendRequest(new RemoveRequest(self, components[1]), crdtProtoId);
+                            logger.error(REMOVE_OP_USAGE);
                         break;
 
                     case READ_OP:
-                        if(components.length != 1)
+                        if(components.length == 1)
+                            issue(OpenLoop.Kind.READ, Keyspace.DEFAULT_SET, null, new ReadRequest(self));
+                        else if(components.length == 2)
+                            issue(OpenLoop.Kind.READ, components[1], null, new ReadRequest(self, components[1]));
+                        else
                             logger.error(READ_OP_USAGE);
+                        break;
+
+                    case CONTAINS_OP:
+                        if(components.length == 2)
+                            sendRequest(new ContainsRequest(self, Keyspace.DEFAULT_SET, components[1]), keyspace.protoIdOf(Keyspace.DEFAULT_SET));
+                        else if(components.length == 3)
+                            sendRequest(new ContainsRequest(self, components[1], components[2]), keyspace.protoIdOf(components[1]));
+                        else
+                            logger.error(CONTAINS_OP_USAGE);
+                        break;
+
+                    case SCAN_OP:
+                        if(components.length == 2)
+                            sendRequest(new PrefixScanRequest(self, Keyspace.DEFAULT_SET, components[1], SCAN_PAGE_SIZE), keyspace.protoIdOf(Keyspace.DEFAULT_SET));
+                        else if(components.length == 3)
+                            sendRequest(new PrefixScanRequest(self, components[1], components[2], SCAN_PAGE_SIZE), keyspace.protoIdOf(components[1]));
+                        else if(components.length == 4)
+                            sendRequest(new PrefixScanRequest(self, components[1], components[2], components[3], SCAN_PAGE_SIZE), keyspace.protoIdOf(components[1]));
                         else
-                            sendRequest(new ReadRequest(self), crdtProtoId);
+                            logger.error(SCAN_OP_USAGE);
+                        break;
+
+                    case COUNT_OP:
+                        if(components.length == 1)
+                            sendRequest(new CountRequest(self, Keyspace.DEFAULT_SET), keyspace.protoIdOf(Keyspace.DEFAULT_SET));
+                        else if(components.length == 2)
+                            sendRequest(new CountRequest(self, components[1]), keyspace.protoIdOf(components[1]));
+                        else if(components.length == 3)
+                            sendRequest(new CountRequest(self, components[1], components[2]), keyspace.protoIdOf(components[1]));
+                        else
+                            logger.error(COUNT_OP_USAGE);
+                        break;
+
+                    case LEAVE:
+                        if(components.length != 1 || !secure)
+                            logger.error(LEAVE_USAGE);
+                        else
+                            sendRequest(new LeaveRequest(), SecureStaticMembershipProtocol.PROTO_ID);
                         break;
 
                     case EXIT:
                         if(components.length != 1)
                             logger.error(EXIT_USAGE);
                         else {
+                            for (int i = 0; i < keyspace.getShards(); i++)
+                                sendRequest(new FlushRequest(), keyspace.protoIdOfShard(i));
                             sc.close();
+                            try {
+                                Thread.sleep(EXIT_GRACE);
+                            } catch (InterruptedException ignored) {
+                            }
                             System.exit(0);
                         }
                         break;
@@ -107,8 +181,12 @@ public class InteractiveApp extends GenericProtocol {
                     default:
                         logger.error(COMMANDS_HELPER);
                         logger.error(ADD_OP_USAGE);
+                        logger.error(REMOVE_OP_USAGE);
                         logger.error(READ_OP_USAGE);
-                        logger.error(READ_OP_USAGE);
+                        logger.error(CONTAINS_OP_USAGE);
+                        logger.error(SCAN_OP_USAGE);
+                        logger.error(COUNT_OP_USAGE);
+                        logger.error(LEAVE_USAGE);
                         logger.error(EXIT_USAGE);
                         break;
                 }
@@ -124,11 +202,14 @@ public class InteractiveApp extends GenericProtocol {
     public void uponChannelAvailable(ChannelAvailable notification, short protoSource) {
         logger.debug("Communication Channel is ready...");
         this.self = notification.getMyHost();
+        startTrace();
     }
 
     public void uponSecureChannelAvailable(SecureChannelAvailable notification, short protoSource) {
         logger.debug("Secure Communication Channel is ready...");
         this.self = notification.getMyHost();
+        this.secure = true;
+        startTrace();
     }
     
     public void uponNeighborUp(NeighborUp notification, short protoSource) {
@@ -139,16 +220,54 @@ public class InteractiveApp extends GenericProtocol {
     /* ------------------------------- Reply Handlers ----------------------------------- */
 
     public void handleAddReply(AddReply reply, short sourceProto) {
-        logger.info("Successfully added member: ({})", reply.getElement());
+        logger.info("Successfully added member: ({}) to {}", reply.getElement(), reply.getSetName());
     }
 
     public void handleRemoveReply(RemoveReply reply, short sourceProto) {
-        logger.info("Successfully removed member: ({})", reply.getElement());
+        logger.info("Successfully removed member: ({}) from {}", reply.getElement(), reply.getSetName());
     }
 
     public void handleReadReply(ReadReply reply, short sourceProto) {
-        logger.info("Read State: {}", reply.getState());
+        logger.info("Read State of {}: {}", reply.getSetName(), reply.getState());
         logger.info("State Hash: {}", HashProducer.hashSet(reply.getState()));
     }
 
+    public void handleContainsReply(ContainsReply reply, short sourceProto) {
+        logger.info("{} contains ({}): {}", reply.getSetName(), reply.getElement(), reply.isContained());
+    }
+
+    public void handlePrefixScanReply(PrefixScanReply reply, short sourceProto) {
+        logger.info("Elements of {} starting with {}: {}", reply.getSetName(), reply.getPrefix(), reply.getElements());
+        if(reply.getNextCursor() != null)
+            logger.info("More elements available, continue with: scan {} {} {}", reply.getSetName(), reply.getPrefix(), reply.getNextCursor());
+    }
+
+    public void handleCountReply(CountReply reply, short sourceProto) {
+        if(reply.getPrefix() == null)
+            logger.info("{} has {} elements", reply.getSetName(), reply.getCount());
+        else
+            logger.info("{} has {} elements starting with {}", reply.getSetName(), reply.getCount(), reply.getPrefix());
+    }
+
+
+    /* ------------------------------- Procedures ----------------------------------- */
+
+    //Called from the console thread, the trace records the operations as they are typed
+    private void issue(OpenLoop.Kind kind, String setName, String element, ProtoRequest request) {
+        if(trace != null)
+            trace.record(System.nanoTime(), kind, setName, element);
+        sendRequest(request, keyspace.protoIdOf(setName));
+    }
+
+    private void startTrace() {
+        if(traceDir == null || trace != null)
+            return;
+        try {
+            trace = new Trace.Writer(traceDir, self.toString(), System.nanoTime());
+        } catch (IOException e) {
+            logger.error("Could not open the workload trace.");
+            e.printStackTrace();
+        }
+    }
+
 }
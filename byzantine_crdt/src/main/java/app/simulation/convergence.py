@@ -0,0 +1,102 @@
+import argparse
+import glob
+import os
+from collections import defaultdict
+
+import numpy as np
+
+# Reads the convergence-<host>.log files written by the replicas (convergence.interval > 0) and reports:
+#  - for each operation, the time from the first replica applying it until every correct replica applied it
+#  - the divergence windows, i.e. the periods during which the digests of the replicas of a shard differed
+# Replica clocks are assumed to be synchronized (NTP), results are in milliseconds.
+
+# --- Configuration ---
+parser = argparse.ArgumentParser(description="Cluster-wide convergence time of the CRDT replicas.")
+parser.add_argument("dir", nargs="?", default="../../../../../metrics", help="directory with the convergence logs")
+parser.add_argument("--exclude", nargs="*", default=[], help="replicas (host_port) left out, e.g. byzantine ones")
+parser.add_argument("--csv", default=None, help="also write the convergence time of each operation to this file")
+args = parser.parse_args()
+
+percentiles = [50, 90, 99, 100]
+
+
+# --- Data Parser ---
+def parse_logs(directory):
+    applied = defaultdict(dict)  # op id -> replica -> first apply time (us)
+    digests = []                 # (time (us), shard, replica, digest)
+
+    for file_path in sorted(glob.glob(os.path.join(directory, "convergence-*.log"))):
+        replica = os.path.basename(file_path)[len("convergence-"):-len(".log")]
+        if replica in args.exclude:
+            continue
+
+        with open(file_path, "r") as f:
+            for line in f:
+                parts = line.split()
+                if len(parts) == 3 and parts[0] == "A":
+                    applied[parts[2]].setdefault(replica, int(parts[1]))
+                elif len(parts) == 5 and parts[0] == "D":
+                    digests.append((int(parts[1]), int(parts[2]), replica, parts[4]))
+
+    replicas = {r for times in applied.values() for r in times} | {d[2] for d in digests}
+    return replicas, applied, digests
+
+
+def convergence_times(replicas, applied):
+    times = {}
+    unconverged = 0
+    for op, per_replica in applied.items():
+        if len(per_replica) < len(replicas):
+            unconverged += 1
+            continue
+        values = per_replica.values()
+        times[op] = (max(values) - min(values)) / 1000.0
+    return times, unconverged
+
+
+def divergence_windows(replicas, digests):
+    windows = []
+    latest = defaultdict(dict)  # shard -> replica -> digest
+    diverged_since = {}         # shard -> time (us)
+
+    for time, shard, replica, digest in sorted(digests):
+        latest[shard][replica] = digest
+        converged = len(latest[shard]) == len(replicas) and len(set(latest[shard].values())) == 1
+
+        if not converged and shard not in diverged_since:
+            diverged_since[shard] = time
+        elif converged and shard in diverged_since:
+            windows.append((time - diverged_since.pop(shard)) / 1000.0)
+
+    return windows, len(diverged_since)
+
+
+def summary(name, values):
+    if len(values) == 0:
+        print(f"{name}: no samples")
+        return
+    stats = " ".join(f"p{p}={np.percentile(values, p):.1f}" for p in percentiles)
+    print(f"{name}: n={len(values)} mean={np.mean(values):.1f} {stats}")
+
+
+# --- Report ---
+replicas, applied, digests = parse_logs(args.dir)
+if not replicas:
+    print(f"⚠️ No convergence logs found in {args.dir}")
+    raise SystemExit(1)
+
+print(f"Replicas: {len(replicas)} ({', '.join(sorted(replicas))})")
+
+times, unconverged = convergence_times(replicas, applied)
+summary("Convergence time per operation (ms)", list(times.values()))
+print(f"Operations not applied by every replica: {unconverged}")
+
+windows, open_windows = divergence_windows(replicas, digests)
+summary("Divergence windows (ms)", windows)
+print(f"Shards still diverged at the end of the logs: {open_windows}")
+
+if args.csv:
+    with open(args.csv, "w") as f:
+        f.write("op,convergence_ms\n")
+        for op, t in times.items():
+            f.write(f"{op},{t}\n")
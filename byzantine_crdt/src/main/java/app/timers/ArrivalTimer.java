@@ -0,0 +1,16 @@
+package app.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class ArrivalTimer extends ProtoTimer {
+    public static final short TIMER_ID = 406;
+
+    public ArrivalTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
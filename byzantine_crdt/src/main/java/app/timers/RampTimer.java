@@ -0,0 +1,16 @@
+package app.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class RampTimer extends ProtoTimer {
+    public static final short TIMER_ID = 407;
+
+    public RampTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
@@ -0,0 +1,309 @@
+package app.workload;
+
+import org.HdrHistogram.Histogram;
+import utils.LatencyHistograms;
+import utils.Randomness;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Open-loop workload of the automated app: operations arrive at a target rate, with fixed or Poisson inter-arrival
+ * times, whether or not the previous ones completed. At most workload.max_outstanding operations are in progress and
+ * the others wait in a backlog. Latencies are measured from the intended arrival time, so time spent waiting is counted
+ * and coordinated omission does not hide it. Adds and removes complete when their broadcast is delivered back to this
+ * replica, reads when their reply arrives. In ramp mode the rate grows every workload.ramp_interval seconds until the
+ * p99 latency of a step breaks workload.slo_p99. In replay mode the arrivals are the operations of a recorded trace,
+ * at their recorded offsets divided by workload.speed, or as fast as max_outstanding allows with workload.speed max.
+ */
+public class OpenLoop {
+
+    // closed (one operation per broadcast_interval), open, ramp or replay
+    public static final String MODE = "workload.mode";
+    // Target rate in operations per second, the starting one in ramp mode
+    public static final String RATE = "workload.rate";
+    // fixed or poisson
+    public static final String ARRIVALS = "workload.arrivals";
+    public static final String MAX_OUTSTANDING = "workload.max_outstanding";
+    // Weights of the adds, removes and reads, as add:remove:read
+    public static final String MIX = "workload.mix";
+    public static final String RAMP_STEP = "workload.ramp_step";
+    public static final String RAMP_INTERVAL = "workload.ramp_interval";
+    // Latency objective (in milliseconds) of the p99 of each ramp step
+    public static final String SLO = "workload.slo_p99";
+
+    public enum Kind { ADD, REMOVE, READ }
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final boolean ramp;
+    private final boolean replay;
+    // Multiple of the recorded speed of a replayed trace, 0 for as fast as possible
+    private final double speed;
+    private final boolean poisson;
+    private final int maxOutstanding;
+    private final int[] weights;
+    private final double rampStep;
+    private final long rampInterval;
+    private final double slo;
+    private final String dir;
+    private final Random random;
+
+    private double rate;
+    private boolean saturated;
+    private long nextArrival;
+    // Intended arrival times of the operations not issued yet
+    private final Deque<Long> backlog;
+    // Intended arrival times of the operations in progress, reads are completed in order per set
+    private final Map<String, Long> outstanding;
+    private final Map<String, Deque<Long>> outstandingReads;
+    private int readCount;
+    // Trace being replayed, its next record and the records of the operations in the backlog
+    private Trace.Reader trace;
+    private Trace.Record next;
+    private final Deque<Trace.Record> replayed;
+    private Trace.Record current;
+
+    private final Histogram total, step;
+    private long start, stepStart, arrivals, stepArrivals, completions, stepCompletions;
+    private final List<String> steps;
+
+
+    public OpenLoop(Properties props) {
+        this.ramp = props.getProperty(MODE).equals("ramp");
+        this.replay = props.getProperty(MODE).equals("replay");
+        String speed = props.getProperty(Trace.SPEED, "1");
+        this.speed = speed.equals("max") ? 0 : Double.parseDouble(speed);
+        this.poisson = props.getProperty(ARRIVALS, "poisson").equals("poisson");
+        this.maxOutstanding = Integer.parseInt(props.getProperty(MAX_OUTSTANDING, "1000"));
+        this.weights = Arrays.stream(props.getProperty(MIX, "2:1:0").split(":")).mapToInt(Integer::parseInt).toArray();
+        if (weights.length > Kind.values().length || Arrays.stream(weights).anyMatch(w -> w < 0) || Arrays.stream(weights).sum() == 0)
+            throw new IllegalArgumentException("Invalid " + MIX + " " + props.getProperty(MIX) + ", expected <add>:<remove>:<read> non-negative weights, not all zero");
+        this.rampStep = Double.parseDouble(props.getProperty(RAMP_STEP, "10"));
+        this.rampInterval = Long.parseLong(props.getProperty(RAMP_INTERVAL, "30")); //in seconds
+        this.slo = Double.parseDouble(props.getProperty(SLO, "1000")); //in milliseconds
+        this.dir = props.getProperty(LatencyHistograms.LOG_DIR, "metrics");
+        this.random = Randomness.newRandom();
+
+        this.rate = Double.parseDouble(props.getProperty(RATE, "10"));
+        this.saturated = false;
+        this.backlog = new ArrayDeque<>();
+        this.outstanding = new HashMap<>();
+        this.outstandingReads = new HashMap<>();
+        this.readCount = 0;
+        this.replayed = new ArrayDeque<>();
+
+        this.total = new Histogram(SIGNIFICANT_DIGITS);
+        this.step = new Histogram(SIGNIFICANT_DIGITS);
+        this.steps = new ArrayList<>();
+    }
+
+    public static boolean isEnabled(Properties props) {
+        return !props.getProperty(MODE, "closed").equals("closed");
+    }
+
+    public boolean isRamp() {
+        return ramp;
+    }
+
+    public long getRampInterval() {
+        return rampInterval;
+    }
+
+    public boolean isReplay() {
+        return replay;
+    }
+
+    // Replays the trace from start() on, instead of generating arrivals
+    public void replay(Trace.Reader trace) {
+        this.trace = trace;
+        this.next = read();
+    }
+
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    public void start(long now) {
+        nextArrival = now;
+        start = now;
+        stepStart = now;
+    }
+
+
+    /* ------------------------------------- Arrivals ------------------------------------- */
+
+    // Moves every arrival due by now to the backlog
+    public void arrive(long now) {
+        if (replay) {
+            replayArrivals(now);
+            return;
+        }
+        while (nextArrival <= now) {
+            backlog.add(nextArrival);
+            arrivals++;
+            stepArrivals++;
+            double mean = 1e9 / rate;
+            nextArrival += (long) (poisson ? -mean * Math.log(1 - random.nextDouble()) : mean);
+        }
+    }
+
+    // Milliseconds until the next arrival, -1 if arrivals are not timed (trace replayed as fast as possible or over)
+    public long nextArrivalIn(long now) {
+        if (replay) {
+            if (next == null || speed == 0)
+                return -1;
+            return Math.max(0, (replayedArrival(next) - now + 999_999) / 1_000_000);
+        }
+        return Math.max(0, (nextArrival - now + 999_999) / 1_000_000);
+    }
+
+    // Intended arrival time of the next operation to issue, null if there is none or too many are in progress
+    public Long poll() {
+        if (backlog.isEmpty() || outstanding.size() + readCount >= maxOutstanding)
+            return null;
+        current = replayed.poll();
+        return backlog.poll();
+    }
+
+    // Trace record of the operation returned by the last poll, null unless replaying
+    public Trace.Record replayed() {
+        return current;
+    }
+
+    private void replayArrivals(long now) {
+        // As fast as possible, the backlog is only topped up to the bound of outstanding operations
+        while (next != null && (speed > 0 ? replayedArrival(next) <= now
+                : backlog.size() + outstanding.size() + readCount < maxOutstanding)) {
+            backlog.add(speed > 0 ? replayedArrival(next) : now);
+            replayed.add(next);
+            arrivals++;
+            stepArrivals++;
+            next = read();
+        }
+    }
+
+    private long replayedArrival(Trace.Record record) {
+        return start + (long) (record.offset / speed);
+    }
+
+    private Trace.Record read() {
+        try {
+            Trace.Record record = trace.next();
+            if (record == null)
+                trace.close();
+            return record;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public Kind nextKind() {
+        int sum = 0;
+        for (int w : weights)
+            sum += w;
+        int r = random.nextInt(sum);
+        for (int i = 0; i < weights.length; i++) {
+            if (r < weights[i])
+                return Kind.values()[i];
+            r -= weights[i];
+        }
+        return Kind.ADD;
+    }
+
+
+    /* ------------------------------------- Completions ------------------------------------- */
+
+    public void issued(String key, long intended) {
+        outstanding.put(key, intended);
+    }
+
+    public void issuedRead(String setName, long intended) {
+        outstandingReads.computeIfAbsent(setName, s -> new ArrayDeque<>()).add(intended);
+        readCount++;
+    }
+
+    public void completed(String key, long now) {
+        Long intended = outstanding.remove(key);
+        if (intended != null)
+            record(now - intended);
+    }
+
+    public void completedRead(String setName, long now) {
+        Deque<Long> reads = outstandingReads.get(setName);
+        if (reads == null || reads.isEmpty())
+            return;
+        readCount--;
+        record(now - reads.poll());
+    }
+
+    private void record(long latency) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(latency);
+        total.recordValue(micros);
+        step.recordValue(micros);
+        completions++;
+        stepCompletions++;
+    }
+
+
+    /* ------------------------------------- Ramp ------------------------------------- */
+
+    // Closes the current step, returns false once a step broke the latency objective
+    public boolean endStep(long now) {
+        double p99 = step.getValueAtPercentile(99) / 1000.0;
+        steps.add(String.format("step %.1f ops/s: offered %.1f ops/s, achieved %.1f ops/s, p50 %.1f ms, p99 %.1f ms, backlog %d",
+                rate, perSecond(stepArrivals, now - stepStart), perSecond(stepCompletions, now - stepStart),
+                step.getValueAtPercentile(50) / 1000.0, p99, backlog.size()));
+
+        step.reset();
+        stepArrivals = 0;
+        stepCompletions = 0;
+        stepStart = now;
+
+        if (p99 > slo) {
+            saturated = true;
+            return false;
+        }
+        rate += rampStep;
+        return true;
+    }
+
+    public String report(String self, long now) {
+        StringBuilder sb = new StringBuilder();
+        if (replay)
+            sb.append(String.format("Replayed workload at %s (%s speed, max %d outstanding)%n", self,
+                    speed == 0 ? "max" : speed + "x", maxOutstanding));
+        else sb.append(String.format("Open-loop workload at %s (%s arrivals, max %d outstanding)%n", self,
+                poisson ? "poisson" : "fixed", maxOutstanding));
+        sb.append(String.format("offered %.1f ops/s, achieved %.1f ops/s, %d arrivals, %d completed, %d outstanding, %d in backlog%n",
+                perSecond(arrivals, now - start), perSecond(completions, now - start), arrivals, completions,
+                outstanding.size() + readCount, backlog.size()));
+        sb.append(String.format("latency (ms, from the intended arrival): p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+                total.getValueAtPercentile(50) / 1000.0, total.getValueAtPercentile(90) / 1000.0,
+                total.getValueAtPercentile(99) / 1000.0, total.getValueAtPercentile(99.9) / 1000.0,
+                total.getMaxValue() / 1000.0));
+        for (String s : steps)
+            sb.append(s).append(System.lineSeparator());
+        if (ramp)
+            sb.append(saturated ? String.format("SLO of %.1f ms broken at %.1f ops/s%n", slo, rate)
+                    : String.format("SLO of %.1f ms held up to %.1f ops/s%n", slo, rate));
+        return sb.toString();
+    }
+
+    public void writeReport(String self, long now) throws IOException {
+        new File(dir).mkdirs();
+        File file = new File(dir, "workload-" + self.replace(':', '_') + ".txt");
+        try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+            out.print(report(self, now));
+        }
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return nanos <= 0 ? 0 : count * 1e9 / nanos;
+    }
+}
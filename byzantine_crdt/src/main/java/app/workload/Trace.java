@@ -0,0 +1,114 @@
+package app.workload;
+
+import java.io.*;
+
+/*
+ * Append-only binary trace of the operations issued by the application of a replica, replayed by the open-loop
+ * workload in replay mode. After a magic number, each record holds the nanoseconds since the trace started, the kind
+ * of the operation, its set and its element (empty for reads):
+ *   long offset | byte kind | utf set | utf element
+ */
+public class Trace {
+
+    // Records the operations of this replica into <metrics.hlog_dir>/trace-<host>.bin
+    public static final String RECORD = "workload.trace_record";
+    // Trace replayed in replay mode, or a directory holding the trace-<host>.bin of each replica
+    public static final String FILE = "workload.trace";
+    // Replay speed, as a multiple of the recorded one (1, 10, ...) or max to issue as fast as possible
+    public static final String SPEED = "workload.speed";
+
+    private static final int MAGIC = 0x54524331; // TRC1
+
+    public static class Record {
+        public final long offset;
+        public final OpenLoop.Kind kind;
+        public final String setName;
+        public final String element;
+
+        Record(long offset, OpenLoop.Kind kind, String setName, String element) {
+            this.offset = offset;
+            this.kind = kind;
+            this.setName = setName;
+            this.element = element;
+        }
+    }
+
+    public static String fileName(String self) {
+        return "trace-" + self.replace(':', '_') + ".bin";
+    }
+
+
+    /* ------------------------------------- Writer ------------------------------------- */
+
+    public static class Writer {
+        private final DataOutputStream out;
+        private final long start;
+        private boolean closed;
+
+        public Writer(String dir, String self, long start) throws IOException {
+            new File(dir).mkdirs();
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, fileName(self)))));
+            this.start = start;
+            this.closed = false;
+            out.writeInt(MAGIC);
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+        }
+
+        // Called from the protocol thread, and from the console thread of the interactive app
+        public synchronized void record(long now, OpenLoop.Kind kind, String setName, String element) {
+            if (closed)
+                return;
+            try {
+                out.writeLong(now - start);
+                out.writeByte(kind.ordinal());
+                out.writeUTF(setName);
+                out.writeUTF(element == null ? "" : element);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        public synchronized void close() {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    /* ------------------------------------- Reader ------------------------------------- */
+
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+
+        public Reader(String path, String self) throws IOException {
+            File file = new File(path);
+            if (file.isDirectory())
+                file = new File(file, fileName(self));
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a workload trace: " + file);
+        }
+
+        // The next record, null at the end of the trace
+        public Record next() throws IOException {
+            long offset;
+            try {
+                offset = in.readLong();
+            } catch (EOFException e) {
+                return null;
+            }
+            return new Record(offset, OpenLoop.Kind.values()[in.readByte()], in.readUTF(), in.readUTF());
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package protocols.broadcast;
+
+import io.netty.buffer.ByteBuf;
+import org.HdrHistogram.Histogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/*
+ * Communication cost of each broadcast instance (messageID) of a protocol: messages and bytes per message type going
+ * through the network, and signatures generated and verified. Network traffic is attributed by the serializers, so
+ * the ledger is updated from the channel threads as well as from the protocol thread.
+ * Instances are folded into per-metric histograms a while after their delivery (so the messages still in flight are
+ * counted), and dropped when they were never delivered, so the ledger only holds the instances of the last minute.
+ */
+public class CostLedger {
+    private static final Logger logger = LogManager.getLogger(CostLedger.class);
+
+    private static final Map<String, CostLedger> ledgers = new ConcurrentHashMap<>();
+    private static boolean started = false;
+
+    // Time an instance is kept after its delivery, and before being dropped when it is never delivered
+    private static final long LINGER = TimeUnit.SECONDS.toNanos(5);
+    private static final long EXPIRY = TimeUnit.SECONDS.toNanos(60);
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final String protocol;
+    private final Map<UUID, Cost> costs;
+    private final AtomicLong lastSweep;
+
+    // Costs of the folded instances per metric, guarded by itself
+    private final Map<String, Summary> folded;
+    private long delivered, expired;
+
+
+    private CostLedger(String protocol) {
+        this.protocol = protocol;
+        this.costs = new ConcurrentHashMap<>();
+        this.lastSweep = new AtomicLong(System.nanoTime());
+        this.folded = new TreeMap<>();
+        this.delivered = 0;
+        this.expired = 0;
+    }
+
+    public static CostLedger of(String protocol) {
+        return ledgers.computeIfAbsent(protocol, CostLedger::new);
+    }
+
+    // Reports of every ledger are written at exit to <dir>/cost-<protocol>-<self>.txt
+    public static synchronized void start(String dir, String self) {
+        if (started)
+            return;
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            new File(dir).mkdirs();
+            for (CostLedger ledger : ledgers.values()) {
+                File file = new File(dir, "cost-" + ledger.protocol + "-" + self.replace(':', '_') + ".txt");
+                try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+                    ledger.writeReport(out, self);
+                } catch (IOException e) {
+                    logger.error("Could not write the cost report of {}", ledger.protocol);
+                }
+            }
+        }));
+        started = true;
+    }
+
+    public <T extends ProtoMessage> ISerializer<T> serializer(String type, ISerializer<T> serializer, Function<T, UUID> messageID) {
+        return new ISerializer<>() {
+            @Override
+            public void serialize(T msg, ByteBuf out) throws IOException {
+                int start = out.writerIndex();
+                serializer.serialize(msg, out);
+                costOf(messageID.apply(msg)).sent(type, out.writerIndex() - start);
+            }
+
+            @Override
+            public T deserialize(ByteBuf in) throws IOException {
+                int start = in.readerIndex();
+                T msg = serializer.deserialize(in);
+                costOf(messageID.apply(msg)).received(type, in.readerIndex() - start);
+                return msg;
+            }
+        };
+    }
+
+    public void signed(UUID mid) {
+        costOf(mid).signed();
+    }
+
+    public void verified(UUID mid) {
+        costOf(mid).verified();
+    }
+
+    public void delivered(UUID mid) {
+        costOf(mid).delivered();
+    }
+
+    private Cost costOf(UUID mid) {
+        long now = System.nanoTime();
+        long last = lastSweep.get();
+        if (now - last >= SWEEP_INTERVAL && lastSweep.compareAndSet(last, now))
+            sweep(now, false);
+
+        Cost cost = costs.get(mid);
+        return cost != null ? cost : costs.computeIfAbsent(mid, m -> new Cost(now));
+    }
+
+    // Folds the instances delivered long enough ago (all the delivered ones at exit) and drops the expired ones
+    private void sweep(long now, boolean all) {
+        Iterator<Cost> it = costs.values().iterator();
+        while (it.hasNext()) {
+            Cost cost = it.next();
+            synchronized (cost) {
+                if (cost.delivered && (all || now - cost.deliveredAt >= LINGER)) {
+                    fold(cost);
+                    it.remove();
+                }
+                else if (!cost.delivered && now - cost.createdAt >= EXPIRY) {
+                    synchronized (folded) {
+                        expired++;
+                    }
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private void fold(Cost cost) {
+        synchronized (folded) {
+            summaryOf("messages.sent").record(cost.sent);
+            summaryOf("messages.received").record(cost.received);
+            summaryOf("signatures.generated").record(cost.signed);
+            summaryOf("signatures.verified").record(cost.verified);
+            for (String type : cost.bytes.keySet()) {
+                summaryOf("bytes.sent." + type);
+                summaryOf("bytes.received." + type);
+            }
+            // Every instance counts in every byte row, with nothing of the types it did not use
+            for (Map.Entry<String, Summary> e : folded.entrySet()) {
+                String[] name = e.getKey().split("\\.", 3);
+                if (name[0].equals("bytes"))
+                    e.getValue().record(cost.bytes.getOrDefault(name[2], new long[2])[name[1].equals("sent") ? 0 : 1]);
+            }
+            delivered++;
+        }
+    }
+
+    // A metric first seen now had nothing in the instances folded before
+    private Summary summaryOf(String metric) {
+        return folded.computeIfAbsent(metric, m -> new Summary(delivered));
+    }
+
+    private void writeReport(PrintWriter out, String self) {
+        sweep(System.nanoTime(), true);
+
+        synchronized (folded) {
+            out.printf("# %s communication cost at %s%n", protocol, self);
+            out.printf("instances %d delivered %d expired %d%n%n", delivered + expired + costs.size(), delivered, expired);
+            out.printf("%-28s %12s %10s %10s %10s %10s%n", "# per delivered instance", "total", "mean", "p50", "p99", "max");
+            for (String metric : List.of("messages.sent", "messages.received", "signatures.generated", "signatures.verified"))
+                row(out, metric, folded.get(metric));
+            for (Map.Entry<String, Summary> e : folded.entrySet())
+                if (e.getKey().startsWith("bytes."))
+                    row(out, e.getKey(), e.getValue());
+        }
+    }
+
+    private static void row(PrintWriter out, String name, Summary summary) {
+        Histogram h = summary == null ? null : summary.histogram;
+        boolean empty = h == null || h.getTotalCount() == 0;
+        out.printf("%-28s %12d %10.1f %10d %10d %10d%n", name, summary == null ? 0 : summary.total, empty ? 0 : h.getMean(),
+                empty ? 0 : h.getValueAtPercentile(50), empty ? 0 : h.getValueAtPercentile(99), empty ? 0 : h.getMaxValue());
+    }
+
+    private static class Summary {
+        private final Histogram histogram = new Histogram(SIGNIFICANT_DIGITS);
+        private long total;
+
+        Summary(long zeros) {
+            if (zeros > 0)
+                histogram.recordValueWithCount(0, zeros);
+        }
+
+        void record(long value) {
+            histogram.recordValue(value);
+            total += value;
+        }
+    }
+
+    private static class Cost {
+        private final long createdAt;
+        private long sent, received, signed, verified;
+        private boolean delivered;
+        private long deliveredAt;
+        // Bytes sent and received per message type
+        private final Map<String, long[]> bytes = new HashMap<>(4);
+
+        Cost(long createdAt) {
+            this.createdAt = createdAt;
+        }
+
+        synchronized void sent(String type, int size) {
+            sent++;
+            bytes.computeIfAbsent(type, t -> new long[2])[0] += size;
+        }
+
+        synchronized void received(String type, int size) {
+            received++;
+            bytes.computeIfAbsent(type, t -> new long[2])[1] += size;
+        }
+
+        synchronized void signed() {
+            signed++;
+        }
+
+        synchronized void verified() {
+            verified++;
+        }
+
+        synchronized void delivered() {
+            if (!delivered)
+                deliveredAt = System.nanoTime();
+            delivered = true;
+        }
+    }
+}
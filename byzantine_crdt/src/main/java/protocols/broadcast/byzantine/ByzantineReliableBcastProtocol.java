@@ -1,24 +1,41 @@
 package protocols.broadcast.byzantine;
 
-import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.util.*;
 
+import io.netty.buffer.ByteBuf;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import protocols.broadcast.CostLedger;
+import protocols.broadcast.byzantine.behaviors.ByzantineBehavior;
 import protocols.broadcast.byzantine.messages.EchoMessage;
 import protocols.broadcast.byzantine.messages.ReadyMessage;
+import protocols.broadcast.byzantine.timers.BehaviorTimer;
 import protocols.broadcast.notifications.DeliveryNotification;
 import protocols.broadcast.request.BroadcastRequest;
 import protocols.broadcast.messages.SignedBroadcastMessage;
 import protocols.events.SecureChannelAvailable;
 import protocols.events.NeighborDown;
 import protocols.events.SecureNeighborUp;
+import protocols.events.ViewChange;
+import protocols.membership.View;
 import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
 import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.KeyDirectory;
+import utils.LatencyHistograms;
+import utils.Randomness;
 import utils.SignaturesHelper;
+import utils.metrics.Meter;
+import utils.metrics.MeteredSerializer;
+import utils.metrics.Metrics;
+import utils.network.Lanes;
+import utils.network.ReliableDatagramChannel;
+import utils.tracing.SignatureEvent;
+import utils.tracing.Tracing;
 
 public class ByzantineReliableBcastProtocol extends GenericProtocol {
     private final Logger logger = LogManager.getLogger(ByzantineReliableBcastProtocol.class);
@@ -26,17 +43,54 @@ public class ByzantineReliableBcastProtocol extends GenericProtocol {
 	public static final String PROTO_NAME = "ByzantineReliableBroadcast";
 	public static final short PROTO_ID = 301;
 
+    // Lane of each message type when the membership splits control and bulk connections: payloads and echos (which
+    // carry the payload) go over the bulk one, so readys complete their quorums without waiting behind them
+    private static final Map<Short, Lanes.Lane> LANES = Map.of(
+            SignedBroadcastMessage.MESSAGE_ID, Lanes.Lane.BULK,
+            EchoMessage.MESSAGE_ID, Lanes.Lane.BULK,
+            ReadyMessage.MESSAGE_ID, Lanes.Lane.CONTROL);
+
+    // Messages kept per view not installed yet, and views they can be kept for while none is installed here
+    private static final int MAX_DEFERRED = 4096;
+    private static final int MAX_DEFERRED_EPOCHS = 2;
+
     private int f;
 	
 	private final Set<UUID> delivered;
 	private final Set<Host> neighbors;
-	private final Map<Host, PublicKey> publicKeys;
+	// Keys of every replica, shared by the protocols of the process and loaded before any handshake
+	private KeyDirectory keys;
+    private final CostLedger ledger;
 
-    private final Map<UUID, Map<String, Set<EchoMessage>>> echos;
+    private final Map<UUID, Map<ByteBuf, Set<EchoMessage>>> echos;
     private final Map<UUID, Boolean> sentReady;
-    private final Map<UUID, Map<String, Set<ReadyMessage>>> readys;
+    private final Map<UUID, Map<ByteBuf, Set<ReadyMessage>>> readys;
+
+    // Phase start times of the messages not delivered yet
+    private final Map<UUID, Long> firstSeen;
+    private final Map<UUID, Long> readySentAt;
+
+    private final Map<Host, Meter> sendRates;
+
+    // Agreed views by epoch. An instance counts the echos and readys of the members of the view it was started in,
+    // with its quorums, so the instances in flight during a view change finish with the view they started with
+    private final Map<Integer, View> views;
+    private View view;
+    private final Map<UUID, Integer> instanceEpochs;
+    // Messages of views not installed here yet, and broadcasts requested while this replica is not a member
+    private final Map<Integer, List<Runnable>> deferred;
+    private final List<BroadcastRequest> pendingRequests;
+
+    // Faulty behavior of this replica, NONE for a correct one
+    private ByzantineBehavior behavior;
+    private ByzantineBehavior.Context behaviorContext;
+    private long behaviorInterval;
 
 	private Host mySelf;
+    private Properties props;
+    private Lanes lanes;
+    // Channel of the bulk lane, -1 when every message goes over the default channel
+    private int bulkChannelID;
 	private PublicKey myPublicKey;
 	private PrivateKey myPrivateKey;
 
@@ -46,13 +100,26 @@ public class ByzantineReliableBcastProtocol extends GenericProtocol {
 		
 		this.delivered = new HashSet<>();
 		this.neighbors = new HashSet<>();
-		this.publicKeys = new HashMap<>();
+        this.ledger = CostLedger.of(PROTO_NAME);
 
         this.echos = new HashMap<>();
         this.sentReady = new HashMap<>();
         this.readys = new HashMap<>();
+
+        this.firstSeen = new HashMap<>();
+        this.readySentAt = new HashMap<>();
+
+        this.sendRates = new HashMap<>();
+
+        this.views = new HashMap<>();
+        this.view = null;
+        this.instanceEpochs = new HashMap<>();
+        this.deferred = new TreeMap<>();
+        this.pendingRequests = new ArrayList<>();
 		
 		this.mySelf = null;
+		this.lanes = Lanes.none();
+		this.bulkChannelID = -1;
 		this.myPublicKey = null;
 		this.myPrivateKey = null;
 	}
@@ -60,15 +127,36 @@ public class ByzantineReliableBcastProtocol extends GenericProtocol {
 	@Override
 	public void init(Properties props) throws HandlerRegistrationException {
 
+        this.props = props;
         this.f = Integer.parseInt(props.getProperty("f"));
+        this.behavior = ByzantineBehavior.fromConfig(props);
+        this.behaviorInterval = Long.parseLong(props.getProperty(ByzantineBehavior.INTERVAL, "100")); //in milliseconds
+        this.behaviorContext = new ByzantineBehavior.Context() {
+            public Host self() { return mySelf; }
+            public Set<Host> neighbors() { return neighbors; }
+            public PrivateKey privateKey() { return myPrivateKey; }
+            public int epoch() { return view == null ? 0 : view.getEpoch(); }
+            public void send(ProtoMessage msg, Host to) { ByzantineReliableBcastProtocol.this.send(msg, to); }
+        };
 
         /* ------------------------------- Subscribe Notifications ------------------------------------------- */
 		subscribeNotification(SecureChannelAvailable.NOTIFICATION_ID, this::handleChannelAvailableNotification);
 		subscribeNotification(SecureNeighborUp.NOTIFICATION_ID, this::uponNeighborUpNotification);
 		subscribeNotification(NeighborDown.NOTIFICATION_ID, this::uponNeighborDownNotification);
+		subscribeNotification(ViewChange.NOTIFICATION_ID, this::uponViewChangeNotification);
 
         /* ------------------------------- Register Request Handlers ---------------------------------------- */
 		registerRequestHandler(BroadcastRequest.REQUEST_ID, this::handleBroadcastRequest);
+
+        /* ------------------------------------- Register Timers -------------------------------------------- */
+        registerTimerHandler(BehaviorTimer.TIMER_ID, this::uponBehaviorTimer);
+
+        /* ------------------------------------- Register Gauges -------------------------------------------- */
+        Metrics.gauge("bracha.echos", echos::size);
+        Metrics.gauge("bracha.readys", readys::size);
+        Metrics.gauge("bracha.delivered", delivered::size);
+        Metrics.gauge("bracha.neighbors", neighbors::size);
+        Metrics.gauge("bracha.epoch", () -> view == null ? -1 : view.getEpoch());
 	}
 
 
@@ -78,35 +166,35 @@ public class ByzantineReliableBcastProtocol extends GenericProtocol {
 		this.mySelf = notification.getMyHost();
 		this.myPublicKey = notification.getMyPublicKey();
 		this.myPrivateKey = notification.getMyPrivateKey();
+		this.keys = notification.getKeyDirectory();
+		this.lanes = notification.getLanes();
 				
-		this.publicKeys.put(mySelf, myPublicKey);
+		this.keys.add(mySelf, null, myPublicKey);
 
-        int channelID = notification.getChannelID();
-		
-		registerSharedChannel(channelID);
-		setDefaultChannel(channelID);
+        try {
+            KeyDirectory.warmUp(new KeyPair(myPublicKey, myPrivateKey), Integer.parseInt(props.getProperty(KeyDirectory.WARMUP, "200")),
+                    payload -> new EchoMessage(mySelf, mySelf, Randomness.uuid(), payload, new byte[0]));
+        } catch (Exception e) {
+            logger.error("Could not warm up the signature paths");
+            e.printStackTrace();
+        }
 
-        /* ------------------------------ Register Message Serializers ------------------------------ */
-		registerMessageSerializer(channelID, SignedBroadcastMessage.MESSAGE_ID, SignedBroadcastMessage.serializer);
-        registerMessageSerializer(channelID, EchoMessage.MESSAGE_ID, EchoMessage.serializer);
-        registerMessageSerializer(channelID, ReadyMessage.MESSAGE_ID, ReadyMessage.serializer);
+        registerChannel(notification.getChannelID());
 
-        /* ------------------------------ Register Message Handlers -------------------------------- */
-		try {
-			registerMessageHandler(channelID, SignedBroadcastMessage.MESSAGE_ID, this::uponReceiveBroadcastMessage);
-            registerMessageHandler(channelID, EchoMessage.MESSAGE_ID, this::uponEchoMessage);
-            registerMessageHandler(channelID, ReadyMessage.MESSAGE_ID, this::uponReadyMessage);
-		} catch (HandlerRegistrationException e) {
-			e.printStackTrace();
-		}
+        if(behavior.isActive()) {
+            logger.info("Running as a faulty replica ({})", behavior.getClass().getSimpleName());
+            periodicTimer(new BehaviorTimer(), behaviorInterval, behaviorInterval);
+        }
 	}
 
 
     public void uponNeighborUpNotification(SecureNeighborUp notification, short sourceProtoID) {
         logger.debug("Received NeighborUp notification for: {}", notification.getNeighbor());
 
+        if (!this.keys.add(notification.getNeighbor(), null, notification.getPublicKey()))
+            return;
         this.neighbors.add(notification.getNeighbor());
-        this.publicKeys.put(notification.getNeighbor(), notification.getPublicKey());
+        this.sendRates.put(notification.getNeighbor(), Metrics.meter("bracha.send." + notification.getNeighbor()));
     }
 
 
@@ -117,19 +205,58 @@ public class ByzantineReliableBcastProtocol extends GenericProtocol {
     }
 
 
+    public void uponViewChangeNotification(ViewChange notification, short sourceProtoID) {
+        View next = notification.getView();
+        logger.debug("Received ViewChange notification for epoch {}", next.getEpoch());
+
+        this.views.put(next.getEpoch(), next);
+        this.view = next;
+
+        List<Runnable> replay = new ArrayList<>();
+        Iterator<Map.Entry<Integer, List<Runnable>>> it = deferred.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, List<Runnable>> e = it.next();
+            if (e.getKey() > next.getEpoch())
+                break;
+            replay.addAll(e.getValue());
+            it.remove();
+        }
+        replay.forEach(Runnable::run);
+
+        if (next.contains(mySelf) && !pendingRequests.isEmpty()) {
+            List<BroadcastRequest> pending = new ArrayList<>(pendingRequests);
+            pendingRequests.clear();
+            pending.forEach(req -> handleBroadcastRequest(req, PROTO_ID));
+        }
+    }
+
+
     /* ------------------------------------- Request Handlers ------------------------------------- */
 
 	public void handleBroadcastRequest(BroadcastRequest req, short sourceProto) {
-		
+        if (view == null || !view.contains(mySelf)) {
+            logger.debug("Not a member of the current view, broadcast postponed");
+            pendingRequests.add(req);
+            return;
+        }
+        LatencyHistograms.record("bracha.request", req.getCreatedAt());
+
 		try {
-            byte[] originalSenderSig = SignaturesHelper.generateSignature(req.encode(), myPrivateKey);
-			SignedBroadcastMessage bm = new SignedBroadcastMessage(mySelf, mySelf, req.encode(), originalSenderSig, null);
-			bm.signMessage(myPrivateKey);
+            UUID mid = Randomness.uuid();
+            ByteBuf envelope = req.encode();
+            SignatureEvent span = Tracing.beginSignature("sign", "original", mid);
+            byte[] originalSenderSig = SignaturesHelper.generateSignature(envelope, myPrivateKey);
+            Tracing.end(span);
+            ledger.signed(mid);
+			SignedBroadcastMessage bm = new SignedBroadcastMessage(mySelf, mySelf, mid, view.getEpoch(), envelope, originalSenderSig, null);
+			SignaturesHelper.sign(bm, myPrivateKey, mid);
+			ledger.signed(mid);
+            Tracing.phase(mid, mySelf, Tracing.SEND, req.getCreatedAt());
 
             processBroadcastMessage(bm, mySelf);
 
             for(Host h: neighbors)
-                sendMessage(bm, h);
+                behavior.send(bm, h, behaviorContext);
 
         } catch (Exception e) {
             logger.error("Failed to generate signatures for the broadcast message.");
@@ -141,13 +268,20 @@ public class ByzantineReliableBcastProtocol extends GenericProtocol {
     /* ------------------------------------- Message Handlers ------------------------------------- */
 
 	public void uponReceiveBroadcastMessage(SignedBroadcastMessage msg, Host sender, short protoID, int channel) {
+        if (instanceView(msg.getMessageID(), msg.getEpoch(), sender, () -> uponReceiveBroadcastMessage(msg, sender, protoID, channel)) == null)
+            return;
         processBroadcastMessage(msg, sender);
 	}
 
 
     public void uponEchoMessage(EchoMessage echo, Host sender, short protoID, int channel) {
+        View instance = instanceView(echo.getMessageID(), echo.getEpoch(), sender, () -> uponEchoMessage(echo, sender, protoID, channel));
+        if (instance == null)
+            return;
+
         try {
-            if (!echo.checkSignature(publicKeys.get(sender))) {
+            ledger.verified(echo.getMessageID());
+            if (!SignaturesHelper.verify(echo, keys.getPublicKey(sender), echo.getMessageID())) {
                 logger.error("Invalid signature from the sender.");
                 return;
             }
@@ -157,18 +291,27 @@ public class ByzantineReliableBcastProtocol extends GenericProtocol {
             return;
         }
 
-        String payload = new String(echo.getPayload(), StandardCharsets.UTF_8);
-        Map<String, Set<EchoMessage>> echos_per_payload = echos.computeIfAbsent(echo.getMessageID(), mid -> new HashMap<>());
+        if (!pinEpoch(echo.getMessageID(), echo.getEpoch()))
+            return;
+        markSeen(echo.getMessageID());
+        ByteBuf payload = echo.getPayload();
+        Map<ByteBuf, Set<EchoMessage>> echos_per_payload = echos.computeIfAbsent(echo.getMessageID(), m -> new HashMap<>());
 
         Set<EchoMessage> my_echos = echos_per_payload.computeIfAbsent(payload, m -> new HashSet<>());
-        my_echos.add(echo);
+        if(my_echos.add(echo) && Tracing.isEnabled() && receivedEchos(echos_per_payload) == 1)
+            trace(echo.getMessageID(), echo.getOriginalSender(), Tracing.FIRST_ECHO);
 
-        int echos_threshold = (int) Math.ceil((neighbors.size() + 1 + f) / 2.0);
+        int echos_threshold = instance.quorum(f);
 
         if(!sentReady.getOrDefault(echo.getMessageID(), false) && my_echos.size() >= echos_threshold) {
 
             try {
-                if(!echo.verifyOriginalSignature(publicKeys.get(echo.getOriginalSender()))) {
+                SignatureEvent span = Tracing.beginSignature("verify", "original", echo.getMessageID());
+                KeyDirectory.Entry origin = keys.of(echo.getOriginalSender());
+                boolean valid = origin != null && echo.verifyOriginalSignature(origin.getVerifier());
+                Tracing.end(span);
+                ledger.verified(echo.getMessageID());
+                if(!valid) {
                     logger.error("Invalid signature from the original sender.");
                     return;
                 }
@@ -179,28 +322,37 @@ public class ByzantineReliableBcastProtocol extends GenericProtocol {
             }
 
             sentReady.put(echo.getMessageID(), true);
-            ReadyMessage ready = new ReadyMessage(mySelf, echo.getMessageID(), echo.getPayload());
+            markReadySent(echo.getMessageID());
+            LatencyHistograms.record("bracha.echo_quorum", firstSeen.get(echo.getMessageID()));
+            trace(echo.getMessageID(), echo.getOriginalSender(), Tracing.ECHO_THRESHOLD);
+            ReadyMessage ready = new ReadyMessage(mySelf, echo.getMessageID(), echo.getEpoch(), echo.getPayload());
 
             try {
-                ready.signMessage(myPrivateKey);
+                SignaturesHelper.sign(ready, myPrivateKey, ready.getMessageID());
+                ledger.signed(ready.getMessageID());
 
             } catch (Exception e) {
                 logger.error("Could not sign my ready message.");
                 return;
             }
 
-            Map<String, Set<ReadyMessage>> my_readys = readys.computeIfAbsent(ready.getMessageID(), mid -> new HashMap<>());
+            Map<ByteBuf, Set<ReadyMessage>> my_readys = readys.computeIfAbsent(ready.getMessageID(), mid -> new HashMap<>());
             my_readys.computeIfAbsent(payload, m -> new HashSet<>()).add(ready);
 
             for(Host h: this.neighbors)
-                sendMessage(ready, h);
+                behavior.send(ready, h, behaviorContext);
+            trace(ready.getMessageID(), echo.getOriginalSender(), Tracing.READY_SENT);
         }
     }
 
 
     public void uponReadyMessage(ReadyMessage ready, Host sender, short protoID, int channel) {
+        if (instanceView(ready.getMessageID(), ready.getEpoch(), sender, () -> uponReadyMessage(ready, sender, protoID, channel)) == null)
+            return;
+
         try {
-            if (!ready.checkSignature(publicKeys.get(sender))) {
+            ledger.verified(ready.getMessageID());
+            if (!SignaturesHelper.verify(ready, keys.getPublicKey(sender), ready.getMessageID())) {
                 logger.error("Invalid signature from the sender.");
                 return;
             }
@@ -210,18 +362,23 @@ public class ByzantineReliableBcastProtocol extends GenericProtocol {
             return;
         }
 
-        Map<String, Set<ReadyMessage>> readys_per_payload = readys.computeIfAbsent(ready.getMessageID(), mid -> new HashMap<>());
-        String payload = new String(ready.getPayload(), StandardCharsets.UTF_8);
+        if (!pinEpoch(ready.getMessageID(), ready.getEpoch()))
+            return;
+        markSeen(ready.getMessageID());
+        Map<ByteBuf, Set<ReadyMessage>> readys_per_payload = readys.computeIfAbsent(ready.getMessageID(), mid -> new HashMap<>());
+        ByteBuf payload = ready.getPayload();
 
         Set<ReadyMessage> my_readys = readys_per_payload.computeIfAbsent(payload, m -> new HashSet<>());
         my_readys.add(ready);
 
         if (!sentReady.getOrDefault(ready.getMessageID(), false) && my_readys.size() > this.f) {
             sentReady.put(ready.getMessageID(), true);
-            ReadyMessage my_ready = new ReadyMessage(mySelf, ready.getMessageID(), ready.getPayload());
+            markReadySent(ready.getMessageID());
+            ReadyMessage my_ready = new ReadyMessage(mySelf, ready.getMessageID(), ready.getEpoch(), ready.getPayload());
 
             try {
-                my_ready.signMessage(myPrivateKey);
+                SignaturesHelper.sign(my_ready, myPrivateKey, my_ready.getMessageID());
+                ledger.signed(my_ready.getMessageID());
 
             } catch (Exception e) {
                 logger.error("Could not sign my ready message.");
@@ -231,13 +388,24 @@ public class ByzantineReliableBcastProtocol extends GenericProtocol {
             my_readys.add(ready);
 
             for (Host h : this.neighbors)
-                sendMessage(my_ready, h);
+                behavior.send(my_ready, h, behaviorContext);
+            trace(ready.getMessageID(), null, Tracing.READY_SENT);
         }
 
         if (!delivered.contains(ready.getMessageID()) && my_readys.size() > 2 * this.f) {
             try {
                 this.delivered.add(ready.getMessageID());
-                triggerNotification(DeliveryNotification.fromMessage(ready.getPayload()));
+                instanceEpochs.remove(ready.getMessageID());
+                ledger.delivered(ready.getMessageID());
+                DeliveryNotification notification = DeliveryNotification.fromMessage(ready.getPayload());
+                trace(ready.getMessageID(), notification.getSender(), Tracing.READY_THRESHOLD);
+                deliver(notification);
+                trace(ready.getMessageID(), notification.getSender(), Tracing.DELIVERED);
+
+                Long readySent = readySentAt.remove(ready.getMessageID());
+                if(readySent != null)
+                    LatencyHistograms.record("bracha.ready_quorum", readySent);
+                LatencyHistograms.record("bracha.delivery", firstSeen.remove(ready.getMessageID()));
 
             } catch (Exception e) {
                 e.printStackTrace();
@@ -246,13 +414,88 @@ public class ByzantineReliableBcastProtocol extends GenericProtocol {
     }
 
 
+    /* ------------------------------------- Timer Handlers ------------------------------------- */
+
+    public void uponBehaviorTimer(BehaviorTimer timer, long timerId) {
+        behavior.tick(behaviorContext);
+    }
+
+
+    /* ------------------------------------- Runtime Hooks ------------------------------------- */
+
+    // Overridden by the benchmark harness, which drives the handlers without a Babel runtime
+    protected void registerChannel(int channelID) {
+		int tcpChannelID = channelID;
+		channelID = ReliableDatagramChannel.open(mySelf, props, tcpChannelID, this::createChannel, this::registerSharedChannel);
+		setDefaultChannel(channelID);
+
+        /* ------------------------------ Register Message Serializers ------------------------------ */
+        MeteredSerializer<SignedBroadcastMessage> broadcastSerializer = new MeteredSerializer<>("broadcast", ledger.serializer("broadcast", SignedBroadcastMessage.serializer, SignedBroadcastMessage::getMessageID));
+        MeteredSerializer<EchoMessage> echoSerializer = new MeteredSerializer<>("echo", ledger.serializer("echo", EchoMessage.serializer, EchoMessage::getMessageID));
+        MeteredSerializer<ReadyMessage> readySerializer = new MeteredSerializer<>("ready", ledger.serializer("ready", ReadyMessage.serializer, ReadyMessage::getMessageID));
+		registerMessageSerializer(channelID, SignedBroadcastMessage.MESSAGE_ID, broadcastSerializer);
+        registerMessageSerializer(channelID, EchoMessage.MESSAGE_ID, echoSerializer);
+        registerMessageSerializer(channelID, ReadyMessage.MESSAGE_ID, readySerializer);
+
+        /* ------------------------------ Register Message Handlers -------------------------------- */
+		try {
+			registerMessageHandler(channelID, SignedBroadcastMessage.MESSAGE_ID, this::uponReceiveBroadcastMessage);
+            registerMessageHandler(channelID, EchoMessage.MESSAGE_ID, this::uponEchoMessage);
+            registerMessageHandler(channelID, ReadyMessage.MESSAGE_ID, this::uponReadyMessage);
+		} catch (HandlerRegistrationException e) {
+			e.printStackTrace();
+		}
+
+        /* ------------------------------ Register Bulk Channel -------------------------------- */
+        if (channelID != tcpChannelID || !lanes.isSplit())
+            return;
+        bulkChannelID = lanes.getBulkChannelID();
+        registerSharedChannel(bulkChannelID);
+        registerMessageSerializer(bulkChannelID, SignedBroadcastMessage.MESSAGE_ID, broadcastSerializer);
+        registerMessageSerializer(bulkChannelID, EchoMessage.MESSAGE_ID, echoSerializer);
+        registerMessageSerializer(bulkChannelID, ReadyMessage.MESSAGE_ID, readySerializer);
+
+        //Bulk connections come from the bulk port of their sender, the handlers see the host of its membership
+		try {
+			registerMessageHandler(bulkChannelID, SignedBroadcastMessage.MESSAGE_ID,
+                    (SignedBroadcastMessage msg, Host from, short protoID, int channel) -> uponReceiveBroadcastMessage(msg, lanes.controlHost(from), protoID, channel));
+            registerMessageHandler(bulkChannelID, EchoMessage.MESSAGE_ID,
+                    (EchoMessage msg, Host from, short protoID, int channel) -> uponEchoMessage(msg, lanes.controlHost(from), protoID, channel));
+            registerMessageHandler(bulkChannelID, ReadyMessage.MESSAGE_ID,
+                    (ReadyMessage msg, Host from, short protoID, int channel) -> uponReadyMessage(msg, lanes.controlHost(from), protoID, channel));
+		} catch (HandlerRegistrationException e) {
+			e.printStackTrace();
+		}
+    }
+
+    protected void send(ProtoMessage msg, Host h) {
+        if (bulkChannelID >= 0 && Lanes.of(LANES, msg.getId()) == Lanes.Lane.BULK)
+            sendMessage(bulkChannelID, msg, lanes.bulkHost(h));
+        else sendMessage(msg, h);
+        Meter rate = sendRates.get(h);
+        if(rate != null)
+            rate.mark();
+    }
+
+    protected void deliver(DeliveryNotification notification) {
+        triggerNotification(notification);
+    }
+
+    protected long periodicTimer(ProtoTimer timer, long first, long period) {
+        return setupPeriodicTimer(timer, first, period);
+    }
+
+
     /* ------------------------------------- Procedures ------------------------------------- */
 
     private void processBroadcastMessage(SignedBroadcastMessage msg, Host sender) {
         try {
-            if (!sender.equals(mySelf) && !msg.checkSignature(publicKeys.get(sender))) {
-                logger.error("Invalid signature from the sender.");
-                return;
+            if (!sender.equals(mySelf)) {
+                ledger.verified(msg.getMessageID());
+                if (!SignaturesHelper.verify(msg, keys.getPublicKey(sender), msg.getMessageID())) {
+                    logger.error("Invalid signature from the sender.");
+                    return;
+                }
             }
 
         } catch (Exception e) {
@@ -260,22 +503,93 @@ public class ByzantineReliableBcastProtocol extends GenericProtocol {
             return;
         }
 
-        EchoMessage echo = new EchoMessage(msg.getOriginalSender(), mySelf, msg.getMessageID(), msg.getPayload(), msg.getOriginalSignature());
+        if (!pinEpoch(msg.getMessageID(), msg.getEpoch()))
+            return;
+        markSeen(msg.getMessageID());
+        EchoMessage echo = new EchoMessage(msg.getOriginalSender(), mySelf, msg.getMessageID(), msg.getEpoch(), msg.getPayload(), msg.getOriginalSignature());
 
         try {
-            echo.signMessage(myPrivateKey);
+            SignaturesHelper.sign(echo, myPrivateKey, echo.getMessageID());
+            ledger.signed(echo.getMessageID());
 
         } catch (Exception e) {
             logger.error("Could not sign my echo message.");
             return;
         }
 
-        String payload = new String(echo.getPayload(), StandardCharsets.UTF_8);
-        Map<String, Set<EchoMessage>> my_echos = echos.computeIfAbsent(echo.getMessageID(), mid -> new HashMap<>());
+        ByteBuf payload = echo.getPayload();
+        Map<ByteBuf, Set<EchoMessage>> my_echos = echos.computeIfAbsent(echo.getMessageID(), m -> new HashMap<>());
         my_echos.computeIfAbsent(payload, m -> new HashSet<>()).add(echo);
 
         for(Host h: this.neighbors)
-            sendMessage(echo, h);
+            behavior.send(echo, h, behaviorContext);
+    }
+
+    /*
+     * View of the instance a message belongs to, null when the message must be ignored: its sender is not a member of
+     * that view, it names another epoch than the first verified message of the instance, or the instance was delivered (its
+     * ready was sent before). Messages of the next view from members of the current one (or, before the first view,
+     * from known hosts) are handled once it is installed here, up to MAX_DEFERRED per view.
+     */
+    private View instanceView(UUID mid, int epoch, Host sender, Runnable later) {
+        if (delivered.contains(mid))
+            return null;
+
+        View instance = views.get(epoch);
+        if (instance == null) {
+            boolean known = view == null ? keys != null && keys.of(sender) != null
+                    : epoch == view.getEpoch() + 1 && view.contains(sender);
+            if (known)
+                defer(epoch, later);
+            return null;
+        }
+        if (!instance.contains(sender))
+            return null;
+
+        Integer pinned = instanceEpochs.get(mid);
+        return pinned == null || pinned == epoch ? instance : null;
+    }
+
+    // Pins the epoch of an instance once one of its messages verified, so a forged message can not pin a stale one
+    private boolean pinEpoch(UUID mid, int epoch) {
+        Integer pinned = instanceEpochs.putIfAbsent(mid, epoch);
+        return pinned == null || pinned == epoch;
+    }
+
+    // Verified echos of an instance received from the other replicas, this replica's own echo aside
+    private int receivedEchos(Map<ByteBuf, Set<EchoMessage>> echos_per_payload) {
+        int received = 0;
+        for (Set<EchoMessage> echos : echos_per_payload.values())
+            for (EchoMessage echo : echos)
+                if(!echo.getSender().equals(mySelf))
+                    received++;
+        return received;
+    }
+
+    private void trace(UUID mid, Host origin, String phase) {
+        if(Tracing.isEnabled()) {
+            Long seen = firstSeen.get(mid);
+            Tracing.phase(mid, origin, phase, seen != null ? seen : System.nanoTime());
+        }
+    }
+
+    private void defer(int epoch, Runnable later) {
+        List<Runnable> pending = deferred.get(epoch);
+        if (pending == null && deferred.size() >= MAX_DEFERRED_EPOCHS || pending != null && pending.size() >= MAX_DEFERRED) {
+            logger.warn("Dropped a message of epoch {}, too many are waiting for views not installed yet", epoch);
+            return;
+        }
+        deferred.computeIfAbsent(epoch, e -> new ArrayList<>()).add(later);
+    }
+
+    private void markSeen(UUID mid) {
+        if(!delivered.contains(mid))
+            firstSeen.putIfAbsent(mid, System.nanoTime());
+    }
+
+    private void markReadySent(UUID mid) {
+        if(!delivered.contains(mid))
+            readySentAt.put(mid, System.nanoTime());
     }
 
 }
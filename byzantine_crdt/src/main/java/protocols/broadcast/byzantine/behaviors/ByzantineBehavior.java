@@ -0,0 +1,73 @@
+package protocols.broadcast.byzantine.behaviors;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+import java.security.PrivateKey;
+import java.util.Properties;
+import java.util.Set;
+
+/*
+ * Faulty behavior of a replica running Bracha's broadcast. Every message the protocol sends goes through send, which
+ * decides what actually leaves the replica, and tick runs every byzantine.interval milliseconds to inject traffic of
+ * its own. Correct replicas use NONE.
+ */
+public interface ByzantineBehavior {
+
+    String BEHAVIOR = "byzantine_behavior";
+    String INTERVAL = "byzantine.interval";
+    // Messages injected per tick by the flooding behaviors
+    String RATE = "byzantine.rate";
+
+    ByzantineBehavior NONE = new ByzantineBehavior() {
+        @Override
+        public boolean isActive() {
+            return false;
+        }
+    };
+
+    default boolean isActive() {
+        return true;
+    }
+
+    default void send(ProtoMessage msg, Host to, Context ctx) {
+        ctx.send(msg, to);
+    }
+
+    default void tick(Context ctx) {
+    }
+
+    // What a behavior can do on behalf of the replica
+    interface Context {
+        Host self();
+
+        Set<Host> neighbors();
+
+        PrivateKey privateKey();
+
+        // Epoch of the replica's current view, messages of any other epoch are dropped by correct replicas
+        int epoch();
+
+        void send(ProtoMessage msg, Host to);
+    }
+
+    static ByzantineBehavior fromConfig(Properties props) {
+        int rate = Integer.parseInt(props.getProperty(RATE, "10"));
+        switch (props.getProperty(BEHAVIOR, "none")) {
+            case "none":
+                return NONE;
+            case "equivocation":
+                return new Equivocation();
+            case "echo_flood":
+                return new EchoFlood(rate);
+            case "invalid_signatures":
+                return new InvalidSignatures(rate);
+            case "silence":
+                return new SelectiveSilence(Double.parseDouble(props.getProperty(SelectiveSilence.RATIO, "0.5")));
+            case "replay":
+                return new Replay(rate);
+            default:
+                throw new IllegalArgumentException("Unknown Byzantine behavior: " + props.getProperty(BEHAVIOR));
+        }
+    }
+}
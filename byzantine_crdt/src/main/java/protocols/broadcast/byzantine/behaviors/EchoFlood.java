@@ -0,0 +1,56 @@
+package protocols.broadcast.byzantine.behaviors;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import protocols.broadcast.byzantine.messages.EchoMessage;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.Randomness;
+
+import java.util.Random;
+
+/*
+ * Floods the neighbors with validly signed echoes for messageIDs that were never broadcast. Receivers verify each one
+ * and keep it until a quorum that never comes, so their echo state grows with the flood.
+ */
+public class EchoFlood implements ByzantineBehavior {
+    private static final Logger logger = LogManager.getLogger(EchoFlood.class);
+
+    private final int rate;
+    private final Random random;
+    private ByteBuf payload;
+
+
+    public EchoFlood(int rate) {
+        this.rate = rate;
+        this.random = Randomness.newRandom();
+        this.payload = Unpooled.wrappedBuffer(new byte[64]);
+    }
+
+    @Override
+    public void send(ProtoMessage msg, Host to, Context ctx) {
+        if (msg instanceof EchoMessage)
+            payload = ((EchoMessage) msg).getPayload();
+        ctx.send(msg, to);
+    }
+
+    @Override
+    public void tick(Context ctx) {
+        byte[] fakeSignature = new byte[256];
+        for (int i = 0; i < rate; i++) {
+            random.nextBytes(fakeSignature);
+            EchoMessage echo = new EchoMessage(ctx.self(), ctx.self(), Randomness.uuid(), ctx.epoch(), payload, fakeSignature.clone());
+            try {
+                echo.signMessage(ctx.privateKey());
+            } catch (Exception e) {
+                logger.error("Could not sign a flooding echo.");
+                return;
+            }
+
+            for (Host h : ctx.neighbors())
+                ctx.send(echo, h);
+        }
+    }
+}
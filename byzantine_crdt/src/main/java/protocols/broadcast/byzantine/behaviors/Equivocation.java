@@ -0,0 +1,52 @@
+package protocols.broadcast.byzantine.behaviors;
+
+import io.netty.buffer.ByteBuf;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import protocols.broadcast.messages.SignedBroadcastMessage;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.SignaturesHelper;
+
+/*
+ * Sends each of its own broadcasts with two payloads under the same messageID: half of the neighbors get the current
+ * operation and the other half the previous one, both validly signed. Correct replicas split their echoes between the
+ * two payloads.
+ */
+public class Equivocation implements ByzantineBehavior {
+    private static final Logger logger = LogManager.getLogger(Equivocation.class);
+
+    private ByteBuf previous = null;
+    private SignedBroadcastMessage current = null;
+    private SignedBroadcastMessage conflicting = null;
+
+
+    @Override
+    public void send(ProtoMessage msg, Host to, Context ctx) {
+        if (!(msg instanceof SignedBroadcastMessage) || !((SignedBroadcastMessage) msg).getOriginalSender().equals(ctx.self())) {
+            ctx.send(msg, to);
+            return;
+        }
+
+        SignedBroadcastMessage bm = (SignedBroadcastMessage) msg;
+        if (bm != current) {
+            current = bm;
+            conflicting = previous == null ? null : conflictingOf(bm, ctx);
+            previous = bm.getPayload();
+        }
+
+        ctx.send(conflicting != null && Math.floorMod(to.hashCode(), 2) == 1 ? conflicting : bm, to);
+    }
+
+    private SignedBroadcastMessage conflictingOf(SignedBroadcastMessage bm, Context ctx) {
+        try {
+            byte[] signature = SignaturesHelper.generateSignature(previous, ctx.privateKey());
+            SignedBroadcastMessage other = new SignedBroadcastMessage(ctx.self(), ctx.self(), bm.getMessageID(), bm.getEpoch(), previous, signature, null);
+            other.signMessage(ctx.privateKey());
+            return other;
+        } catch (Exception e) {
+            logger.error("Could not sign the conflicting broadcast.");
+            return null;
+        }
+    }
+}
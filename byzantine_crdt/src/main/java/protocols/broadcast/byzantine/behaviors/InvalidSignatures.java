@@ -0,0 +1,59 @@
+package protocols.broadcast.byzantine.behaviors;
+
+import io.netty.buffer.Unpooled;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import protocols.broadcast.messages.SignedBroadcastMessage;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.Randomness;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+/*
+ * Spams the neighbors with broadcasts signed by a key nobody knows. Each one is rejected, but only after its signature
+ * was verified.
+ */
+public class InvalidSignatures implements ByzantineBehavior {
+    private static final Logger logger = LogManager.getLogger(InvalidSignatures.class);
+
+    private final int rate;
+    private final Random random;
+    private final KeyPair forged;
+
+
+    public InvalidSignatures(int rate) {
+        this.rate = rate;
+        this.random = Randomness.newRandom();
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            this.forged = generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void tick(Context ctx) {
+        byte[] payload = new byte[64];
+        byte[] signature = new byte[256];
+        for (int i = 0; i < rate; i++) {
+            random.nextBytes(payload);
+            random.nextBytes(signature);
+            SignedBroadcastMessage bm = new SignedBroadcastMessage(ctx.self(), ctx.self(), Randomness.uuid(), ctx.epoch(),
+                    Unpooled.wrappedBuffer(payload.clone()), signature.clone(), null);
+            try {
+                bm.signMessage(forged.getPrivate());
+            } catch (Exception e) {
+                logger.error("Could not sign a forged broadcast.");
+                return;
+            }
+
+            for (Host h : ctx.neighbors())
+                ctx.send(bm, h);
+        }
+    }
+}
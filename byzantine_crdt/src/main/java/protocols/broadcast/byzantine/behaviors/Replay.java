@@ -0,0 +1,71 @@
+package protocols.broadcast.byzantine.behaviors;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.Randomness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+ * Sends again messages it already sent, picked at random among the last ones. Their signatures are still valid, so
+ * receivers verify them before finding out they are duplicates. The history is forgotten on a view change, messages
+ * of an older epoch being dropped before their signatures are checked.
+ */
+public class Replay implements ByzantineBehavior {
+
+    private static final int HISTORY = 1024;
+
+    private final int rate;
+    private final Random random;
+    private final List<ProtoMessage> history;
+    private int next;
+    private ProtoMessage last;
+    private int epoch;
+
+
+    public Replay(int rate) {
+        this.rate = rate;
+        this.random = Randomness.newRandom();
+        this.history = new ArrayList<>(HISTORY);
+        this.next = 0;
+        this.last = null;
+        this.epoch = 0;
+    }
+
+    @Override
+    public void send(ProtoMessage msg, Host to, Context ctx) {
+        forgetOlderEpochs(ctx);
+        // The same message is usually sent to every neighbor in a row
+        if (msg != last) {
+            if (history.size() < HISTORY)
+                history.add(msg);
+            else history.set(next++ % HISTORY, msg);
+            last = msg;
+        }
+        ctx.send(msg, to);
+    }
+
+    @Override
+    public void tick(Context ctx) {
+        forgetOlderEpochs(ctx);
+        if (history.isEmpty())
+            return;
+
+        for (int i = 0; i < rate; i++) {
+            ProtoMessage msg = history.get(random.nextInt(history.size()));
+            for (Host h : ctx.neighbors())
+                ctx.send(msg, h);
+        }
+    }
+
+    private void forgetOlderEpochs(Context ctx) {
+        if (ctx.epoch() != epoch) {
+            history.clear();
+            next = 0;
+            last = null;
+            epoch = ctx.epoch();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package protocols.broadcast.byzantine.behaviors;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/*
+ * Stops talking to a fixed share of the neighbors (all of them with a ratio of 1), which then have to reach their
+ * quorums without this replica.
+ */
+public class SelectiveSilence implements ByzantineBehavior {
+
+    // Share of the neighbors that receive nothing from this replica
+    public static final String RATIO = "byzantine.silence_ratio";
+
+    private final double ratio;
+
+
+    public SelectiveSilence(double ratio) {
+        this.ratio = ratio;
+    }
+
+    @Override
+    public void send(ProtoMessage msg, Host to, Context ctx) {
+        // The same neighbors are silenced for the whole run
+        if (Math.floorMod(to.hashCode() * 0x9E3779B9, 1000) >= ratio * 1000)
+            ctx.send(msg, to);
+    }
+}
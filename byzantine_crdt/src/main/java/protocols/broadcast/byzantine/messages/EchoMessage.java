@@ -4,12 +4,14 @@ import io.netty.buffer.ByteBuf;
 import pt.unl.fct.di.novasys.babel.generic.signed.SignedMessageSerializer;
 import pt.unl.fct.di.novasys.babel.generic.signed.SignedProtoMessage;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.Payloads;
 import utils.SignaturesHelper;
 
 import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
+import java.security.Signature;
 import java.security.SignatureException;
 import java.util.Arrays;
 import java.util.Objects;
@@ -22,15 +24,21 @@ public class EchoMessage extends SignedProtoMessage {
     private final Host originalSender;
     private final Host sender;
     private final UUID messageID;
-    private final byte[] payload;
+    private final int epoch;
+    private final ByteBuf payload;
     private final byte[] originalSignature;
 
 
-    public EchoMessage(Host originalSender, Host sender, UUID mID, byte[] payload, byte[] originalSignature) {
+    public EchoMessage(Host originalSender, Host sender, UUID mID, ByteBuf payload, byte[] originalSignature) {
+        this(originalSender, sender, mID, 0, payload, originalSignature);
+    }
+
+    public EchoMessage(Host originalSender, Host sender, UUID mID, int epoch, ByteBuf payload, byte[] originalSignature) {
         super(MESSAGE_ID);
         this.originalSender = originalSender;
         this.sender = sender;
         this.messageID = mID;
+        this.epoch = epoch;
         this.payload = payload;
         this.originalSignature = originalSignature;
     }
@@ -43,6 +51,10 @@ public class EchoMessage extends SignedProtoMessage {
         return SignaturesHelper.checkSignature(payload, originalSignature, publicKey);
     }
 
+    public boolean verifyOriginalSignature(Signature verifier) throws SignatureException {
+        return SignaturesHelper.checkSignature(payload, originalSignature, verifier);
+    }
+
     public Host getSender() {
         return sender;
     }
@@ -51,7 +63,11 @@ public class EchoMessage extends SignedProtoMessage {
         return this.messageID;
     }
 
-    public byte[] getPayload() {
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public ByteBuf getPayload() {
         return this.payload;
     }
 
@@ -63,12 +79,8 @@ public class EchoMessage extends SignedProtoMessage {
             Host.serializer.serialize(msg.sender, out);
             out.writeLong(msg.messageID.getMostSignificantBits());
             out.writeLong(msg.messageID.getLeastSignificantBits());
-            if (msg.payload != null) {
-                out.writeInt(msg.payload.length);
-                out.writeBytes(msg.payload);
-            } else {
-                out.writeInt(0);
-            }
+            out.writeInt(msg.epoch);
+            Payloads.write(msg.payload, out);
 
             if (msg.originalSignature != null) {
                 out.writeInt(msg.originalSignature.length);
@@ -83,12 +95,8 @@ public class EchoMessage extends SignedProtoMessage {
             Host original_sender = Host.serializer.deserialize(in);
             Host sender = Host.serializer.deserialize(in);
             UUID id = new UUID(in.readLong(), in.readLong());
-            byte[] payload = null;
-            int len = in.readInt();
-            if (len > 0) {
-                payload = new byte[len];
-                in.readBytes(payload);
-            }
+            int epoch = in.readInt();
+            ByteBuf payload = Payloads.read(in);
 
             byte[] sig = null;
             int sig_len = in.readInt();
@@ -96,7 +104,7 @@ public class EchoMessage extends SignedProtoMessage {
                 sig = new byte[sig_len];
                 in.readBytes(sig);
             }
-            return new EchoMessage(original_sender, sender, id, payload, sig);
+            return new EchoMessage(original_sender, sender, id, epoch, payload, sig);
         }
     };
 
@@ -109,11 +117,11 @@ public class EchoMessage extends SignedProtoMessage {
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
         EchoMessage echo = (EchoMessage) o;
-        return Objects.equals(originalSender, echo.originalSender) && Objects.equals(sender, echo.sender) && Objects.equals(messageID, echo.messageID) && Objects.deepEquals(payload, echo.payload) && Objects.deepEquals(originalSignature, echo.originalSignature);
+        return Objects.equals(originalSender, echo.originalSender) && Objects.equals(sender, echo.sender) && Objects.equals(messageID, echo.messageID) && epoch == echo.epoch && Objects.equals(payload, echo.payload) && Objects.deepEquals(originalSignature, echo.originalSignature);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(originalSender, sender, messageID, Arrays.hashCode(payload), Arrays.hashCode(originalSignature));
+        return Objects.hash(originalSender, sender, messageID, epoch, Objects.hashCode(payload), Arrays.hashCode(originalSignature));
     }
 }
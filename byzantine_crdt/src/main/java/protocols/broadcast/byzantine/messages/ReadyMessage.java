@@ -4,9 +4,9 @@ import io.netty.buffer.ByteBuf;
 import pt.unl.fct.di.novasys.babel.generic.signed.SignedMessageSerializer;
 import pt.unl.fct.di.novasys.babel.generic.signed.SignedProtoMessage;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.Payloads;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Objects;
 import java.util.UUID;
 
@@ -16,13 +16,19 @@ public class ReadyMessage extends SignedProtoMessage {
 
     private final Host sender;
     private final UUID messageID;
-    private final byte[] payload;
+    private final int epoch;
+    private final ByteBuf payload;
 
 
-    public ReadyMessage(Host sender, UUID mID, byte[] payload) {
+    public ReadyMessage(Host sender, UUID mID, ByteBuf payload) {
+        this(sender, mID, 0, payload);
+    }
+
+    public ReadyMessage(Host sender, UUID mID, int epoch, ByteBuf payload) {
         super(MESSAGE_ID);
         this.sender = sender;
         this.messageID = mID;
+        this.epoch = epoch;
         this.payload = payload;
     }
 
@@ -30,7 +36,11 @@ public class ReadyMessage extends SignedProtoMessage {
         return this.messageID;
     }
 
-    public byte[] getPayload() {
+    public int getEpoch() {
+        return epoch;
+    }
+
+    public ByteBuf getPayload() {
         return this.payload;
     }
 
@@ -42,25 +52,17 @@ public class ReadyMessage extends SignedProtoMessage {
             Host.serializer.serialize(msg.sender, out);
             out.writeLong(msg.messageID.getMostSignificantBits());
             out.writeLong(msg.messageID.getLeastSignificantBits());
-            if (msg.payload != null) {
-                out.writeInt(msg.payload.length);
-                out.writeBytes(msg.payload);
-            } else {
-                out.writeInt(0);
-            }
+            out.writeInt(msg.epoch);
+            Payloads.write(msg.payload, out);
         }
 
         @Override
         public ReadyMessage deserializeBody(ByteBuf in) throws IOException {
             Host sender = Host.serializer.deserialize(in);
             UUID id = new UUID(in.readLong(), in.readLong());
-            byte[] payload = null;
-            int len = in.readInt();
-            if (len > 0) {
-                payload = new byte[len];
-                in.readBytes(payload);
-            }
-            return new ReadyMessage(sender, id, payload);
+            int epoch = in.readInt();
+            ByteBuf payload = Payloads.read(in);
+            return new ReadyMessage(sender, id, epoch, payload);
         }
     };
 
@@ -73,11 +75,11 @@ public class ReadyMessage extends SignedProtoMessage {
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
         ReadyMessage that = (ReadyMessage) o;
-        return Objects.equals(sender, that.sender) && Objects.equals(messageID, that.messageID) && Objects.deepEquals(payload, that.payload);
+        return Objects.equals(sender, that.sender) && Objects.equals(messageID, that.messageID) && epoch == that.epoch && Objects.equals(payload, that.payload);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(sender, messageID, Arrays.hashCode(payload));
+        return Objects.hash(sender, messageID, epoch, Objects.hashCode(payload));
     }
 }
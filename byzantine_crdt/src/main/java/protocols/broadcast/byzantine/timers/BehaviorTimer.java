@@ -0,0 +1,16 @@
+package protocols.broadcast.byzantine.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class BehaviorTimer extends ProtoTimer {
+    public static final short TIMER_ID = 306;
+
+    public BehaviorTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
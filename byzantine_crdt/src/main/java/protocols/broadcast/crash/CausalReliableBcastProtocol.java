@@ -2,6 +2,7 @@ package protocols.broadcast.crash;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import protocols.broadcast.CostLedger;
 import protocols.broadcast.notifications.DeliveryNotification;
 import protocols.broadcast.request.BroadcastRequest;
 import protocols.broadcast.messages.BroadcastMessage;
@@ -10,7 +11,14 @@ import protocols.events.NeighborDown;
 import protocols.events.NeighborUp;
 import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
 import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.LatencyHistograms;
+import utils.metrics.Meter;
+import utils.metrics.MeteredSerializer;
+import utils.metrics.Metrics;
+import utils.network.ReliableDatagramChannel;
+import utils.tracing.Tracing;
 
 import java.util.*;
 
@@ -22,10 +30,15 @@ public class CausalReliableBcastProtocol extends GenericProtocol {
 
 	private final HashSet<Host> neighbors;
     private final Map<Host, Integer> version_vector;
+    private final CostLedger ledger;
 
     private final HashSet<UUID> delivered;
     private final HashSet<BroadcastMessage> pending;
+    // Arrival time of the messages waiting in pending for their causal dependencies
+    private final Map<UUID, Long> pendingSince;
+    private final Map<Host, Meter> sendRates;
 	private Host mySelf;
+    private Properties props;
 
 
 	public CausalReliableBcastProtocol() {
@@ -33,15 +46,19 @@ public class CausalReliableBcastProtocol extends GenericProtocol {
 
         neighbors = new HashSet<>();
         version_vector = new HashMap<>();
+        ledger = CostLedger.of(PROTO_NAME);
 
         delivered = new HashSet<>();
         pending = new HashSet<>();
+        pendingSince = new HashMap<>();
+        sendRates = new HashMap<>();
 
 		this.mySelf = null;
 	}
 
 	@Override
 	public void init(Properties props) throws HandlerRegistrationException {
+        this.props = props;
 
         /* ------------------------------- Subscribe Notifications ----------------------------------- */
         subscribeNotification(ChannelAvailable.NOTIFICATION_ID, this::handleChannelAvailableNotification);
@@ -50,6 +67,11 @@ public class CausalReliableBcastProtocol extends GenericProtocol {
 
         /* ------------------------------- Register Request Handlers --------------------------------- */
         registerRequestHandler(BroadcastRequest.REQUEST_ID, this::handleBroadcastRequest);
+
+        /* ------------------------------------- Register Gauges ------------------------------------- */
+        Metrics.gauge("causal.pending", pending::size);
+        Metrics.gauge("causal.delivered", delivered::size);
+        Metrics.gauge("causal.neighbors", neighbors::size);
 	}
 
 
@@ -58,20 +80,7 @@ public class CausalReliableBcastProtocol extends GenericProtocol {
 	public void handleChannelAvailableNotification(ChannelAvailable notification, short sourceProto) {
 		this.mySelf = notification.getMyHost();
         this.version_vector.put(mySelf, 0);
-        int channelID = notification.getChannelID();
-		
-		registerSharedChannel(channelID);
-		setDefaultChannel(channelID);
-
-        /* ------------------------------ Register Message Serializers ------------------------------ */
-        registerMessageSerializer(channelID, BroadcastMessage.MESSAGE_ID, BroadcastMessage.serializer);
-
-        /* ------------------------------ Register Message Handlers -------------------------------- */
-		try {
-			registerMessageHandler(channelID, BroadcastMessage.MESSAGE_ID, this::uponReceiveBroadcastMessage);
-		} catch (HandlerRegistrationException e) {
-			e.printStackTrace();
-		}
+        registerChannel(notification.getChannelID());
 	}
 
 
@@ -79,7 +88,9 @@ public class CausalReliableBcastProtocol extends GenericProtocol {
         logger.debug("Received NeighborUp notification for: {}", notification.getNeighbor());
 
         this.neighbors.add(notification.getNeighbor());
-        this.version_vector.put(notification.getNeighbor(), 0);
+        //A neighbor coming back from a link flap keeps its entry, so its messages are not delivered twice
+        this.version_vector.putIfAbsent(notification.getNeighbor(), 0);
+        this.sendRates.put(notification.getNeighbor(), Metrics.meter("causal.send." + notification.getNeighbor()));
     }
 
 
@@ -87,22 +98,23 @@ public class CausalReliableBcastProtocol extends GenericProtocol {
         logger.debug("Received NeighborDown notification for: {}", notification.getNeighbor());
 
         this.neighbors.remove(notification.getNeighbor());
-        this.version_vector.remove(notification.getNeighbor());
     }
 
 
     /* ------------------------------------- Request Handlers ------------------------------------- */
 
 	public void handleBroadcastRequest(BroadcastRequest req, short sourceProto) {
+        LatencyHistograms.record("causal.request", req.getCreatedAt());
         try {
             int curr = version_vector.getOrDefault(mySelf, 0);
             version_vector.put(mySelf, curr + 1);
 
             BroadcastMessage bm = new BroadcastMessage(mySelf, req.encode(), new HashMap<>(version_vector));
+            Tracing.phase(bm.getMessageID(), mySelf, Tracing.SEND, req.getCreatedAt());
             for (Host h : neighbors)
-                sendMessage(bm, h);
+                send(bm, h);
 
-            deliverMessage(bm);
+            deliverMessage(bm, System.nanoTime());
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -113,21 +125,54 @@ public class CausalReliableBcastProtocol extends GenericProtocol {
     /* ------------------------------------- Message Handlers ------------------------------------- */
 
 	public void uponReceiveBroadcastMessage(BroadcastMessage msg, Host sender, short protoID, int channel) {
-		if(deliverMessage(msg)) {
+		if(deliverMessage(msg, System.nanoTime())) {
             for(Host h: this.neighbors)
-                sendMessage(msg, h);
+                send(msg, h);
 		}
 	}
 
 
+    /* ------------------------------------- Runtime Hooks ------------------------------------- */
+
+    // Overridden by the benchmark harness, which drives the handlers without a Babel runtime
+    protected void registerChannel(int channelID) {
+		channelID = ReliableDatagramChannel.open(mySelf, props, channelID, this::createChannel, this::registerSharedChannel);
+		setDefaultChannel(channelID);
+
+        /* ------------------------------ Register Message Serializers ------------------------------ */
+        registerMessageSerializer(channelID, BroadcastMessage.MESSAGE_ID, new MeteredSerializer<>("broadcast", ledger.serializer("broadcast", BroadcastMessage.serializer, BroadcastMessage::getMessageID)));
+
+        /* ------------------------------ Register Message Handlers -------------------------------- */
+		try {
+			registerMessageHandler(channelID, BroadcastMessage.MESSAGE_ID, this::uponReceiveBroadcastMessage);
+		} catch (HandlerRegistrationException e) {
+			e.printStackTrace();
+		}
+    }
+
+    protected void send(ProtoMessage msg, Host h) {
+        sendMessage(msg, h);
+        Meter rate = sendRates.get(h);
+        if(rate != null)
+            rate.mark();
+    }
+
+    protected void deliver(DeliveryNotification notification) {
+        triggerNotification(notification);
+    }
+
+
     /* ------------------------------------- Procedures ----------------------------------------- */
 
-	private boolean deliverMessage(BroadcastMessage msg) {
+	private boolean deliverMessage(BroadcastMessage msg, long receivedAt) {
         try {
             if (!this.delivered.contains(msg.getMessageID())) {
                 if(msg.getSender().equals(mySelf)) {
                     this.delivered.add(msg.getMessageID());
-                    triggerNotification(DeliveryNotification.fromMessage(msg.getPayload()));
+                    ledger.delivered(msg.getMessageID());
+                    deliver(DeliveryNotification.fromMessage(msg.getPayload()));
+                    LatencyHistograms.record("causal.local_delivery", receivedAt);
+                    Tracing.phase(msg.getMessageID(), msg.getSender(), Tracing.DELIVERED, receivedAt);
                     return true;
                 }
 
@@ -135,12 +180,16 @@ public class CausalReliableBcastProtocol extends GenericProtocol {
                     this.delivered.add(msg.getMessageID());
                     int curr = version_vector.getOrDefault(msg.getSender(), 0);
                     version_vector.put(msg.getSender(), curr + 1);
-                    triggerNotification(DeliveryNotification.fromMessage(msg.getPayload()));
+                    ledger.delivered(msg.getMessageID());
+                    deliver(DeliveryNotification.fromMessage(msg.getPayload()));
+                    LatencyHistograms.record("causal.local_delivery", receivedAt);
+                    Tracing.phase(msg.getMessageID(), msg.getSender(), Tracing.DELIVERED, receivedAt);
                     processPendingMessages();
                     return true;
                 }
 
-                pending.add(msg);
+                if(pending.add(msg))
+                    pendingSince.put(msg.getMessageID(), receivedAt);
                 return false;
             }
 
@@ -160,7 +209,19 @@ public class CausalReliableBcastProtocol extends GenericProtocol {
                     this.delivered.add(msg.getMessageID());
                     int curr = version_vector.getOrDefault(msg.getSender(), 0);
                     version_vector.put(msg.getSender(), curr + 1);
-                    triggerNotification(DeliveryNotification.fromMessage(msg.getPayload()));
+                    ledger.delivered(msg.getMessageID());
+                    deliver(DeliveryNotification.fromMessage(msg.getPayload()));
+                    //Relayed like the ones delivered on arrival, neighbors may only hear of it through this replica
+                    for (Host h : this.neighbors)
+                        send(msg, h);
+
+                    Long since = pendingSince.remove(msg.getMessageID());
+                    if(since != null) {
+                        LatencyHistograms.record("causal.pending_wait", since);
+                        LatencyHistograms.record("causal.local_delivery", since);
+                        Tracing.pendingWait(msg.getMessageID(), msg.getSender(), since);
+                        Tracing.phase(msg.getMessageID(), msg.getSender(), Tracing.DELIVERED, since);
+                    }
                 }
             }
             pending.removeAll(toRemove);
@@ -3,9 +3,11 @@ package protocols.broadcast.crash;
 import java.security.*;
 import java.util.*;
 
+import io.netty.buffer.ByteBuf;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import protocols.broadcast.CostLedger;
 import protocols.broadcast.notifications.DeliveryNotification;
 import protocols.broadcast.request.BroadcastRequest;
 import protocols.broadcast.messages.SignedBroadcastMessage;
@@ -15,6 +17,7 @@ import protocols.events.SecureNeighborUp;
 import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
 import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.KeyDirectory;
 import utils.SignaturesHelper;
 
 public class SignedCausalReliableBcastProtocol extends GenericProtocol {
@@ -25,10 +28,11 @@ public class SignedCausalReliableBcastProtocol extends GenericProtocol {
 
     private final HashSet<Host> neighbors;
     private final Map<Host, Integer> version_vector;
+    private final CostLedger ledger;
 
     private final HashSet<UUID> delivered;
     private final HashSet<SignedBroadcastMessage> pending;
-    private final HashMap<Host, PublicKey> publicKeys;
+    private KeyDirectory keys;
 
     private Host mySelf;
     private PublicKey myPublicKey;
@@ -42,8 +46,8 @@ public class SignedCausalReliableBcastProtocol extends GenericProtocol {
         pending = new HashSet<>();
 
         neighbors = new HashSet<>();
-        publicKeys = new HashMap<>();
         version_vector = new HashMap<>();
+        ledger = CostLedger.of(PROTO_NAME);
 
         this.mySelf = null;
         this.myPublicKey = null;
@@ -69,8 +73,9 @@ public class SignedCausalReliableBcastProtocol extends GenericProtocol {
         this.mySelf = notification.getMyHost();
         this.myPublicKey = notification.getMyPublicKey();
         this.myPrivateKey = notification.getMyPrivateKey();
+        this.keys = notification.getKeyDirectory();
 
-        this.publicKeys.put(mySelf, myPublicKey);
+        this.keys.add(mySelf, null, myPublicKey);
         this.version_vector.put(mySelf, 0);
 
         int channelID = notification.getChannelID();
@@ -79,7 +84,7 @@ public class SignedCausalReliableBcastProtocol extends GenericProtocol {
         setDefaultChannel(channelID);
 
         /* ------------------------------ Register Message Serializers ------------------------------ */
-        registerMessageSerializer(channelID, SignedBroadcastMessage.MESSAGE_ID, SignedBroadcastMessage.serializer);
+        registerMessageSerializer(channelID, SignedBroadcastMessage.MESSAGE_ID, ledger.serializer("broadcast", SignedBroadcastMessage.serializer, SignedBroadcastMessage::getMessageID));
 
         /* ------------------------------ Register Message Handlers -------------------------------- */
         try {
@@ -93,9 +98,11 @@ public class SignedCausalReliableBcastProtocol extends GenericProtocol {
     public void uponNeighborUpNotification(SecureNeighborUp notification, short sourceProtoID) {
         logger.debug("Received NeighborUp notification for: {}", notification.getNeighbor());
 
+        if (!this.keys.add(notification.getNeighbor(), null, notification.getPublicKey()))
+            return;
         this.neighbors.add(notification.getNeighbor());
-        this.publicKeys.put(notification.getNeighbor(), notification.getPublicKey());
-        this.version_vector.put(notification.getNeighbor(), 0);
+        //A neighbor coming back from a link flap keeps its entry, so its messages are not delivered twice
+        this.version_vector.putIfAbsent(notification.getNeighbor(), 0);
     }
 
 
@@ -103,7 +110,6 @@ public class SignedCausalReliableBcastProtocol extends GenericProtocol {
         logger.debug("Received NeighborDown notification for: {}", notification.getNeighbor());
 
         this.neighbors.remove(notification.getNeighbor());
-        this.version_vector.remove(notification.getNeighbor());
     }
 
 
@@ -114,9 +120,12 @@ public class SignedCausalReliableBcastProtocol extends GenericProtocol {
             int curr = version_vector.getOrDefault(mySelf, 0);
             version_vector.put(mySelf, curr + 1);
 
-            byte[] originalSenderSig = SignaturesHelper.generateSignature(req.encode(), myPrivateKey);
-            SignedBroadcastMessage bm = new SignedBroadcastMessage(mySelf, mySelf, req.encode(), originalSenderSig, new HashMap<>(version_vector));
+            ByteBuf envelope = req.encode();
+            byte[] originalSenderSig = SignaturesHelper.generateSignature(envelope, myPrivateKey);
+            SignedBroadcastMessage bm = new SignedBroadcastMessage(mySelf, mySelf, envelope, originalSenderSig, new HashMap<>(version_vector));
+            ledger.signed(bm.getMessageID());
             bm.signMessage(myPrivateKey);
+            ledger.signed(bm.getMessageID());
 
             for(Host h: neighbors)
                 sendMessage(bm, h);
@@ -135,6 +144,7 @@ public class SignedCausalReliableBcastProtocol extends GenericProtocol {
         if(deliverMessage(msg, sender)) {
             try {
                 msg.signMessage(myPrivateKey);
+                ledger.signed(msg.getMessageID());
 
                 for(Host h: this.neighbors)
                     sendMessage(msg, h);
@@ -154,20 +164,28 @@ public class SignedCausalReliableBcastProtocol extends GenericProtocol {
             if(!this.delivered.contains(msg.getMessageID())) {
                 if (sender.equals(mySelf)) {
                     this.delivered.add(msg.getMessageID());
+                    ledger.delivered(msg.getMessageID());
                     triggerNotification(DeliveryNotification.fromMessage(msg.getPayload()));
                     return true;
                 }
 
-                if (!publicKeys.containsKey(sender) || !publicKeys.containsKey(msg.getOriginalSender()))
+                KeyDirectory.Entry relay = keys.of(sender), origin = keys.of(msg.getOriginalSender());
+                if (relay == null || origin == null)
                     return false;
 
-                if(!msg.checkSignature(publicKeys.get(sender)) || !msg.verifyOriginalSignature(publicKeys.get(msg.getOriginalSender())))
+                ledger.verified(msg.getMessageID());
+                if(!msg.checkSignature(relay.getPublicKey()))
+                    return false;
+
+                ledger.verified(msg.getMessageID());
+                if(!msg.verifyOriginalSignature(origin.getVerifier()))
                     return false;
 
                 if(verifyCausality(msg.getSender(), msg.getVersion_vector())) {
                     this.delivered.add(msg.getMessageID());
                     int curr = version_vector.getOrDefault(msg.getSender(), 0);
                     version_vector.put(msg.getSender(), curr + 1);
+                    ledger.delivered(msg.getMessageID());
                     triggerNotification(DeliveryNotification.fromMessage(msg.getPayload()));
                     processPendingMessages();
                     return true;
@@ -193,6 +211,7 @@ public class SignedCausalReliableBcastProtocol extends GenericProtocol {
                     this.delivered.add(msg.getMessageID());
                     int curr = version_vector.getOrDefault(msg.getSender(), 0);
                     version_vector.put(msg.getSender(), curr + 1);
+                    ledger.delivered(msg.getMessageID());
                     triggerNotification(DeliveryNotification.fromMessage(msg.getPayload()));
                 }
             }
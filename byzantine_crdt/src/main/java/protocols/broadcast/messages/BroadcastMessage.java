@@ -4,6 +4,8 @@ import io.netty.buffer.ByteBuf;
 import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
 import pt.unl.fct.di.novasys.network.ISerializer;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.Payloads;
+import utils.Randomness;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -17,18 +19,18 @@ public class BroadcastMessage extends ProtoMessage {
 
 	private final Host sender;
 	private final UUID messageID;
-	private final byte[] payload;
+	private final ByteBuf payload;
     private final Map<Host, Integer> version_vector;
 
-	public BroadcastMessage(Host sender, byte[] payload, Map<Host, Integer> version_vector) {
+	public BroadcastMessage(Host sender, ByteBuf payload, Map<Host, Integer> version_vector) {
 		super(MESSAGE_ID);
 		this.sender = sender;
-		this.messageID = UUID.randomUUID();
+		this.messageID = Randomness.uuid();
 		this.payload = payload;
         this.version_vector = version_vector;
 	}
 
-    public BroadcastMessage(Host sender, UUID mID, byte[] payload, Map<Host, Integer> version_vector) {
+    public BroadcastMessage(Host sender, UUID mID, ByteBuf payload, Map<Host, Integer> version_vector) {
         super(MESSAGE_ID);
         this.sender = sender;
         this.messageID = mID;
@@ -44,7 +46,7 @@ public class BroadcastMessage extends ProtoMessage {
 		return this.messageID;
 	}
 	
-	public byte[] getPayload() {
+	public ByteBuf getPayload() {
 		return this.payload;
 	}
 
@@ -58,12 +60,7 @@ public class BroadcastMessage extends ProtoMessage {
             Host.serializer.serialize(msg.sender, out);
             out.writeLong(msg.messageID.getMostSignificantBits());
             out.writeLong(msg.messageID.getLeastSignificantBits());
-            if (msg.payload != null) {
-                out.writeInt(msg.payload.length);
-                out.writeBytes(msg.payload);
-            } else {
-                out.writeInt(0);
-            }
+            Payloads.write(msg.payload, out);
 
             out.writeInt(msg.version_vector.size());
             for (Map.Entry<Host, Integer> e : msg.version_vector.entrySet()) {
@@ -76,12 +73,7 @@ public class BroadcastMessage extends ProtoMessage {
         public BroadcastMessage deserialize(ByteBuf in) throws IOException {
             Host sender = Host.serializer.deserialize(in);
             UUID id = new UUID(in.readLong(), in.readLong());
-            byte[] payload = null;
-            int len = in.readInt();
-            if (len > 0) {
-                payload = new byte[len];
-                in.readBytes(payload);
-            }
+            ByteBuf payload = Payloads.read(in);
 
             int vvSize = in.readInt();
             Map<Host, Integer> vv = new HashMap<>();
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
+import java.security.Signature;
 import java.security.SignatureException;
 import java.util.HashMap;
 import java.util.Map;
@@ -14,6 +15,8 @@ import io.netty.buffer.ByteBuf;
 import pt.unl.fct.di.novasys.babel.generic.signed.SignedMessageSerializer;
 import pt.unl.fct.di.novasys.babel.generic.signed.SignedProtoMessage;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.Payloads;
+import utils.Randomness;
 import utils.SignaturesHelper;
 
 public class SignedBroadcastMessage extends SignedProtoMessage {
@@ -23,27 +26,35 @@ public class SignedBroadcastMessage extends SignedProtoMessage {
 	private final Host originalSender;
     private final Host sender;
 	private final UUID messageID;
-	private final byte[] payload;
+	private final ByteBuf payload;
     private final byte[] originalSignature;
     private final Map<Host, Integer> version_vector;
+    // View the broadcast was started in, whose quorums it uses (0 outside of the byzantine broadcast)
+    private final int epoch;
 
 
 
-    public SignedBroadcastMessage(Host originalSender, Host sender, byte[] payload, byte[] originalSignature, Map<Host, Integer> version_vector) {
+    public SignedBroadcastMessage(Host originalSender, Host sender, ByteBuf payload, byte[] originalSignature, Map<Host, Integer> version_vector) {
         super(MESSAGE_ID);
         this.originalSender = originalSender;
         this.sender = sender;
-        this.messageID = UUID.randomUUID();
+        this.messageID = Randomness.uuid();
         this.payload = payload;
         this.originalSignature = originalSignature;
         this.version_vector = version_vector;
+        this.epoch = 0;
     }
 
-    public SignedBroadcastMessage(Host originalSender, Host sender, UUID mID, byte[] payload, byte[] originalSignature, Map<Host, Integer> version_vector) {
+    public SignedBroadcastMessage(Host originalSender, Host sender, UUID mID, ByteBuf payload, byte[] originalSignature, Map<Host, Integer> version_vector) {
+        this(originalSender, sender, mID, 0, payload, originalSignature, version_vector);
+    }
+
+    public SignedBroadcastMessage(Host originalSender, Host sender, UUID mID, int epoch, ByteBuf payload, byte[] originalSignature, Map<Host, Integer> version_vector) {
         super(MESSAGE_ID);
         this.originalSender = originalSender;
         this.sender = sender;
         this.messageID = mID;
+        this.epoch = epoch;
         this.payload = payload;
         this.originalSignature = originalSignature;
         this.version_vector = version_vector;
@@ -60,8 +71,12 @@ public class SignedBroadcastMessage extends SignedProtoMessage {
     public UUID getMessageID() {
 		return this.messageID;
 	}
+
+    public int getEpoch() {
+        return epoch;
+    }
 	
-	public byte[] getPayload() {
+	public ByteBuf getPayload() {
 		return this.payload;
 	}
 
@@ -77,6 +92,10 @@ public class SignedBroadcastMessage extends SignedProtoMessage {
         return SignaturesHelper.checkSignature(payload, originalSignature, publicKey);
     }
 
+    public boolean verifyOriginalSignature(Signature verifier) throws SignatureException {
+        return SignaturesHelper.checkSignature(payload, originalSignature, verifier);
+    }
+
     public final static SignedMessageSerializer<SignedBroadcastMessage> serializer = new SignedMessageSerializer<>() {
 
         @Override
@@ -85,11 +104,8 @@ public class SignedBroadcastMessage extends SignedProtoMessage {
             Host.serializer.serialize(msg.sender, out);
             out.writeLong(msg.messageID.getMostSignificantBits());
             out.writeLong(msg.messageID.getLeastSignificantBits());
-            if (msg.payload != null) {
-                out.writeInt(msg.payload.length);
-                out.writeBytes(msg.payload);
-            } else
-                out.writeInt(0);
+            out.writeInt(msg.epoch);
+            Payloads.write(msg.payload, out);
 
             if (msg.originalSignature != null) {
                 out.writeInt(msg.originalSignature.length);
@@ -114,12 +130,8 @@ public class SignedBroadcastMessage extends SignedProtoMessage {
             Host original_sender = Host.serializer.deserialize(in);
             Host sender = Host.serializer.deserialize(in);
             UUID id = new UUID(in.readLong(), in.readLong());
-            byte[] payload = null;
-            int len = in.readInt();
-            if (len > 0) {
-                payload = new byte[len];
-                in.readBytes(payload);
-            }
+            int epoch = in.readInt();
+            ByteBuf payload = Payloads.read(in);
 
             byte[] sig = null;
             int sig_len = in.readInt();
@@ -136,7 +148,7 @@ public class SignedBroadcastMessage extends SignedProtoMessage {
                 vv.put(h, clock);
             }
 
-            return new SignedBroadcastMessage(original_sender, sender, id, payload, sig, vv);
+            return new SignedBroadcastMessage(original_sender, sender, id, epoch, payload, sig, vv);
         }
     };
 
@@ -5,19 +5,19 @@ import java.security.PublicKey;
 import java.security.Signature;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import pt.unl.fct.di.novasys.babel.generic.ProtoNotification;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.SignaturesHelper;
 
 public class DeliveryNotification extends ProtoNotification {
 
 	public final static short NOTIFICATION_ID = 302;
 	
 	private final Host sender;
-	private final byte[] payload;
+	private final ByteBuf payload;
 	private final byte[] signature;
 	
-	public DeliveryNotification(Host h, byte[] payload, byte[] signature) {
+	public DeliveryNotification(Host h, ByteBuf payload, byte[] signature) {
 		super(NOTIFICATION_ID);
 		this.sender = h;
 		this.payload = payload;
@@ -27,8 +27,9 @@ public class DeliveryNotification extends ProtoNotification {
 	public Host getSender() {
 		return this.sender;
 	}
-	
-	public byte[] getPayload() {
+
+	// Shared by every subscriber: read it through absolute indexes or a duplicate, never by moving its reader index
+	public ByteBuf getPayload() {
 		return this.payload;
 	}
 	
@@ -40,21 +41,21 @@ public class DeliveryNotification extends ProtoNotification {
 		Signature sig = Signature.getInstance(algorithm);
 		sig.initVerify(key);
 		sig.update(sender.toString().getBytes());
-		sig.update(payload);
+		SignaturesHelper.update(sig, payload);
 		return sig.verify(signature);
 	}
-	
-	public static DeliveryNotification fromMessage(byte[] message) throws IOException {
-		ByteBuf out = Unpooled.wrappedBuffer(message);
-		Host h = Host.serializer.deserialize(out);
-		int len = out.readInt();
-		byte[] payload = new byte[len];
-		out.readBytes(payload);
+
+	// The payload of the notification is a slice of the message, no bytes are copied
+	public static DeliveryNotification fromMessage(ByteBuf message) throws IOException {
+		ByteBuf in = message.slice();
+		Host h = Host.serializer.deserialize(in);
+		int len = in.readInt();
+		ByteBuf payload = in.readSlice(len);
         byte[] sig = null;
-        if(out.isReadable()) {
-            len = out.readInt();
+        if(in.isReadable()) {
+            len = in.readInt();
             sig = new byte[len];
-            out.readBytes(sig);
+            in.readBytes(sig);
         }
 		return new DeliveryNotification(h, payload, sig);
 	}
@@ -3,36 +3,49 @@ package protocols.broadcast.request;
 import java.io.IOException;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
 import pt.unl.fct.di.novasys.network.data.Host;
 
 public class BroadcastRequest extends ProtoRequest {
 
 	public final static short REQUEST_ID = 302;
-	
+
+	// Serialized Host (IPv4 address and port) followed by the payload length
+	private static final int HEADER_CAPACITY = 32;
+
 	private final Host sender;
-	private final byte[] payload;
+	private final ByteBuf payload;
+	private final long createdAt;
 	
-	public BroadcastRequest(Host sender, byte[] payload) {
+	public BroadcastRequest(Host sender, ByteBuf payload) {
 		super(REQUEST_ID);
 		this.sender = sender;
 		this.payload = payload;
+		this.createdAt = System.nanoTime();
+	}
+
+	public BroadcastRequest(Host sender, byte[] payload) {
+		this(sender, Unpooled.wrappedBuffer(payload));
+	}
+
+	public Host getSender() {
+		return sender;
+	}
+
+	public ByteBuf getPayload() {
+		return payload;
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
 	}
 
-    public byte[] encode() throws IOException {
-        ByteBuf buffer = ByteBufAllocator.DEFAULT.buffer();
-        try {
-            Host.serializer.serialize(sender, buffer);
-            buffer.writeInt(payload.length);
-            buffer.writeBytes(payload);
-
-            byte[] result = new byte[buffer.readableBytes()];
-            buffer.resetReaderIndex();
-            buffer.readBytes(result);
-            return result;
-        } finally {
-            buffer.release();
-        }
+	// The envelope shares the payload memory: only the small header is written
+    public ByteBuf encode() throws IOException {
+        ByteBuf header = Unpooled.wrappedBuffer(new byte[HEADER_CAPACITY]).clear();
+        Host.serializer.serialize(sender, header);
+        header.writeInt(payload.readableBytes());
+        return Unpooled.wrappedBuffer(header, payload.slice());
     }
 }
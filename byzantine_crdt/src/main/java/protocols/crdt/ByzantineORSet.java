@@ -2,22 +2,27 @@ package protocols.crdt;
 
 import app.AutomatedApp;
 import app.InteractiveApp;
+import io.netty.buffer.ByteBuf;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import protocols.broadcast.byzantine.ByzantineReliableBcastProtocol;
 import protocols.broadcast.notifications.DeliveryNotification;
 import protocols.broadcast.request.BroadcastRequest;
 import protocols.events.SecureChannelAvailable;
-import protocols.crdt.replies.AddReply;
-import protocols.crdt.replies.ReadReply;
-import protocols.crdt.replies.RemoveReply;
-import protocols.crdt.requests.AddRequest;
-import protocols.crdt.requests.ReadRequest;
-import protocols.crdt.requests.RemoveRequest;
+import protocols.crdt.replies.*;
+import protocols.crdt.requests.*;
+import protocols.crdt.timers.CoalesceTimer;
+import protocols.crdt.timers.DigestTimer;
 import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
 import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoReply;
+import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.LatencyHistograms;
+import utils.metrics.Metrics;
 
+import java.io.IOException;
 import java.util.*;
 
 public class ByzantineORSet extends GenericProtocol {
@@ -26,35 +31,81 @@ public class ByzantineORSet extends GenericProtocol {
     public static final String PROTO_NAME = "Byzantine Observed-Remove Set CRDT";
     public static final short PROTO_ID = 501;
 
-    public static final String ADD_OP = "add";
-    public static final String REMOVE_OP = "remove";
+    public static final byte ADD_OP = Operation.ADD_OP;
+    public static final byte REMOVE_OP = Operation.REMOVE_OP;
 
     public static final String APP_MODE = "app_interaction";
-
-    private final Map<String, Set<UUID>> state;
+    // Time during which local operations are merged before being broadcast (0 disables coalescing)
+    public static final String COALESCE_WINDOW = "crdt.coalesce_window";
+
+    private final int shard;
+    private final ORSetCollection state;
+    // Broadcast time of the operations of this replica that were not delivered yet, keyed by their encoding
+    private final Map<ByteBuf, Long> inFlight;
+    private final OperationCoalescer coalescer;
+    private int coalesceWindow;
+    private boolean coalesceTimerSet;
+    private int digestInterval;
+    private Keyspace keyspace;
     private Host mySelf;
     private short appProtoId;
 
 
     public ByzantineORSet() {
-        super(PROTO_NAME, PROTO_ID);
-        this.state = new HashMap<>();
+        this(0);
+    }
+
+    public ByzantineORSet(int shard) {
+        super(Keyspace.shardProtoName(PROTO_NAME, shard), Keyspace.shardProtoId(PROTO_ID, shard));
+        this.shard = shard;
+        this.state = new ORSetCollection();
+        this.inFlight = new HashMap<>();
+        this.coalescer = new OperationCoalescer();
+        this.coalesceTimerSet = false;
         this.mySelf = null;
     }
 
     @Override
     public void init(Properties props) throws HandlerRegistrationException {
 
+        keyspace = new Keyspace(PROTO_ID, Keyspace.getShards(props));
         appProtoId = props.getProperty(APP_MODE).equals("interactive") ? InteractiveApp.PROTO_ID : AutomatedApp.PROTO_ID;
+        coalesceWindow = Integer.parseInt(props.getProperty(COALESCE_WINDOW, "0")); //in milliseconds
+        digestInterval = Integer.parseInt(props.getProperty(ConvergenceLog.INTERVAL, "0")); //in milliseconds
 
         /* -------------------------------- Register Request Handlers -------------------------------- */
         registerRequestHandler(AddRequest.REQUEST_ID, this::handleAddRequest);
         registerRequestHandler(RemoveRequest.REQUEST_ID, this::handleRemoveRequest);
         registerRequestHandler(ReadRequest.REQUEST_ID, this::handleReadRequest);
+        registerRequestHandler(ContainsRequest.REQUEST_ID, this::handleContainsRequest);
+        registerRequestHandler(PrefixScanRequest.REQUEST_ID, this::handlePrefixScanRequest);
+        registerRequestHandler(CountRequest.REQUEST_ID, this::handleCountRequest);
+        registerRequestHandler(DeliverRequest.REQUEST_ID, this::handleDeliverRequest);
+        registerRequestHandler(FlushRequest.REQUEST_ID, this::handleFlushRequest);
 
         /* ----------------------------- Register Notification Handlers ------------------------------ */
-        subscribeNotification(DeliveryNotification.NOTIFICATION_ID, this::uponDeliver);
+        // The first shard decodes each delivery once and hands it to the shard of its set
+        if(shard == 0)
+            subscribeNotification(DeliveryNotification.NOTIFICATION_ID, this::uponDeliver);
         subscribeNotification(SecureChannelAvailable.NOTIFICATION_ID, this::uponChannelAvailable);
+
+        /* ----------------------------------- Register Timers --------------------------------------- */
+        registerTimerHandler(CoalesceTimer.TIMER_ID, this::uponCoalesceTimer);
+        registerTimerHandler(DigestTimer.TIMER_ID, this::uponDigestTimer);
+
+        /* ----------------------------------- Register Gauges --------------------------------------- */
+        Metrics.gauge("crdt." + shard + ".elements", state::getElementCount);
+        Metrics.gauge("crdt." + shard + ".tags", state::getTagCount);
+
+        if(digestInterval > 0) {
+            try {
+                ConvergenceLog.start(props.getProperty(LatencyHistograms.LOG_DIR, "metrics"), props.getProperty("membership.myhost"));
+                periodicTimer(new DigestTimer(), digestInterval, digestInterval);
+            } catch (IOException e) {
+                logger.error("Could not open the convergence log.");
+                e.printStackTrace();
+            }
+        }
     }
 
 
@@ -64,36 +115,77 @@ public class ByzantineORSet extends GenericProtocol {
     public void handleAddRequest(AddRequest req, short sourceProto) {
         logger.debug("Received Add Operation: ({},{})", req.getAdd_id(), req.getElement());
 
-        Operation op = new Operation(ADD_OP, Set.of(req.getAdd_id()), req.getElement());
-        processAddOperation(op);
-        sendReply(new AddReply(op.getElement()), appProtoId);
+        Operation op = new Operation(ADD_OP, req.getSetName(), Set.of(req.getAdd_id()), req.getElement());
+        state.processAddOperation(op);
+        reply(new AddReply(op.getSetName(), op.getElement()), appProtoId);
 
-        BroadcastRequest bcast_req = new BroadcastRequest(mySelf, op.encode());
-        sendRequest(bcast_req, ByzantineReliableBcastProtocol.PROTO_ID);
+        if(coalesceWindow > 0) {
+            coalescer.add(op.getSetName(), op.getElement(), req.getAdd_id());
+            setupCoalesceTimer();
+        }
+        else broadcast(op);
     }
 
     public void handleRemoveRequest(RemoveRequest req, short sourceProto) {
         logger.debug("Received Remove Operation: ({})", req.getElement());
 
-        Set<UUID> observed_adds = state.get(req.getElement());
+        Set<UUID> observed_adds = state.getObserved(req.getSetName(), req.getElement());
         if(observed_adds == null)
-            sendReply(new RemoveReply(req.getElement()), appProtoId);
+            reply(new RemoveReply(req.getSetName(), req.getElement(), false, false), appProtoId);
 
         else {
-            Operation op = new Operation(REMOVE_OP, Set.copyOf(observed_adds), req.getElement());
-            processRemoveOperation(op);
-            sendReply(new RemoveReply(req.getElement()), appProtoId);
-
-            BroadcastRequest bcast_req = new BroadcastRequest(mySelf, op.encode());
-            sendRequest(bcast_req, ByzantineReliableBcastProtocol.PROTO_ID);
+            Operation op = new Operation(REMOVE_OP, req.getSetName(), observed_adds, req.getElement());
+            state.processRemoveOperation(op);
+
+            if(coalesceWindow > 0) {
+                boolean cancelled = coalescer.remove(op.getSetName(), op.getElement(), op.getAdd_ids());
+                reply(new RemoveReply(op.getSetName(), op.getElement(), coalescer.isRemovePending(op.getSetName(), op.getElement()), cancelled), appProtoId);
+                setupCoalesceTimer();
+            }
+            else {
+                reply(new RemoveReply(op.getSetName(), op.getElement(), true, false), appProtoId);
+                broadcast(op);
+            }
         }
     }
 
     public void handleReadRequest(ReadRequest req, short sourceProto) {
         logger.debug("Received Read Operation");
 
-        ReadReply reply = new ReadReply(mySelf, state.keySet());
-        sendReply(reply, appProtoId);
+        ReadReply reply = new ReadReply(mySelf, req.getSetName(), state.getElements(req.getSetName()));
+        reply(reply, appProtoId);
+    }
+
+    public void handleContainsRequest(ContainsRequest req, short sourceProto) {
+        logger.debug("Received Contains Operation: ({})", req.getElement());
+
+        boolean contained = state.contains(req.getSetName(), req.getElement());
+        reply(new ContainsReply(req.getSetName(), req.getElement(), contained), appProtoId);
+    }
+
+    public void handlePrefixScanRequest(PrefixScanRequest req, short sourceProto) {
+        logger.debug("Received Prefix Scan Operation: ({}, after {})", req.getPrefix(), req.getStartAfter());
+
+        // Fetching one extra element tells whether there is a next page
+        List<String> page = state.prefixScan(req.getSetName(), req.getPrefix(), req.getStartAfter(), req.getLimit() + 1);
+        String nextCursor = null;
+        if(page.size() > req.getLimit()) {
+            page = page.subList(0, req.getLimit());
+            nextCursor = page.get(page.size() - 1);
+        }
+        reply(new PrefixScanReply(req.getSetName(), req.getPrefix(), new ArrayList<>(page), nextCursor), appProtoId);
+    }
+
+    public void handleFlushRequest(FlushRequest req, short sourceProto) {
+        logger.debug("Flushing the coalesced operations");
+        flush();
+    }
+
+    public void handleCountRequest(CountRequest req, short sourceProto) {
+        logger.debug("Received Count Operation: ({})", req.getPrefix());
+
+        int count = req.getPrefix() == null ? state.count(req.getSetName()) : state.count(req.getSetName(), req.getPrefix());
+        reply(new CountReply(req.getSetName(), req.getPrefix(), count), appProtoId);
     }
 
 
@@ -104,36 +196,98 @@ public class ByzantineORSet extends GenericProtocol {
         this.mySelf = notification.getMyHost();
     }
 
-    private void uponDeliver(DeliveryNotification notification, short sourceProto) {
-        if(!notification.getSender().equals(mySelf)) {
-            Operation op = Operation.decode(notification.getPayload());
+    public void uponDeliver(DeliveryNotification notification, short sourceProto) {
+        Operation op;
+        try {
+            op = Operation.decode(notification.getPayload().duplicate());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Dropped a malformed operation from {}: {}", notification.getSender(), e.getMessage());
+            return;
+        }
+        int owner = keyspace.shardOf(op.getSetName());
+        if(owner != shard)
+            request(new DeliverRequest(notification, op), keyspace.protoIdOfShard(owner));
+        else apply(notification, op);
+    }
 
-            if (op.getType().equals(ADD_OP))
-                processAddOperation(op);
+    public void handleDeliverRequest(DeliverRequest req, short sourceProto) {
+        apply(req.getDelivery(), req.getOperation());
+    }
 
-            else if (op.getType().equals(REMOVE_OP))
-                processRemoveOperation(op);
-        }
+
+    /* ----------------------------------------- Timer Handlers ------------------------------------------ */
+
+    public void uponCoalesceTimer(CoalesceTimer timer, long timerId) {
+        coalesceTimerSet = false;
+        flush();
+    }
+
+    public void uponDigestTimer(DigestTimer timer, long timerId) {
+        ConvergenceLog.digest(shard, state.getAppliedCount(), state.getDigest());
+    }
+
+
+    /* ------------------------------------- Runtime Hooks ------------------------------------------- */
+
+    // Overridden by the simulator, which runs several replicas in one process without a Babel runtime
+    protected void request(ProtoRequest request, short destProto) {
+        sendRequest(request, destProto);
+    }
+
+    protected void reply(ProtoReply reply, short destProto) {
+        sendReply(reply, destProto);
+    }
+
+    protected long timer(ProtoTimer timer, long timeout) {
+        return setupTimer(timer, timeout);
+    }
+
+    protected long periodicTimer(ProtoTimer timer, long first, long period) {
+        return setupPeriodicTimer(timer, first, period);
+    }
+
+    public long getDigest() {
+        return state.getDigest();
+    }
+
+    public int getShard() {
+        return shard;
     }
 
 
     /* ------------------------------------- Procedures --------------------------------------------- */
 
-    private void processAddOperation(Operation op) {
-        Set<UUID> adds  = state.get(op.getElement());
-        if (adds == null)
-            adds = new HashSet<>();
+    private void apply(DeliveryNotification notification, Operation op) {
+        if(notification.getSender().equals(mySelf)) {
+            Long startTime = inFlight.remove(notification.getPayload());
+            if(startTime != null)
+                LatencyHistograms.recordCorrected("crdt.delivery." + op.getTypeName(), startTime);
+            return;
+        }
+
+        state.process(op);
+        if(ConvergenceLog.isEnabled())
+            ConvergenceLog.applied(notification.getPayload());
+    }
+
+    private void broadcast(Operation op) {
+        BroadcastRequest bcast_req = new BroadcastRequest(mySelf, op.encode());
+        inFlight.put(bcast_req.getPayload(), bcast_req.getCreatedAt());
+        // The local state already reflects the operation, coalesced ones since up to one window earlier
+        if(ConvergenceLog.isEnabled())
+            ConvergenceLog.applied(bcast_req.getPayload());
+        request(bcast_req, ByzantineReliableBcastProtocol.PROTO_ID);
+    }
 
-        adds.add(op.getAdd_ids().iterator().next());
-        state.put(op.getElement(), adds);
+    private void flush() {
+        for (Operation op : coalescer.drain())
+            broadcast(op);
     }
 
-    private void processRemoveOperation(Operation op) {
-        Set<UUID> adds  = state.get(op.getElement());
-        if(adds != null) {
-            adds.removeAll(op.getAdd_ids());
-            if(adds.isEmpty())
-                state.remove(op.getElement());
+    private void setupCoalesceTimer() {
+        if(!coalesceTimerSet) {
+            timer(new CoalesceTimer(), coalesceWindow);
+            coalesceTimerSet = true;
         }
     }
 
@@ -0,0 +1,117 @@
+package protocols.crdt;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import io.netty.buffer.ByteBuf;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Per-replica convergence log, read back by app/simulation/convergence.py:
+ *   A <epoch micros> <op id>                          an operation was applied to the local state
+ *   D <epoch micros> <shard> <applied ops> <digest>   periodic digest of the state of a shard
+ * Operation ids hash the encoded operation, so every replica derives the same id for the same broadcast.
+ * Shards only hash and queue their records, which a writer thread formats and appends, so they never wait on each other.
+ */
+public class ConvergenceLog {
+
+    // Period (in milliseconds) of the digest records, 0 disables the log
+    public static final String INTERVAL = "convergence.interval";
+
+    // Period (in milliseconds) at which the writer drains the queued records
+    private static final long WRITE_INTERVAL = 100;
+
+    private static final Queue<Record> records = new ConcurrentLinkedQueue<>();
+    private static volatile PrintWriter out = null;
+    private static ScheduledExecutorService writer = null;
+
+
+    public static synchronized void start(String dir, String self) throws IOException {
+        if (out != null)
+            return;
+
+        new File(dir).mkdirs();
+        File file = new File(dir, "convergence-" + self.replace(':', '_') + ".log");
+        out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "convergence-log");
+            t.setDaemon(true);
+            return t;
+        });
+        writer.scheduleAtFixedRate(ConvergenceLog::write, WRITE_INTERVAL, WRITE_INTERVAL, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(ConvergenceLog::close));
+    }
+
+    public static boolean isEnabled() {
+        return out != null;
+    }
+
+    public static void applied(ByteBuf payload) {
+        records.add(new Record(epochMicros(), -1, 0, opId(payload)));
+    }
+
+    public static void digest(int shard, long applied, long digest) {
+        records.add(new Record(epochMicros(), shard, applied, digest));
+    }
+
+    private static synchronized void write() {
+        if (out == null)
+            return;
+
+        Record r;
+        while ((r = records.poll()) != null) {
+            if (r.shard < 0)
+                out.printf("A %d %016x%n", r.time, r.value);
+            else out.printf("D %d %d %d %016x%n", r.time, r.shard, r.applied, r.value);
+        }
+        out.flush();
+    }
+
+    private static synchronized void close() {
+        if (out == null)
+            return;
+
+        writer.shutdownNow();
+        write();
+        out.close();
+        out = null;
+    }
+
+    private static long opId(ByteBuf payload) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (ByteBuffer component : payload.nioBuffers())
+            hasher.putBytes(component);
+        return hasher.hash().asLong();
+    }
+
+    private static long epochMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000L + now.getNano() / 1_000;
+    }
+
+    // An applied operation (shard -1, value its id) or a digest of a shard
+    private static class Record {
+        private final long time;
+        private final int shard;
+        private final long applied;
+        private final long value;
+
+        Record(long time, int shard, long applied, long value) {
+            this.time = time;
+            this.shard = shard;
+            this.applied = applied;
+            this.value = value;
+        }
+    }
+}
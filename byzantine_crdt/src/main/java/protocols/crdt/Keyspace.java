@@ -0,0 +1,65 @@
+package protocols.crdt;
+
+import java.util.Properties;
+
+public class Keyspace {
+
+    public static final String FAULT_MODEL = "fault_model";
+    public static final String SHARDS_KEY = "crdt.shards";
+    public static final String DEFAULT_SET = "default";
+
+    // Protocol ids of consecutive shards are spaced by this amount, so the shards of ORSet (500, 510, ...) and
+    // ByzantineORSet (501, 511, ...) interleave without colliding. Shard ids stay in 500-999, reserved for the CRDTs,
+    // which bounds the number of shards
+    public static final short SHARD_ID_STRIDE = 10;
+    public static final int MAX_PROTO_ID = 999;
+    public static final int MAX_SHARDS = (MAX_PROTO_ID - ByzantineORSet.PROTO_ID) / SHARD_ID_STRIDE + 1;
+
+    private final short baseProtoId;
+    private final int shards;
+
+
+    public Keyspace(short baseProtoId, int shards) {
+        if (shards < 1 || shards > MAX_SHARDS)
+            throw new IllegalArgumentException("The number of CRDT shards must be between 1 and " + MAX_SHARDS + ": " + shards);
+
+        this.baseProtoId = baseProtoId;
+        this.shards = shards;
+    }
+
+    public static Keyspace fromConfig(Properties props) {
+        short baseProtoId = props.getProperty(FAULT_MODEL).equals("crash") ? ORSet.PROTO_ID : ByzantineORSet.PROTO_ID;
+        return new Keyspace(baseProtoId, getShards(props));
+    }
+
+    public static int getShards(Properties props) {
+        int shards = Integer.parseInt(props.getProperty(SHARDS_KEY, "1"));
+        if (shards < 1 || shards > MAX_SHARDS)
+            throw new IllegalArgumentException(SHARDS_KEY + " must be between 1 and " + MAX_SHARDS + ": " + shards);
+        return shards;
+    }
+
+    public static short shardProtoId(short baseProtoId, int shard) {
+        return (short) (baseProtoId + SHARD_ID_STRIDE * shard);
+    }
+
+    public static String shardProtoName(String baseProtoName, int shard) {
+        return shard == 0 ? baseProtoName : baseProtoName + " #" + shard;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public int shardOf(String setName) {
+        return Math.floorMod(setName.hashCode(), shards);
+    }
+
+    public short protoIdOf(String setName) {
+        return shardProtoId(baseProtoId, shardOf(setName));
+    }
+
+    public short protoIdOfShard(int shard) {
+        return shardProtoId(baseProtoId, shard);
+    }
+}
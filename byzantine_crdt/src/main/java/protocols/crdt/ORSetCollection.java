@@ -0,0 +1,192 @@
+package protocols.crdt;
+
+import java.util.*;
+
+public class ORSetCollection {
+
+    private final Map<String, NamedSet> sets;
+    // Totals over every set, kept up to date so they can be read without walking the state
+    private int elements;
+    private int tags;
+    // XOR of the hashes of every (set, element, tag) triple, equal on replicas with the same state whatever the order
+    private long digest;
+    private long applied;
+
+
+    public ORSetCollection() {
+        this.sets = new HashMap<>();
+        this.elements = 0;
+        this.tags = 0;
+        this.digest = 0;
+        this.applied = 0;
+    }
+
+    public int getElementCount() {
+        return elements;
+    }
+
+    public int getTagCount() {
+        return tags;
+    }
+
+    public long getDigest() {
+        return digest;
+    }
+
+    // Number of operations applied to this state, local and remote
+    public long getAppliedCount() {
+        return applied;
+    }
+
+    public Set<UUID> getObserved(String setName, String element) {
+        NamedSet set = sets.get(setName);
+        return set == null ? null : set.tags.get(element);
+    }
+
+    public Set<String> getElements(String setName) {
+        NamedSet set = sets.get(setName);
+        return set == null ? new HashSet<>() : new HashSet<>(set.tags.keySet());
+    }
+
+    public boolean contains(String setName, String element) {
+        NamedSet set = sets.get(setName);
+        return set != null && set.tags.containsKey(element);
+    }
+
+    public int count(String setName) {
+        NamedSet set = sets.get(setName);
+        return set == null ? 0 : set.tags.size();
+    }
+
+    public int count(String setName, String prefix) {
+        NamedSet set = sets.get(setName);
+        if (set == null)
+            return 0;
+
+        int count = 0;
+        for (String element : set.index.tailSet(prefix, true)) {
+            if (!element.startsWith(prefix))
+                break;
+            count++;
+        }
+        return count;
+    }
+
+    // Returns up to limit elements starting with prefix, in order, that come strictly after startAfter (if not null)
+    public List<String> prefixScan(String setName, String prefix, String startAfter, int limit) {
+        List<String> page = new ArrayList<>();
+        NamedSet set = sets.get(setName);
+        if (set == null)
+            return page;
+
+        NavigableSet<String> range = startAfter != null && startAfter.compareTo(prefix) >= 0 ?
+                set.index.tailSet(startAfter, false) : set.index.tailSet(prefix, true);
+
+        for (String element : range) {
+            if (page.size() == limit || !element.startsWith(prefix))
+                break;
+            page.add(element);
+        }
+        return page;
+    }
+
+    public void processAddOperation(Operation op) {
+        applied++;
+        addTags(op);
+    }
+
+    public void processRemoveOperation(Operation op) {
+        applied++;
+        Set<UUID> adds = observedBy(op);
+        if (adds != null) {
+            for (int i = 0; i < op.getAddIdCount(); i++)
+                removeTag(op, adds, op.getAddId(i));
+            dropIfEmpty(op, adds);
+        }
+    }
+
+    public void processUpdateOperation(Operation op) {
+        applied++;
+        Set<UUID> adds = observedBy(op);
+        if (adds != null) {
+            for (int i = 0; i < op.getRemoveIdCount(); i++)
+                removeTag(op, adds, op.getRemoveId(i));
+            dropIfEmpty(op, adds);
+        }
+        addTags(op);
+    }
+
+    private void addTags(Operation op) {
+        NamedSet set = sets.computeIfAbsent(op.getSetName(), s -> new NamedSet());
+        Set<UUID> adds = set.tags.get(op.getElement());
+        if (adds == null) {
+            adds = new HashSet<>();
+            set.tags.put(op.getElement(), adds);
+            set.index.add(op.getElement());
+            elements++;
+        }
+        for (int i = 0; i < op.getAddIdCount(); i++) {
+            UUID tag = op.getAddId(i);
+            if (adds.add(tag)) {
+                tags++;
+                digest ^= tagHash(op, tag);
+            }
+        }
+    }
+
+    private void removeTag(Operation op, Set<UUID> adds, UUID tag) {
+        if (adds.remove(tag)) {
+            tags--;
+            digest ^= tagHash(op, tag);
+        }
+    }
+
+    public void process(Operation op) {
+        switch (op.getType()) {
+            case Operation.ADD_OP:
+                processAddOperation(op);
+                break;
+            case Operation.REMOVE_OP:
+                processRemoveOperation(op);
+                break;
+            case Operation.UPDATE_OP:
+                processUpdateOperation(op);
+                break;
+        }
+    }
+
+    private Set<UUID> observedBy(Operation op) {
+        NamedSet set = sets.get(op.getSetName());
+        return set == null ? null : set.tags.get(op.getElement());
+    }
+
+    private void dropIfEmpty(Operation op, Set<UUID> adds) {
+        if (!adds.isEmpty())
+            return;
+
+        NamedSet set = sets.get(op.getSetName());
+        set.tags.remove(op.getElement());
+        set.index.remove(op.getElement());
+        elements--;
+        if (set.tags.isEmpty())
+            sets.remove(op.getSetName());
+    }
+
+    private static long tagHash(Operation op, UUID tag) {
+        long h = ((long) op.getSetName().hashCode() << 32) ^ (op.getElement().hashCode() & 0xffffffffL);
+        return mix(mix(mix(h) ^ tag.getMostSignificantBits()) ^ tag.getLeastSignificantBits());
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    // The tags of each element, together with a sorted index of the elements for ordered queries
+    private static class NamedSet {
+        private final Map<String, Set<UUID>> tags = new HashMap<>();
+        private final NavigableSet<String> index = new TreeSet<>();
+    }
+}
@@ -1,85 +1,218 @@
 package protocols.crdt;
 
-import java.io.*;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import utils.Payloads;
+import utils.VarInts;
+
 import java.nio.charset.StandardCharsets;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.UUID;
 
+/*
+ * Wire format: opcode (1 byte), set name and element as varint-prefixed UTF-8, then the add tags (and, for updates,
+ * the remove tags) as a varint count followed by the raw msb/lsb longs of each tag.
+ * Decoded operations are views over the buffer they were read from: strings and tags are only read when asked for,
+ * so the buffer must not be modified while the operation is in use.
+ */
 public class Operation {
-    private final String type;
-    private final Set<UUID> add_ids;
-    private final String element;
 
-    public Operation(String type, Set<UUID> add_ids, String element) {
+    public static final byte ADD_OP = 1;
+    public static final byte REMOVE_OP = 2;
+    // Compound operation produced by coalescing: removes the remove_ids tags and adds the add_ids tags
+    public static final byte UPDATE_OP = 3;
+
+    private static final int TAG_BYTES = 2 * Long.BYTES;
+    private static final long[] NO_TAGS = new long[0];
+
+    private final byte type;
+    private String setName;
+    private String element;
+    private long[] add_ids;
+    private long[] remove_ids;
+
+    // Location of each field inside the buffer the operation was decoded from
+    private final ByteBuf buf;
+    private int setOffset, setLength, elemOffset, elemLength;
+    private int addOffset, addCount, removeOffset, removeCount;
+
+
+    public Operation(byte type, String setName, Set<UUID> add_ids, String element) {
+        this(type, setName, add_ids, Set.of(), element);
+    }
+
+    public Operation(byte type, String setName, Set<UUID> add_ids, Set<UUID> remove_ids, String element) {
         this.type = type;
-        this.add_ids = add_ids;
+        this.setName = setName;
         this.element = element;
+        this.add_ids = pack(add_ids);
+        this.remove_ids = pack(remove_ids);
+        this.addCount = add_ids.size();
+        this.removeCount = remove_ids.size();
+        this.buf = null;
     }
 
-    public String getType() { return type; }
+    private Operation(byte type, ByteBuf buf) {
+        this.type = type;
+        this.buf = buf;
+    }
 
-    public Set<UUID> getAdd_ids() {
-        return add_ids;
+    public byte getType() { return type; }
+
+    public String getTypeName() {
+        switch (type) {
+            case ADD_OP: return "add";
+            case REMOVE_OP: return "remove";
+            case UPDATE_OP: return "update";
+            default: return "unknown";
+        }
+    }
+
+    public String getSetName() {
+        if (setName == null)
+            setName = buf.toString(setOffset, setLength, StandardCharsets.UTF_8);
+        return setName;
     }
 
     public String getElement() {
+        if (element == null)
+            element = buf.toString(elemOffset, elemLength, StandardCharsets.UTF_8);
         return element;
     }
 
-    public byte[] encode() {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             DataOutputStream dos = new DataOutputStream(bos)) {
+    public int getAddIdCount() {
+        return addCount;
+    }
+
+    public UUID getAddId(int i) {
+        return add_ids != null ? new UUID(add_ids[2 * i], add_ids[2 * i + 1]) :
+                new UUID(buf.getLong(addOffset + i * TAG_BYTES), buf.getLong(addOffset + i * TAG_BYTES + Long.BYTES));
+    }
 
-            byte[] typeBytes = type.getBytes(StandardCharsets.UTF_8);
-            dos.writeInt(typeBytes.length);
-            dos.write(typeBytes);
+    public int getRemoveIdCount() {
+        return removeCount;
+    }
 
-            byte[] elemBytes = element.getBytes(StandardCharsets.UTF_8);
-            dos.writeInt(elemBytes.length);
-            dos.write(elemBytes);
+    public UUID getRemoveId(int i) {
+        return remove_ids != null ? new UUID(remove_ids[2 * i], remove_ids[2 * i + 1]) :
+                new UUID(buf.getLong(removeOffset + i * TAG_BYTES), buf.getLong(removeOffset + i * TAG_BYTES + Long.BYTES));
+    }
 
-            dos.writeInt(add_ids.size());
-            for (UUID id : add_ids) {
-                dos.writeLong(id.getMostSignificantBits());
-                dos.writeLong(id.getLeastSignificantBits());
+    public Set<UUID> getAdd_ids() {
+        Set<UUID> ids = new HashSet<>();
+        for (int i = 0; i < addCount; i++)
+            ids.add(getAddId(i));
+        return ids;
+    }
+
+    public Set<UUID> getRemove_ids() {
+        Set<UUID> ids = new HashSet<>();
+        for (int i = 0; i < removeCount; i++)
+            ids.add(getRemoveId(i));
+        return ids;
+    }
+
+    public int encodedSize() {
+        int setBytes = setName != null ? ByteBufUtil.utf8Bytes(setName) : setLength;
+        int elemBytes = element != null ? ByteBufUtil.utf8Bytes(element) : elemLength;
+
+        int size = 1 + VarInts.size(setBytes) + setBytes + VarInts.size(elemBytes) + elemBytes
+                + VarInts.size(addCount) + addCount * TAG_BYTES;
+        if (type == UPDATE_OP)
+            size += VarInts.size(removeCount) + removeCount * TAG_BYTES;
+        return size;
+    }
+
+    public void encode(ByteBuf out) {
+        out.writeByte(type);
+        writeString(out, getSetName());
+        writeString(out, getElement());
+
+        VarInts.write(out, addCount);
+        for (int i = 0; i < addCount; i++) {
+            UUID id = getAddId(i);
+            out.writeLong(id.getMostSignificantBits());
+            out.writeLong(id.getLeastSignificantBits());
+        }
+
+        if (type == UPDATE_OP) {
+            VarInts.write(out, removeCount);
+            for (int i = 0; i < removeCount; i++) {
+                UUID id = getRemoveId(i);
+                out.writeLong(id.getMostSignificantBits());
+                out.writeLong(id.getLeastSignificantBits());
             }
+        }
+    }
 
-            dos.flush();
-            return bos.toByteArray();
+    public ByteBuf encode() {
+        ByteBuf payload = Payloads.allocate(encodedSize());
+        encode(payload);
+        return payload;
+    }
+
+    // Reads the operation starting at the reader index of in, leaving it positioned right after the operation.
+    // Payloads of other replicas are untrusted: a malformed operation throws IllegalArgumentException
+    public static Operation decode(ByteBuf in) {
+        try {
+            byte type = in.readByte();
+            if (type != ADD_OP && type != REMOVE_OP && type != UPDATE_OP)
+                throw new IllegalArgumentException("Unknown operation type " + type);
+            Operation op = new Operation(type, in);
+
+            op.setLength = readLength(in, 1);
+            op.setOffset = in.readerIndex();
+            in.skipBytes(op.setLength);
+
+            op.elemLength = readLength(in, 1);
+            op.elemOffset = in.readerIndex();
+            in.skipBytes(op.elemLength);
+
+            op.addCount = readLength(in, TAG_BYTES);
+            op.addOffset = in.readerIndex();
+            in.skipBytes(op.addCount * TAG_BYTES);
+
+            if (op.type == UPDATE_OP) {
+                op.removeCount = readLength(in, TAG_BYTES);
+                op.removeOffset = in.readerIndex();
+                in.skipBytes(op.removeCount * TAG_BYTES);
+            }
 
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to decode Operation", e);
+            return op;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated operation", e);
         }
+    }
 
+    // A count of fields of unit bytes each, which must fit in what is left of the buffer
+    private static int readLength(ByteBuf in, int unit) {
+        int length = VarInts.read(in);
+        if (length < 0 || length > in.readableBytes() / unit)
+            throw new IllegalArgumentException("Length " + length + " exceeds the " + in.readableBytes() + " bytes left");
+        return length;
     }
 
     public static Operation decode(byte[] payload) {
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(payload);
-             DataInputStream dis = new DataInputStream(bis)) {
-
-            int typeLen = dis.readInt();
-            byte[] typeBytes = new byte[typeLen];
-            dis.readFully(typeBytes);
-            String type = new String(typeBytes, StandardCharsets.UTF_8);
-
-            int elemLen = dis.readInt();
-            byte[] elemBytes = new byte[elemLen];
-            dis.readFully(elemBytes);
-            String element = new String(elemBytes, StandardCharsets.UTF_8);
-
-            int setSize = dis.readInt();
-            Set<UUID> add_ids = new HashSet<>();
-            for (int i = 0; i < setSize; i++) {
-                long mostSig = dis.readLong();
-                long leastSig = dis.readLong();
-                add_ids.add(new UUID(mostSig, leastSig));
-            }
+        return decode(Unpooled.wrappedBuffer(payload));
+    }
+
+    private static void writeString(ByteBuf out, String s) {
+        VarInts.write(out, ByteBufUtil.utf8Bytes(s));
+        ByteBufUtil.writeUtf8(out, s);
+    }
 
-            return new Operation(type, add_ids, element);
+    private static long[] pack(Set<UUID> ids) {
+        if (ids.isEmpty())
+            return NO_TAGS;
 
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to decode Operation", e);
+        long[] packed = new long[2 * ids.size()];
+        int i = 0;
+        for (UUID id : ids) {
+            packed[i++] = id.getMostSignificantBits();
+            packed[i++] = id.getLeastSignificantBits();
         }
+        return packed;
     }
 }
@@ -0,0 +1,74 @@
+package protocols.crdt;
+
+import java.util.*;
+
+/*
+ * Buffers the local operations issued during a coalescing window, merging the ones on the same element:
+ * several adds become a single add carrying all their tags, and a remove cancels the pending adds it observed,
+ * so only the tags that were already broadcast have to be removed remotely.
+ */
+public class OperationCoalescer {
+
+    private final Map<String, Map<String, Pending>> pending;
+
+
+    public OperationCoalescer() {
+        this.pending = new LinkedHashMap<>();
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    public void add(String setName, String element, UUID add_id) {
+        pendingOf(setName, element).adds.add(add_id);
+    }
+
+    // Returns whether the remove cancelled adds that were still pending, which are then never broadcast
+    public boolean remove(String setName, String element, Set<UUID> observed_adds) {
+        Pending p = pendingOf(setName, element);
+        boolean cancelled = false;
+        for (UUID id : observed_adds) {
+            if (p.adds.remove(id))
+                cancelled = true;
+            else p.removes.add(id);
+        }
+        return cancelled;
+    }
+
+    // Whether a remove of the element is waiting to be broadcast
+    public boolean isRemovePending(String setName, String element) {
+        Map<String, Pending> set = pending.get(setName);
+        Pending p = set == null ? null : set.get(element);
+        return p != null && !p.removes.isEmpty();
+    }
+
+    public List<Operation> drain() {
+        List<Operation> ops = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Pending>> set : pending.entrySet()) {
+            for (Map.Entry<String, Pending> e : set.getValue().entrySet()) {
+                Pending p = e.getValue();
+
+                if (!p.adds.isEmpty() && !p.removes.isEmpty())
+                    ops.add(new Operation(Operation.UPDATE_OP, set.getKey(), p.adds, p.removes, e.getKey()));
+
+                else if (!p.adds.isEmpty())
+                    ops.add(new Operation(Operation.ADD_OP, set.getKey(), p.adds, e.getKey()));
+
+                else if (!p.removes.isEmpty())
+                    ops.add(new Operation(Operation.REMOVE_OP, set.getKey(), p.removes, e.getKey()));
+            }
+        }
+        pending.clear();
+        return ops;
+    }
+
+    private Pending pendingOf(String setName, String element) {
+        return pending.computeIfAbsent(setName, s -> new LinkedHashMap<>()).computeIfAbsent(element, e -> new Pending());
+    }
+
+    private static class Pending {
+        private final Set<UUID> adds = new HashSet<>();
+        private final Set<UUID> removes = new HashSet<>();
+    }
+}
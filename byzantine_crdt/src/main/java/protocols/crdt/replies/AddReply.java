@@ -5,13 +5,19 @@ import pt.unl.fct.di.novasys.babel.generic.ProtoReply;
 public class AddReply extends ProtoReply {
     public final static short REPLY_ID = 502;
 
+    private final String setName;
     private final String element;
 
-    public AddReply(String element)  {
+    public AddReply(String setName, String element)  {
         super(REPLY_ID);
+        this.setName = setName;
         this.element = element;
     }
 
+    public String getSetName() {
+        return setName;
+    }
+
     public String getElement() {
         return element;
     }
@@ -0,0 +1,30 @@
+package protocols.crdt.replies;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoReply;
+
+public class ContainsReply extends ProtoReply {
+    public final static short REPLY_ID = 505;
+
+    private final String setName;
+    private final String element;
+    private final boolean contained;
+
+    public ContainsReply(String setName, String element, boolean contained)  {
+        super(REPLY_ID);
+        this.setName = setName;
+        this.element = element;
+        this.contained = contained;
+    }
+
+    public String getSetName() {
+        return setName;
+    }
+
+    public String getElement() {
+        return element;
+    }
+
+    public boolean isContained() {
+        return contained;
+    }
+}
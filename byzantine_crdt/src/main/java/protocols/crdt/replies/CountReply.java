@@ -0,0 +1,30 @@
+package protocols.crdt.replies;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoReply;
+
+public class CountReply extends ProtoReply {
+    public final static short REPLY_ID = 507;
+
+    private final String setName;
+    private final String prefix;
+    private final int count;
+
+    public CountReply(String setName, String prefix, int count)  {
+        super(REPLY_ID);
+        this.setName = setName;
+        this.prefix = prefix;
+        this.count = count;
+    }
+
+    public String getSetName() {
+        return setName;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
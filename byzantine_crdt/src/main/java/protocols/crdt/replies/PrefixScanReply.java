@@ -0,0 +1,39 @@
+package protocols.crdt.replies;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoReply;
+
+import java.util.List;
+
+public class PrefixScanReply extends ProtoReply {
+    public final static short REPLY_ID = 506;
+
+    private final String setName;
+    private final String prefix;
+    private final List<String> elements;
+    private final String nextCursor;
+
+    public PrefixScanReply(String setName, String prefix, List<String> elements, String nextCursor)  {
+        super(REPLY_ID);
+        this.setName = setName;
+        this.prefix = prefix;
+        this.elements = elements;
+        this.nextCursor = nextCursor;
+    }
+
+    public String getSetName() {
+        return setName;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public List<String> getElements() {
+        return elements;
+    }
+
+    // Cursor to pass as startAfter to fetch the next page, null when there are no more elements
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -9,11 +9,13 @@ public class ReadReply extends ProtoReply {
     public final static short REPLY_ID = 503;
 
     private final Host sender;
+    private final String setName;
     private final Set<String> state;
 
-    public ReadReply(Host sender, Set<String> state)  {
+    public ReadReply(Host sender, String setName, Set<String> state)  {
         super(REPLY_ID);
         this.sender = sender;
+        this.setName = setName;
         this.state = state;
     }
 
@@ -21,6 +23,10 @@ public class ReadReply extends ProtoReply {
         return sender;
     }
 
+    public String getSetName() {
+        return setName;
+    }
+
     public Set<String> getState() {
         return state;
     }
@@ -5,16 +5,36 @@ import pt.unl.fct.di.novasys.babel.generic.ProtoReply;
 public class RemoveReply extends ProtoReply {
     public final static short REPLY_ID = 504;
 
+    private final String setName;
     private final String element;
+    // Whether the remove is broadcast, and whether it cancelled an add that was still waiting in a coalescing window:
+    // neither of those operations is delivered otherwise
+    private final boolean broadcast;
+    private final boolean addCancelled;
 
 
-    public RemoveReply(String element)  {
+    public RemoveReply(String setName, String element, boolean broadcast, boolean addCancelled)  {
         super(REPLY_ID);
+        this.setName = setName;
         this.element = element;
+        this.broadcast = broadcast;
+        this.addCancelled = addCancelled;
+    }
+
+    public String getSetName() {
+        return setName;
     }
 
     public String getElement() {
         return element;
     }
 
+    public boolean isBroadcast() {
+        return broadcast;
+    }
+
+    public boolean isAddCancelled() {
+        return addCancelled;
+    }
+
 }
@@ -1,7 +1,9 @@
 package protocols.crdt.requests;
 
+import protocols.crdt.Keyspace;
 import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.Randomness;
 
 import java.util.UUID;
 
@@ -10,12 +12,18 @@ public class AddRequest extends ProtoRequest {
 
     private final Host sender;
     private final UUID add_id;
+    private final String setName;
     private final String element;
 
     public AddRequest(Host sender, String element)  {
+        this(sender, Keyspace.DEFAULT_SET, element);
+    }
+
+    public AddRequest(Host sender, String setName, String element)  {
         super(REQUEST_ID);
         this.sender = sender;
-        this.add_id = UUID.randomUUID();
+        this.add_id = Randomness.uuid();
+        this.setName = setName;
         this.element = element;
     }
 
@@ -27,6 +35,10 @@ public class AddRequest extends ProtoRequest {
         return add_id;
     }
 
+    public String getSetName() {
+        return setName;
+    }
+
     public String getElement() {
         return element;
     }
@@ -0,0 +1,31 @@
+package protocols.crdt.requests;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+public class ContainsRequest extends ProtoRequest {
+    public final static short REQUEST_ID = 505;
+
+    private final Host sender;
+    private final String setName;
+    private final String element;
+
+    public ContainsRequest(Host sender, String setName, String element) {
+        super(REQUEST_ID);
+        this.sender = sender;
+        this.setName = setName;
+        this.element = element;
+    }
+
+    public Host getSender() {
+        return sender;
+    }
+
+    public String getSetName() {
+        return setName;
+    }
+
+    public String getElement() {
+        return element;
+    }
+}
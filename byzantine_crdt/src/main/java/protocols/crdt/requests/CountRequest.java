@@ -0,0 +1,35 @@
+package protocols.crdt.requests;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+public class CountRequest extends ProtoRequest {
+    public final static short REQUEST_ID = 507;
+
+    private final Host sender;
+    private final String setName;
+    private final String prefix;
+
+    public CountRequest(Host sender, String setName) {
+        this(sender, setName, null);
+    }
+
+    public CountRequest(Host sender, String setName, String prefix) {
+        super(REQUEST_ID);
+        this.sender = sender;
+        this.setName = setName;
+        this.prefix = prefix;
+    }
+
+    public Host getSender() {
+        return sender;
+    }
+
+    public String getSetName() {
+        return setName;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+}
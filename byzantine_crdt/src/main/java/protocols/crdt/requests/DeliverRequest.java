@@ -0,0 +1,27 @@
+package protocols.crdt.requests;
+
+import protocols.broadcast.notifications.DeliveryNotification;
+import protocols.crdt.Operation;
+import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
+
+// A delivered operation, forwarded by the first shard (the only one that receives deliveries) to the one that owns its set
+public class DeliverRequest extends ProtoRequest {
+    public final static short REQUEST_ID = 508;
+
+    private final DeliveryNotification delivery;
+    private final Operation operation;
+
+    public DeliverRequest(DeliveryNotification delivery, Operation operation) {
+        super(REQUEST_ID);
+        this.delivery = delivery;
+        this.operation = operation;
+    }
+
+    public DeliveryNotification getDelivery() {
+        return delivery;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+}
@@ -0,0 +1,12 @@
+package protocols.crdt.requests;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
+
+// Broadcasts the operations of a shard still waiting in its coalescing window, sent before the final reads and on exit
+public class FlushRequest extends ProtoRequest {
+    public final static short REQUEST_ID = 509;
+
+    public FlushRequest() {
+        super(REQUEST_ID);
+    }
+}
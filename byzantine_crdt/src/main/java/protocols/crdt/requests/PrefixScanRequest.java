@@ -0,0 +1,52 @@
+package protocols.crdt.requests;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+public class PrefixScanRequest extends ProtoRequest {
+    public final static short REQUEST_ID = 506;
+    // Larger pages are cut to this size, the rest being reachable through the cursor
+    public final static int MAX_PAGE_SIZE = 1000;
+
+    private final Host sender;
+    private final String setName;
+    private final String prefix;
+    private final String startAfter;
+    private final int limit;
+
+    public PrefixScanRequest(Host sender, String setName, String prefix, int limit) {
+        this(sender, setName, prefix, null, limit);
+    }
+
+    // startAfter is the cursor returned by the previous page (null for the first one)
+    public PrefixScanRequest(Host sender, String setName, String prefix, String startAfter, int limit) {
+        super(REQUEST_ID);
+        if (limit < 1)
+            throw new IllegalArgumentException("The page size of a prefix scan must be positive: " + limit);
+        this.sender = sender;
+        this.setName = setName;
+        this.prefix = prefix;
+        this.startAfter = startAfter;
+        this.limit = Math.min(limit, MAX_PAGE_SIZE);
+    }
+
+    public Host getSender() {
+        return sender;
+    }
+
+    public String getSetName() {
+        return setName;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getStartAfter() {
+        return startAfter;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
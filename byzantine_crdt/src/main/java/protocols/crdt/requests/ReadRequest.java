@@ -1,5 +1,6 @@
 package protocols.crdt.requests;
 
+import protocols.crdt.Keyspace;
 import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
 import pt.unl.fct.di.novasys.network.data.Host;
 
@@ -8,14 +9,24 @@ public class ReadRequest extends ProtoRequest {
 	public final static short REQUEST_ID = 503;
 
 	private final Host sender;
+	private final String setName;
 
 
 	public ReadRequest(Host sender) {
+		this(sender, Keyspace.DEFAULT_SET);
+	}
+
+	public ReadRequest(Host sender, String setName) {
 		super(REQUEST_ID);
 		this.sender = sender;
+		this.setName = setName;
 	}
 
     public Host getSender() {
         return sender;
     }
+
+    public String getSetName() {
+        return setName;
+    }
 }
@@ -1,19 +1,24 @@
 package protocols.crdt.requests;
 
+import protocols.crdt.Keyspace;
 import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
 import pt.unl.fct.di.novasys.network.data.Host;
 
-import java.util.UUID;
-
 public class RemoveRequest extends ProtoRequest {
     public final static short REQUEST_ID = 504;
 
     private final Host sender;
+    private final String setName;
     private final String element;
 
     public RemoveRequest(Host sender, String element) {
+        this(sender, Keyspace.DEFAULT_SET, element);
+    }
+
+    public RemoveRequest(Host sender, String setName, String element) {
         super(REQUEST_ID);
         this.sender = sender;
+        this.setName = setName;
         this.element = element;
     }
 
@@ -21,6 +26,10 @@ public class RemoveRequest extends ProtoRequest {
         return sender;
     }
 
+    public String getSetName() {
+        return setName;
+    }
+
     public String getElement() {
         return element;
     }
@@ -0,0 +1,16 @@
+package protocols.crdt.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class CoalesceTimer extends ProtoTimer {
+    public static final short TIMER_ID = 505;
+
+    public CoalesceTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
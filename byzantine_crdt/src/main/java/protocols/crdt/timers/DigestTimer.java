@@ -0,0 +1,16 @@
+package protocols.crdt.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class DigestTimer extends ProtoTimer {
+    public static final short TIMER_ID = 506;
+
+    public DigestTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
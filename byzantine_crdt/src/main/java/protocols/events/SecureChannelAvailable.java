@@ -5,6 +5,8 @@ import java.security.PublicKey;
 
 import pt.unl.fct.di.novasys.babel.generic.ProtoNotification;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.KeyDirectory;
+import utils.network.Lanes;
 
 public class SecureChannelAvailable extends ProtoNotification {
 
@@ -14,9 +16,21 @@ public class SecureChannelAvailable extends ProtoNotification {
 	private final Host myHost;
 	private final PrivateKey myPrivateKey;
 	private final PublicKey myPublicKey;
+	private final KeyDirectory keyDirectory;
+	private final Lanes lanes;
 	
 	public SecureChannelAvailable(int chID, Host myHost, PrivateKey key, PublicKey pKey) {
+		this(chID, myHost, key, pKey, new KeyDirectory());
+	}
+
+	public SecureChannelAvailable(int chID, Host myHost, PrivateKey key, PublicKey pKey, KeyDirectory keyDirectory) {
+		this(chID, myHost, key, pKey, keyDirectory, Lanes.none());
+	}
+
+	public SecureChannelAvailable(int chID, Host myHost, PrivateKey key, PublicKey pKey, KeyDirectory keyDirectory, Lanes lanes) {
 		super(NOTIFICATION_ID);
+		this.keyDirectory = keyDirectory;
+		this.lanes = lanes;
 		this.channelID = chID;
         this.myHost = myHost;
 		this.myPrivateKey = key;
@@ -38,4 +52,14 @@ public class SecureChannelAvailable extends ProtoNotification {
 	public PublicKey getMyPublicKey() {
 		return this.myPublicKey;
 	}
+
+	// Shared by every protocol of the process
+	public KeyDirectory getKeyDirectory() {
+		return this.keyDirectory;
+	}
+
+	// Bulk connections to the neighbors, when the membership opens them besides the ones of channelID
+	public Lanes getLanes() {
+		return this.lanes;
+	}
 }
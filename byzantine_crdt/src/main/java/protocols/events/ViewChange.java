@@ -0,0 +1,20 @@
+package protocols.events;
+
+import protocols.membership.View;
+import pt.unl.fct.di.novasys.babel.generic.ProtoNotification;
+
+public class ViewChange extends ProtoNotification {
+
+	public static final short NOTIFICATION_ID = 106;
+
+	private final View view;
+
+	public ViewChange(View view) {
+		super(NOTIFICATION_ID);
+		this.view = view;
+	}
+
+	public View getView() {
+		return this.view;
+	}
+}
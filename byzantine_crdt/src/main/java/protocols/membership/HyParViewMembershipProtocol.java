@@ -0,0 +1,476 @@
+package protocols.membership;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import protocols.events.ChannelAvailable;
+import protocols.events.NeighborDown;
+import protocols.events.NeighborUp;
+import protocols.membership.messages.*;
+import protocols.membership.timers.ReconnectTimer;
+import protocols.membership.timers.ShuffleTimer;
+import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
+import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.channel.tcp.TCPChannel;
+import pt.unl.fct.di.novasys.channel.tcp.events.*;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.Randomness;
+import utils.metrics.Metrics;
+import utils.network.EmulatedTCPChannel;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.*;
+
+/*
+ * HyParView (Leitao et al., DSN 2007) for the crash fault model: each replica keeps a small active view, the neighbors
+ * the broadcast layer floods through (NeighborUp/NeighborDown), and a larger passive view, kept fresh by periodic
+ * shuffles, from which it replaces the active neighbors that fail. Connections and broadcast fan-out are bounded by
+ * the active view instead of growing with the size of the cluster.
+ */
+public class HyParViewMembershipProtocol extends GenericProtocol {
+
+	public final static String PAR_MYHOST = "membership.myhost";
+	// Replica to join through, defaults to the first host of membership.neighbors (which starts the overlay)
+	public final static String PAR_CONTACT = "membership.contact";
+	public final static String PAR_NEIGHBORS = "membership.neighbors";
+	public final static String PAR_ACTIVE_SIZE = "membership.active_size";
+	public final static String PAR_PASSIVE_SIZE = "membership.passive_size";
+	// Length of the random walks of joins (active and passive random walk lengths) and shuffles
+	public final static String PAR_ARWL = "membership.arwl";
+	public final static String PAR_PRWL = "membership.prwl";
+	public final static String PAR_SHUFFLE_INTERVAL = "membership.shuffle_interval";
+	// Active and passive neighbors sent in each shuffle
+	public final static String PAR_SHUFFLE_KA = "membership.shuffle_ka";
+	public final static String PAR_SHUFFLE_KP = "membership.shuffle_kp";
+	// Time a passive neighbor asked to join the active view has to reply (in milliseconds)
+	public final static String PAR_NEIGHBOR_TIMEOUT = "membership.neighbor_timeout";
+
+	public final static short PROTO_ID = 202;
+	public final static String PROTO_NAME = "HyParViewMembershipProtocol";
+
+
+	private Host myself;
+	private Host contact;
+
+	private final Set<Host> active;
+	private final Set<Host> passive;
+	// Hosts with an outgoing connection up, and the active neighbors among them (the ones the broadcast layer knows)
+	private final Set<Host> up;
+	private final Set<Host> connected;
+	// Passive neighbors asked to join the active view, with the time they were asked at
+	private final Map<Host, Long> pending;
+	// Messages in flight over connections to replicas outside of the active view, closed once they are out
+	private final Map<Host, Integer> transients;
+
+	private int activeSize, passiveSize, arwl, prwl, ka, kp;
+	private long neighborTimeout;
+	private Reconnector reconnector;
+	private final Random random;
+
+    private final Logger logger = LogManager.getLogger(HyParViewMembershipProtocol.class);
+
+
+	public HyParViewMembershipProtocol() {
+		super(PROTO_NAME, PROTO_ID);
+
+		this.myself = null;
+		this.contact = null;
+		this.active = new HashSet<>();
+		this.passive = new HashSet<>();
+		this.up = new HashSet<>();
+		this.connected = new HashSet<>();
+		this.pending = new HashMap<>();
+		this.transients = new HashMap<>();
+		this.random = Randomness.newRandom();
+	}
+
+	@Override
+	public void init(Properties props) throws HandlerRegistrationException, IOException {
+
+		if (!props.containsKey(PAR_MYHOST)) {
+			System.err.println("Protocol " + PROTO_NAME + " requires mandatory parameter: " + PAR_MYHOST
+					+ " (format: IP:PORT)");
+			System.exit(1);
+		}
+
+		this.myself = parseHost(props.getProperty(PAR_MYHOST));
+		if (props.containsKey(PAR_CONTACT))
+			this.contact = parseHost(props.getProperty(PAR_CONTACT));
+		else if (!props.getProperty(PAR_NEIGHBORS, "").isBlank())
+			this.contact = parseHost(props.getProperty(PAR_NEIGHBORS).split(",")[0]);
+		if (myself.equals(contact))
+			this.contact = null;
+
+		this.activeSize = Integer.parseInt(props.getProperty(PAR_ACTIVE_SIZE, "5"));
+		this.passiveSize = Integer.parseInt(props.getProperty(PAR_PASSIVE_SIZE, "30"));
+		this.arwl = Integer.parseInt(props.getProperty(PAR_ARWL, "6"));
+		this.prwl = Integer.parseInt(props.getProperty(PAR_PRWL, "3"));
+		this.ka = Integer.parseInt(props.getProperty(PAR_SHUFFLE_KA, "3"));
+		this.kp = Integer.parseInt(props.getProperty(PAR_SHUFFLE_KP, "4"));
+		long shuffleInterval = Long.parseLong(props.getProperty(PAR_SHUFFLE_INTERVAL, "2000")); //in milliseconds
+		this.neighborTimeout = Long.parseLong(props.getProperty(PAR_NEIGHBOR_TIMEOUT, "5000")); //in milliseconds
+		this.reconnector = new Reconnector(props);
+
+		Properties channelProps = new Properties();
+		channelProps.put(TCPChannel.ADDRESS_KEY, this.myself.getAddress().toString().replace("/", ""));
+		channelProps.put(TCPChannel.PORT_KEY, this.myself.getPort() + "");
+
+        String channelName = TCPChannel.NAME;
+        if (props.containsKey(EmulatedTCPChannel.TOPOLOGY)) {
+            channelName = EmulatedTCPChannel.NAME;
+            channelProps.put(EmulatedTCPChannel.TOPOLOGY, props.getProperty(EmulatedTCPChannel.TOPOLOGY));
+        }
+        int channelID = createChannel(channelName, channelProps);
+
+		/*-------------------- Register Channel Event ------------------------------- */
+		registerChannelEventHandler(channelID, OutConnectionDown.EVENT_ID, this::uponOutConnectionDown);
+		registerChannelEventHandler(channelID, OutConnectionFailed.EVENT_ID, this::uponOutConnectionFailed);
+		registerChannelEventHandler(channelID, OutConnectionUp.EVENT_ID, this::uponOutConnectionUp);
+		registerChannelEventHandler(channelID, InConnectionUp.EVENT_ID, this::uponInConnectionUp);
+		registerChannelEventHandler(channelID, InConnectionDown.EVENT_ID, this::uponInConnectionDown);
+
+		/*-------------------- Register Message Serializers ------------------------------- */
+		registerMessageSerializer(channelID, JoinMessage.MESSAGE_ID, JoinMessage.serializer);
+		registerMessageSerializer(channelID, ForwardJoinMessage.MESSAGE_ID, ForwardJoinMessage.serializer);
+		registerMessageSerializer(channelID, NeighborMessage.MESSAGE_ID, NeighborMessage.serializer);
+		registerMessageSerializer(channelID, NeighborReplyMessage.MESSAGE_ID, NeighborReplyMessage.serializer);
+		registerMessageSerializer(channelID, DisconnectMessage.MESSAGE_ID, DisconnectMessage.serializer);
+		registerMessageSerializer(channelID, ShuffleMessage.MESSAGE_ID, ShuffleMessage.serializer);
+		registerMessageSerializer(channelID, ShuffleReplyMessage.MESSAGE_ID, ShuffleReplyMessage.serializer);
+
+		/*-------------------- Register Message Handlers ------------------------------- */
+		registerMessageHandler(channelID, JoinMessage.MESSAGE_ID, this::uponJoin);
+		registerMessageHandler(channelID, ForwardJoinMessage.MESSAGE_ID, this::uponForwardJoin);
+		registerMessageHandler(channelID, NeighborMessage.MESSAGE_ID, this::uponNeighbor);
+		registerMessageHandler(channelID, NeighborReplyMessage.MESSAGE_ID, this::uponNeighborReply, this::uponTransientSent, this::uponTransientFailed);
+		registerMessageHandler(channelID, DisconnectMessage.MESSAGE_ID, this::uponDisconnect);
+		registerMessageHandler(channelID, ShuffleMessage.MESSAGE_ID, this::uponShuffle);
+		registerMessageHandler(channelID, ShuffleReplyMessage.MESSAGE_ID, this::uponShuffleReply, this::uponTransientSent, this::uponTransientFailed);
+
+		/*-------------------- Register Timer Handlers ------------------------------- */
+		registerTimerHandler(ShuffleTimer.TIMER_ID, this::uponShuffleTimer);
+		registerTimerHandler(ReconnectTimer.TIMER_ID, this::uponReconnectTimer);
+
+		Metrics.gauge("hyparview.active", active::size);
+		Metrics.gauge("hyparview.passive", passive::size);
+
+		triggerNotification(new ChannelAvailable(channelID, myself));
+
+		if (contact != null)
+			join();
+		setupPeriodicTimer(new ShuffleTimer(), shuffleInterval, shuffleInterval);
+	}
+
+
+	/* --------------------------------- Message Handlers ----------------------------  */
+
+	private void uponJoin(JoinMessage msg, Host from, short sourceProto, int channelId) {
+		logger.debug("Join from {}", from);
+		addToActive(from);
+		for (Host h : active)
+			if (!h.equals(from))
+				sendMessage(new ForwardJoinMessage(from, arwl), h);
+	}
+
+	private void uponForwardJoin(ForwardJoinMessage msg, Host from, short sourceProto, int channelId) {
+		Host newNode = msg.getNewNode();
+		if (newNode.equals(myself))
+			return;
+
+		if (msg.getTtl() == 0 || active.size() <= 1) {
+			if (addToActive(newNode))
+				sendMessage(new NeighborMessage(true), newNode);
+			return;
+		}
+
+		if (msg.getTtl() == prwl)
+			addToPassive(newNode);
+		Host next = randomOf(active, from, newNode);
+		if (next != null)
+			sendMessage(new ForwardJoinMessage(newNode, msg.getTtl() - 1), next);
+		else if (addToActive(newNode))
+			sendMessage(new NeighborMessage(true), newNode);
+	}
+
+	private void uponNeighbor(NeighborMessage msg, Host from, short sourceProto, int channelId) {
+		if (active.contains(from)) {
+			sendMessage(new NeighborReplyMessage(true), from);
+			return;
+		}
+
+		boolean accepted = msg.isHighPriority() || active.size() < activeSize;
+		logger.debug("{} the {} priority neighbor request of {}", accepted ? "Accepted" : "Rejected",
+				msg.isHighPriority() ? "high" : "low", from);
+		if (accepted) {
+			addToActive(from);
+			sendMessage(new NeighborReplyMessage(true), from);
+		} else sendTransient(new NeighborReplyMessage(false), from);
+	}
+
+	private void uponNeighborReply(NeighborReplyMessage msg, Host from, short sourceProto, int channelId) {
+		if (pending.remove(from) == null)
+			return;
+
+		if (msg.isAccepted())
+			addToActive(from);
+		else closeConnection(from);
+	}
+
+	private void uponDisconnect(DisconnectMessage msg, Host from, short sourceProto, int channelId) {
+		logger.debug("Disconnected by {}", from);
+		if (removeFromActive(from))
+			addToPassive(from);
+	}
+
+	private void uponShuffle(ShuffleMessage msg, Host from, short sourceProto, int channelId) {
+		if (msg.getOrigin().equals(myself))
+			return;
+
+		int ttl = msg.getTtl() - 1;
+		Host next = ttl > 0 && active.size() > 1 ? randomOf(active, from, msg.getOrigin()) : null;
+		if (next != null) {
+			sendMessage(new ShuffleMessage(msg.getOrigin(), msg.getSample(), ttl), next);
+			return;
+		}
+
+		Set<Host> reply = sample(passive, msg.getSample().size());
+		if (active.contains(msg.getOrigin()))
+			sendMessage(new ShuffleReplyMessage(reply), msg.getOrigin());
+		else sendTransient(new ShuffleReplyMessage(reply), msg.getOrigin());
+		integrate(msg.getSample(), reply);
+	}
+
+	private void uponShuffleReply(ShuffleReplyMessage msg, Host from, short sourceProto, int channelId) {
+		integrate(msg.getSample(), Collections.emptySet());
+	}
+
+	private <T extends ProtoMessage> void uponTransientSent(T msg, Host to, short destProto, int channelId) {
+		transientDone(to);
+	}
+
+	private <T extends ProtoMessage> void uponTransientFailed(T msg, Host to, short destProto, Throwable cause, int channelId) {
+		logger.debug("Message {} to {} failed, cause: {}", msg, to, cause);
+		transientDone(to);
+	}
+
+
+	/* --------------------------------- Timers ----------------------------  */
+
+	private void uponShuffleTimer(ShuffleTimer timer, long timerId) {
+		expirePending();
+		//Active views that lost neighbors are refilled from the passive view, one request at a time
+		if (active.size() + pending.size() < activeSize)
+			promote();
+
+		Host target = randomOf(active);
+		if (target == null) {
+			if (contact != null && passive.isEmpty() && pending.isEmpty())
+				join();
+			return;
+		}
+
+		Set<Host> sample = sample(active, ka);
+		sample.addAll(sample(passive, kp));
+		sample.remove(target);
+		sample.add(myself);
+		sendMessage(new ShuffleMessage(myself, sample, arwl), target);
+	}
+
+	private void uponReconnectTimer(ReconnectTimer timer, long timerId) {
+		if (active.isEmpty() && pending.isEmpty())
+			join();
+	}
+
+
+	/* --------------------------------- Procedures ----------------------------  */
+
+	private void join() {
+		logger.debug("Joining through {}", contact);
+		addToActive(contact);
+		sendMessage(new JoinMessage(), contact);
+	}
+
+	// False if the host already was an active neighbor
+	private boolean addToActive(Host h) {
+		if (h.equals(myself) || active.contains(h))
+			return false;
+		if (active.size() >= activeSize)
+			dropRandomFromActive();
+
+		passive.remove(h);
+		pending.remove(h);
+		active.add(h);
+		if (up.contains(h))
+			neighborUp(h);
+		else openConnection(h);
+		return true;
+	}
+
+	private void neighborUp(Host h) {
+		if (connected.add(h)) {
+			reconnector.recovered(h);
+			triggerNotification(new NeighborUp(h));
+		}
+	}
+
+	private void dropRandomFromActive() {
+		Host victim = randomOf(active);
+		if (victim == null)
+			return;
+		logger.debug("Dropping {} from the active view", victim);
+		sendMessage(new DisconnectMessage(), victim);
+		removeFromActive(victim);
+		addToPassive(victim);
+	}
+
+	private boolean removeFromActive(Host h) {
+		if (!active.remove(h))
+			return false;
+		up.remove(h);
+		closeConnection(h);
+		if (connected.remove(h))
+			triggerNotification(new NeighborDown(h));
+		return true;
+	}
+
+	private void addToPassive(Host h) {
+		if (h.equals(myself) || active.contains(h) || passive.contains(h))
+			return;
+		if (passive.size() >= passiveSize)
+			passive.remove(randomOf(passive));
+		passive.add(h);
+	}
+
+	// Asks a random passive neighbor to replace a failed active one, with high priority when none is left
+	private void promote() {
+		Host candidate = randomOf(passive, pending.keySet().toArray(new Host[0]));
+		if (candidate == null)
+			return;
+		pending.put(candidate, System.nanoTime());
+		openConnection(candidate);
+		sendMessage(new NeighborMessage(active.isEmpty()), candidate);
+	}
+
+	// Hosts received in a shuffle replace the ones sent back first, then random ones
+	private void integrate(Set<Host> received, Set<Host> sent) {
+		Iterator<Host> evictable = new ArrayList<>(sent).iterator();
+		for (Host h : received) {
+			if (h.equals(myself) || active.contains(h) || passive.contains(h))
+				continue;
+			if (passive.size() >= passiveSize) {
+				Host evicted = null;
+				while (evicted == null && evictable.hasNext()) {
+					Host e = evictable.next();
+					if (passive.contains(e))
+						evicted = e;
+				}
+				passive.remove(evicted != null ? evicted : randomOf(passive));
+			}
+			passive.add(h);
+		}
+	}
+
+	// Through a connection that is closed once the message is out, to a replica outside of the active view. Closing
+	// it right away would fail the message, still queued until the connection is up
+	private void sendTransient(ProtoMessage msg, Host to) {
+		transients.merge(to, 1, Integer::sum);
+		openConnection(to);
+		sendMessage(msg, to);
+	}
+
+	private void transientDone(Host to) {
+		//The replies also go to active neighbors, over their own connection
+		Integer left = transients.get(to);
+		if (left == null)
+			return;
+		if (left > 1) {
+			transients.put(to, left - 1);
+			return;
+		}
+		transients.remove(to);
+		if (!active.contains(to) && !pending.containsKey(to))
+			closeConnection(to);
+	}
+
+	// Passive neighbors that did not reply in time (e.g. whose rejection was lost) no longer hold back the repair
+	private void expirePending() {
+		long now = System.nanoTime();
+		Iterator<Map.Entry<Host, Long>> it = pending.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Host, Long> e = it.next();
+			if (now - e.getValue() < neighborTimeout * 1_000_000L)
+				continue;
+			logger.debug("Neighbor request to {} timed out", e.getKey());
+			it.remove();
+			if (!active.contains(e.getKey()) && !transients.containsKey(e.getKey()))
+				closeConnection(e.getKey());
+		}
+	}
+
+	private Host randomOf(Set<Host> hosts, Host... excluded) {
+		List<Host> options = new ArrayList<>(hosts);
+		options.removeAll(Arrays.asList(excluded));
+		return options.isEmpty() ? null : options.get(random.nextInt(options.size()));
+	}
+
+	private Set<Host> sample(Set<Host> hosts, int size) {
+		List<Host> options = new ArrayList<>(hosts);
+		Collections.shuffle(options, random);
+		return new HashSet<>(options.subList(0, Math.min(size, options.size())));
+	}
+
+	private static Host parseHost(String address) throws IOException {
+		String[] hostElements = address.trim().split(":");
+		return new Host(InetAddress.getByName(hostElements[0]), Short.parseShort(hostElements[1]));
+	}
+
+
+	/* --------------------------------- Channel Events ----------------------------  */
+
+	private void uponOutConnectionUp(OutConnectionUp event, int channelId) {
+		Host peer = event.getNode();
+		logger.debug("Host (out) {} is up", peer);
+		up.add(peer);
+		if (active.contains(peer))
+			neighborUp(peer);
+	}
+
+	private void uponOutConnectionDown(OutConnectionDown event, int channelId) {
+		logger.debug("Host {} is down, cause: {}", event.getNode(), event.getCause());
+		up.remove(event.getNode());
+		//Connections closed on purpose (dropped neighbors, transient messages) are not failures
+		if (active.contains(event.getNode()) || pending.containsKey(event.getNode()))
+			failed(event.getNode());
+	}
+
+	private void uponOutConnectionFailed(OutConnectionFailed<?> event, int channelId) {
+		logger.debug("Connection to host {} failed, cause: {}", event.getNode(), event.getCause());
+		up.remove(event.getNode());
+		failed(event.getNode());
+	}
+
+	// A failed active neighbor is replaced from the passive view, or the join is retried if there is nothing left
+	private void failed(Host peer) {
+		pending.remove(peer);
+		passive.remove(peer);
+		if (!removeFromActive(peer))
+			return;
+
+		if (!passive.isEmpty())
+			promote();
+		else if (active.isEmpty() && contact != null) {
+			reconnector.down(contact);
+			setupTimer(new ReconnectTimer(contact), reconnector.nextDelay(contact));
+		}
+	}
+
+	private void uponInConnectionUp(InConnectionUp event, int channelId) {
+		logger.debug("Host (in) {} is up", event.getNode());
+	}
+
+	private void uponInConnectionDown(InConnectionDown event, int channelId) {
+		logger.debug("Connection from host {} is down, cause: {}", event.getNode(), event.getCause());
+	}
+
+}
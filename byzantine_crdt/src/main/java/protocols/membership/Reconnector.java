@@ -0,0 +1,62 @@
+package protocols.membership;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.LatencyHistograms;
+import utils.Randomness;
+
+/*
+ * Reconnection schedule of the links of a static membership: the n-th consecutive failure of a link waits
+ * base * 2^(n-1) milliseconds (up to max), scaled by a random factor in [0.5, 1.5) so peers that lost each other at
+ * the same time do not retry in lockstep. The time from the loss of a link until it is back is recorded as
+ * membership.recovery.
+ */
+public class Reconnector {
+    private static final Logger logger = LogManager.getLogger(Reconnector.class);
+
+    public static final String BASE = "membership.reconnect_base";
+    public static final String MAX = "membership.reconnect_max";
+
+    private final long base;
+    private final long max;
+    private final Random random;
+
+    private final Map<Host, Integer> attempts;
+    private final Map<Host, Long> downSince;
+
+
+    public Reconnector(Properties props) {
+        this.base = Long.parseLong(props.getProperty(BASE, "100")); //in milliseconds
+        this.max = Long.parseLong(props.getProperty(MAX, "10000")); //in milliseconds
+        this.random = Randomness.newRandom();
+        this.attempts = new HashMap<>();
+        this.downSince = new HashMap<>();
+    }
+
+    // Milliseconds until the next attempt to reach peer
+    public long nextDelay(Host peer) {
+        int attempt = attempts.merge(peer, 1, Integer::sum);
+        long delay = Math.min(max, base << Math.min(attempt - 1, 30));
+        return (long) (delay * (0.5 + random.nextDouble()));
+    }
+
+    public void down(Host peer) {
+        downSince.putIfAbsent(peer, System.nanoTime());
+    }
+
+    public void recovered(Host peer) {
+        attempts.remove(peer);
+        Long since = downSince.remove(peer);
+        if (since != null) {
+            LatencyHistograms.record("membership.recovery", since);
+            logger.info("Link to {} recovered in {} ms", peer, (System.nanoTime() - since) / 1_000_000);
+        }
+    }
+}
@@ -2,26 +2,40 @@ package protocols.membership;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.nio.ByteBuffer;
-import java.security.KeyStore;
+import java.security.KeyPair;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.Signature;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
-import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.SecretKey;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import protocols.events.NeighborDown;
 import protocols.events.SecureChannelAvailable;
 import protocols.events.SecureNeighborUp;
+import protocols.events.ViewChange;
+import protocols.membership.messages.ConfirmMessage;
 import protocols.membership.messages.HelloMessage;
 import protocols.membership.messages.HelloReplyMessage;
-import protocols.membership.messages.ReplyMessage;
+import protocols.membership.messages.ReconfigureMessage;
+import protocols.membership.messages.ResumeMessage;
+import protocols.membership.messages.ResumeReplyMessage;
+import protocols.membership.messages.ViewAckMessage;
+import protocols.membership.messages.ViewProposalMessage;
+import protocols.membership.requests.LeaveRequest;
+import protocols.membership.timers.ReconnectTimer;
 import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
 import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
+import pt.unl.fct.di.novasys.babel.generic.signed.SignedProtoMessage;
 import pt.unl.fct.di.novasys.channel.tcp.TCPChannel;
 import pt.unl.fct.di.novasys.channel.tcp.events.InConnectionDown;
 import pt.unl.fct.di.novasys.channel.tcp.events.InConnectionUp;
@@ -30,44 +44,87 @@ import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionFailed;
 import pt.unl.fct.di.novasys.channel.tcp.events.OutConnectionUp;
 import pt.unl.fct.di.novasys.network.data.Host;
 import utils.Crypto;
-import utils.SignaturesHelper;
+import utils.KeyDirectory;
+import utils.LatencyHistograms;
+import utils.network.EmulatedTCPChannel;
+import utils.network.Lanes;
+
 /** @author Professor Joao Leitao (from Reliable Distributed Systems 2025 course) **/
 public class SecureStaticMembershipProtocol extends GenericProtocol {
 
 	public final static String PAR_MYHOST = "membership.myhost";
 	public final static String PAR_NEIGHBORS = "membership.neighbors";
+	// Cached session keys older than this (in milliseconds) are not resumed, the next link runs a new handshake
+	public final static String PAR_SESSION_TTL = "membership.session_ttl";
 
 	public final static short PROTO_ID = 201;
 	public final static String PROTO_NAME = "SecureStaticMembershipProtocol";
 
 	private final HashMap<Host, PublicKey> neighbors;
 	private final HashSet<Host> candidates;
-	private final HashMap<Host, PublicKey> publicKeys;
 
 	private Host myself;
 
     private final Logger logger = LogManager.getLogger(SecureStaticMembershipProtocol.class);
 
 	private PrivateKey privateKey;
-	private KeyStore truststore;
 	private PublicKey publicKey;
 	private String myIdentifier;
 
-	private final HashMap<Host, Long> issuedChallenges;
+	// Handshakes this node started and is waiting a reply for, and the session keys of the established ones, kept
+	// after a link goes down so the next connection resumes the session instead of running a new handshake
+	private final HashMap<Host, Handshake> handshakes;
+	private final HashMap<Host, SecretKey> sessionKeys;
+	private final HashMap<Host, Long> sessionSince;
+	private long sessionTtl;
+	// Resumptions this node started, by the nonce of their ResumeMessage
+	private final HashMap<Host, Handshake> resumptions;
+	// Handshakes this node answered, waiting for the initiator to prove it holds the session key
+	private final HashMap<Host, Unconfirmed> unconfirmed;
+	private Reconnector reconnector;
+	// Bulk connections to the neighbors, opened once their session is established
+	private Lanes lanes;
+
+	// Agreed members of the system, starting from membership.neighbors (epoch 0). A replica missing from it joins, and
+	// has no view until it is admitted
+	private View view;
+	private int f;
+	// Joins and leaves requested to the members, proposed by the coordinator of the current view
+	private final HashSet<Host> joining;
+	private final HashSet<Host> leaving;
+	// A member votes for a single view per epoch, and installs the one a quorum of the previous view voted for
+	private int votedEpoch;
+	private final HashMap<List<View>, HashSet<Host>> votes;
+	private long viewChangeStart;
+	// Public key of each identity, loaded from the truststore (or derived from crypto.seed) at init
+	private KeyDirectory keys;
+	private final SecureRandom random;
+
+	// Time to ready: from init until a session is established with every initial candidate
+	private long startTime;
+	private int expectedNeighbors;
+	private boolean ready;
 
 	public SecureStaticMembershipProtocol() {
 		super(PROTO_NAME, PROTO_ID);
 
 		this.neighbors = new HashMap<>();
 		this.candidates = new HashSet<>();
-		this.publicKeys = new HashMap<>();
 
-		this.issuedChallenges = new HashMap<>();
+		this.handshakes = new HashMap<>();
+		this.sessionKeys = new HashMap<>();
+		this.sessionSince = new HashMap<>();
+		this.resumptions = new HashMap<>();
+		this.unconfirmed = new HashMap<>();
+
+		this.joining = new HashSet<>();
+		this.leaving = new HashSet<>();
+		this.votes = new HashMap<>();
+		this.random = new SecureRandom();
 
 		this.myself = null;
 
 		this.privateKey = null;
-		this.truststore = null;
 		this.publicKey = null;
 
 		this.myIdentifier = null;
@@ -91,16 +148,24 @@ public class SecureStaticMembershipProtocol extends GenericProtocol {
 		}
 		
 		myIdentifier = props.getProperty(Crypto.CRYPTO_NAME_KEY);
+		this.startTime = System.nanoTime();
 
 		String[] hostElements = props.getProperty(PAR_MYHOST).split(":");
 
 		this.myself = new Host(InetAddress.getByName(hostElements[0]), Short.parseShort(hostElements[1]));
+		this.reconnector = new Reconnector(props);
+		this.sessionTtl = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(props.getProperty(PAR_SESSION_TTL, "600000")));
 
 		Properties channelProps = new Properties();
 		channelProps.put(TCPChannel.ADDRESS_KEY, this.myself.getAddress().toString().replace("/", ""));
 		channelProps.put(TCPChannel.PORT_KEY, this.myself.getPort() + "");
 
-        int channelID = createChannel(TCPChannel.NAME, channelProps);
+        String channelName = TCPChannel.NAME;
+        if (props.containsKey(EmulatedTCPChannel.TOPOLOGY)) {
+            channelName = EmulatedTCPChannel.NAME;
+            channelProps.put(EmulatedTCPChannel.TOPOLOGY, props.getProperty(EmulatedTCPChannel.TOPOLOGY));
+        }
+        int channelID = createChannel(channelName, channelProps);
 		
 		/*-------------------- Register Channel Event ------------------------------- */
 		registerChannelEventHandler(channelID, OutConnectionDown.EVENT_ID, this::uponOutConnectionDown);
@@ -109,45 +174,90 @@ public class SecureStaticMembershipProtocol extends GenericProtocol {
 		registerChannelEventHandler(channelID, InConnectionUp.EVENT_ID, this::uponInConnectionUp);
 		registerChannelEventHandler(channelID, InConnectionDown.EVENT_ID, this::uponInConnectionDown);
 
+		this.lanes = Lanes.none();
+		if (Boolean.parseBoolean(props.getProperty(Lanes.ENABLED, "false"))) {
+			int portOffset = Integer.parseInt(props.getProperty(Lanes.PORT_OFFSET, "2000"));
+			Properties bulkProps = new Properties();
+			bulkProps.putAll(channelProps);
+			bulkProps.put(TCPChannel.PORT_KEY, this.myself.getPort() + portOffset + "");
+			bulkProps.put(EmulatedTCPChannel.LINK_PORT_OFFSET, portOffset + "");
+			int bulkChannelID = createChannel(channelName, bulkProps);
+			registerChannelEventHandler(bulkChannelID, OutConnectionDown.EVENT_ID, this::uponBulkConnectionDown);
+			registerChannelEventHandler(bulkChannelID, OutConnectionFailed.EVENT_ID, this::uponBulkConnectionFailed);
+			registerChannelEventHandler(bulkChannelID, OutConnectionUp.EVENT_ID, this::uponBulkConnectionUp);
+			this.lanes = new Lanes(bulkChannelID, portOffset);
+		}
+
 		/*-------------------- Register Message Serializers ------------------------------- */
 		registerMessageSerializer(channelID, HelloMessage.MESSAGE_ID, HelloMessage.serializer);
 		registerMessageSerializer(channelID, HelloReplyMessage.MESSAGE_ID, HelloReplyMessage.serializer);
-		registerMessageSerializer(channelID, ReplyMessage.MESSAGE_ID, ReplyMessage.serializer);
+		registerMessageSerializer(channelID, ConfirmMessage.MESSAGE_ID, ConfirmMessage.serializer);
+		registerMessageSerializer(channelID, ResumeMessage.MESSAGE_ID, ResumeMessage.serializer);
+		registerMessageSerializer(channelID, ResumeReplyMessage.MESSAGE_ID, ResumeReplyMessage.serializer);
+		registerMessageSerializer(channelID, ReconfigureMessage.MESSAGE_ID, ReconfigureMessage.serializer);
+		registerMessageSerializer(channelID, ViewProposalMessage.MESSAGE_ID, ViewProposalMessage.serializer);
+		registerMessageSerializer(channelID, ViewAckMessage.MESSAGE_ID, ViewAckMessage.serializer);
 		
 		/*-------------------- Register Message Handlers ------------------------------- */
 		registerMessageHandler(channelID, HelloMessage.MESSAGE_ID, this::uponReceiveHelloMessage);
 		registerMessageHandler(channelID, HelloReplyMessage.MESSAGE_ID, this::uponReceiveHelloReplyMessage);
-		registerMessageHandler(channelID, ReplyMessage.MESSAGE_ID, this::uponReceiveReplyMessage);
+		registerMessageHandler(channelID, ConfirmMessage.MESSAGE_ID, this::uponReceiveConfirmMessage);
+		registerMessageHandler(channelID, ResumeMessage.MESSAGE_ID, this::uponReceiveResumeMessage);
+		registerMessageHandler(channelID, ResumeReplyMessage.MESSAGE_ID, this::uponReceiveResumeReplyMessage);
+		registerMessageHandler(channelID, ReconfigureMessage.MESSAGE_ID, this::uponReceiveReconfigureMessage);
+		registerMessageHandler(channelID, ViewProposalMessage.MESSAGE_ID, this::uponReceiveViewProposalMessage);
+		registerMessageHandler(channelID, ViewAckMessage.MESSAGE_ID, this::uponReceiveViewAckMessage);
+
+		/*-------------------- Register Request Handlers ------------------------------- */
+		registerRequestHandler(LeaveRequest.REQUEST_ID, this::uponLeaveRequest);
+
+		/*-------------------- Register Timer Handlers ------------------------------- */
+		registerTimerHandler(ReconnectTimer.TIMER_ID, this::uponReconnectTimer);
 		
 		// Process neighbors and open connection to them
 
 		String[] neighborsCandidates = props.getProperty(PAR_NEIGHBORS).split(",");
+		boolean member = false;
         for (String neighborsCandidate : neighborsCandidates) {
             hostElements = neighborsCandidate.split(":");
             Host candidate = new Host(InetAddress.getByName(hostElements[0]), Short.parseShort(hostElements[1]));
             if (!candidate.equals(myself)) {
                 this.candidates.add(candidate);
-            }
+            } else member = true;
         }
 
-		for (Host h : this.candidates) {
-			//This is a simple hack to ensure that only the node with the highest port starts establishing the protocol
-			if(h.getPort() < myself.getPort()) {
-				openConnection(h);
-			}
+		this.f = Integer.parseInt(props.getProperty("f", "0"));
+		if (member) {
+			HashSet<Host> members = new HashSet<>(this.candidates);
+			members.add(myself);
+			this.view = new View(0, members);
+			this.votedEpoch = 0;
+		} else {
+			logger.info("{} is not in {}, joining the view of its members", myself, PAR_NEIGHBORS);
+			this.votedEpoch = -1;
 		}
 
+		this.expectedNeighbors = this.candidates.size();
+
 		try {
-			this.privateKey = Crypto.getPrivateKey(myIdentifier, props);
-			this.truststore = Crypto.getTruststore(props);
-			this.publicKey = this.truststore.getCertificate(myIdentifier).getPublicKey();
+			KeyPair keyPair = Crypto.getKeyPair(myIdentifier, props);
+			this.privateKey = keyPair.getPrivate();
+			this.publicKey = keyPair.getPublic();
+			this.keys = KeyDirectory.load(props);
 		} catch (Exception e) {
 			System.err.println("Could not retrieve cryptographic material");
 			e.printStackTrace();
 			System.exit(1);
 		}
 		
-		triggerNotification(new SecureChannelAvailable(channelID, myself, privateKey, publicKey));
+		triggerNotification(new SecureChannelAvailable(channelID, myself, privateKey, publicKey, keys, lanes));
+		if (view != null)
+			triggerNotification(new ViewChange(view));
+
+		// Connections to every candidate are opened at once, the greater host of each pair starts the handshake when
+		// its connection is up and the other one answers on its own connection
+		for (Host h : this.candidates)
+			openConnection(h);
 	}
 
 
@@ -159,153 +269,433 @@ public class SecureStaticMembershipProtocol extends GenericProtocol {
 			return;
 		}
 
-        try {
-            logger.debug("Verifying HelloMessage authenticity from sender {}", msg.getSender());
-            if(!msg.checkSignature(msg.getPubKey())) {
-                logger.error("The received public key does not belong to sender {}", msg.getSender());
-                return;
-            }
+		try {
+			PublicKey key = publicKeyOf(msg.getSender(), msg.getIdentity());
+			if (key == null || !msg.checkSignature(key)) {
+				logger.error("Could not authenticate the HelloMessage of {} as {}", msg.getSender(), msg.getIdentity());
+				closeConnection(msg.getSender());
+				return;
+			}
 
-        } catch (Exception e) {
-            logger.error("Could not verify the HelloMessage signature from {}", msg.getSender());
-            e.printStackTrace();
-        }
+			KeyPair ephemeral = Crypto.generateEphemeralKeyPair();
+			long nonce = random.nextLong();
+			SecretKey sessionKey = Crypto.deriveSessionKey(ephemeral.getPrivate(), msg.getEphemeralKey(), msg.getNonce(), nonce);
 
-		this.publicKeys.put(msg.getSender(), msg.getPubKey());
-		long hisChallenge = msg.getChallenge();
-		long myChallenge = new Random(System.currentTimeMillis()).nextLong();
-		this.issuedChallenges.put(msg.getSender(), myChallenge);
+			HelloReplyMessage hrm = new HelloReplyMessage(myself, myIdentifier, ephemeral.getPublic().getEncoded(), msg.getNonce(), nonce);
+			hrm.signMessage(privateKey);
+			//The neighbor is up once the initiator proves it holds the key, a replayed HelloMessage never does
+			unconfirmed.put(msg.getSender(), new Unconfirmed(msg.getIdentity(), key, sessionKey, nonce, false));
+			sendMessage(hrm, msg.getSender());
+		} catch (Exception e) {
+            logger.error("Could not answer the handshake of {}", msg.getSender());
+			e.printStackTrace();
+			closeConnection(msg.getSender());
+		}
+	}
+
+	private void uponReceiveHelloReplyMessage(HelloReplyMessage msg, Host sender, short protoID, int channel) {
+		if (!sender.equals(msg.getSender())) {
+            logger.error("Received a HelloReplyMessage from the socket of {} issued by {}", sender, msg.getSender());
+			return;
+		}
+
+		Handshake handshake = handshakes.get(msg.getSender());
+		if (handshake == null || handshake.nonce != msg.getHelloNonce()) {
+            logger.error("Received a HelloReplyMessage from {} that answers no pending handshake", msg.getSender());
+			return;
+		}
 
-		byte[] challengeAnswer = null;
 		try {
-            logger.debug("Computing answer for challenge put forward by {} which is: {}", msg.getSender(), msg.getChallenge());
-			Signature sig = Signature.getInstance(SignaturesHelper.SignatureAlgorithm);
-			sig.initSign(privateKey);
-			sig.update(ByteBuffer.allocate(Long.BYTES).putLong(hisChallenge).array());
-			challengeAnswer = sig.sign();
+			PublicKey key = publicKeyOf(msg.getSender(), msg.getIdentity());
+			if (key == null || !msg.checkSignature(key)) {
+				logger.error("Could not authenticate the HelloReplyMessage of {} as {}", msg.getSender(), msg.getIdentity());
+				handshakes.remove(msg.getSender());
+				closeConnection(msg.getSender());
+				return;
+			}
+
+			SecretKey sessionKey = Crypto.deriveSessionKey(handshake.ephemeral.getPrivate(), msg.getEphemeralKey(), handshake.nonce, msg.getNonce());
+			handshakes.remove(msg.getSender());
+			sendMessage(new ConfirmMessage(myself, Crypto.sessionMac(sessionKey, "confirm/" + myself, msg.getNonce())), msg.getSender());
+			LatencyHistograms.record("membership.handshake", handshake.start);
+			established(msg.getSender(), msg.getIdentity(), key, sessionKey);
 		} catch (Exception e) {
-            logger.error("Could not generate a valid answer to the challenge of {}", msg.getSender());
+            logger.error("Could not complete the handshake with {}", msg.getSender());
 			e.printStackTrace();
+			handshakes.remove(msg.getSender());
+			closeConnection(msg.getSender());
+		}
+	}
+
+
+	private void uponReceiveConfirmMessage(ConfirmMessage msg, Host sender, short protoID, int channel) {
+		if (!sender.equals(msg.getSender())) {
+            logger.error("Received a ConfirmMessage from the socket of {} issued by {}", sender, msg.getSender());
+			return;
+		}
+
+		Host peer = msg.getSender();
+		Unconfirmed pending = unconfirmed.remove(peer);
+		if (pending == null) {
+            logger.error("Received a ConfirmMessage from {} that confirms no pending handshake", peer);
+			return;
 		}
 
-        logger.debug("Answering challenge put forwards by {} sending my Challenge: {}", msg.getSender(), myChallenge);
-		HelloReplyMessage hrm = new HelloReplyMessage(myself, publicKey, challengeAnswer, myChallenge);
-		
 		try {
-			hrm.signMessage(privateKey);
-			sendMessage(hrm , msg.getSender());
+			if (!MessageDigest.isEqual(msg.getMac(), Crypto.sessionMac(pending.sessionKey, "confirm/" + peer, pending.challenge))) {
+				logger.error("Could not confirm the session key of {}", peer);
+				closeConnection(peer);
+				return;
+			}
+			if (!pending.resumed || !neighbors.containsKey(peer))
+				established(peer, pending.identity, pending.key, pending.sessionKey);
 		} catch (Exception e) {
+            logger.error("Could not confirm the handshake of {}", peer);
 			e.printStackTrace();
+			closeConnection(peer);
 		}
-		
 	}
 
-	private void uponReceiveHelloReplyMessage(HelloReplyMessage msg, Host sender, short protoID, int channel) {
+
+	private void uponReceiveResumeMessage(ResumeMessage msg, Host sender, short protoID, int channel) {
 		if (!sender.equals(msg.getSender())) {
-            logger.error("Received a HelloReplyMessage from the socker of {} issued by {}", sender, msg.getSender());
+            logger.error("Received a ResumeMessage from the socket of {} issued by {}", sender, msg.getSender());
 			return;
 		}
 
-        try {
-            logger.debug("Verifying HelloReplyMessage authenticity from sender {}", msg.getSender());
-            if(!msg.checkSignature(msg.getPubKey())) {
-                logger.error("The received public key does not belong to sender {}", msg.getSender());
-                return;
-            }
+		Host peer = msg.getSender();
+		try {
+			SecretKey sessionKey = cachedSessionKey(peer);
+			PublicKey key = keys.getPublicKey(peer);
+			if (sessionKey == null || key == null
+					|| !MessageDigest.isEqual(msg.getMac(), Crypto.sessionMac(sessionKey, "resume/" + peer, msg.getNonce()))) {
+				logger.debug("Rejected the resumption of {}, no such session", peer);
+				sendMessage(new ResumeReplyMessage(myself, false, msg.getNonce(), 0, new byte[0]), peer);
+				return;
+			}
 
-        } catch (Exception e) {
-            logger.error("Could not verify the HelloReplyMessage signature from {}", msg.getSender());
-            e.printStackTrace();
-        }
+			//The MAC of the ResumeMessage may be a replay, the session resumes once the peer answers our challenge
+			long challenge = random.nextLong();
+			unconfirmed.put(peer, new Unconfirmed(keys.of(peer).getIdentity(), key, sessionKey, challenge, true));
+			byte[] mac = Crypto.sessionMac(sessionKey, "resume-reply/" + myself, msg.getNonce());
+			sendMessage(new ResumeReplyMessage(myself, true, msg.getNonce(), challenge, mac), peer);
+		} catch (Exception e) {
+            logger.error("Could not answer the resumption of {}", peer);
+			e.printStackTrace();
+			closeConnection(peer);
+		}
+	}
+
+	private void uponReceiveResumeReplyMessage(ResumeReplyMessage msg, Host sender, short protoID, int channel) {
+		if (!sender.equals(msg.getSender())) {
+            logger.error("Received a ResumeReplyMessage from the socket of {} issued by {}", sender, msg.getSender());
+			return;
+		}
+
+		Host peer = msg.getSender();
+		Handshake resumption = resumptions.get(peer);
+		if (resumption == null || resumption.nonce != msg.getResumeNonce()) {
+            logger.error("Received a ResumeReplyMessage from {} that answers no pending resumption", peer);
+			return;
+		}
+		resumptions.remove(peer);
 
-		// Validate his answer to my challenge
 		try {
-            logger.debug("Verifying answer for my challenge to {} which is: {}", msg.getSender(), issuedChallenges.get(msg.getSender()));
-			Signature sig = Signature.getInstance(SignaturesHelper.SignatureAlgorithm);
-			sig.initVerify(msg.getPubKey());
-			sig.update(ByteBuffer.allocate(Long.BYTES).putLong(issuedChallenges.get(msg.getSender())).array());
-			if (sig.verify(msg.getChallengeReply())) {
-                logger.debug("Challenge has been correctly answered by {}", msg.getSender());
-				issuedChallenges.remove(msg.getSender());
-				this.candidates.remove(msg.getSender());
-				this.neighbors.put(msg.getSender(), msg.getPubKey());
-				this.publicKeys.put(msg.getSender(), msg.getPubKey());
-				triggerNotification(new SecureNeighborUp(msg.getSender(), this.neighbors.get(msg.getSender())));
-			} else {
-                logger.error("Challenge was incorrectly answered by {}", msg.getSender());
-				closeConnection(msg.getSender());
+			SecretKey sessionKey = sessionKeys.get(peer);
+			if (!msg.isAccepted() || sessionKey == null) {
+				//The peer lost the session (it restarted), back to a full handshake
+				logger.debug("Resumption rejected by {}", peer);
+				if (neighbors.containsKey(peer))
+					return;
+				sessionKeys.remove(peer);
+				sessionSince.remove(peer);
+				if (peer.compareTo(myself) < 0 && !handshakes.containsKey(peer))
+					startHandshake(peer);
+				return;
+			}
+
+			if (!MessageDigest.isEqual(msg.getMac(), Crypto.sessionMac(sessionKey, "resume-reply/" + peer, resumption.nonce))) {
+				logger.error("Could not authenticate the ResumeReplyMessage of {}", peer);
+				closeConnection(peer);
 				return;
 			}
+
+			sendMessage(new ConfirmMessage(myself, Crypto.sessionMac(sessionKey, "confirm/" + myself, msg.getChallenge())), peer);
+			LatencyHistograms.record("membership.resumption", resumption.start);
+			if (!neighbors.containsKey(peer))
+				established(peer, keys.of(peer).getIdentity(), keys.getPublicKey(peer), sessionKey);
 		} catch (Exception e) {
-            logger.debug("Error while validating the challenge answer of {}", msg.getSender());
+            logger.error("Could not resume the session with {}", peer);
 			e.printStackTrace();
-			closeConnection(msg.getSender());
+			closeConnection(peer);
+		}
+	}
+
+
+	private void uponReceiveReconfigureMessage(ReconfigureMessage msg, Host sender, short protoID, int channel) {
+		if (!authenticated(msg, sender, msg.getSender()) || view == null)
+			return;
+
+		if (msg.isJoin() && !view.contains(sender))
+			joining.add(sender);
+		else if (!msg.isJoin() && view.contains(sender))
+			leaving.add(sender);
+		else return;
+
+		logger.info("{} asked to {} the view", sender, msg.isJoin() ? "join" : "leave");
+		proposeView();
+	}
+
+	private void uponReceiveViewProposalMessage(ViewProposalMessage msg, Host sender, short protoID, int channel) {
+		if (!authenticated(msg, sender, msg.getSender()))
+			return;
+
+		View next = msg.getView();
+		if (view == null || !sender.equals(view.getCoordinator()) || next.getEpoch() != view.getEpoch() + 1 || votedEpoch >= next.getEpoch()) {
+			logger.debug("Ignored the proposal of {} by {}", next, sender);
+			return;
+		}
+		if (next.size() < 3 * f + 1) {
+			logger.error("Rejected the proposal of {} by {}, it can not tolerate {} faults", next, sender, f);
+			return;
+		}
+		vote(next);
+	}
+
+	private void uponReceiveViewAckMessage(ViewAckMessage msg, Host sender, short protoID, int channel) {
+		if (authenticated(msg, sender, msg.getSender()))
+			tally(sender, msg.getPrevious(), msg.getView());
+	}
+
+
+    /* --------------------------------- Request Handlers ----------------------------------------------------------- */
+
+	public void uponLeaveRequest(LeaveRequest request, short sourceProto) {
+		if (view == null || !view.contains(myself)) {
+			logger.warn("Can not leave, {} is not a member of the current view", myself);
+			return;
+		}
+
+		logger.info("Leaving the view");
+		sendSigned(new ReconfigureMessage(myself, false), view.getMembers());
+		leaving.add(myself);
+		proposeView();
+	}
+
+
+    /* --------------------------------- Procedures ----------------------------------------------------------- */
+
+	// The coordinator proposes the pending joins and leaves, one view change at a time
+	private void proposeView() {
+		if (view == null || !view.getCoordinator().equals(myself) || votedEpoch > view.getEpoch()
+				|| (joining.isEmpty() && leaving.isEmpty()))
+			return;
+
+		// Leaves that would take the view under 3f+1 members wait for more replicas to join
+		HashSet<Host> leaves = new HashSet<>(leaving);
+		while (!leaves.isEmpty() && view.size() + joining.size() - leaves.size() < 3 * f + 1)
+			leaves.remove(leaves.iterator().next());
+		if (joining.isEmpty() && leaves.isEmpty()) {
+			logger.warn("Leaves of {} postponed, the view can not shrink under {} members", leaving, 3 * f + 1);
 			return;
 		}
 
-		// Generate an answer to his challenge
-		byte[] challengeAnswer = null;
+		View next = view.next(joining, leaves);
+		logger.info("Proposing {}", next);
+		sendSigned(new ViewProposalMessage(myself, next), membersOf(view, next));
+		vote(next);
+	}
+
+	private void vote(View next) {
+		votedEpoch = next.getEpoch();
+		viewChangeStart = System.nanoTime();
+		sendSigned(new ViewAckMessage(myself, view, next), membersOf(view, next));
+		tally(myself, view, next);
+	}
+
+	/*
+	 * Votes are counted against the view they replace, so a replica that missed views (or a joining one, which has
+	 * none) installs the next one from the votes alone. Views are never smaller than 3f+1 members, so the quorum of the
+	 * previous view holds a correct member that voted for the same next one.
+	 */
+	private void tally(Host voter, View previous, View next) {
+		if (!previous.contains(voter) || next.getEpoch() != previous.getEpoch() + 1 || previous.size() < 3 * f + 1)
+			return;
+		if (view != null && (previous.getEpoch() < view.getEpoch() || (previous.getEpoch() == view.getEpoch() && !previous.equals(view))))
+			return;
+
+		HashSet<Host> voters = votes.computeIfAbsent(List.of(previous, next), k -> new HashSet<>());
+		if (voters.add(voter) && voters.size() >= previous.quorum(f))
+			install(next);
+	}
+
+	private void install(View next) {
+		if (view != null && next.getEpoch() <= view.getEpoch())
+			return;
+
+		boolean wasMember = view != null && view.contains(myself);
+		if (viewChangeStart > 0)
+			LatencyHistograms.record("membership.view_change", viewChangeStart);
+		else if (view == null)
+			LatencyHistograms.record("membership.join", startTime);
+		viewChangeStart = 0;
+
+		view = next;
+		votedEpoch = Math.max(votedEpoch, next.getEpoch());
+		votes.keySet().removeIf(k -> k.get(0).getEpoch() < next.getEpoch());
+		joining.removeAll(next.getMembers());
+		leaving.retainAll(next.getMembers());
+		logger.info("Installed view {} with {} members", next.getEpoch(), next.size());
+		triggerNotification(new ViewChange(next));
+
+		if (wasMember && !next.contains(myself))
+			logger.info("Left the view, this replica can be stopped once its in-flight broadcasts are delivered");
+		for (Host h : next.getMembers())
+			if (!h.equals(myself) && !neighbors.containsKey(h))
+				openConnection(h);
+		proposeView();
+	}
+
+	private void sendSigned(SignedProtoMessage msg, Collection<Host> to) {
 		try {
-            logger.debug("Computing answer for challenge put forward by {} which is: {}", msg.getSender(), msg.getChallenge());
-			Signature sig = Signature.getInstance(SignaturesHelper.SignatureAlgorithm);
-			sig.initSign(privateKey);
-			sig.update(ByteBuffer.allocate(Long.BYTES).putLong(msg.getChallenge()).array());
-			challengeAnswer = sig.sign();
+			msg.signMessage(privateKey);
 		} catch (Exception e) {
-            logger.error("Could not generate a valid answer to the challenge of {}", msg.getSender());
+            logger.error("Could not sign a membership message");
 			e.printStackTrace();
+			return;
 		}
+		for (Host h : to)
+			if (!h.equals(myself))
+				sendMessage(msg, h);
+	}
 
-		// send the reply
-		ReplyMessage rm = new ReplyMessage(myself, challengeAnswer);
-		try { 
-			rm.signMessage(privateKey);
-			sendMessage(rm, msg.getSender());
+	private boolean authenticated(SignedProtoMessage msg, Host sender, Host issuer) {
+		if (!sender.equals(issuer)) {
+            logger.error("Received a {} from the socket of {} issued by {}", msg.getClass().getSimpleName(), sender, issuer);
+			return false;
+		}
+		try {
+			PublicKey key = keys.getPublicKey(sender);
+			if (key != null && msg.checkSignature(key))
+				return true;
+			logger.error("Could not authenticate the {} of {}", msg.getClass().getSimpleName(), sender);
 		} catch (Exception e) {
+            logger.error("Could not verify the {} of {}", msg.getClass().getSimpleName(), sender);
 			e.printStackTrace();
 		}
-		
+		return false;
 	}
 
-	private void uponReceiveReplyMessage(ReplyMessage msg, Host sender, short protoID, int channel) {
-		if (!sender.equals(msg.getSender())) {
-            logger.error("Received a ReplyMessage from the socker of {} issued by {}", sender, msg.getSender());
-			return;
-		}
+	private static Collection<Host> membersOf(View current, View next) {
+		HashSet<Host> members = new HashSet<>(current.getMembers());
+		members.addAll(next.getMembers());
+		return members;
+	}
 
-        try {
-            logger.debug("Verifying ReplyMessage authenticity from sender {}", msg.getSender());
-            if(!msg.checkSignature(publicKeys.get(msg.getSender()))) {
-                logger.error("The received public key does not belong to sender {}", msg.getSender());
-                return;
-            }
 
-        } catch (Exception e) {
-            logger.error("Could not verify the ReplyMessage signature from {}", msg.getSender());
-            e.printStackTrace();
-        }
+	// Proves to the peer this node still holds the key of their last session, instead of signing a new handshake
+	private void startResumption(Host peer, SecretKey sessionKey) {
+		try {
+			Handshake resumption = new Handshake(null, random.nextLong());
+			ResumeMessage rm = new ResumeMessage(myself, resumption.nonce, Crypto.sessionMac(sessionKey, "resume/" + myself, resumption.nonce));
+			resumptions.put(peer, resumption);
+			sendMessage(rm, peer);
+            logger.debug("Out connection is up for {}, resuming the session", peer);
+		} catch (Exception e) {
+            logger.error("Could not resume the session with {}", peer);
+			e.printStackTrace();
+		}
+	}
 
-		// Validate his answer to my challenge
+
+	private void startHandshake(Host peer) {
 		try {
-            logger.debug("Verifying answer for my challenge to {} which is: {}", msg.getSender(), issuedChallenges.get(msg.getSender()));
-			Signature sig = Signature.getInstance(SignaturesHelper.SignatureAlgorithm);
-			sig.initVerify(publicKeys.get(msg.getSender()));
-			sig.update(ByteBuffer.allocate(Long.BYTES).putLong(issuedChallenges.get(msg.getSender())).array());
-			if (sig.verify(msg.getChallengeReply())) {
-                logger.debug("Challenge has been correctly answered by {}", msg.getSender());
-				issuedChallenges.remove(msg.getSender());
-				this.candidates.remove(msg.getSender());
-				this.neighbors.put(msg.getSender(), publicKeys.get(msg.getSender()));
-				triggerNotification(new SecureNeighborUp(msg.getSender(), this.neighbors.get(msg.getSender())));
-			} else {
-                logger.error("Challenge was incorrectly answered by {}", msg.getSender());
-				closeConnection(msg.getSender());
-            }
+			Handshake handshake = new Handshake(Crypto.generateEphemeralKeyPair(), random.nextLong());
+			HelloMessage hm = new HelloMessage(myself, myIdentifier, handshake.ephemeral.getPublic().getEncoded(), handshake.nonce);
+			hm.signMessage(privateKey);
+			handshakes.put(peer, handshake);
+			sendMessage(hm, peer);
+            logger.debug("Out connection is up for {}, handshake started", peer);
 		} catch (Exception e) {
-            logger.debug("Error while validating the challenge answer of {}", msg.getSender());
+            logger.error("Could not start the handshake with {}", peer);
 			e.printStackTrace();
-			closeConnection(msg.getSender());
-        }
+		}
+	}
+
+	private void established(Host peer, String identity, PublicKey key, SecretKey sessionKey) {
+		if (!this.keys.add(peer, identity, key)) {
+			closeConnection(peer);
+			return;
+		}
+        logger.debug("Session established with {}", peer);
+		this.candidates.remove(peer);
+		//A resumed session keeps its age, so it still expires
+		if (!sessionKey.equals(this.sessionKeys.put(peer, sessionKey)))
+			this.sessionSince.put(peer, System.nanoTime());
+		this.neighbors.put(peer, key);
+		this.reconnector.recovered(peer);
+		//Opened before the neighbor is announced, so the first bulk messages wait in the queue of the pending connection
+		if (lanes.isSplit())
+			openConnection(lanes.bulkHost(peer), lanes.getBulkChannelID());
+		triggerNotification(new SecureNeighborUp(peer, key));
+		if (view == null)
+			sendSigned(new ReconfigureMessage(myself, true), List.of(peer));
+
+		if (!ready && neighbors.size() >= expectedNeighbors) {
+			ready = true;
+			LatencyHistograms.record("membership.ready", startTime);
+			logger.info("Time to ready: {} ms with {} neighbors", (System.nanoTime() - startTime) / 1_000_000, neighbors.size());
+		}
+	}
+
+	// Key of the last session with peer, dropped once it is older than membership.session_ttl
+	private SecretKey cachedSessionKey(Host peer) {
+		Long since = sessionSince.get(peer);
+		if (since != null && System.nanoTime() - since > sessionTtl) {
+			logger.debug("Session with {} expired", peer);
+			sessionKeys.remove(peer);
+			sessionSince.remove(peer);
+		}
+		return sessionKeys.get(peer);
+	}
+
+	// The key of the identity a peer claims, null if it is unknown or bound to another host
+	private PublicKey publicKeyOf(Host peer, String identity) {
+		KeyDirectory.Entry expected = keys.of(peer);
+		if (expected != null && expected.getIdentity() != null && !expected.getIdentity().equals(identity))
+			return null;
+		KeyDirectory.Entry entry = keys.of(identity);
+		return entry == null ? null : entry.getPublicKey();
+	}
+
+	private static class Unconfirmed {
+		private final String identity;
+		private final PublicKey key;
+		private final SecretKey sessionKey;
+		// Nonce of our reply, which the MAC of the ConfirmMessage covers
+		private final long challenge;
+		// Resumes the cached session instead of ending a new handshake
+		private final boolean resumed;
+
+		Unconfirmed(String identity, PublicKey key, SecretKey sessionKey, long challenge, boolean resumed) {
+			this.identity = identity;
+			this.key = key;
+			this.sessionKey = sessionKey;
+			this.challenge = challenge;
+			this.resumed = resumed;
+		}
+	}
+
+	private static class Handshake {
+		private final KeyPair ephemeral;
+		private final long nonce;
+		private final long start;
+
+		Handshake(KeyPair ephemeral, long nonce) {
+			this.ephemeral = ephemeral;
+			this.nonce = nonce;
+			this.start = System.nanoTime();
+		}
 	}
 
 	/*
@@ -314,48 +704,93 @@ public class SecureStaticMembershipProtocol extends GenericProtocol {
 
 	private void uponOutConnectionDown(OutConnectionDown event, int channelId) {
 		logger.debug("Host {} is down, cause: {}", event.getNode(), event.getCause());
-		if (this.candidates.contains(event.getNode()))
-			this.candidates.remove(event.getNode());
-		else this.neighbors.remove(event.getNode());
+		Host peer = event.getNode();
+		this.handshakes.remove(peer);
+		this.resumptions.remove(peer);
+		this.unconfirmed.remove(peer);
+		this.candidates.remove(peer);
+		if (this.neighbors.remove(peer) != null) {
+			reconnector.down(peer);
+			if (lanes.isSplit())
+				closeConnection(lanes.bulkHost(peer), lanes.getBulkChannelID());
+			triggerNotification(new NeighborDown(peer));
+		}
+		if (view == null || view.contains(peer))
+			scheduleReconnect(peer);
 	}
 
 	private void uponOutConnectionFailed(OutConnectionFailed<?> event, int channelId) {
 		logger.debug("Connection to host {} failed, cause: {}", event.getNode(), event.getCause());
-		this.candidates.remove(event.getNode());
+		//Members stay candidates until they are reached, they may not have started yet or be restarting
+		if (view == null || view.contains(event.getNode()))
+			scheduleReconnect(event.getNode());
 	}
 
 	private void uponOutConnectionUp(OutConnectionUp event, int channelId) {
 		logger.debug("Host (out) {} is up", event.getNode());
-		if (this.candidates.remove(event.getNode())) {
-			this.neighbors.put(event.getNode(), null);
-			this.issuedChallenges.put(event.getNode(), new Random(System.currentTimeMillis()).nextLong());
-
-            logger.debug("Sending a challenge to {}: {}", event.getNode(), this.issuedChallenges.get(event.getNode()));
-			
-			HelloMessage hm = new HelloMessage(myself, publicKey, this.issuedChallenges.get(event.getNode()));
-			try {
-				hm.signMessage(privateKey);
-				sendMessage(hm,event.getNode());
-                logger.debug("Out connection is up for {} sent challenge...", event.getNode());
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
-		} else {
-            logger.debug("Out connection is up for {} but node is not part of candidates.", event.getNode());
-		}
+		Host peer = event.getNode();
+		if (this.neighbors.containsKey(peer) || this.handshakes.containsKey(peer) || this.resumptions.containsKey(peer))
+			return;
+		//A link that was up before resumes its session from either end, a new one runs the handshake started by the
+		//greater host of the pair, whichever of the two started first
+		SecretKey sessionKey = cachedSessionKey(peer);
+		if (sessionKey != null)
+			startResumption(peer, sessionKey);
+		else if (peer.compareTo(myself) < 0)
+			startHandshake(peer);
 	}
 
 	private void uponInConnectionUp(InConnectionUp event, int channelId) {
 		logger.debug("Host (in) {} is up", event.getNode());
-		if (!this.neighbors.containsKey(event.getNode())) {
-			this.candidates.remove(event.getNode());
-			this.neighbors.put(event.getNode(), null);
+		//Replies go through our own connection, which may have failed if the peer started after us
+		if (!this.neighbors.containsKey(event.getNode()))
 			openConnection(event.getNode());
-		}
 	}
 
 	private void uponInConnectionDown(InConnectionDown event, int channelId) {
 		logger.debug("Connection from host {} is down, cause: {}", event.getNode(), event.getCause());
 	}
 
+	//Bulk connections follow the session of their neighbor, and are retried while it lasts
+	private void uponBulkConnectionDown(OutConnectionDown event, int channelId) {
+		logger.debug("Bulk connection to {} is down, cause: {}", event.getNode(), event.getCause());
+		scheduleBulkReconnect(event.getNode());
+	}
+
+	private void uponBulkConnectionFailed(OutConnectionFailed<?> event, int channelId) {
+		logger.debug("Bulk connection to {} failed, cause: {}", event.getNode(), event.getCause());
+		scheduleBulkReconnect(event.getNode());
+	}
+
+	private void uponBulkConnectionUp(OutConnectionUp event, int channelId) {
+		logger.debug("Bulk connection to {} is up", event.getNode());
+		reconnector.recovered(event.getNode());
+	}
+
+
+	/*
+	 * --------------------------------- Timers ----------------------------
+	 */
+
+	private void scheduleReconnect(Host peer) {
+		long delay = reconnector.nextDelay(peer);
+		logger.debug("Reconnecting to {} in {} ms", peer, delay);
+		setupTimer(new ReconnectTimer(peer), delay);
+	}
+
+	private void scheduleBulkReconnect(Host bulkPeer) {
+		if (this.neighbors.containsKey(lanes.controlHost(bulkPeer)))
+			setupTimer(new ReconnectTimer(bulkPeer, true), reconnector.nextDelay(bulkPeer));
+	}
+
+	private void uponReconnectTimer(ReconnectTimer timer, long timerId) {
+		if (timer.isBulk()) {
+			if (this.neighbors.containsKey(lanes.controlHost(timer.getPeer())))
+				openConnection(timer.getPeer(), lanes.getBulkChannelID());
+			return;
+		}
+		if (!this.neighbors.containsKey(timer.getPeer()) && (view == null || view.contains(timer.getPeer())))
+			openConnection(timer.getPeer());
+	}
+
 }
@@ -5,11 +5,13 @@ import org.apache.logging.log4j.Logger;
 import protocols.events.ChannelAvailable;
 import protocols.events.NeighborDown;
 import protocols.events.NeighborUp;
+import protocols.membership.timers.ReconnectTimer;
 import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
 import pt.unl.fct.di.novasys.babel.exceptions.HandlerRegistrationException;
 import pt.unl.fct.di.novasys.channel.tcp.TCPChannel;
 import pt.unl.fct.di.novasys.channel.tcp.events.*;
 import pt.unl.fct.di.novasys.network.data.Host;
+import utils.network.EmulatedTCPChannel;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -27,6 +29,7 @@ public class StaticMembershipProtocol extends GenericProtocol {
 	private Host myself;
     private final Set<Host> candidates;
     private final Set<Host> neighbors;
+    private Reconnector reconnector;
 
     private final Logger logger = LogManager.getLogger(StaticMembershipProtocol.class);
 
@@ -55,12 +58,18 @@ public class StaticMembershipProtocol extends GenericProtocol {
 		String[] hostElements = props.getProperty(PAR_MYHOST).split(":");
 
 		this.myself = new Host(InetAddress.getByName(hostElements[0]), Short.parseShort(hostElements[1]));
+		this.reconnector = new Reconnector(props);
 
 		Properties channelProps = new Properties();
 		channelProps.put(TCPChannel.ADDRESS_KEY, this.myself.getAddress().toString().replace("/", ""));
 		channelProps.put(TCPChannel.PORT_KEY, this.myself.getPort() + "");
 
-        int channelID = createChannel(TCPChannel.NAME, channelProps);
+        String channelName = TCPChannel.NAME;
+        if (props.containsKey(EmulatedTCPChannel.TOPOLOGY)) {
+            channelName = EmulatedTCPChannel.NAME;
+            channelProps.put(EmulatedTCPChannel.TOPOLOGY, props.getProperty(EmulatedTCPChannel.TOPOLOGY));
+        }
+        int channelID = createChannel(channelName, channelProps);
 		
 		/*-------------------- Register Channel Event ------------------------------- */
 		registerChannelEventHandler(channelID, OutConnectionDown.EVENT_ID, this::uponOutConnectionDown);
@@ -69,6 +78,8 @@ public class StaticMembershipProtocol extends GenericProtocol {
 		registerChannelEventHandler(channelID, InConnectionUp.EVENT_ID, this::uponInConnectionUp);
 		registerChannelEventHandler(channelID, InConnectionDown.EVENT_ID, this::uponInConnectionDown);
 
+		/*-------------------- Register Timer Handlers ------------------------------- */
+		registerTimerHandler(ReconnectTimer.TIMER_ID, this::uponReconnectTimer);
 
         String[] neighborsCandidates = props.getProperty(PAR_NEIGHBORS).split(",");
         for (String neighborsCandidate : neighborsCandidates) {
@@ -96,24 +107,28 @@ public class StaticMembershipProtocol extends GenericProtocol {
 
 	private void uponOutConnectionDown(OutConnectionDown event, int channelId) {
 		logger.debug("Host {} is down, cause: {}", event.getNode(), event.getCause());
-		if (this.candidates.contains(event.getNode()))
-			this.candidates.remove(event.getNode());
-		else {
-            this.neighbors.remove(event.getNode());
-            triggerNotification(new NeighborDown(event.getNode()));
-        }
+		Host peer = event.getNode();
+		this.candidates.remove(peer);
+		if (this.neighbors.remove(peer)) {
+			reconnector.down(peer);
+			triggerNotification(new NeighborDown(peer));
+		}
+		scheduleReconnect(peer);
 	}
 
 	private void uponOutConnectionFailed(OutConnectionFailed<?> event, int channelId) {
 		logger.debug("Connection to host {} failed, cause: {}", event.getNode(), event.getCause());
-		this.candidates.remove(event.getNode());
+		//The peer stays a candidate until it is reached, it may not have started yet or be restarting
+		scheduleReconnect(event.getNode());
 	}
 
 	private void uponOutConnectionUp(OutConnectionUp event, int channelId) {
 		logger.debug("Host (out) {} is up", event.getNode());
 		this.candidates.remove(event.getNode());
-        if(this.neighbors.add(event.getNode()))
+        if(this.neighbors.add(event.getNode())) {
+            reconnector.recovered(event.getNode());
             triggerNotification(new NeighborUp(event.getNode()));
+        }
 	}
 
 	private void uponInConnectionUp(InConnectionUp event, int channelId) {
@@ -127,4 +142,18 @@ public class StaticMembershipProtocol extends GenericProtocol {
 		logger.debug("Connection from host {} is down, cause: {}", event.getNode(), event.getCause());
 	}
 
+
+    /* --------------------------------- Timers ----------------------------  */
+
+	private void scheduleReconnect(Host peer) {
+		long delay = reconnector.nextDelay(peer);
+		logger.debug("Reconnecting to {} in {} ms", peer, delay);
+		setupTimer(new ReconnectTimer(peer), delay);
+	}
+
+	private void uponReconnectTimer(ReconnectTimer timer, long timerId) {
+		if (!this.neighbors.contains(timer.getPeer()))
+			openConnection(timer.getPeer());
+	}
+
 }
@@ -0,0 +1,100 @@
+package protocols.membership;
+
+import java.io.IOException;
+import java.util.*;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/*
+ * Members of the replicated system during an epoch, agreed by the replicas of the previous one. The quorums of the
+ * broadcast instances started in an epoch are computed from its view, however the connections come and go.
+ */
+public class View {
+
+	private final int epoch;
+	private final List<Host> members;
+
+	public View(int epoch, Collection<Host> members) {
+		this.epoch = epoch;
+		List<Host> sorted = new ArrayList<>(members);
+		Collections.sort(sorted);
+		this.members = Collections.unmodifiableList(sorted);
+	}
+
+	public int getEpoch() {
+		return epoch;
+	}
+
+	public List<Host> getMembers() {
+		return members;
+	}
+
+	public int size() {
+		return members.size();
+	}
+
+	public boolean contains(Host host) {
+		return members.contains(host);
+	}
+
+	// Proposes the next view, the smallest member of the current one
+	public Host getCoordinator() {
+		return members.get(0);
+	}
+
+	// Byzantine quorum of the view: any two of them intersect in a correct member
+	public int quorum(int f) {
+		return (int) Math.ceil((members.size() + f + 1) / 2.0);
+	}
+
+	public View next(Set<Host> joining, Set<Host> leaving) {
+		Set<Host> next = new HashSet<>(members);
+		next.addAll(joining);
+		next.removeAll(leaving);
+		return new View(epoch + 1, next);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (o == null || getClass() != o.getClass()) return false;
+		View view = (View) o;
+		return epoch == view.epoch && members.equals(view.members);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(epoch, members);
+	}
+
+	@Override
+	public String toString() {
+		return "View{" + "epoch=" + epoch + ", members=" + members + '}';
+	}
+
+	public final static ISerializer<View> serializer = new ISerializer<>() {
+
+        @Override
+        public void serialize(View view, ByteBuf out) throws IOException {
+            out.writeInt(view.epoch);
+            out.writeInt(view.members.size());
+            for (Host h : view.members)
+                Host.serializer.serialize(h, out);
+        }
+
+        @Override
+        public View deserialize(ByteBuf in) throws IOException {
+            int epoch = in.readInt();
+            int size = in.readInt();
+            // A host takes 6 bytes (IPv4 address and port), the size is checked before anything is allocated
+            if (size < 0 || size > in.readableBytes() / 6)
+                throw new IOException("Invalid view size " + size);
+            List<Host> members = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                members.add(Host.serializer.deserialize(in));
+            return new View(epoch, members);
+        }
+
+    };
+}
@@ -0,0 +1,57 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/*
+ * Ends a handshake: a MAC under the new session key over the fresh nonce of the reply, proving to the responder that
+ * the initiator holds the key (a replayed HelloMessage can not produce it).
+ */
+public class ConfirmMessage extends ProtoMessage {
+
+	public final static short MESSAGE_ID = 218;
+
+	private final Host myself;
+	private final byte[] mac;
+
+	public ConfirmMessage(Host me, byte[] mac) {
+		super(MESSAGE_ID);
+		this.myself = me;
+		this.mac = mac;
+	}
+
+	public Host getSender() {
+		return myself;
+	}
+
+	public byte[] getMac() {
+		return mac;
+	}
+
+	public final static ISerializer<ConfirmMessage> serializer = new ISerializer<>() {
+
+        @Override
+        public void serialize(ConfirmMessage m, ByteBuf out) throws IOException {
+            Host.serializer.serialize(m.myself, out);
+            out.writeInt(m.mac.length);
+            out.writeBytes(m.mac);
+        }
+
+        @Override
+        public ConfirmMessage deserialize(ByteBuf in) throws IOException {
+            Host h = Host.serializer.deserialize(in);
+            int length = in.readInt();
+            if (length < 0 || length > in.readableBytes())
+                throw new IOException("Invalid MAC length " + length);
+            byte[] mac = new byte[length];
+            in.readBytes(mac);
+            return new ConfirmMessage(h, mac);
+        }
+
+    };
+
+}
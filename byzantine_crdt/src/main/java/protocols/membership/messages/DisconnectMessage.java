@@ -0,0 +1,32 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+// The sender dropped the receiver from its active view to make room, the receiver moves it to its passive view
+public class DisconnectMessage extends ProtoMessage {
+
+	public final static short MESSAGE_ID = 214;
+
+	public DisconnectMessage() {
+		super(MESSAGE_ID);
+	}
+
+	public final static ISerializer<DisconnectMessage> serializer = new ISerializer<>() {
+
+        @Override
+        public void serialize(DisconnectMessage m, ByteBuf out) throws IOException {
+        }
+
+        @Override
+        public DisconnectMessage deserialize(ByteBuf in) throws IOException {
+            return new DisconnectMessage();
+        }
+
+    };
+
+}
@@ -0,0 +1,49 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+// Random walk of a new replica, which ends in an active view and leaves it in a passive view on the way
+public class ForwardJoinMessage extends ProtoMessage {
+
+	public final static short MESSAGE_ID = 211;
+
+	private final Host newNode;
+	private final int ttl;
+
+	public ForwardJoinMessage(Host newNode, int ttl) {
+		super(MESSAGE_ID);
+		this.newNode = newNode;
+		this.ttl = ttl;
+	}
+
+	public Host getNewNode() {
+		return newNode;
+	}
+
+	public int getTtl() {
+		return ttl;
+	}
+
+	public final static ISerializer<ForwardJoinMessage> serializer = new ISerializer<>() {
+
+        @Override
+        public void serialize(ForwardJoinMessage m, ByteBuf out) throws IOException {
+            Host.serializer.serialize(m.newNode, out);
+            out.writeInt(m.ttl);
+        }
+
+        @Override
+        public ForwardJoinMessage deserialize(ByteBuf in) throws IOException {
+            Host newNode = Host.serializer.deserialize(in);
+            int ttl = in.readInt();
+            return new ForwardJoinMessage(newNode, ttl);
+        }
+
+    };
+
+}
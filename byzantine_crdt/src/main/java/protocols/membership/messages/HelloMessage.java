@@ -1,39 +1,48 @@
 package protocols.membership.messages;
 
 import java.io.IOException;
-import java.security.PublicKey;
+import java.nio.charset.StandardCharsets;
 
 import io.netty.buffer.ByteBuf;
 import pt.unl.fct.di.novasys.babel.generic.signed.SignedMessageSerializer;
 import pt.unl.fct.di.novasys.babel.generic.signed.SignedProtoMessage;
 import pt.unl.fct.di.novasys.network.data.Host;
-import utils.PublicKeyHelper;
 
+/*
+ * First message of the handshake, sent by the initiator. Peers are authenticated by the certificate of their identity
+ * in the truststore, so only the identity and the ephemeral key of the key agreement travel.
+ */
 public class HelloMessage extends SignedProtoMessage {
 
 	public final static short MESSAGE_ID = 202;
 	
 	private final Host myself;
-	private final PublicKey pubKey;
-	private final long challenge;
+	private final String identity;
+	private final byte[] ephemeralKey;
+	private final long nonce;
 	
-	public HelloMessage(Host me, PublicKey pubKey, long challenge) {
+	public HelloMessage(Host me, String identity, byte[] ephemeralKey, long nonce) {
 		super(MESSAGE_ID);
 		this.myself = me;
-		this.pubKey = pubKey;
-		this.challenge = challenge;
+		this.identity = identity;
+		this.ephemeralKey = ephemeralKey;
+		this.nonce = nonce;
 	}
 
-	public PublicKey getPubKey() {
-		return pubKey;
+	public Host getSender() {
+		return myself;
 	}
 
-	public long getChallenge() {
-		return challenge;
+	public String getIdentity() {
+		return identity;
 	}
 
-	public Host getSender() {
-		return myself;
+	public byte[] getEphemeralKey() {
+		return ephemeralKey;
+	}
+
+	public long getNonce() {
+		return nonce;
 	}
 
 	public final static SignedMessageSerializer<HelloMessage> serializer = new SignedMessageSerializer<>() {
@@ -42,37 +51,29 @@ public class HelloMessage extends SignedProtoMessage {
         public void serializeBody(HelloMessage m, ByteBuf out) throws IOException {
             Host.serializer.serialize(m.myself, out);
 
-            if (m.pubKey != null) {
-                byte[] key = m.pubKey.getEncoded();
-                out.writeInt(key.length);
-                out.writeBytes(key);
-            } else {
-                out.writeInt(0);
-            }
+            byte[] identity = m.identity.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(identity.length);
+            out.writeBytes(identity);
 
-            out.writeLong(m.challenge);
+            out.writeInt(m.ephemeralKey.length);
+            out.writeBytes(m.ephemeralKey);
+
+            out.writeLong(m.nonce);
         }
 
         @Override
         public HelloMessage deserializeBody(ByteBuf in) throws IOException {
             Host h = Host.serializer.deserialize(in);
 
-            byte[] key = new byte[in.readInt()];
-
-            PublicKey pubKey = null;
+            byte[] identity = new byte[in.readInt()];
+            in.readBytes(identity);
 
-            if (key.length > 0) {
-                try {
-                    in.readBytes(key);
-                    pubKey = PublicKeyHelper.rebuildPublicKey(key);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+            byte[] ephemeralKey = new byte[in.readInt()];
+            in.readBytes(ephemeralKey);
 
-            long challenge = in.readLong();
+            long nonce = in.readLong();
 
-            return new HelloMessage(h, pubKey, challenge);
+            return new HelloMessage(h, new String(identity, StandardCharsets.UTF_8), ephemeralKey, nonce);
         }
 
     };
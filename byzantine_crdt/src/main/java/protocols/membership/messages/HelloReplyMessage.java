@@ -1,45 +1,55 @@
 package protocols.membership.messages;
 
 import java.io.IOException;
-import java.security.PublicKey;
-import io.netty.buffer.ByteBuf;
+import java.nio.charset.StandardCharsets;
 
+import io.netty.buffer.ByteBuf;
 import pt.unl.fct.di.novasys.babel.generic.signed.SignedMessageSerializer;
 import pt.unl.fct.di.novasys.babel.generic.signed.SignedProtoMessage;
 import pt.unl.fct.di.novasys.network.data.Host;
-import utils.PublicKeyHelper;
 
+/*
+ * Answer of the responder, which completes the handshake for the initiator. Echoing the nonce of the HelloMessage under
+ * the signature binds the reply to that handshake, so old replies cannot be replayed. The responder waits for the
+ * ConfirmMessage of the initiator.
+ */
 public class HelloReplyMessage extends SignedProtoMessage {
 
 	public final static short MESSAGE_ID = 203;
 	
 	private final Host myself;
-	private final PublicKey pubKey;
-	private final byte[] challengeReply;
-	private final long challenge;
+	private final String identity;
+	private final byte[] ephemeralKey;
+	private final long helloNonce;
+	private final long nonce;
 	
-	public HelloReplyMessage(Host me, PublicKey pubKey, byte[] challengeReply, long challenge) {
+	public HelloReplyMessage(Host me, String identity, byte[] ephemeralKey, long helloNonce, long nonce) {
 		super(MESSAGE_ID);
 		this.myself = me;
-		this.pubKey = pubKey;
-		this.challengeReply = challengeReply;
-		this.challenge = challenge;
+		this.identity = identity;
+		this.ephemeralKey = ephemeralKey;
+		this.helloNonce = helloNonce;
+		this.nonce = nonce;
 	}
 	
 	public Host getSender() {
 		return myself;
 	}
 
-	public PublicKey getPubKey() {
-		return pubKey;
+	public String getIdentity() {
+		return identity;
+	}
+
+	public byte[] getEphemeralKey() {
+		return ephemeralKey;
 	}
 
-	public byte[] getChallengeReply() {
-		return challengeReply;
+	public long getHelloNonce() {
+		return helloNonce;
 	}
 
-	public long getChallenge() {
-		return challenge;
+	public long getNonce() {
+		return nonce;
 	}
 
 	public final static SignedMessageSerializer<HelloReplyMessage> serializer = new SignedMessageSerializer<>() {
@@ -48,47 +58,31 @@ public class HelloReplyMessage extends SignedProtoMessage {
         public void serializeBody(HelloReplyMessage m, ByteBuf out) throws IOException {
             Host.serializer.serialize(m.myself, out);
 
-            if (m.pubKey != null) {
-                byte[] key = m.pubKey.getEncoded();
-                out.writeInt(key.length);
-                out.writeBytes(key);
-            } else {
-                out.writeInt(0);
-            }
+            byte[] identity = m.identity.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(identity.length);
+            out.writeBytes(identity);
 
-            if (m.challengeReply != null) {
-                out.writeInt(m.challengeReply.length);
-                out.writeBytes(m.challengeReply);
-            }
+            out.writeInt(m.ephemeralKey.length);
+            out.writeBytes(m.ephemeralKey);
 
-            out.writeLong(m.challenge);
+            out.writeLong(m.helloNonce);
+            out.writeLong(m.nonce);
         }
 
         @Override
         public HelloReplyMessage deserializeBody(ByteBuf in) throws IOException {
             Host h = Host.serializer.deserialize(in);
-            byte[] key = new byte[in.readInt()];
-
-            PublicKey pubKey = null;
-
-            if (key.length > 0) {
-                try {
-                    in.readBytes(key);
-                    pubKey = PublicKeyHelper.rebuildPublicKey(key);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
 
-            byte[] challengeSigned = new byte[in.readInt()];
+            byte[] identity = new byte[in.readInt()];
+            in.readBytes(identity);
 
-            if (challengeSigned.length > 0) {
-                in.readBytes(challengeSigned);
-            }
+            byte[] ephemeralKey = new byte[in.readInt()];
+            in.readBytes(ephemeralKey);
 
-            long challenge = in.readLong();
+            long helloNonce = in.readLong();
+            long nonce = in.readLong();
 
-            return new HelloReplyMessage(h, pubKey, challengeSigned, challenge);
+            return new HelloReplyMessage(h, new String(identity, StandardCharsets.UTF_8), ephemeralKey, helloNonce, nonce);
         }
 
     };
@@ -0,0 +1,32 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+// Sent by a new replica to its contact, which takes it into its active view and spreads it with ForwardJoinMessage
+public class JoinMessage extends ProtoMessage {
+
+	public final static short MESSAGE_ID = 210;
+
+	public JoinMessage() {
+		super(MESSAGE_ID);
+	}
+
+	public final static ISerializer<JoinMessage> serializer = new ISerializer<>() {
+
+        @Override
+        public void serialize(JoinMessage m, ByteBuf out) throws IOException {
+        }
+
+        @Override
+        public JoinMessage deserialize(ByteBuf in) throws IOException {
+            return new JoinMessage();
+        }
+
+    };
+
+}
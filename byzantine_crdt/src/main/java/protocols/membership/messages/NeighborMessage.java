@@ -0,0 +1,44 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/*
+ * Asks a replica of the passive view to join the active view. A high priority request (the sender has no active
+ * neighbor left) is always accepted, a low priority one only if the receiver has room for it.
+ */
+public class NeighborMessage extends ProtoMessage {
+
+	public final static short MESSAGE_ID = 212;
+
+	private final boolean highPriority;
+
+	public NeighborMessage(boolean highPriority) {
+		super(MESSAGE_ID);
+		this.highPriority = highPriority;
+	}
+
+	public boolean isHighPriority() {
+		return highPriority;
+	}
+
+	public final static ISerializer<NeighborMessage> serializer = new ISerializer<>() {
+
+        @Override
+        public void serialize(NeighborMessage m, ByteBuf out) throws IOException {
+            out.writeBoolean(m.highPriority);
+        }
+
+        @Override
+        public NeighborMessage deserialize(ByteBuf in) throws IOException {
+            boolean highPriority = in.readBoolean();
+            return new NeighborMessage(highPriority);
+        }
+
+    };
+
+}
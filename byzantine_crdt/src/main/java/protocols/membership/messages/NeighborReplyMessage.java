@@ -0,0 +1,41 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+// Answer to a NeighborMessage
+public class NeighborReplyMessage extends ProtoMessage {
+
+	public final static short MESSAGE_ID = 213;
+
+	private final boolean accepted;
+
+	public NeighborReplyMessage(boolean accepted) {
+		super(MESSAGE_ID);
+		this.accepted = accepted;
+	}
+
+	public boolean isAccepted() {
+		return accepted;
+	}
+
+	public final static ISerializer<NeighborReplyMessage> serializer = new ISerializer<>() {
+
+        @Override
+        public void serialize(NeighborReplyMessage m, ByteBuf out) throws IOException {
+            out.writeBoolean(m.accepted);
+        }
+
+        @Override
+        public NeighborReplyMessage deserialize(ByteBuf in) throws IOException {
+            boolean accepted = in.readBoolean();
+            return new NeighborReplyMessage(accepted);
+        }
+
+    };
+
+}
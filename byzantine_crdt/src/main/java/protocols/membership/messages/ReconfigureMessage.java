@@ -0,0 +1,55 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.signed.SignedMessageSerializer;
+import pt.unl.fct.di.novasys.babel.generic.signed.SignedProtoMessage;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/*
+ * Request of a replica to join or leave the view, sent to the members of the view it knows. Only the coordinator of
+ * the current view acts on it.
+ */
+public class ReconfigureMessage extends SignedProtoMessage {
+
+	public final static short MESSAGE_ID = 207;
+
+	private final Host myself;
+	private final boolean join;
+
+	public ReconfigureMessage(Host me, boolean join) {
+		super(MESSAGE_ID);
+		this.myself = me;
+		this.join = join;
+	}
+
+	public Host getSender() {
+		return myself;
+	}
+
+	public boolean isJoin() {
+		return join;
+	}
+
+	public final static SignedMessageSerializer<ReconfigureMessage> serializer = new SignedMessageSerializer<>() {
+
+        @Override
+        public void serializeBody(ReconfigureMessage m, ByteBuf out) throws IOException {
+            Host.serializer.serialize(m.myself, out);
+            out.writeBoolean(m.join);
+        }
+
+        @Override
+        public ReconfigureMessage deserializeBody(ByteBuf in) throws IOException {
+            return new ReconfigureMessage(Host.serializer.deserialize(in), in.readBoolean());
+        }
+
+    };
+
+	@Override
+	public SignedMessageSerializer<? extends SignedProtoMessage> getSerializer() {
+		return ReconfigureMessage.serializer;
+	}
+
+}
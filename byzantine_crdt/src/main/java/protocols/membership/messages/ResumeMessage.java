@@ -0,0 +1,62 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/*
+ * Resumes the session of a previous handshake after a reconnection. The MAC under the cached session key proves the
+ * sender holds it, so no signature is needed.
+ */
+public class ResumeMessage extends ProtoMessage {
+
+	public final static short MESSAGE_ID = 205;
+
+	private final Host myself;
+	private final long nonce;
+	private final byte[] mac;
+
+	public ResumeMessage(Host me, long nonce, byte[] mac) {
+		super(MESSAGE_ID);
+		this.myself = me;
+		this.nonce = nonce;
+		this.mac = mac;
+	}
+
+	public Host getSender() {
+		return myself;
+	}
+
+	public long getNonce() {
+		return nonce;
+	}
+
+	public byte[] getMac() {
+		return mac;
+	}
+
+	public final static ISerializer<ResumeMessage> serializer = new ISerializer<>() {
+
+        @Override
+        public void serialize(ResumeMessage m, ByteBuf out) throws IOException {
+            Host.serializer.serialize(m.myself, out);
+            out.writeLong(m.nonce);
+            out.writeInt(m.mac.length);
+            out.writeBytes(m.mac);
+        }
+
+        @Override
+        public ResumeMessage deserialize(ByteBuf in) throws IOException {
+            Host h = Host.serializer.deserialize(in);
+            long nonce = in.readLong();
+            byte[] mac = new byte[in.readInt()];
+            in.readBytes(mac);
+            return new ResumeMessage(h, nonce, mac);
+        }
+
+    };
+
+}
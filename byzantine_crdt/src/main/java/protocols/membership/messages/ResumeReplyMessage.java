@@ -0,0 +1,79 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/*
+ * Answer to a ResumeMessage. A rejected resumption (the session is unknown, e.g. after a restart) carries no MAC and
+ * sends the peers back to a full handshake. An accepted one carries a fresh challenge, which the initiator answers with
+ * a ConfirmMessage, so a recorded ResumeMessage can not resume the session again.
+ */
+public class ResumeReplyMessage extends ProtoMessage {
+
+	public final static short MESSAGE_ID = 206;
+
+	private final Host myself;
+	private final boolean accepted;
+	private final long resumeNonce;
+	private final long challenge;
+	private final byte[] mac;
+
+	public ResumeReplyMessage(Host me, boolean accepted, long resumeNonce, long challenge, byte[] mac) {
+		super(MESSAGE_ID);
+		this.myself = me;
+		this.accepted = accepted;
+		this.resumeNonce = resumeNonce;
+		this.challenge = challenge;
+		this.mac = mac;
+	}
+
+	public Host getSender() {
+		return myself;
+	}
+
+	public boolean isAccepted() {
+		return accepted;
+	}
+
+	public long getResumeNonce() {
+		return resumeNonce;
+	}
+
+	public long getChallenge() {
+		return challenge;
+	}
+
+	public byte[] getMac() {
+		return mac;
+	}
+
+	public final static ISerializer<ResumeReplyMessage> serializer = new ISerializer<>() {
+
+        @Override
+        public void serialize(ResumeReplyMessage m, ByteBuf out) throws IOException {
+            Host.serializer.serialize(m.myself, out);
+            out.writeBoolean(m.accepted);
+            out.writeLong(m.resumeNonce);
+            out.writeLong(m.challenge);
+            out.writeInt(m.mac.length);
+            out.writeBytes(m.mac);
+        }
+
+        @Override
+        public ResumeReplyMessage deserialize(ByteBuf in) throws IOException {
+            Host h = Host.serializer.deserialize(in);
+            boolean accepted = in.readBoolean();
+            long resumeNonce = in.readLong();
+            long challenge = in.readLong();
+            byte[] mac = new byte[in.readInt()];
+            in.readBytes(mac);
+            return new ResumeReplyMessage(h, accepted, resumeNonce, challenge, mac);
+        }
+
+    };
+
+}
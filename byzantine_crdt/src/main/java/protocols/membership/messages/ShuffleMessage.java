@@ -0,0 +1,70 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/*
+ * Sample of the views of the origin, walking the overlay until its ttl runs out or it reaches a replica with a single
+ * neighbor, which answers with a sample of its passive view.
+ */
+public class ShuffleMessage extends ProtoMessage {
+
+	public final static short MESSAGE_ID = 215;
+
+	private final Host origin;
+	private final Set<Host> sample;
+	private final int ttl;
+
+	public ShuffleMessage(Host origin, Set<Host> sample, int ttl) {
+		super(MESSAGE_ID);
+		this.origin = origin;
+		this.sample = sample;
+		this.ttl = ttl;
+	}
+
+	public Host getOrigin() {
+		return origin;
+	}
+
+	public Set<Host> getSample() {
+		return sample;
+	}
+
+	public int getTtl() {
+		return ttl;
+	}
+
+	public final static ISerializer<ShuffleMessage> serializer = new ISerializer<>() {
+
+        @Override
+        public void serialize(ShuffleMessage m, ByteBuf out) throws IOException {
+            Host.serializer.serialize(m.origin, out);
+            out.writeInt(m.sample.size());
+            for (Host h : m.sample)
+                Host.serializer.serialize(h, out);
+            out.writeInt(m.ttl);
+        }
+
+        @Override
+        public ShuffleMessage deserialize(ByteBuf in) throws IOException {
+            Host origin = Host.serializer.deserialize(in);
+            int size = in.readInt();
+            // Each host takes 6 bytes
+            if (size < 0 || size > in.readableBytes() / 6)
+                throw new IOException("Invalid sample size " + size);
+            Set<Host> sample = new HashSet<>(size);
+            for (int i = 0; i < size; i++)
+                sample.add(Host.serializer.deserialize(in));
+            int ttl = in.readInt();
+            return new ShuffleMessage(origin, sample, ttl);
+        }
+
+    };
+
+}
@@ -0,0 +1,51 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+// Sample of the passive view of the replica a ShuffleMessage stopped at, sent back to its origin
+public class ShuffleReplyMessage extends ProtoMessage {
+
+	public final static short MESSAGE_ID = 216;
+
+	private final Set<Host> sample;
+
+	public ShuffleReplyMessage(Set<Host> sample) {
+		super(MESSAGE_ID);
+		this.sample = sample;
+	}
+
+	public Set<Host> getSample() {
+		return sample;
+	}
+
+	public final static ISerializer<ShuffleReplyMessage> serializer = new ISerializer<>() {
+
+        @Override
+        public void serialize(ShuffleReplyMessage m, ByteBuf out) throws IOException {
+            out.writeInt(m.sample.size());
+            for (Host h : m.sample)
+                Host.serializer.serialize(h, out);
+        }
+
+        @Override
+        public ShuffleReplyMessage deserialize(ByteBuf in) throws IOException {
+            int size = in.readInt();
+            // Each host takes 6 bytes
+            if (size < 0 || size > in.readableBytes() / 6)
+                throw new IOException("Invalid sample size " + size);
+            Set<Host> sample = new HashSet<>(size);
+            for (int i = 0; i < size; i++)
+                sample.add(Host.serializer.deserialize(in));
+            return new ShuffleReplyMessage(sample);
+        }
+
+    };
+
+}
@@ -0,0 +1,63 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import protocols.membership.View;
+import pt.unl.fct.di.novasys.babel.generic.signed.SignedMessageSerializer;
+import pt.unl.fct.di.novasys.babel.generic.signed.SignedProtoMessage;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+/*
+ * Vote of a member of the current view for the proposed one, sent to the members of both. The current view travels
+ * with it so joining replicas, which do not know it yet, can tell when a quorum of its members voted.
+ */
+public class ViewAckMessage extends SignedProtoMessage {
+
+	public final static short MESSAGE_ID = 209;
+
+	private final Host myself;
+	private final View previous;
+	private final View view;
+
+	public ViewAckMessage(Host me, View previous, View view) {
+		super(MESSAGE_ID);
+		this.myself = me;
+		this.previous = previous;
+		this.view = view;
+	}
+
+	public Host getSender() {
+		return myself;
+	}
+
+	public View getPrevious() {
+		return previous;
+	}
+
+	public View getView() {
+		return view;
+	}
+
+	public final static SignedMessageSerializer<ViewAckMessage> serializer = new SignedMessageSerializer<>() {
+
+        @Override
+        public void serializeBody(ViewAckMessage m, ByteBuf out) throws IOException {
+            Host.serializer.serialize(m.myself, out);
+            View.serializer.serialize(m.previous, out);
+            View.serializer.serialize(m.view, out);
+        }
+
+        @Override
+        public ViewAckMessage deserializeBody(ByteBuf in) throws IOException {
+            return new ViewAckMessage(Host.serializer.deserialize(in), View.serializer.deserialize(in), View.serializer.deserialize(in));
+        }
+
+    };
+
+	@Override
+	public SignedMessageSerializer<? extends SignedProtoMessage> getSerializer() {
+		return ViewAckMessage.serializer;
+	}
+
+}
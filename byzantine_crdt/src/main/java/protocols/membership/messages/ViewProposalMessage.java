@@ -0,0 +1,53 @@
+package protocols.membership.messages;
+
+import java.io.IOException;
+
+import io.netty.buffer.ByteBuf;
+import protocols.membership.View;
+import pt.unl.fct.di.novasys.babel.generic.signed.SignedMessageSerializer;
+import pt.unl.fct.di.novasys.babel.generic.signed.SignedProtoMessage;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+// Next view, proposed by the coordinator of the current one to the members of both
+public class ViewProposalMessage extends SignedProtoMessage {
+
+	public final static short MESSAGE_ID = 208;
+
+	private final Host myself;
+	private final View view;
+
+	public ViewProposalMessage(Host me, View view) {
+		super(MESSAGE_ID);
+		this.myself = me;
+		this.view = view;
+	}
+
+	public Host getSender() {
+		return myself;
+	}
+
+	public View getView() {
+		return view;
+	}
+
+	public final static SignedMessageSerializer<ViewProposalMessage> serializer = new SignedMessageSerializer<>() {
+
+        @Override
+        public void serializeBody(ViewProposalMessage m, ByteBuf out) throws IOException {
+            Host.serializer.serialize(m.myself, out);
+            View.serializer.serialize(m.view, out);
+        }
+
+        @Override
+        public ViewProposalMessage deserializeBody(ByteBuf in) throws IOException {
+            return new ViewProposalMessage(Host.serializer.deserialize(in), View.serializer.deserialize(in));
+        }
+
+    };
+
+	@Override
+	public SignedMessageSerializer<? extends SignedProtoMessage> getSerializer() {
+		return ViewProposalMessage.serializer;
+	}
+
+}
@@ -0,0 +1,12 @@
+package protocols.membership.requests;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoRequest;
+
+// Asks the membership to remove this replica from the next view
+public class LeaveRequest extends ProtoRequest {
+    public final static short REQUEST_ID = 207;
+
+    public LeaveRequest() {
+        super(REQUEST_ID);
+    }
+}
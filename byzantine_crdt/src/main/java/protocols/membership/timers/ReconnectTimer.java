@@ -0,0 +1,35 @@
+package protocols.membership.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+public class ReconnectTimer extends ProtoTimer {
+    public static final short TIMER_ID = 204;
+
+    private final Host peer;
+    // Reopens the bulk connection to the peer instead of the membership one (see Lanes)
+    private final boolean bulk;
+
+    public ReconnectTimer(Host peer) {
+        this(peer, false);
+    }
+
+    public ReconnectTimer(Host peer, boolean bulk) {
+        super(TIMER_ID);
+        this.peer = peer;
+        this.bulk = bulk;
+    }
+
+    public Host getPeer() {
+        return peer;
+    }
+
+    public boolean isBulk() {
+        return bulk;
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
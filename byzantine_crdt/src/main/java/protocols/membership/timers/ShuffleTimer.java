@@ -0,0 +1,16 @@
+package protocols.membership.timers;
+
+import pt.unl.fct.di.novasys.babel.generic.ProtoTimer;
+
+public class ShuffleTimer extends ProtoTimer {
+    public static final short TIMER_ID = 217;
+
+    public ShuffleTimer() {
+        super(TIMER_ID);
+    }
+
+    @Override
+    public ProtoTimer clone() {
+        return this;
+    }
+}
@@ -0,0 +1,542 @@
+package simulator;
+
+import app.AutomatedApp;
+import app.timers.ArrivalTimer;
+import app.timers.DisseminationTimer;
+import app.timers.ExitTimer;
+import app.timers.RampTimer;
+import app.timers.StartTimer;
+import app.timers.StopTimer;
+import protocols.broadcast.byzantine.ByzantineReliableBcastProtocol;
+import protocols.broadcast.byzantine.messages.EchoMessage;
+import protocols.broadcast.byzantine.messages.ReadyMessage;
+import protocols.broadcast.byzantine.timers.BehaviorTimer;
+import protocols.broadcast.crash.CausalReliableBcastProtocol;
+import protocols.broadcast.messages.BroadcastMessage;
+import protocols.broadcast.messages.SignedBroadcastMessage;
+import protocols.broadcast.notifications.DeliveryNotification;
+import protocols.broadcast.request.BroadcastRequest;
+import protocols.crdt.ByzantineORSet;
+import protocols.crdt.Keyspace;
+import protocols.crdt.ORSet;
+import protocols.crdt.replies.AddReply;
+import protocols.crdt.replies.ReadReply;
+import protocols.crdt.replies.RemoveReply;
+import protocols.crdt.requests.*;
+import protocols.crdt.timers.CoalesceTimer;
+import protocols.crdt.timers.DigestTimer;
+import protocols.events.*;
+import protocols.membership.View;
+import pt.unl.fct.di.novasys.babel.core.GenericProtocol;
+import pt.unl.fct.di.novasys.babel.generic.*;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.KeyDirectory;
+import utils.Randomness;
+
+import java.security.KeyPair;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/*
+ * The protocol stack of one replica (automated app, CRDT shards and broadcast) on top of the simulator. Requests,
+ * replies, notifications and timers are queued in the scheduler like Babel queues them in the protocols, and messages
+ * go through the simulated network. The membership protocol is played by the simulator, which hands out the channel
+ * and the neighbors when the replica starts.
+ */
+public class Replica {
+
+    private final Simulator sim;
+    private final int index;
+    private final Host self;
+    private final KeyPair keys;
+    private final boolean byzantine;
+
+    // Protocols of the stack by protocol id, in registration order
+    private final Map<Short, Node> protocols;
+    private final List<LongSupplier> digests;
+    private final Node bcast;
+    // Seeded source of the random numbers and ids drawn by the protocols of this replica
+    private final Random random;
+
+    private final Set<Long> cancelledTimers;
+    private long nextTimerId;
+    private boolean finished;
+
+
+    public Replica(Simulator sim, int index, Host self, KeyPair keys, Properties props, long seed) throws Exception {
+        this.sim = sim;
+        this.index = index;
+        this.self = self;
+        this.keys = keys;
+        this.byzantine = keys != null;
+        this.protocols = new LinkedHashMap<>();
+        this.digests = new ArrayList<>();
+        this.cancelledTimers = new HashSet<>();
+        this.nextTimerId = 0;
+        this.finished = false;
+        this.random = new Random(seed);
+
+        // The protocols draw from the source of the replica while they are built
+        Randomness.use(random);
+        try {
+            register(new App());
+            for (int i = 0; i < Keyspace.getShards(props); i++) {
+                if (byzantine) {
+                    SimByzantineORSet crdt = new SimByzantineORSet(i);
+                    digests.add(crdt::getDigest);
+                    register(crdt);
+                } else {
+                    SimORSet crdt = new SimORSet(i);
+                    digests.add(crdt::getDigest);
+                    register(crdt);
+                }
+            }
+            this.bcast = byzantine ? new SimBracha() : new SimCausal();
+            register(bcast);
+
+            for (Node node : protocols.values())
+                node.protocol().init(props);
+        } finally {
+            Randomness.use(null);
+        }
+    }
+
+    private void register(Node node) {
+        protocols.put(node.protocol().getProtoId(), node);
+    }
+
+    // Plays the membership protocol: the channel is available and every other replica is a neighbor
+    public void start(List<Host> hosts, List<KeyPair> allKeys) {
+        KeyDirectory directory = new KeyDirectory();
+        for (int i = 0; i < hosts.size() && byzantine; i++)
+            directory.add(hosts.get(i), "node" + (i + 1), allKeys.get(i).getPublic());
+        ProtoNotification channel = byzantine ? new SecureChannelAvailable(0, self, keys.getPrivate(), keys.getPublic(), directory)
+                : new ChannelAvailable(0, self);
+        notify(channel, (short) 0);
+
+        for (int i = 0; i < hosts.size(); i++) {
+            if (i == index)
+                continue;
+            notify(byzantine ? new SecureNeighborUp(hosts.get(i), allKeys.get(i).getPublic()) : new NeighborUp(hosts.get(i)), (short) 0);
+        }
+        if (byzantine)
+            notify(new ViewChange(new View(0, new HashSet<>(hosts))), (short) 0);
+    }
+
+    public void receive(ProtoMessage msg, Host from) {
+        run(() -> bcast.onMessage(msg, from));
+    }
+
+    public Host getSelf() {
+        return self;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    // Digest of the state of each CRDT shard
+    public List<Long> getDigests() {
+        List<Long> values = new ArrayList<>();
+        for (LongSupplier digest : digests)
+            values.add(digest.getAsLong());
+        return values;
+    }
+
+
+    /* ------------------------------------- Runtime ------------------------------------- */
+
+    private void schedule(long delay, Runnable event) {
+        sim.getScheduler().after(delay, () -> run(event));
+    }
+
+    // Events of this replica draw from its own source, so they do not depend on the draws of the others
+    private void run(Runnable event) {
+        Randomness.use(random);
+        try {
+            event.run();
+        } finally {
+            Randomness.use(null);
+        }
+    }
+
+    private void request(ProtoRequest request, short sourceProto, short destProto) {
+        if (request instanceof BroadcastRequest)
+            sim.broadcastIssued(index, ((BroadcastRequest) request).getPayload());
+        Node dest = protocols.get(destProto);
+        schedule(0, () -> dest.onRequest(request, sourceProto));
+    }
+
+    private void reply(ProtoReply reply, short sourceProto, short destProto) {
+        Node dest = protocols.get(destProto);
+        schedule(0, () -> dest.onReply(reply, sourceProto));
+    }
+
+    private void notify(ProtoNotification notification, short sourceProto) {
+        if (notification instanceof DeliveryNotification)
+            sim.broadcastDelivered(index, ((DeliveryNotification) notification).getPayload());
+        for (Node node : protocols.values())
+            schedule(0, () -> node.onNotification(notification, sourceProto));
+    }
+
+    private long timer(Node node, ProtoTimer timer, long first, long period) {
+        long id = nextTimerId++;
+        schedule(TimeUnit.MILLISECONDS.toNanos(first), () -> fire(node, timer, id, period));
+        return id;
+    }
+
+    private void fire(Node node, ProtoTimer timer, long id, long period) {
+        if (cancelledTimers.contains(id))
+            return;
+        if (period > 0)
+            schedule(TimeUnit.MILLISECONDS.toNanos(period), () -> fire(node, timer, id, period));
+        node.onTimer(timer, id);
+    }
+
+    private void cancel(long timerId) {
+        cancelledTimers.add(timerId);
+    }
+
+    private void send(ProtoMessage msg, Host to) {
+        sim.send(index, to, msg);
+    }
+
+
+    /* ------------------------------------- Protocols ------------------------------------- */
+
+    private interface Node {
+        GenericProtocol protocol();
+
+        default void onRequest(ProtoRequest request, short sourceProto) {
+        }
+
+        default void onReply(ProtoReply reply, short sourceProto) {
+        }
+
+        default void onNotification(ProtoNotification notification, short sourceProto) {
+        }
+
+        default void onTimer(ProtoTimer timer, long timerId) {
+        }
+
+        default void onMessage(ProtoMessage msg, Host from) {
+        }
+    }
+
+    private class App extends AutomatedApp implements Node {
+
+        public GenericProtocol protocol() {
+            return this;
+        }
+
+        @Override
+        public void onReply(ProtoReply reply, short sourceProto) {
+            if (reply instanceof AddReply)
+                handleAddReply((AddReply) reply, sourceProto);
+            else if (reply instanceof RemoveReply)
+                handleRemoveReply((RemoveReply) reply, sourceProto);
+            else if (reply instanceof ReadReply)
+                handleReadReply((ReadReply) reply, sourceProto);
+        }
+
+        @Override
+        public void onNotification(ProtoNotification notification, short sourceProto) {
+            if (notification instanceof SecureChannelAvailable)
+                uponSecureChannelAvailable((SecureChannelAvailable) notification, sourceProto);
+            else if (notification instanceof ChannelAvailable)
+                uponChannelAvailable((ChannelAvailable) notification, sourceProto);
+            else if (notification instanceof NeighborUp)
+                uponNeighborUp((NeighborUp) notification, sourceProto);
+            else if (notification instanceof DeliveryNotification)
+                uponDeliver((DeliveryNotification) notification, sourceProto);
+        }
+
+        @Override
+        public void onTimer(ProtoTimer timer, long timerId) {
+            if (timer instanceof DisseminationTimer)
+                uponBroadcastTimer((DisseminationTimer) timer, timerId);
+            else if (timer instanceof StartTimer)
+                uponStartTimer((StartTimer) timer, timerId);
+            else if (timer instanceof StopTimer)
+                uponStopTimer((StopTimer) timer, timerId);
+            else if (timer instanceof ExitTimer)
+                uponExitTimer((ExitTimer) timer, timerId);
+            else if (timer instanceof ArrivalTimer)
+                uponArrivalTimer((ArrivalTimer) timer, timerId);
+            else if (timer instanceof RampTimer)
+                uponRampTimer((RampTimer) timer, timerId);
+        }
+
+        @Override
+        protected void request(ProtoRequest request, short destProto) {
+            Replica.this.request(request, PROTO_ID, destProto);
+        }
+
+        @Override
+        protected long timer(ProtoTimer timer, long timeout) {
+            return Replica.this.timer(this, timer, timeout, 0);
+        }
+
+        @Override
+        protected long periodicTimer(ProtoTimer timer, long first, long period) {
+            return Replica.this.timer(this, timer, first, period);
+        }
+
+        @Override
+        protected void cancel(long timerId) {
+            Replica.this.cancel(timerId);
+        }
+
+        @Override
+        protected long now() {
+            return sim.getScheduler().now();
+        }
+
+        @Override
+        protected void exit() {
+            finished = true;
+        }
+    }
+
+    private class SimORSet extends ORSet implements Node {
+
+        SimORSet(int shard) {
+            super(shard);
+        }
+
+        public GenericProtocol protocol() {
+            return this;
+        }
+
+        @Override
+        public void onRequest(ProtoRequest request, short sourceProto) {
+            if (request instanceof AddRequest)
+                handleAddRequest((AddRequest) request, sourceProto);
+            else if (request instanceof RemoveRequest)
+                handleRemoveRequest((RemoveRequest) request, sourceProto);
+            else if (request instanceof ReadRequest)
+                handleReadRequest((ReadRequest) request, sourceProto);
+            else if (request instanceof ContainsRequest)
+                handleContainsRequest((ContainsRequest) request, sourceProto);
+            else if (request instanceof PrefixScanRequest)
+                handlePrefixScanRequest((PrefixScanRequest) request, sourceProto);
+            else if (request instanceof CountRequest)
+                handleCountRequest((CountRequest) request, sourceProto);
+            else if (request instanceof DeliverRequest)
+                handleDeliverRequest((DeliverRequest) request, sourceProto);
+            else if (request instanceof FlushRequest)
+                handleFlushRequest((FlushRequest) request, sourceProto);
+        }
+
+        @Override
+        public void onNotification(ProtoNotification notification, short sourceProto) {
+            if (notification instanceof ChannelAvailable)
+                uponChannelAvailable((ChannelAvailable) notification, sourceProto);
+            else if (notification instanceof DeliveryNotification && getShard() == 0)
+                uponDeliver((DeliveryNotification) notification, sourceProto);
+        }
+
+        @Override
+        public void onTimer(ProtoTimer timer, long timerId) {
+            if (timer instanceof CoalesceTimer)
+                uponCoalesceTimer((CoalesceTimer) timer, timerId);
+            else if (timer instanceof DigestTimer)
+                uponDigestTimer((DigestTimer) timer, timerId);
+        }
+
+        @Override
+        protected void request(ProtoRequest request, short destProto) {
+            Replica.this.request(request, getProtoId(), destProto);
+        }
+
+        @Override
+        protected void reply(ProtoReply reply, short destProto) {
+            Replica.this.reply(reply, getProtoId(), destProto);
+        }
+
+        @Override
+        protected long timer(ProtoTimer timer, long timeout) {
+            return Replica.this.timer(this, timer, timeout, 0);
+        }
+
+        @Override
+        protected long periodicTimer(ProtoTimer timer, long first, long period) {
+            return Replica.this.timer(this, timer, first, period);
+        }
+    }
+
+    private class SimByzantineORSet extends ByzantineORSet implements Node {
+
+        SimByzantineORSet(int shard) {
+            super(shard);
+        }
+
+        public GenericProtocol protocol() {
+            return this;
+        }
+
+        @Override
+        public void onRequest(ProtoRequest request, short sourceProto) {
+            if (request instanceof AddRequest)
+                handleAddRequest((AddRequest) request, sourceProto);
+            else if (request instanceof RemoveRequest)
+                handleRemoveRequest((RemoveRequest) request, sourceProto);
+            else if (request instanceof ReadRequest)
+                handleReadRequest((ReadRequest) request, sourceProto);
+            else if (request instanceof ContainsRequest)
+                handleContainsRequest((ContainsRequest) request, sourceProto);
+            else if (request instanceof PrefixScanRequest)
+                handlePrefixScanRequest((PrefixScanRequest) request, sourceProto);
+            else if (request instanceof CountRequest)
+                handleCountRequest((CountRequest) request, sourceProto);
+            else if (request instanceof DeliverRequest)
+                handleDeliverRequest((DeliverRequest) request, sourceProto);
+            else if (request instanceof FlushRequest)
+                handleFlushRequest((FlushRequest) request, sourceProto);
+        }
+
+        @Override
+        public void onNotification(ProtoNotification notification, short sourceProto) {
+            if (notification instanceof SecureChannelAvailable)
+                uponChannelAvailable((SecureChannelAvailable) notification, sourceProto);
+            else if (notification instanceof DeliveryNotification && getShard() == 0)
+                uponDeliver((DeliveryNotification) notification, sourceProto);
+        }
+
+        @Override
+        public void onTimer(ProtoTimer timer, long timerId) {
+            if (timer instanceof CoalesceTimer)
+                uponCoalesceTimer((CoalesceTimer) timer, timerId);
+            else if (timer instanceof DigestTimer)
+                uponDigestTimer((DigestTimer) timer, timerId);
+        }
+
+        @Override
+        protected void request(ProtoRequest request, short destProto) {
+            Replica.this.request(request, getProtoId(), destProto);
+        }
+
+        @Override
+        protected void reply(ProtoReply reply, short destProto) {
+            Replica.this.reply(reply, getProtoId(), destProto);
+        }
+
+        @Override
+        protected long timer(ProtoTimer timer, long timeout) {
+            return Replica.this.timer(this, timer, timeout, 0);
+        }
+
+        @Override
+        protected long periodicTimer(ProtoTimer timer, long first, long period) {
+            return Replica.this.timer(this, timer, first, period);
+        }
+    }
+
+    private class SimCausal extends CausalReliableBcastProtocol implements Node {
+
+        public GenericProtocol protocol() {
+            return this;
+        }
+
+        @Override
+        public void onRequest(ProtoRequest request, short sourceProto) {
+            if (request instanceof BroadcastRequest)
+                handleBroadcastRequest((BroadcastRequest) request, sourceProto);
+        }
+
+        @Override
+        public void onNotification(ProtoNotification notification, short sourceProto) {
+            if (notification instanceof ChannelAvailable)
+                handleChannelAvailableNotification((ChannelAvailable) notification, sourceProto);
+            else if (notification instanceof NeighborUp)
+                uponNeighborUpNotification((NeighborUp) notification, sourceProto);
+            else if (notification instanceof NeighborDown)
+                uponNeighborDownNotification((NeighborDown) notification, sourceProto);
+        }
+
+        @Override
+        public void onMessage(ProtoMessage msg, Host from) {
+            if (msg instanceof BroadcastMessage)
+                uponReceiveBroadcastMessage((BroadcastMessage) msg, from, PROTO_ID, 0);
+        }
+
+        @Override
+        protected void registerChannel(int channelID) {
+            sim.registerSerializer(BroadcastMessage.MESSAGE_ID, BroadcastMessage.serializer);
+        }
+
+        @Override
+        protected void send(ProtoMessage msg, Host h) {
+            Replica.this.send(msg, h);
+        }
+
+        @Override
+        protected void deliver(DeliveryNotification notification) {
+            Replica.this.notify(notification, PROTO_ID);
+        }
+    }
+
+    private class SimBracha extends ByzantineReliableBcastProtocol implements Node {
+
+        public GenericProtocol protocol() {
+            return this;
+        }
+
+        @Override
+        public void onRequest(ProtoRequest request, short sourceProto) {
+            if (request instanceof BroadcastRequest)
+                handleBroadcastRequest((BroadcastRequest) request, sourceProto);
+        }
+
+        @Override
+        public void onNotification(ProtoNotification notification, short sourceProto) {
+            if (notification instanceof SecureChannelAvailable)
+                handleChannelAvailableNotification((SecureChannelAvailable) notification, sourceProto);
+            else if (notification instanceof SecureNeighborUp)
+                uponNeighborUpNotification((SecureNeighborUp) notification, sourceProto);
+            else if (notification instanceof NeighborDown)
+                uponNeighborDownNotification((NeighborDown) notification, sourceProto);
+            else if (notification instanceof ViewChange)
+                uponViewChangeNotification((ViewChange) notification, sourceProto);
+        }
+
+        @Override
+        public void onMessage(ProtoMessage msg, Host from) {
+            if (msg instanceof SignedBroadcastMessage)
+                uponReceiveBroadcastMessage((SignedBroadcastMessage) msg, from, PROTO_ID, 0);
+            else if (msg instanceof EchoMessage)
+                uponEchoMessage((EchoMessage) msg, from, PROTO_ID, 0);
+            else if (msg instanceof ReadyMessage)
+                uponReadyMessage((ReadyMessage) msg, from, PROTO_ID, 0);
+        }
+
+        @Override
+        public void onTimer(ProtoTimer timer, long timerId) {
+            if (timer instanceof BehaviorTimer)
+                uponBehaviorTimer((BehaviorTimer) timer, timerId);
+        }
+
+        @Override
+        protected void registerChannel(int channelID) {
+            sim.registerSerializer(SignedBroadcastMessage.MESSAGE_ID, SignedBroadcastMessage.serializer);
+            sim.registerSerializer(EchoMessage.MESSAGE_ID, EchoMessage.serializer);
+            sim.registerSerializer(ReadyMessage.MESSAGE_ID, ReadyMessage.serializer);
+        }
+
+        @Override
+        protected void send(ProtoMessage msg, Host h) {
+            Replica.this.send(msg, h);
+        }
+
+        @Override
+        protected void deliver(DeliveryNotification notification) {
+            Replica.this.notify(notification, PROTO_ID);
+        }
+
+        @Override
+        protected long periodicTimer(ProtoTimer timer, long first, long period) {
+            return Replica.this.timer(this, timer, first, period);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package simulator;
+
+import java.util.PriorityQueue;
+
+/*
+ * Discrete-event scheduler of the simulator. Virtual time is in nanoseconds, events scheduled for the same instant run
+ * in the order they were scheduled. Together with the seeded sources of the network and of each replica (see Replica and
+ * utils.Randomness), a run only depends on sim.seed, which sim.check_reproducible verifies.
+ */
+public class Scheduler {
+
+    private final PriorityQueue<Event> events;
+    private long now;
+    private long sequence;
+    private long processed;
+
+
+    public Scheduler() {
+        this.events = new PriorityQueue<>();
+        this.now = 0;
+        this.sequence = 0;
+        this.processed = 0;
+    }
+
+    public long now() {
+        return now;
+    }
+
+    public long getProcessed() {
+        return processed;
+    }
+
+    public void at(long time, Runnable action) {
+        events.add(new Event(Math.max(time, now), sequence++, action));
+    }
+
+    public void after(long delay, Runnable action) {
+        at(now + delay, action);
+    }
+
+    // Runs every event scheduled up to the given virtual time
+    public void run(long until) {
+        while (!events.isEmpty() && events.peek().time <= until) {
+            Event e = events.poll();
+            now = e.time;
+            e.action.run();
+            processed++;
+        }
+        now = Math.max(now, until);
+    }
+
+    private static class Event implements Comparable<Event> {
+        private final long time;
+        private final long sequence;
+        private final Runnable action;
+
+        Event(long time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            int c = Long.compare(time, o.time);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+}
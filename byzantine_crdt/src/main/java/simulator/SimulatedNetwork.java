@@ -0,0 +1,193 @@
+package simulator;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import utils.network.LatencyDistribution;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Point-to-point links between the simulated replicas, with the semantics of the TCP channels of Babel: messages of a
+ * link arrive in order, a lost transmission is repeated after a retransmission timeout, and the uplink of each replica
+ * is shared by all of its links. Messages go through their serializers, so sizes are the real ones and receivers never
+ * share an instance with the sender. Links between replicas in different groups of an active partition drop messages.
+ */
+public class SimulatedNetwork {
+
+    // One-way latency of each transmission (in milliseconds): constant:<ms>, uniform:<min>:<max>, normal:<mean>:<sd>
+    // or exponential:<mean>
+    public static final String LATENCY = "sim.latency";
+    // Uplink of each replica in Mbit/s, 0 for unlimited
+    public static final String BANDWIDTH = "sim.bandwidth";
+    // Probability of losing each transmission, lost ones are repeated after sim.rto milliseconds
+    public static final String LOSS = "sim.loss";
+    public static final String RTO = "sim.rto";
+    // <from ms>:<to ms>:<group>|<group>[|...]; ... where groups are replica ranges (0-4) or lists (0,2,4)
+    public static final String PARTITIONS = "sim.partitions";
+
+    public interface Receiver {
+        void receive(int to, int from, ProtoMessage msg);
+    }
+
+    private final Scheduler scheduler;
+    private final int n;
+    private final Receiver receiver;
+    private final Map<Short, ISerializer<ProtoMessage>> serializers;
+
+    private final LatencyDistribution latency;
+    private final double bytesPerNano;
+    private final double loss;
+    private final long rto;
+    private final List<Partition> partitions;
+
+    // Random source of each link, so the draws of a link do not depend on the traffic of the others
+    private final Random[] links;
+    private final long[] uplinkFree;
+    private final long[] lastArrival;
+
+    private long messages, bytes, retransmissions, dropped;
+
+
+    public SimulatedNetwork(Scheduler scheduler, int n, long seed, Properties props, Receiver receiver) {
+        this.scheduler = scheduler;
+        this.n = n;
+        this.receiver = receiver;
+        this.serializers = new HashMap<>();
+
+        this.latency = LatencyDistribution.parse(props.getProperty(LATENCY, "normal:20:6"));
+        this.bytesPerNano = Double.parseDouble(props.getProperty(BANDWIDTH, "0")) * 1_000_000 / 8 / 1e9;
+        this.loss = Double.parseDouble(props.getProperty(LOSS, "0"));
+        this.rto = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(props.getProperty(RTO, "200")));
+        this.partitions = Partition.parseAll(props.getProperty(PARTITIONS, ""), n);
+
+        this.links = new Random[n * n];
+        for (int i = 0; i < links.length; i++)
+            links[i] = new Random(seed * 1_000_003L + i);
+        this.uplinkFree = new long[n];
+        this.lastArrival = new long[n * n];
+    }
+
+    @SuppressWarnings("unchecked")
+    public void registerSerializer(short msgId, ISerializer<? extends ProtoMessage> serializer) {
+        serializers.put(msgId, (ISerializer<ProtoMessage>) serializer);
+    }
+
+    public void send(int from, int to, ProtoMessage msg) {
+        if (isPartitioned(from, to, scheduler.now())) {
+            dropped++;
+            return;
+        }
+
+        ISerializer<ProtoMessage> serializer = serializers.get(msg.getId());
+        ByteBuf wire = Unpooled.buffer();
+        try {
+            serializer.serialize(msg, wire);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        int size = wire.readableBytes();
+        messages++;
+        bytes += size;
+
+        int link = from * n + to;
+        Random random = links[link];
+        long departure = scheduler.now();
+        if (bytesPerNano > 0) {
+            departure = Math.max(departure, uplinkFree[from]) + (long) (size / bytesPerNano);
+            uplinkFree[from] = departure;
+        }
+
+        long arrival = departure + latency.sample(random);
+        while (loss > 0 && random.nextDouble() < loss) {
+            arrival += rto;
+            retransmissions++;
+        }
+        // In-order delivery, a message waits for the ones sent before it on the same link
+        arrival = Math.max(arrival, lastArrival[link]);
+        lastArrival[link] = arrival;
+
+        scheduler.at(arrival, () -> {
+            if (isPartitioned(from, to, scheduler.now())) {
+                dropped++;
+                return;
+            }
+            try {
+                receiver.receive(to, from, serializer.deserialize(wire));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private boolean isPartitioned(int from, int to, long time) {
+        for (Partition p : partitions)
+            if (p.separates(from, to, time))
+                return true;
+        return false;
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getRetransmissions() {
+        return retransmissions;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+
+    /* ------------------------------------- Models ------------------------------------- */
+
+    private static class Partition {
+        private final long from, to;
+        // Group of each replica, -1 for the ones left out of the partition
+        private final int[] groups;
+
+        Partition(long from, long to, int[] groups) {
+            this.from = from;
+            this.to = to;
+            this.groups = groups;
+        }
+
+        boolean separates(int a, int b, long time) {
+            return time >= from && time < to && groups[a] != -1 && groups[b] != -1 && groups[a] != groups[b];
+        }
+
+        static List<Partition> parseAll(String spec, int n) {
+            List<Partition> partitions = new ArrayList<>();
+            for (String entry : spec.split(";")) {
+                if (entry.isBlank())
+                    continue;
+
+                String[] p = entry.trim().split(":");
+                int[] groups = new int[n];
+                Arrays.fill(groups, -1);
+                String[] members = p[2].split("\\|");
+                for (int g = 0; g < members.length; g++) {
+                    for (String item : members[g].split(",")) {
+                        String[] range = item.split("-");
+                        int first = Integer.parseInt(range[0].trim());
+                        int last = range.length > 1 ? Integer.parseInt(range[1].trim()) : first;
+                        for (int i = first; i <= Math.min(last, n - 1); i++)
+                            groups[i] = g;
+                    }
+                }
+                partitions.add(new Partition(TimeUnit.MILLISECONDS.toNanos(Long.parseLong(p[0])),
+                        TimeUnit.MILLISECONDS.toNanos(Long.parseLong(p[1])), groups));
+            }
+            return partitions;
+        }
+    }
+}
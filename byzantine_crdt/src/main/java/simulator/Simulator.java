@@ -0,0 +1,211 @@
+package simulator;
+
+import io.netty.buffer.ByteBuf;
+import protocols.broadcast.byzantine.behaviors.ByzantineBehavior;
+import protocols.crdt.ConvergenceLog;
+import pt.unl.fct.di.novasys.babel.core.Babel;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.Crypto;
+import utils.KeyDirectory;
+
+import java.net.InetAddress;
+import java.security.KeyPair;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Runs sim.replicas replicas of the stack in one process, over a simulated network driven by a seeded discrete-event
+ * scheduler. Takes the same configuration as Main (plus the sim.* keys) and prints a report at the end of the run:
+ *   java -cp target/dare-0.0.1-SNAPSHOT.jar simulator.Simulator sim.replicas=40 fault_model=byzantine sim.latency=uniform:5:50
+ * Handlers run back to back in virtual time, so latencies only account for the network and not for processing.
+ */
+public class Simulator {
+
+    static {
+        System.setProperty("log4j.configurationFile", "log4j2.xml");
+    }
+
+    public static final String DEFAULT_CONFIG_FILE = "babel-conf.txt";
+    public static final String REPLICAS = "sim.replicas";
+    public static final String SEED = "sim.seed";
+    // Fault threshold of the broadcast, defaults to the largest f such that n > 3f
+    public static final String FAULTS = "sim.f";
+    // Virtual duration of the run (in milliseconds), defaults to the prepare, run and cooldown times of the app
+    public static final String DURATION = "sim.duration";
+    // Behavior of the faulty replicas (see ByzantineBehavior) and how many of them there are, the last ones
+    public static final String FAULTY_BEHAVIOR = "sim.byzantine_behavior";
+    public static final String FAULTY_REPLICAS = "sim.byzantine_replicas";
+    // Runs the configuration a second time and checks that every replica ends in the same state (true or false)
+    public static final String CHECK_REPRODUCIBLE = "sim.check_reproducible";
+
+    private static final int BASE_PORT = 8001;
+
+    private final Scheduler scheduler;
+    private final SimulatedNetwork network;
+    private final List<Replica> replicas;
+    private final Map<Host, Integer> indexes;
+    private final long duration;
+    private final int correct;
+    private final String faultyBehavior;
+
+    // Virtual issue time and deliveries of each broadcast, keyed by payload
+    private final Map<ByteBuf, Long> issuedAt;
+    private final Map<ByteBuf, Integer> deliveries;
+    private final List<Double> deliveryLatencies;
+    private final List<Double> disseminationLatencies;
+
+
+    public Simulator(Properties props) throws Exception {
+        int n = Integer.parseInt(props.getProperty(REPLICAS, "4"));
+        long seed = Long.parseLong(props.getProperty(SEED, "1"));
+        props.setProperty("f", props.getProperty(FAULTS, String.valueOf((n - 1) / 3)));
+        props.setProperty("app_interaction", "automated");
+        // Every replica shares the process, the simulator reports convergence itself
+        props.setProperty(ConvergenceLog.INTERVAL, "0");
+        // Simulated time does not depend on the JIT
+        props.setProperty(KeyDirectory.WARMUP, "0");
+
+        faultyBehavior = props.getProperty(FAULTY_BEHAVIOR, "none");
+        int faulty = faultyBehavior.equals("none") ? 0 : Integer.parseInt(props.getProperty(FAULTY_REPLICAS, props.getProperty("f")));
+        this.correct = n - faulty;
+        props.setProperty(ByzantineBehavior.BEHAVIOR, "none");
+
+        long defaultDuration = TimeUnit.SECONDS.toMillis(Long.parseLong(props.getProperty("prepare_time"))
+                + Long.parseLong(props.getProperty("run_time")) + Long.parseLong(props.getProperty("cooldown_time")));
+        this.duration = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(props.getProperty(DURATION, String.valueOf(defaultDuration))));
+
+        this.scheduler = new Scheduler();
+        this.replicas = new ArrayList<>();
+        this.network = new SimulatedNetwork(scheduler, n, seed, props, (to, from, msg) -> replicas.get(to).receive(msg, replicas.get(from).getSelf()));
+        this.indexes = new HashMap<>();
+        this.issuedAt = new HashMap<>();
+        this.deliveries = new HashMap<>();
+        this.deliveryLatencies = new ArrayList<>();
+        this.disseminationLatencies = new ArrayList<>();
+
+        boolean byzantine = props.getProperty("fault_model").equals("byzantine");
+        List<Host> hosts = new ArrayList<>();
+        List<KeyPair> keys = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            hosts.add(new Host(InetAddress.getByName("127.0.0.1"), BASE_PORT + i));
+            indexes.put(hosts.get(i), i);
+            keys.add(byzantine ? Crypto.deriveKeyPair("node" + (i + 1), props.getProperty(Crypto.SEED_KEY, String.valueOf(seed))) : null);
+        }
+
+        Properties faultyProps = new Properties();
+        faultyProps.putAll(props);
+        faultyProps.setProperty(ByzantineBehavior.BEHAVIOR, faultyBehavior);
+        // Each replica draws from its own source, so its randomness does not depend on the events of the others
+        Random seeds = new Random(seed);
+        for (int i = 0; i < n; i++)
+            replicas.add(new Replica(this, i, hosts.get(i), keys.get(i), i < correct ? props : faultyProps, seeds.nextLong()));
+        for (Replica r : replicas)
+            r.start(hosts, keys);
+    }
+
+    public static void main(String[] args) {
+        try {
+            Properties props = Babel.loadConfig(args, DEFAULT_CONFIG_FILE);
+            // The simulator fills in its own keys, a second run starts again from the given configuration
+            Properties original = new Properties();
+            original.putAll(props);
+
+            Simulator sim = new Simulator(props);
+            long start = System.nanoTime();
+            sim.run();
+            sim.report(System.nanoTime() - start);
+
+            if (Boolean.parseBoolean(props.getProperty(CHECK_REPRODUCIBLE, "false"))) {
+                Simulator again = new Simulator(original);
+                again.run();
+                boolean same = sim.getDigests().equals(again.getDigests()) && sim.scheduler.getProcessed() == again.scheduler.getProcessed();
+                System.out.println("Reproducible: " + (same ? "yes" : "no, the second run ended in a different state"));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    public void run() {
+        long step = TimeUnit.SECONDS.toNanos(1);
+        for (long until = step; scheduler.now() < duration; until = Math.min(until + step, duration)) {
+            scheduler.run(until);
+            if (replicas.stream().allMatch(Replica::isFinished))
+                break;
+        }
+    }
+
+    // Digests of the shards of every replica, faulty ones included
+    public List<List<Long>> getDigests() {
+        List<List<Long>> digests = new ArrayList<>();
+        for (Replica r : replicas)
+            digests.add(r.getDigests());
+        return digests;
+    }
+
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    public void registerSerializer(short msgId, ISerializer<? extends ProtoMessage> serializer) {
+        network.registerSerializer(msgId, serializer);
+    }
+
+    public void send(int from, Host to, ProtoMessage msg) {
+        network.send(from, indexes.get(to), msg);
+    }
+
+
+    /* ------------------------------------- Statistics ------------------------------------- */
+
+    // Only broadcasts of correct replicas, delivered by correct replicas, are accounted
+    public void broadcastIssued(int replica, ByteBuf payload) {
+        if (replica < correct)
+            issuedAt.putIfAbsent(payload, scheduler.now());
+    }
+
+    public void broadcastDelivered(int replica, ByteBuf payload) {
+        Long issued = replica < correct ? issuedAt.get(payload) : null;
+        if (issued == null)
+            return;
+
+        double latency = (scheduler.now() - issued) / 1_000_000.0;
+        deliveryLatencies.add(latency);
+        if (deliveries.merge(payload, 1, Integer::sum) == correct)
+            disseminationLatencies.add(latency);
+    }
+
+    private void report(long elapsed) {
+        System.out.printf("Replicas: %d (%d faulty, %s), virtual time: %.1fs, wall time: %.1fs, events: %d%n", replicas.size(),
+                replicas.size() - correct, faultyBehavior, scheduler.now() / 1e9, elapsed / 1e9, scheduler.getProcessed());
+        System.out.printf("Network: %d messages, %d bytes, %d retransmissions, %d dropped%n", network.getMessages(),
+                network.getBytes(), network.getRetransmissions(), network.getDropped());
+        System.out.printf("Broadcasts: %d issued, %d delivered by every correct replica%n", issuedAt.size(), disseminationLatencies.size());
+        summary("Delivery latency (ms)", deliveryLatencies);
+        summary("Dissemination latency (ms)", disseminationLatencies);
+
+        Set<List<Long>> digests = new HashSet<>();
+        for (Replica r : replicas.subList(0, correct))
+            digests.add(r.getDigests());
+        System.out.println("Converged: " + (digests.size() == 1 ? "yes" : "no, " + digests.size() + " distinct states"));
+    }
+
+    private static void summary(String name, List<Double> values) {
+        if (values.isEmpty()) {
+            System.out.println(name + ": no samples");
+            return;
+        }
+        double[] sorted = values.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        System.out.printf("%s: n=%d mean=%.1f p50=%.1f p90=%.1f p99=%.1f max=%.1f%n", name, sorted.length,
+                Arrays.stream(sorted).average().orElse(0), percentile(sorted, 0.5), percentile(sorted, 0.9),
+                percentile(sorted, 0.99), sorted[sorted.length - 1]);
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        return sorted[(int) Math.max(0, Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1))];
+    }
+}
@@ -2,10 +2,26 @@ package utils;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.security.*;
+import java.security.cert.Certificate;
 import java.security.cert.CertificateException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
 public class Crypto {
 
     public static final String CRYPTO_NAME_KEY = "crypto_name";
@@ -13,6 +29,97 @@ public class Crypto {
     public static final String KEY_STORE_PASSWORD_KEY = "key_store_password";
     public static final String TRUST_STORE_LOCATION_KEY = "trust_store";
     public static final String TRUST_STORE_PASSWORD_KEY = "trust_store_password";
+    // keystore (the files in key_store_folder) or derived (generated from crypto.seed and the crypto_name of each node)
+    public static final String KEY_SOURCE_KEY = "crypto.keys";
+    public static final String SEED_KEY = "crypto.seed";
+    // File with the derived public keys of every node, written once by KeyDirectory so each process does not derive them
+    public static final String PUBLIC_KEYS_KEY = "crypto.public_keys";
+
+    private static final int KEY_SIZE = 2048;
+    // Ephemeral keys of the membership handshakes, and MAC of the session keys they establish
+    public static final String KEY_AGREEMENT = "X25519";
+    public static final String SESSION_MAC = "HmacSHA256";
+
+
+    public static KeyPair getKeyPair(String me, Properties props) throws
+            KeyStoreException, IOException, NoSuchAlgorithmException, CertificateException, UnrecoverableKeyException {
+
+        if (props.getProperty(KEY_SOURCE_KEY, "keystore").equals("derived"))
+            return deriveKeyPair(me, props.getProperty(SEED_KEY, "dare"));
+
+        PrivateKey privateKey = getPrivateKey(me, props);
+        PublicKey publicKey = getTruststore(props).getCertificate(me).getPublicKey();
+        return new KeyPair(publicKey, privateKey);
+    }
+
+    // Every process derives the same key pair for the same seed and name, so no key material has to be distributed
+    public static KeyPair deriveKeyPair(String me, String seed) throws NoSuchAlgorithmException {
+        SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+        random.setSeed((seed + "/" + me).getBytes(StandardCharsets.UTF_8));
+
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(KEY_SIZE, random);
+        return generator.generateKeyPair();
+    }
+
+
+    // Public key of another node, from its certificate in the truststore (null in derived mode) or derived from its name
+    public static PublicKey getPublicKey(String name, KeyStore truststore, Properties props) throws
+            KeyStoreException, NoSuchAlgorithmException {
+
+        if (truststore == null)
+            return deriveKeyPair(name, props.getProperty(SEED_KEY, "dare")).getPublic();
+
+        Certificate certificate = truststore.getCertificate(name);
+        return certificate == null ? null : certificate.getPublicKey();
+    }
+
+
+    // One "<name> <base64 of the X.509 encoding>" line per node
+    public static void writePublicKeys(Map<String, PublicKey> keys, String path) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, PublicKey> e : keys.entrySet())
+                out.println(e.getKey() + " " + Base64.getEncoder().encodeToString(e.getValue().getEncoded()));
+        }
+    }
+
+    public static Map<String, PublicKey> readPublicKeys(String path) throws Exception {
+        Map<String, PublicKey> keys = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8);
+        for (String line : lines) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length == 2)
+                keys.put(fields[0], PublicKeyHelper.rebuildPublicKey(Base64.getDecoder().decode(fields[1])));
+        }
+        return keys;
+    }
+
+
+    public static KeyPair generateEphemeralKeyPair() throws NoSuchAlgorithmException {
+        return KeyPairGenerator.getInstance(KEY_AGREEMENT).generateKeyPair();
+    }
+
+    // Both ends of a handshake derive the same key from their ephemeral keys and the nonces of the handshake
+    public static SecretKey deriveSessionKey(PrivateKey mine, byte[] theirs, long initiatorNonce, long responderNonce)
+            throws GeneralSecurityException {
+
+        KeyAgreement agreement = KeyAgreement.getInstance(KEY_AGREEMENT);
+        agreement.init(mine);
+        agreement.doPhase(KeyFactory.getInstance(KEY_AGREEMENT).generatePublic(new X509EncodedKeySpec(theirs)), true);
+
+        Mac kdf = Mac.getInstance(SESSION_MAC);
+        kdf.init(new SecretKeySpec(agreement.generateSecret(), SESSION_MAC));
+        kdf.update(ByteBuffer.allocate(2 * Long.BYTES).putLong(initiatorNonce).putLong(responderNonce).array());
+        return new SecretKeySpec(kdf.doFinal(), SESSION_MAC);
+    }
+
+    // Proof of holding a session key, bound to what it is for (label) and to a fresh nonce
+    public static byte[] sessionMac(SecretKey sessionKey, String label, long nonce) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(SESSION_MAC);
+        mac.init(sessionKey);
+        mac.update(label.getBytes(StandardCharsets.UTF_8));
+        return mac.doFinal(ByteBuffer.allocate(Long.BYTES).putLong(nonce).array());
+    }
 
 
     public static PrivateKey getPrivateKey(String me, Properties props) throws
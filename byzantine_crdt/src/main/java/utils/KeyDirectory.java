@@ -0,0 +1,223 @@
+package utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import pt.unl.fct.di.novasys.babel.core.Babel;
+import pt.unl.fct.di.novasys.babel.generic.signed.SignedProtoMessage;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+import java.net.InetAddress;
+import java.security.*;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/*
+ * Public key of every replica, loaded once at startup from the truststore (or derived, see Crypto and main) and shared by all
+ * protocols through SecureChannelAvailable, so messages can be verified before the handshake with their sender ends.
+ * Replicas are known by identity (the alias of their certificate) and by host, the i-th host of membership.neighbors
+ * being the i-th identity of crypto.identities. Each key comes with a verifier per thread, initialized on first use.
+ */
+public class KeyDirectory {
+    private static final Logger logger = LogManager.getLogger(KeyDirectory.class);
+
+    // Identities of the hosts of membership.neighbors, in the same order (defaults to node1, node2, ...)
+    public static final String IDENTITIES = "crypto.identities";
+    // Sign/verify rounds the broadcast layer runs before the first message, so its signature paths are compiled when
+    // traffic starts
+    public static final String WARMUP = "crypto.warmup";
+
+    public static class Entry {
+        private final String identity;
+        private final PublicKey publicKey;
+        private final ThreadLocal<Signature> verifier;
+
+        Entry(String identity, PublicKey publicKey) {
+            this.identity = identity;
+            this.publicKey = publicKey;
+            this.verifier = ThreadLocal.withInitial(() -> {
+                try {
+                    Signature sig = Signature.getInstance(SignaturesHelper.SignatureAlgorithm);
+                    sig.initVerify(publicKey);
+                    return sig;
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+
+        public String getIdentity() {
+            return identity;
+        }
+
+        public PublicKey getPublicKey() {
+            return publicKey;
+        }
+
+        // Ready to be updated, verify() leaves it initialized for the next signature
+        public Signature getVerifier() {
+            return verifier.get();
+        }
+    }
+
+    private final Map<String, Entry> identities;
+    private final Map<Host, Entry> hosts;
+    // Hosts whose key was loaded at startup, which keys learned at runtime can not replace
+    private final Set<Host> pinned;
+    // Configuration the keys are derived from, null unless in derived mode
+    private Properties derivedFrom;
+
+
+    public KeyDirectory() {
+        this.identities = new ConcurrentHashMap<>();
+        this.hosts = new ConcurrentHashMap<>();
+        this.pinned = ConcurrentHashMap.newKeySet();
+    }
+
+    public static KeyDirectory load(Properties props) throws Exception {
+        KeyDirectory directory = new KeyDirectory();
+        boolean derived = props.getProperty(Crypto.KEY_SOURCE_KEY, "keystore").equals("derived");
+        KeyStore truststore = derived ? null : Crypto.getTruststore(props);
+        if (derived)
+            directory.derivedFrom = props;
+        // Keys derived ahead of time, only the missing ones are derived here
+        String publicKeys = props.getProperty(Crypto.PUBLIC_KEYS_KEY);
+        Map<String, PublicKey> precomputed = derived && publicKeys != null ? Crypto.readPublicKeys(publicKeys) : Collections.emptyMap();
+
+        if (truststore != null) {
+            for (Enumeration<String> aliases = truststore.aliases(); aliases.hasMoreElements(); ) {
+                String alias = aliases.nextElement();
+                PublicKey key = Crypto.getPublicKey(alias, truststore, props);
+                if (key != null)
+                    directory.identities.put(alias, new Entry(alias, key));
+            }
+        }
+
+        String[] neighbors = props.getProperty("membership.neighbors", "").split(",");
+        String[] names = props.getProperty(IDENTITIES, "").split(",");
+        for (int i = 0; i < neighbors.length; i++) {
+            if (neighbors[i].isBlank())
+                continue;
+            String identity = identity(names, i);
+            Entry entry = directory.identities.get(identity);
+            if (entry == null && derived) {
+                PublicKey key = precomputed.get(identity);
+                entry = new Entry(identity, key != null ? key : Crypto.getPublicKey(identity, null, props));
+                directory.identities.put(identity, entry);
+            }
+            if (entry == null) {
+                logger.warn("No certificate of {} in the truststore", identity);
+                continue;
+            }
+            String[] hostElements = neighbors[i].trim().split(":");
+            Host host = new Host(InetAddress.getByName(hostElements[0]), Short.parseShort(hostElements[1]));
+            directory.hosts.put(host, entry);
+            directory.pinned.add(host);
+        }
+
+        logger.info("Key directory loaded with {} identities and {} hosts", directory.identities.size(), directory.hosts.size());
+        return directory;
+    }
+
+    private static String identity(String[] names, int i) {
+        return i < names.length && !names[i].isBlank() ? names[i].trim() : "node" + (i + 1);
+    }
+
+    /*
+     * Derives the public keys of the hosts of membership.neighbors and writes them to crypto.public_keys, so a launch
+     * derives every key pair once instead of once per process:
+     *   java -cp target/dare-0.0.1-SNAPSHOT.jar utils.KeyDirectory membership.neighbors=... crypto.public_keys=keys.txt
+     */
+    public static void main(String[] args) throws Exception {
+        Properties props = Babel.loadConfig(args, "babel-conf.txt");
+        String[] neighbors = props.getProperty("membership.neighbors", "").split(",");
+        String[] names = props.getProperty(IDENTITIES, "").split(",");
+        Map<String, PublicKey> keys = new LinkedHashMap<>();
+        for (int i = 0; i < neighbors.length; i++) {
+            if (!neighbors[i].isBlank())
+                keys.put(identity(names, i), Crypto.deriveKeyPair(identity(names, i), props.getProperty(Crypto.SEED_KEY, "dare")).getPublic());
+        }
+        Crypto.writePublicKeys(keys, props.getProperty(Crypto.PUBLIC_KEYS_KEY));
+        System.out.println("Derived " + keys.size() + " public keys into " + props.getProperty(Crypto.PUBLIC_KEYS_KEY));
+    }
+
+    // Keys learned at runtime, from the handshakes or a simulated membership. False, and the key is ignored, if it
+    // differs from the one loaded for the host at startup
+    public boolean add(Host host, String identity, PublicKey publicKey) {
+        Entry entry = hosts.get(host);
+        if (entry != null && entry.publicKey.equals(publicKey))
+            return true;
+        if (entry != null && pinned.contains(host)) {
+            logger.error("Rejected a key for {} that differs from the one of {} loaded at startup", host, entry.identity);
+            return false;
+        }
+        entry = new Entry(identity, publicKey);
+        hosts.put(host, entry);
+        if (identity != null)
+            identities.putIfAbsent(identity, entry);
+        return true;
+    }
+
+    public Entry of(Host host) {
+        return hosts.get(host);
+    }
+
+    // In derived mode an identity missing from the directory, e.g. of a replica joining later, is derived on first use
+    public Entry of(String identity) {
+        Entry entry = identities.get(identity);
+        if (entry == null && derivedFrom != null && identity != null) {
+            try {
+                entry = new Entry(identity, Crypto.getPublicKey(identity, null, derivedFrom));
+                Entry previous = identities.putIfAbsent(identity, entry);
+                if (previous != null)
+                    entry = previous;
+            } catch (GeneralSecurityException e) {
+                logger.error("Could not derive the key of {}", identity);
+            }
+        }
+        return entry;
+    }
+
+    public PublicKey getPublicKey(Host host) {
+        Entry entry = hosts.get(host);
+        return entry == null ? null : entry.publicKey;
+    }
+
+    public Map<Host, Entry> getHosts() {
+        return Collections.unmodifiableMap(hosts);
+    }
+
+    /*
+     * Runs the signature paths of a broadcast layer on throwaway payloads: the signature of an original payload and its
+     * check with a cached verifier (SignaturesHelper), then the signing and verification of a whole message, built
+     * from the payload by message, as SignedProtoMessage does them (serialization included).
+     */
+    public static void warmUp(KeyPair keys, int rounds, Function<ByteBuf, SignedProtoMessage> message) throws Exception {
+        if (rounds <= 0)
+            return;
+
+        long start = System.nanoTime();
+        byte[] value = new byte[256];
+        ByteBuf buf = Unpooled.wrappedBuffer(value);
+        Entry self = new Entry(null, keys.getPublic());
+        for (int i = 0; i < rounds; i++) {
+            value[i % value.length]++;
+            byte[] signature = SignaturesHelper.generateSignature(buf.duplicate(), keys.getPrivate());
+            if (!SignaturesHelper.checkSignature(buf.duplicate(), signature, self.getVerifier()))
+                throw new SignatureException("Warm-up signature did not verify");
+
+            SignedProtoMessage msg = message.apply(buf.duplicate());
+            msg.signMessage(keys.getPrivate());
+            if (!msg.checkSignature(keys.getPublic()))
+                throw new SignatureException("Warm-up message did not verify");
+        }
+        logger.info("Signature paths warmed up with {} rounds in {} ms", rounds, (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,112 @@
+package utils;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Latency histograms (in nanoseconds) shared by every protocol of the process, one per tag ("<layer>.<phase>[.<op>]").
+ * Intervals are appended to an HdrHistogram log (.hlog) periodically and at exit, so the logs of all replicas can be
+ * read back with HistogramLogReader and merged per tag.
+ */
+public class LatencyHistograms {
+    private static final Logger logger = LogManager.getLogger(LatencyHistograms.class);
+
+    public static final String LOG_DIR = "metrics.hlog_dir";
+    public static final String DUMP_INTERVAL = "metrics.hlog_interval";
+    // Interval between requests of the closed-loop workload, used to correct coordinated omission of the
+    // request-to-delivery latencies (0 disables it)
+    public static final String EXPECTED_INTERVAL = "metrics.expected_interval";
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final Map<String, Recorder> recorders = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> intervals = new ConcurrentHashMap<>();
+
+    private static long expectedIntervalNanos = 0;
+    private static HistogramLogWriter writer = null;
+    private static ScheduledExecutorService dumper = null;
+
+
+    public static synchronized void start(Properties props, String self) throws FileNotFoundException {
+        if (writer != null)
+            return;
+
+        // The open-loop workload already measures from the intended arrival of each operation
+        String defaultInterval = props.getProperty("app_interaction", "").equals("automated")
+                && props.getProperty("workload.mode", "closed").equals("closed") ? props.getProperty("broadcast_interval", "0") : "0";
+        expectedIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(props.getProperty(EXPECTED_INTERVAL, defaultInterval)));
+        long dumpInterval = Long.parseLong(props.getProperty(DUMP_INTERVAL, "10000")); //in milliseconds
+
+        File dir = new File(props.getProperty(LOG_DIR, "metrics"));
+        dir.mkdirs();
+        long now = System.currentTimeMillis();
+        writer = new HistogramLogWriter(new File(dir, "latency-" + self.replace(':', '_') + ".hlog"));
+        writer.outputComment("[Latencies of " + self + " in nanoseconds]");
+        writer.outputLogFormatVersion();
+        writer.setBaseTime(now);
+        writer.outputStartTime(now);
+        writer.outputLegend();
+
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "latency-histograms");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(LatencyHistograms::dump, dumpInterval, dumpInterval, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(LatencyHistograms::close));
+    }
+
+    // Records the time elapsed since startNanos (a System.nanoTime() reading)
+    public static void record(String tag, long startNanos) {
+        recorders.computeIfAbsent(tag, t -> new Recorder(SIGNIFICANT_DIGITS)).recordValue(System.nanoTime() - startNanos);
+    }
+
+    // Same, corrected for coordinated omission: only for the latencies of the requests of the local closed-loop
+    // workload, the ones paced by metrics.expected_interval
+    public static void recordCorrected(String tag, long startNanos) {
+        long latency = System.nanoTime() - startNanos;
+        Recorder recorder = recorders.computeIfAbsent(tag, t -> new Recorder(SIGNIFICANT_DIGITS));
+        if (expectedIntervalNanos > 0)
+            recorder.recordValueWithExpectedInterval(latency, expectedIntervalNanos);
+        else recorder.recordValue(latency);
+    }
+
+    public static synchronized void dump() {
+        if (writer == null)
+            return;
+
+        for (Map.Entry<String, Recorder> e : recorders.entrySet()) {
+            // The previous interval histogram is recycled, so steady-state dumps do not allocate
+            Histogram interval = e.getValue().getIntervalHistogram(intervals.get(e.getKey()));
+            intervals.put(e.getKey(), interval);
+            if (interval.getTotalCount() == 0)
+                continue;
+
+            interval.setTag(e.getKey());
+            writer.outputIntervalHistogram(interval);
+        }
+    }
+
+    private static synchronized void close() {
+        if (writer == null)
+            return;
+
+        dumper.shutdownNow();
+        dump();
+        writer.close();
+        writer = null;
+        logger.info("Latency histograms written");
+    }
+}
@@ -0,0 +1,35 @@
+package utils;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/*
+ * Payloads travel through the stack as unpooled heap buffers: slices share their memory instead of copying it,
+ * and since no pooled memory is involved, a payload that is dropped without being released is simply collected.
+ */
+public class Payloads {
+
+    public static ByteBuf allocate(int size) {
+        return Unpooled.wrappedBuffer(new byte[size]).clear();
+    }
+
+    public static void write(ByteBuf payload, ByteBuf out) {
+        if (payload != null) {
+            out.writeInt(payload.readableBytes());
+            out.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+        } else {
+            out.writeInt(0);
+        }
+    }
+
+    // The only copy on the receiving side: the network buffer is released once the message is deserialized
+    public static ByteBuf read(ByteBuf in) {
+        int len = in.readInt();
+        if (len == 0)
+            return Unpooled.EMPTY_BUFFER;
+
+        byte[] payload = new byte[len];
+        in.readBytes(payload);
+        return Unpooled.wrappedBuffer(payload);
+    }
+}
@@ -0,0 +1,36 @@
+package utils;
+
+import java.util.Random;
+import java.util.UUID;
+
+/*
+ * Random numbers and ids drawn by the protocols. Unseeded in a deployment; the simulator installs the seeded source of a
+ * replica around each of its events (it runs them all on one thread), so a simulated run only depends on its seed.
+ */
+public class Randomness {
+
+    private static Random current = null;
+
+
+    // Source of the events that follow, null for the unseeded default
+    public static void use(Random source) {
+        current = source;
+    }
+
+    // Generator kept by an object, seeded from the current source when there is one
+    public static Random newRandom() {
+        Random source = current;
+        return source == null ? new Random() : new Random(source.nextLong());
+    }
+
+    // Random (version 4) UUID
+    public static UUID uuid() {
+        Random source = current;
+        if (source == null)
+            return UUID.randomUUID();
+
+        long msb = (source.nextLong() & ~0xF000L) | 0x4000L;
+        long lsb = (source.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb);
+    }
+}
@@ -1,20 +1,41 @@
 package utils;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.UUID;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.signed.SignedProtoMessage;
+import utils.metrics.Meter;
+import utils.metrics.Metrics;
+import utils.tracing.SignatureEvent;
+import utils.tracing.Tracing;
 
 public class SignaturesHelper {
 
 	public static final String SignatureAlgorithm = "SHA256withRSA";
+
+	private static final Meter signed = Metrics.meter("signatures.signed");
+	private static final Meter verified = Metrics.meter("signatures.verified");
 	
 	public static byte[] generateSignature(byte[] value, PrivateKey key) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
 		Signature sig = Signature.getInstance(SignaturesHelper.SignatureAlgorithm);
 		sig.initSign(key);
 		sig.update(value);
+		signed.mark();
+		return sig.sign();
+	}
+
+	public static byte[] generateSignature(ByteBuf value, PrivateKey key) throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		Signature sig = Signature.getInstance(SignaturesHelper.SignatureAlgorithm);
+		sig.initSign(key);
+		update(sig, value);
+		signed.mark();
 		return sig.sign();
 	}
 	
@@ -22,7 +43,45 @@ public class SignaturesHelper {
 		Signature sig = Signature.getInstance(SignaturesHelper.SignatureAlgorithm);
 		sig.initVerify(key);
 		sig.update(value);
+		verified.mark();
+		return sig.verify(signature);
+	}
+
+	public static boolean checkSignature(ByteBuf value, byte[] signature, PublicKey key) throws SignatureException, NoSuchAlgorithmException, InvalidKeyException {
+		Signature sig = Signature.getInstance(SignaturesHelper.SignatureAlgorithm);
+		sig.initVerify(key);
+		update(sig, value);
+		verified.mark();
 		return sig.verify(signature);
 	}
+
+	// verifier comes initialized with the key of the signer, from its KeyDirectory entry
+	public static boolean checkSignature(ByteBuf value, byte[] signature, Signature verifier) throws SignatureException {
+		update(verifier, value);
+		verified.mark();
+		return verifier.verify(signature);
+	}
+
+	// mid identifies the broadcast instance the message belongs to in the traces (may be null)
+	public static void sign(SignedProtoMessage msg, PrivateKey key, UUID mid) throws Exception {
+		signed.mark();
+		SignatureEvent span = Tracing.beginSignature("sign", msg.getClass().getSimpleName(), mid);
+		msg.signMessage(key);
+		Tracing.end(span);
+	}
+
+	public static boolean verify(SignedProtoMessage msg, PublicKey key, UUID mid) throws Exception {
+		verified.mark();
+		SignatureEvent span = Tracing.beginSignature("verify", msg.getClass().getSimpleName(), mid);
+		boolean valid = msg.checkSignature(key);
+		Tracing.end(span);
+		return valid;
+	}
+
+	// Feeds the readable bytes of value to sig without copying them out of the buffer (or its components)
+	public static void update(Signature sig, ByteBuf value) throws SignatureException {
+		for (ByteBuffer component : value.nioBuffers())
+			sig.update(component);
+	}
 	
 }
@@ -0,0 +1,45 @@
+package utils.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Event counter that also reports the rate (events/s) observed since the previous time it was read
+public class Meter {
+
+    private final LongAdder count;
+    private long lastCount;
+    private long lastRead;
+    private double rate;
+
+
+    public Meter() {
+        this.count = new LongAdder();
+        this.lastCount = 0;
+        this.lastRead = System.nanoTime();
+        this.rate = 0;
+    }
+
+    public void mark() {
+        count.increment();
+    }
+
+    public void mark(long n) {
+        count.add(n);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    // Rates are only refreshed once per second, so frequent readers do not see noisy values
+    public synchronized double getRate() {
+        long now = System.nanoTime();
+        long elapsed = now - lastRead;
+        if (elapsed >= 1_000_000_000L) {
+            long current = count.sum();
+            rate = (current - lastCount) * 1e9 / elapsed;
+            lastCount = current;
+            lastRead = now;
+        }
+        return rate;
+    }
+}
@@ -0,0 +1,41 @@
+package utils.metrics;
+
+import io.netty.buffer.ByteBuf;
+import pt.unl.fct.di.novasys.babel.generic.ProtoMessage;
+import pt.unl.fct.di.novasys.network.ISerializer;
+
+import java.io.IOException;
+
+// Counts the messages and bytes of one message type going through its serializer
+public class MeteredSerializer<T extends ProtoMessage> implements ISerializer<T> {
+
+    private final ISerializer<T> serializer;
+    private final Meter messagesOut, messagesIn;
+    private final Meter bytesOut, bytesIn;
+
+
+    public MeteredSerializer(String type, ISerializer<T> serializer) {
+        this.serializer = serializer;
+        this.messagesOut = Metrics.meter("messages.out." + type);
+        this.messagesIn = Metrics.meter("messages.in." + type);
+        this.bytesOut = Metrics.meter("bytes.out." + type);
+        this.bytesIn = Metrics.meter("bytes.in." + type);
+    }
+
+    @Override
+    public void serialize(T msg, ByteBuf out) throws IOException {
+        int start = out.writerIndex();
+        serializer.serialize(msg, out);
+        messagesOut.mark();
+        bytesOut.mark(out.writerIndex() - start);
+    }
+
+    @Override
+    public T deserialize(ByteBuf in) throws IOException {
+        int start = in.readerIndex();
+        T msg = serializer.deserialize(in);
+        messagesIn.mark();
+        bytesIn.mark(in.readerIndex() - start);
+        return msg;
+    }
+}
@@ -0,0 +1,81 @@
+package utils.metrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Process-wide registry of counters, meters and gauges. Instruments are looked up once (at registration time) and
+ * kept in fields by their users, so updating them on the hot path is a single LongAdder increment.
+ * Gauges are read from whichever thread exports them and must tolerate racy reads of protocol state.
+ */
+public class Metrics {
+    private static final Logger logger = LogManager.getLogger(Metrics.class);
+
+    public static final String HTTP_PORT = "metrics.http_port";
+    public static final String OBJECT_NAME = "dare:type=Metrics";
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Meter> meters = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    private static boolean started = false;
+
+
+    public static synchronized void start(Properties props) throws Exception {
+        if (started)
+            return;
+
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), new ObjectName(OBJECT_NAME));
+
+        String port = props.getProperty(HTTP_PORT);
+        if (port != null) {
+            MetricsHttpEndpoint.start(Integer.parseInt(port));
+            logger.info("Serving metrics on http://127.0.0.1:{}/metrics", port);
+        }
+        started = true;
+    }
+
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public static Meter meter(String name) {
+        return meters.computeIfAbsent(name, n -> new Meter());
+    }
+
+    // Registering a gauge again under the same name replaces the previous one
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // Meters are exported as <name>.count and <name>.rate (events/s)
+    public static SortedMap<String, Number> snapshot() {
+        SortedMap<String, Number> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : counters.entrySet())
+            values.put(e.getKey(), e.getValue().sum());
+
+        for (Map.Entry<String, Meter> e : meters.entrySet()) {
+            values.put(e.getKey() + ".count", e.getValue().getCount());
+            values.put(e.getKey() + ".rate", e.getValue().getRate());
+        }
+
+        for (Map.Entry<String, LongSupplier> e : gauges.entrySet()) {
+            try {
+                values.put(e.getKey(), e.getValue().getAsLong());
+            } catch (RuntimeException ex) {
+                // Gauges read unsynchronized state, a concurrent modification just skips this sample
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,213 @@
+package utils.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import pt.unl.fct.di.novasys.babel.core.Babel;
+import pt.unl.fct.di.novasys.channel.ChannelEvent;
+import pt.unl.fct.di.novasys.channel.ChannelListener;
+import pt.unl.fct.di.novasys.channel.IChannel;
+import pt.unl.fct.di.novasys.channel.tcp.TCPChannel;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * TCP channel whose outgoing messages go through the links of a topology file (see Topology) before reaching the wire:
+ * each message waits for the bandwidth of its link, is held for a latency sample plus jitter, and leaves in the order
+ * it was sent. A lost message resets the outgoing connection, which the channel reopens after the reconnect delay of
+ * the link, so the protocols above see the same connection events a flaky WAN link would give them.
+ * Emulation is applied on the sending side only, so the topology file should describe both directions of a link.
+ * The channels of a replica (the membership one and the bulk one, see Lanes) share the bandwidth of each link, but
+ * not its ordering: a message only waits for the ones sent before it on the same connection.
+ */
+public class EmulatedTCPChannel<T> implements IChannel<T> {
+    private static final Logger logger = LogManager.getLogger(EmulatedTCPChannel.class);
+
+    public static final String NAME = "EmulatedTCPChannel";
+    // Path of the topology file, the membership protocols create a plain TCPChannel when it is not set
+    public static final String TOPOLOGY = "network.topology";
+    // Set on channels listening on the port of the membership plus this offset (see Lanes), whose links are the ones
+    // of the membership hosts
+    public static final String LINK_PORT_OFFSET = "link_port_offset";
+
+    private final ISerializer<T> serializer;
+    private final TCPChannel<Wire<T>> channel;
+    private final Host self;
+    private final int linkOffset;
+    private final Topology topology;
+    private final Random random;
+    private final ScheduledExecutorService links;
+
+    // Bandwidth of each link, keyed by the membership hosts at its ends and shared by every channel of the process
+    private static final Map<List<Host>, LinkState> states = new ConcurrentHashMap<>();
+    // Arrival of the last message sent to each peer through this channel, accessed by the threads sending through it
+    private final Map<Host, Long> lastArrivals;
+
+
+    public EmulatedTCPChannel(ISerializer<T> serializer, ChannelListener<T> listener, Properties props) throws IOException {
+        this.serializer = serializer;
+        this.linkOffset = Integer.parseInt(props.getProperty(LINK_PORT_OFFSET, "0"));
+        this.self = new Host(InetAddress.getByName(props.getProperty(TCPChannel.ADDRESS_KEY)),
+                Integer.parseInt(props.getProperty(TCPChannel.PORT_KEY)) - linkOffset);
+        this.topology = Topology.load(props.getProperty(TOPOLOGY));
+        this.random = new Random();
+        this.lastArrivals = new HashMap<>();
+        this.links = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "emulated-links");
+            t.setDaemon(true);
+            return t;
+        });
+        this.channel = new TCPChannel<>(new WireSerializer<>(serializer), new WireListener<>(listener), props);
+        logger.info("Emulating the links of {} from {}", self, props.getProperty(TOPOLOGY));
+    }
+
+    public static void register() {
+        Babel.getInstance().registerChannelInitializer(NAME,
+                (serializer, listener, props, protoId) -> new EmulatedTCPChannel<>(serializer, listener, props));
+    }
+
+    @Override
+    public void sendMessage(T msg, Host peer, int connection) {
+        Host linkPeer = linkOffset == 0 ? peer : new Host(peer.getAddress(), peer.getPort() - linkOffset);
+        Topology.Link link = topology.linkOf(self, linkPeer);
+        if (link == null) {
+            channel.sendMessage(new Wire<>(msg), peer, connection);
+            return;
+        }
+
+        // Serialized here so the bandwidth of the link is charged with the real size, and only once
+        Wire<T> wire = new Wire<>(msg);
+        ByteBuf buf = Unpooled.buffer();
+        try {
+            serializer.serialize(msg, buf);
+            wire.bytes = new byte[buf.readableBytes()];
+            buf.readBytes(wire.bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            buf.release();
+        }
+
+        long delay;
+        synchronized (this) {
+            if (link.loss > 0 && random.nextDouble() < link.loss) {
+                reset(peer, link);
+                return;
+            }
+
+            long now = System.nanoTime();
+            long departure = now;
+            if (link.bytesPerNano > 0) {
+                LinkState state = states.computeIfAbsent(List.of(self, linkPeer), l -> new LinkState());
+                synchronized (state) {
+                    departure = Math.max(departure, state.free) + (long) (wire.bytes.length / link.bytesPerNano);
+                    state.free = departure;
+                }
+            }
+            long latency = link.latency.sample(random);
+            if (link.jitter > 0)
+                latency += (long) ((random.nextDouble() * 2 - 1) * link.jitter);
+            // In-order delivery, a message waits for the ones sent before it on the same connection
+            long arrival = Math.max(departure + Math.max(0, latency), lastArrivals.getOrDefault(peer, 0L));
+            lastArrivals.put(peer, arrival);
+            delay = arrival - now;
+        }
+        links.schedule(() -> channel.sendMessage(wire, peer, connection), delay, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void closeConnection(Host peer, int connection) {
+        channel.closeConnection(peer, connection);
+    }
+
+    @Override
+    public void openConnection(Host peer) {
+        channel.openConnection(peer);
+    }
+
+    // The message is lost with the connection, which comes back after the reconnect delay of the link
+    private void reset(Host peer, Topology.Link link) {
+        logger.debug("Emulated loss on the link to {}, reconnecting in {} ms", peer, link.reconnect);
+        lastArrivals.remove(peer);
+        channel.closeConnection(peer, TCPChannel.CONNECTION_OUT);
+        links.schedule(() -> channel.openConnection(peer), link.reconnect, TimeUnit.MILLISECONDS);
+    }
+
+
+    private static class LinkState {
+        // When the link is done transmitting the messages sent so far
+        private long free;
+    }
+
+    // A message and, once it went through an emulated link, its serialized form
+    private static class Wire<T> {
+        private final T msg;
+        private byte[] bytes;
+
+        Wire(T msg) {
+            this.msg = msg;
+        }
+    }
+
+    private static class WireSerializer<T> implements ISerializer<Wire<T>> {
+        private final ISerializer<T> serializer;
+
+        WireSerializer(ISerializer<T> serializer) {
+            this.serializer = serializer;
+        }
+
+        @Override
+        public void serialize(Wire<T> wire, ByteBuf out) throws IOException {
+            if (wire.bytes != null)
+                out.writeBytes(wire.bytes);
+            else serializer.serialize(wire.msg, out);
+        }
+
+        @Override
+        public Wire<T> deserialize(ByteBuf in) throws IOException {
+            return new Wire<>(serializer.deserialize(in));
+        }
+    }
+
+    private static class WireListener<T> implements ChannelListener<Wire<T>> {
+        private final ChannelListener<T> listener;
+
+        WireListener(ChannelListener<T> listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void deliverMessage(Wire<T> wire, Host from) {
+            listener.deliverMessage(wire.msg, from);
+        }
+
+        @Override
+        public void messageSent(Wire<T> wire, Host to) {
+            listener.messageSent(wire.msg, to);
+        }
+
+        @Override
+        public void messageFailed(Wire<T> wire, Host to, Throwable cause) {
+            listener.messageFailed(wire.msg, to, cause);
+        }
+
+        @Override
+        public void deliverEvent(ChannelEvent evt) {
+            listener.deliverEvent(evt);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package utils.network;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+
+import java.util.Map;
+
+/*
+ * Control and bulk connections between two replicas. With network.bulk_channel set, the secure membership opens a
+ * second TCP connection to each neighbor, on its port plus network.bulk_port_offset, so small control messages
+ * (membership, handshakes, Ready) do not queue behind large payloads on the same connection. The broadcast layer picks
+ * the lane of each message type from its classification table, control being the lane of any unlisted type.
+ */
+public class Lanes {
+
+    public enum Lane { CONTROL, BULK }
+
+    public static final String ENABLED = "network.bulk_channel";
+    public static final String PORT_OFFSET = "network.bulk_port_offset";
+
+    private static final Lanes NONE = new Lanes(-1, 0);
+
+    private final int bulkChannelID;
+    private final int portOffset;
+
+
+    public Lanes(int bulkChannelID, int portOffset) {
+        this.bulkChannelID = bulkChannelID;
+        this.portOffset = portOffset;
+    }
+
+    // A single connection per peer, every lane is the control one
+    public static Lanes none() {
+        return NONE;
+    }
+
+    public boolean isSplit() {
+        return bulkChannelID >= 0;
+    }
+
+    public int getBulkChannelID() {
+        return bulkChannelID;
+    }
+
+    public Host bulkHost(Host peer) {
+        return new Host(peer.getAddress(), peer.getPort() + portOffset);
+    }
+
+    // Host of the membership a bulk connection comes from
+    public Host controlHost(Host bulkPeer) {
+        return new Host(bulkPeer.getAddress(), bulkPeer.getPort() - portOffset);
+    }
+
+    public static Lane of(Map<Short, Lane> table, short messageID) {
+        return table.getOrDefault(messageID, Lane.CONTROL);
+    }
+}
@@ -0,0 +1,36 @@
+package utils.network;
+
+import java.util.Random;
+
+/*
+ * One-way latency of a link in nanoseconds, parsed from constant:<ms>, uniform:<min>:<max>, normal:<mean>:<sd> or
+ * exponential:<mean>. Shared by the simulator and the emulated channel, so both read the same specs.
+ */
+public interface LatencyDistribution {
+
+    long sample(Random random);
+
+    static LatencyDistribution parse(String spec) {
+        String[] p = spec.split(":");
+        switch (p[0]) {
+            case "constant":
+                long constant = millis(p[1]);
+                return r -> constant;
+            case "uniform":
+                long min = millis(p[1]), max = millis(p[2]);
+                return r -> min + (long) (r.nextDouble() * (max - min));
+            case "normal":
+                double mean = millis(p[1]), sd = millis(p[2]);
+                return r -> Math.max(0, (long) (mean + r.nextGaussian() * sd));
+            case "exponential":
+                double avg = millis(p[1]);
+                return r -> (long) (-avg * Math.log(1 - r.nextDouble()));
+            default:
+                throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+        }
+    }
+
+    private static long millis(String value) {
+        return (long) (Double.parseDouble(value) * 1_000_000);
+    }
+}
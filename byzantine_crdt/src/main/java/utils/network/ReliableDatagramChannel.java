@@ -0,0 +1,470 @@
+package utils.network;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import pt.unl.fct.di.novasys.babel.core.Babel;
+import pt.unl.fct.di.novasys.channel.ChannelListener;
+import pt.unl.fct.di.novasys.channel.IChannel;
+import pt.unl.fct.di.novasys.channel.tcp.TCPChannel;
+import pt.unl.fct.di.novasys.network.ISerializer;
+import pt.unl.fct.di.novasys.network.data.Host;
+import utils.LatencyHistograms;
+import utils.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/*
+ * UDP channel for the broadcast payloads, so a slow or lossy link delays only the messages it loses instead of every
+ * message queued behind them on a TCP connection. Datagrams to each peer are numbered, and receivers deliver them as
+ * they arrive (the broadcast layers already tolerate reordering) while asking for the gaps with NACKs, answered from a
+ * bounded retransmit buffer. Senders announce their last number for a few intervals after each send so the loss of the
+ * last datagrams is noticed too, and numbers evicted from the buffer are reported as lost for good.
+ * Peers are known by the host of their membership, and receive datagrams on its port plus datagram.port_offset.
+ * Datagrams go through the links of network.topology, when set: latency, jitter and bandwidth as with
+ * EmulatedTCPChannel, and each datagram is dropped with the loss probability of its link.
+ */
+public class ReliableDatagramChannel<T> implements IChannel<T> {
+    private static final Logger logger = LogManager.getLogger(ReliableDatagramChannel.class);
+
+    public static final String NAME = "ReliableDatagramChannel";
+    // Broadcast payloads go through this channel instead of the TCP channel of the membership
+    public static final String ENABLED = "network.datagram";
+    public static final String PORT_OFFSET = "network.datagram_port_offset";
+    // Datagrams kept per peer for retransmissions
+    public static final String BUFFER = "network.datagram_buffer";
+    // Milliseconds between NACKs of the same gap, and between announcements of the last number sent
+    public static final String NACK_INTERVAL = "network.datagram_nack_interval";
+
+    private static final byte DATA = 0, NACK = 1, SYNC = 2, SKIP = 3;
+    private static final int MAX_DATAGRAM = 65000;
+    private static final int MAX_NACKS = 1024;
+    // Farther than any peer numbers between two datagrams received from it, a number past it is garbage
+    private static final long MAX_JUMP = 1L << 32;
+    // Intervals the last number is announced for after a send, so a lost announcement does not hide the tail losses
+    private static final int SYNC_REPEATS = 5;
+
+    private final ISerializer<T> serializer;
+    private final ChannelListener<T> listener;
+    private final Host self;
+    private final int portOffset;
+    private final int bufferSize;
+    private final long nackInterval;
+    // Distinguishes the numbering of this run of the process from the one of a previous run
+    private final long incarnation;
+
+    private final DatagramSocket socket;
+    private final ScheduledExecutorService timers;
+    private final Topology topology;
+    private final Random random;
+
+    private final Map<Host, Outgoing> outgoing;
+    private final Map<Host, Incoming> incoming;
+
+    private final LongAdder retransmitted, nacked, lost;
+
+
+    public ReliableDatagramChannel(ISerializer<T> serializer, ChannelListener<T> listener, Properties props) throws IOException {
+        this.serializer = serializer;
+        this.listener = listener;
+        this.self = new Host(InetAddress.getByName(props.getProperty(TCPChannel.ADDRESS_KEY)),
+                Integer.parseInt(props.getProperty(TCPChannel.PORT_KEY)));
+        this.portOffset = Integer.parseInt(props.getProperty(PORT_OFFSET, "1000"));
+        this.bufferSize = Integer.parseInt(props.getProperty(BUFFER, "8192"));
+        this.nackInterval = Long.parseLong(props.getProperty(NACK_INTERVAL, "20")); //in milliseconds
+        this.incarnation = new Random().nextLong();
+
+        this.topology = props.containsKey(EmulatedTCPChannel.TOPOLOGY) ? Topology.load(props.getProperty(EmulatedTCPChannel.TOPOLOGY)) : null;
+        this.random = new Random();
+        this.outgoing = new HashMap<>();
+        this.incoming = new HashMap<>();
+
+        this.retransmitted = Metrics.counter("datagram.retransmitted");
+        this.nacked = Metrics.counter("datagram.nacked");
+        this.lost = Metrics.counter("datagram.lost");
+
+        this.socket = new DatagramSocket(new InetSocketAddress(self.getAddress(), self.getPort() + portOffset));
+        this.socket.setReceiveBufferSize(4 * 1024 * 1024);
+        this.timers = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "datagram-timers");
+            t.setDaemon(true);
+            return t;
+        });
+        timers.scheduleAtFixedRate(this::repair, nackInterval, nackInterval, TimeUnit.MILLISECONDS);
+
+        Thread receiver = new Thread(this::receive, "datagram-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        logger.info("Datagram channel of {} listening on port {}", self, self.getPort() + portOffset);
+    }
+
+    public static void register() {
+        Babel.getInstance().registerChannelInitializer(NAME,
+                (serializer, listener, props, protoId) -> new ReliableDatagramChannel<>(serializer, listener, props));
+    }
+
+    public interface ChannelCreator {
+        int create(String name, Properties props) throws IOException;
+    }
+
+    /*
+     * Channel a broadcast layer sends its payloads on, given its createChannel and registerSharedChannel: a datagram
+     * channel when network.datagram is set, membership and handshakes staying on the TCP channel of the membership,
+     * or else (or if the datagram channel can not be opened) that TCP channel itself.
+     */
+    public static int open(Host self, Properties props, int tcpChannel, ChannelCreator create, IntConsumer share) {
+        Properties datagramProps = channelProperties(self, props);
+        if (datagramProps != null) {
+            try {
+                return create.create(NAME, datagramProps);
+            } catch (IOException e) {
+                logger.error("Could not open the datagram channel of {}, broadcasting over TCP", self, e);
+            }
+        }
+        share.accept(tcpChannel);
+        return tcpChannel;
+    }
+
+    // Properties of the datagram channel of the replica whose membership runs on self, null unless network.datagram is set
+    private static Properties channelProperties(Host self, Properties props) {
+        if (!Boolean.parseBoolean(props.getProperty(ENABLED, "false")))
+            return null;
+
+        Properties channelProps = new Properties();
+        channelProps.put(TCPChannel.ADDRESS_KEY, self.getAddress().toString().replace("/", ""));
+        channelProps.put(TCPChannel.PORT_KEY, self.getPort() + "");
+        for (String key : new String[]{PORT_OFFSET, BUFFER, NACK_INTERVAL, EmulatedTCPChannel.TOPOLOGY})
+            if (props.containsKey(key))
+                channelProps.put(key, props.getProperty(key));
+        return channelProps;
+    }
+
+    @Override
+    public void sendMessage(T msg, Host peer, int connection) {
+        ByteBuf buf = Unpooled.buffer();
+        byte[] payload;
+        try {
+            serializer.serialize(msg, buf);
+            payload = new byte[buf.readableBytes()];
+            buf.readBytes(payload);
+        } catch (IOException e) {
+            listener.messageFailed(msg, peer, e);
+            return;
+        } finally {
+            buf.release();
+        }
+        if (payload.length > MAX_DATAGRAM) {
+            listener.messageFailed(msg, peer, new IOException("Message of " + payload.length + " bytes does not fit a datagram"));
+            return;
+        }
+
+        byte[] datagram;
+        synchronized (this) {
+            Outgoing out = outgoing.computeIfAbsent(peer, p -> new Outgoing());
+            long seq = ++out.last;
+            datagram = bytes(header(DATA, 8 + payload.length).writeLong(seq).writeBytes(payload));
+            out.buffer.put(seq, datagram);
+            if (out.buffer.size() > bufferSize)
+                out.buffer.remove(out.buffer.keySet().iterator().next());
+            out.syncsLeft = SYNC_REPEATS;
+        }
+        transmit(datagram, peer);
+        listener.messageSent(msg, peer);
+    }
+
+    // Connectionless, peers are reachable as soon as they listen
+    @Override
+    public void openConnection(Host peer) {
+    }
+
+    @Override
+    public void closeConnection(Host peer, int connection) {
+    }
+
+
+    /* ------------------------------------- Receiving ------------------------------------- */
+
+    private void receive() {
+        byte[] buf = new byte[MAX_DATAGRAM + 512];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buf, buf.length);
+            try {
+                socket.receive(packet);
+                ByteBuf in = Unpooled.wrappedBuffer(packet.getData(), 0, packet.getLength());
+                byte type = in.readByte();
+                Host from = Host.serializer.deserialize(in);
+                // Peers send from the datagram port of their membership host, anything else is forged
+                if (!packet.getAddress().equals(from.getAddress()) || packet.getPort() != from.getPort() + portOffset) {
+                    logger.warn("Dropped a datagram from {} claiming to come from {}", packet.getSocketAddress(), from);
+                    continue;
+                }
+                long fromIncarnation = in.readLong();
+                switch (type) {
+                    case DATA:
+                        onData(from, fromIncarnation, in.readLong(), in);
+                        break;
+                    case NACK:
+                        onNack(from, readSeqs(in));
+                        break;
+                    case SYNC:
+                        onSync(from, fromIncarnation, in.readLong());
+                        break;
+                    case SKIP:
+                        onSkip(from, fromIncarnation, readSeqs(in));
+                        break;
+                    default:
+                        logger.warn("Unknown datagram of type {} from {}", type, from);
+                }
+            } catch (SocketException e) {
+                if (!socket.isClosed())
+                    logger.error("Datagram socket of {} failed", self, e);
+            } catch (Exception e) {
+                logger.error("Could not process a datagram from {}", packet.getSocketAddress(), e);
+            }
+        }
+    }
+
+    private void onData(Host from, long fromIncarnation, long seq, ByteBuf payload) throws IOException {
+        synchronized (this) {
+            Incoming in = incomingOf(from, fromIncarnation);
+            if (!in.plausible(seq, from) || !in.receive(seq))
+                return;
+            Long since = in.missing.remove(seq);
+            if (since != null) {
+                retransmitted.increment();
+                LatencyHistograms.record("datagram.repair", since);
+            }
+            if (seq > in.highest + 1)
+                in.gap(seq - 1);
+            in.highest = Math.max(in.highest, seq);
+        }
+        listener.deliverMessage(serializer.deserialize(payload), from);
+    }
+
+    private void onSync(Host from, long fromIncarnation, long last) {
+        synchronized (this) {
+            Incoming in = incomingOf(from, fromIncarnation);
+            if (last > in.highest && in.plausible(last, from)) {
+                in.gap(last);
+                in.highest = last;
+            }
+        }
+    }
+
+    private void onSkip(Host from, long fromIncarnation, List<Long> seqs) {
+        synchronized (this) {
+            Incoming in = incoming.get(from);
+            if (in == null || in.incarnation != fromIncarnation)
+                return;
+            for (long seq : seqs)
+                if (in.missing.remove(seq) != null) {
+                    in.receive(seq);
+                    lost.increment();
+                }
+        }
+    }
+
+    private void onNack(Host from, List<Long> seqs) {
+        List<byte[]> resend = new ArrayList<>();
+        List<Long> gone = new ArrayList<>();
+        synchronized (this) {
+            Outgoing out = outgoing.get(from);
+            for (long seq : seqs) {
+                byte[] datagram = out == null ? null : out.buffer.get(seq);
+                if (datagram != null)
+                    resend.add(datagram);
+                else gone.add(seq);
+            }
+        }
+        for (byte[] datagram : resend)
+            transmit(datagram, from);
+        if (!gone.isEmpty())
+            transmit(seqs(SKIP, gone), from);
+    }
+
+    // State of the numbering of a peer, started over when the peer restarts (a new incarnation)
+    private Incoming incomingOf(Host from, long fromIncarnation) {
+        Incoming in = incoming.get(from);
+        if (in == null || in.incarnation != fromIncarnation) {
+            in = new Incoming(fromIncarnation);
+            incoming.put(from, in);
+        }
+        return in;
+    }
+
+
+    /* ------------------------------------- Repair ------------------------------------- */
+
+    // NACKs the gaps not repaired since the last NACK, and announces the last number sent to each peer that got new ones
+    // in the last SYNC_REPEATS intervals
+    private void repair() {
+        Map<Host, byte[]> nacks = new HashMap<>();
+        Map<Host, byte[]> syncs = new HashMap<>();
+        synchronized (this) {
+            long now = System.nanoTime();
+            long interval = TimeUnit.MILLISECONDS.toNanos(nackInterval);
+            for (Map.Entry<Host, Incoming> e : incoming.entrySet()) {
+                List<Long> due = new ArrayList<>();
+                for (Map.Entry<Long, Long> m : e.getValue().missing.entrySet()) {
+                    if (due.size() == MAX_NACKS)
+                        break;
+                    Long last = e.getValue().nackedAt.get(m.getKey());
+                    if (last == null || now - last >= interval) {
+                        e.getValue().nackedAt.put(m.getKey(), now);
+                        due.add(m.getKey());
+                    }
+                }
+                if (!due.isEmpty())
+                    nacks.put(e.getKey(), seqs(NACK, due));
+            }
+            for (Map.Entry<Host, Outgoing> e : outgoing.entrySet()) {
+                if (e.getValue().syncsLeft == 0)
+                    continue;
+                e.getValue().syncsLeft--;
+                syncs.put(e.getKey(), bytes(header(SYNC, 8).writeLong(e.getValue().last)));
+            }
+        }
+        nacks.forEach((peer, datagram) -> {
+            nacked.increment();
+            transmit(datagram, peer);
+        });
+        syncs.forEach((peer, datagram) -> transmit(datagram, peer));
+    }
+
+
+    /* ------------------------------------- Wire ------------------------------------- */
+
+    private void transmit(byte[] datagram, Host peer) {
+        Topology.Link link = topology == null ? null : topology.linkOf(self, peer);
+        if (link == null) {
+            send(datagram, peer);
+            return;
+        }
+
+        long delay;
+        synchronized (random) {
+            if (link.loss > 0 && random.nextDouble() < link.loss)
+                return;
+            delay = link.latency.sample(random);
+            if (link.jitter > 0)
+                delay += (long) ((random.nextDouble() * 2 - 1) * link.jitter);
+            if (link.bytesPerNano > 0)
+                delay += (long) (datagram.length / link.bytesPerNano);
+        }
+        timers.schedule(() -> send(datagram, peer), Math.max(0, delay), TimeUnit.NANOSECONDS);
+    }
+
+    private void send(byte[] datagram, Host peer) {
+        try {
+            socket.send(new DatagramPacket(datagram, datagram.length, peer.getAddress(), peer.getPort() + portOffset));
+        } catch (IOException e) {
+            logger.debug("Could not send a datagram to {}: {}", peer, e.getMessage());
+        }
+    }
+
+    private ByteBuf header(byte type, int body) {
+        ByteBuf buf = Unpooled.buffer(1 + 6 + 8 + body);
+        buf.writeByte(type);
+        try {
+            Host.serializer.serialize(self, buf);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return buf.writeLong(incarnation);
+    }
+
+    private byte[] seqs(byte type, List<Long> seqs) {
+        ByteBuf buf = header(type, 4 + 8 * seqs.size()).writeInt(seqs.size());
+        for (long seq : seqs)
+            buf.writeLong(seq);
+        return bytes(buf);
+    }
+
+    private static byte[] bytes(ByteBuf buf) {
+        byte[] datagram = new byte[buf.readableBytes()];
+        buf.readBytes(datagram);
+        return datagram;
+    }
+
+    private static List<Long> readSeqs(ByteBuf in) {
+        int n = in.readInt();
+        if (n < 0 || n > in.readableBytes() / 8)
+            throw new IllegalArgumentException("List of " + n + " numbers in " + in.readableBytes() + " bytes");
+        List<Long> seqs = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            seqs.add(in.readLong());
+        return seqs;
+    }
+
+
+    private static class Outgoing {
+        private long last;
+        // Sent datagrams by number, oldest first
+        private final LinkedHashMap<Long, byte[]> buffer = new LinkedHashMap<>();
+        // Announcements left since the last datagram sent
+        private int syncsLeft;
+    }
+
+    private class Incoming {
+        private final long incarnation;
+        // Every number up to contiguous was received, and the ones in above after it
+        private long contiguous;
+        private final TreeSet<Long> above = new TreeSet<>();
+        private long highest;
+        // Numbers not received yet, with the time their gap was noticed and the time of their last NACK
+        private final TreeMap<Long, Long> missing = new TreeMap<>();
+        private final Map<Long, Long> nackedAt = new HashMap<>();
+
+        Incoming(long incarnation) {
+            this.incarnation = incarnation;
+        }
+
+        // False for a duplicate
+        boolean receive(long seq) {
+            if (seq <= contiguous || !above.add(seq))
+                return false;
+            nackedAt.remove(seq);
+            while (above.remove(contiguous + 1))
+                contiguous++;
+            return true;
+        }
+
+        boolean plausible(long seq, Host from) {
+            if (seq - highest <= MAX_JUMP)
+                return true;
+            logger.warn("Dropped datagram number {} from {}, the last one was {}", seq, from, highest);
+            return false;
+        }
+
+        // Every number after highest up to last is missing, except the ones too old to be in the buffer of the sender
+        void gap(long last) {
+            long now = System.nanoTime();
+            long first = Math.max(highest + 1, last - bufferSize + 1);
+            if (first > highest + 1) {
+                // Out of the buffer of the sender, so are the older gaps: all of them are lost for good
+                SortedMap<Long, Long> gone = missing.headMap(first);
+                lost.add(first - highest - 1 + gone.size());
+                gone.keySet().forEach(nackedAt::remove);
+                gone.clear();
+                above.headSet(first).clear();
+                contiguous = first - 1;
+                highest = first - 1;
+            }
+            for (long seq = first; seq <= last; seq++)
+                if (seq > contiguous && !above.contains(seq))
+                    missing.put(seq, now);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package utils.network;
+
+import pt.unl.fct.di.novasys.network.data.Host;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Links of an emulated network, one per line of the topology file:
+ *   <from> <to> [latency=<distribution>] [jitter=<ms>] [bandwidth=<Mbit/s>] [loss=<probability>] [reconnect=<ms>]
+ * Endpoints are <address>:<port> or * for any host, and each line describes a single direction. When several lines
+ * match a link the last one wins, so defaults go first. Blank lines and lines starting with # are ignored.
+ */
+public class Topology {
+
+    public static class Link {
+        public final LatencyDistribution latency;
+        // Nanoseconds added to or subtracted from each latency sample, uniformly
+        public final long jitter;
+        // 0 for unlimited
+        public final double bytesPerNano;
+        // Probability of each message being lost, which resets the connection
+        public final double loss;
+        // Milliseconds until the connection is reopened after a loss
+        public final long reconnect;
+
+        Link(LatencyDistribution latency, long jitter, double bytesPerNano, double loss, long reconnect) {
+            this.latency = latency;
+            this.jitter = jitter;
+            this.bytesPerNano = bytesPerNano;
+            this.loss = loss;
+            this.reconnect = reconnect;
+        }
+    }
+
+    private final List<Rule> rules;
+
+
+    private Topology(List<Rule> rules) {
+        this.rules = rules;
+    }
+
+    public static Topology load(String path) throws IOException {
+        List<Rule> rules = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(path))) {
+            String line;
+            int number = 0;
+            while ((line = in.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                try {
+                    rules.add(Rule.parse(line.split("\\s+")));
+                } catch (RuntimeException e) {
+                    throw new IOException("Invalid link at " + path + ":" + number + ": " + line, e);
+                }
+            }
+        }
+        return new Topology(rules);
+    }
+
+    // The emulated link from one host to another, null if the topology leaves it untouched
+    public Link linkOf(Host from, Host to) {
+        Link link = null;
+        for (Rule rule : rules)
+            if (rule.from.matches(from) && rule.to.matches(to))
+                link = rule.link;
+        return link;
+    }
+
+
+    private static class Rule {
+        private final Endpoint from, to;
+        private final Link link;
+
+        Rule(Endpoint from, Endpoint to, Link link) {
+            this.from = from;
+            this.to = to;
+            this.link = link;
+        }
+
+        static Rule parse(String[] fields) throws IOException {
+            LatencyDistribution latency = null;
+            long jitter = 0, reconnect = 1000;
+            double bytesPerNano = 0, loss = 0;
+            for (int i = 2; i < fields.length; i++) {
+                String[] kv = fields[i].split("=", 2);
+                switch (kv[0]) {
+                    case "latency":
+                        latency = LatencyDistribution.parse(kv[1]);
+                        break;
+                    case "jitter":
+                        jitter = (long) (Double.parseDouble(kv[1]) * 1_000_000);
+                        break;
+                    case "bandwidth":
+                        bytesPerNano = Double.parseDouble(kv[1]) * 1_000_000 / 8 / 1e9;
+                        break;
+                    case "loss":
+                        loss = Double.parseDouble(kv[1]);
+                        break;
+                    case "reconnect":
+                        reconnect = Long.parseLong(kv[1]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown link attribute: " + kv[0]);
+                }
+            }
+            if (latency == null)
+                latency = r -> 0;
+            return new Rule(Endpoint.parse(fields[0]), Endpoint.parse(fields[1]),
+                    new Link(latency, jitter, bytesPerNano, loss, reconnect));
+        }
+    }
+
+    private static class Endpoint {
+        // null for any host
+        private final InetAddress address;
+        private final int port;
+
+        Endpoint(InetAddress address, int port) {
+            this.address = address;
+            this.port = port;
+        }
+
+        boolean matches(Host host) {
+            return address == null || (address.equals(host.getAddress()) && port == host.getPort());
+        }
+
+        static Endpoint parse(String spec) throws IOException {
+            if (spec.equals("*"))
+                return new Endpoint(null, 0);
+            String[] p = spec.split(":");
+            return new Endpoint(InetAddress.getByName(p[0]), Integer.parseInt(p[1]));
+        }
+    }
+}
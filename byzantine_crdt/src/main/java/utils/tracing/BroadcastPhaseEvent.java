@@ -0,0 +1,32 @@
+package utils.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("dare.BroadcastPhase")
+@Label("Broadcast Phase")
+@Category({"DARE", "Broadcast"})
+@Description("A broadcast instance reached one of its phases on this replica")
+@StackTrace(false)
+public class BroadcastPhaseEvent extends jdk.jfr.Event {
+
+    @Label("Message ID")
+    public String messageId;
+
+    @Label("Origin")
+    public String origin;
+
+    @Label("Replica")
+    public String replica;
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Since First Seen")
+    @Timespan(Timespan.NANOSECONDS)
+    public long sinceFirstSeen;
+}
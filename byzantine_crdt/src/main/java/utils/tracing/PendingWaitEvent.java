@@ -0,0 +1,26 @@
+package utils.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+@Name("dare.PendingWait")
+@Label("Pending Wait")
+@Category({"DARE", "Broadcast"})
+@Description("A message left the pending buffer once its causal dependencies were delivered")
+@StackTrace(false)
+public class PendingWaitEvent extends jdk.jfr.Event {
+
+    @Label("Message ID")
+    public String messageId;
+
+    @Label("Origin")
+    public String origin;
+
+    @Label("Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    public long wait;
+}
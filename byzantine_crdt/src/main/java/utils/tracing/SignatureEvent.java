@@ -0,0 +1,22 @@
+package utils.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("dare.Signature")
+@Label("Signature")
+@Category({"DARE", "Crypto"})
+@StackTrace(false)
+public class SignatureEvent extends jdk.jfr.Event {
+
+    @Label("Message ID")
+    public String messageId;
+
+    @Label("Message Type")
+    public String messageType;
+
+    @Label("Operation")
+    public String operation;
+}
@@ -0,0 +1,110 @@
+package utils.tracing;
+
+import jdk.jfr.Recording;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.UUID;
+
+/*
+ * Flight Recorder events for broadcast instances, keyed by messageID so the recordings of every replica can be joined.
+ * When tracing is disabled no event is ever allocated; when enabled, a continuous recording of the last
+ * jfr.max_age seconds is kept and written to jfr.file at exit.
+ */
+public class Tracing {
+    private static final Logger logger = LogManager.getLogger(Tracing.class);
+
+    public static final String ENABLED = "jfr.enabled";
+    public static final String FILE = "jfr.file";
+    public static final String MAX_AGE = "jfr.max_age";
+
+    public static final String SEND = "send";
+    public static final String FIRST_ECHO = "first_echo";
+    public static final String ECHO_THRESHOLD = "echo_threshold";
+    public static final String READY_SENT = "ready_sent";
+    public static final String READY_THRESHOLD = "ready_threshold";
+    public static final String DELIVERED = "delivered";
+
+    private static volatile boolean enabled = false;
+    private static String replica = null;
+    private static Recording recording = null;
+
+
+    public static synchronized void start(Properties props, String self) throws IOException {
+        if (!Boolean.parseBoolean(props.getProperty(ENABLED, "false")) || recording != null)
+            return;
+
+        replica = self;
+        Path file = Paths.get(props.getProperty(FILE, "metrics/trace-" + self.replace(':', '_') + ".jfr"));
+        if (file.getParent() != null)
+            file.getParent().toFile().mkdirs();
+
+        recording = new Recording();
+        recording.setName("dare");
+        recording.enable(BroadcastPhaseEvent.class);
+        recording.enable(SignatureEvent.class).withThreshold(Duration.ZERO);
+        recording.enable(PendingWaitEvent.class);
+        recording.setToDisk(true);
+        recording.setMaxAge(Duration.ofSeconds(Long.parseLong(props.getProperty(MAX_AGE, "600"))));
+        recording.setDestination(file);
+        recording.start();
+        enabled = true;
+
+        // Stopping a recording with a destination writes it out
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            recording.stop();
+            logger.info("Flight recording written to {}", file);
+        }));
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void phase(UUID mid, Object origin, String phase, long firstSeen) {
+        if (!enabled)
+            return;
+
+        BroadcastPhaseEvent event = new BroadcastPhaseEvent();
+        event.messageId = mid.toString();
+        event.origin = origin == null ? null : origin.toString();
+        event.replica = replica;
+        event.phase = phase;
+        event.sinceFirstSeen = System.nanoTime() - firstSeen;
+        event.commit();
+    }
+
+    public static void pendingWait(UUID mid, Object origin, long since) {
+        if (!enabled)
+            return;
+
+        PendingWaitEvent event = new PendingWaitEvent();
+        event.messageId = mid.toString();
+        event.origin = origin == null ? null : origin.toString();
+        event.wait = System.nanoTime() - since;
+        event.commit();
+    }
+
+    // Returns null when tracing is disabled, end() accepts it
+    public static SignatureEvent beginSignature(String operation, String messageType, UUID mid) {
+        if (!enabled)
+            return null;
+
+        SignatureEvent event = new SignatureEvent();
+        event.operation = operation;
+        event.messageType = messageType;
+        event.messageId = mid == null ? null : mid.toString();
+        event.begin();
+        return event;
+    }
+
+    public static void end(SignatureEvent event) {
+        if (event != null)
+            event.commit();
+    }
+}